@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * Bio-Formats benchmarks
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.IFormatWriter;
+import loci.formats.MetadataTools;
+import loci.formats.in.FakeReader;
+import loci.formats.meta.IMetadata;
+import loci.formats.out.OMETiffWriter;
+import loci.formats.out.TiffWriter;
+
+/**
+ * Deterministic generation of benchmark input files.
+ *
+ * All pixel data comes from {@link FakeReader}, whose output depends only
+ * on the fake file name, so that the same inputs are produced on every
+ * run and results are comparable across commits.
+ */
+public final class BenchmarkFiles {
+
+  // -- Constants --
+
+  /** Width and height of generated planes. */
+  public static final int PLANE_SIZE = 2048;
+
+  /** Width and height of tiles in tiled files. */
+  public static final int TILE_SIZE = 256;
+
+  // -- Constructor --
+
+  private BenchmarkFiles() { }
+
+  // -- Utility methods --
+
+  /**
+   * Return a fake file name describing a single series of uint8 planes of
+   * {@link #PLANE_SIZE} x {@link #PLANE_SIZE} pixels.
+   */
+  public static String fakeId(int sizeC, int sizeZ) {
+    return "benchmark&pixelType=uint8&sizeX=" + PLANE_SIZE +
+      "&sizeY=" + PLANE_SIZE + "&sizeC=" + sizeC + "&sizeZ=" + sizeZ +
+      ".fake";
+  }
+
+  /** Create an empty temporary directory for benchmark inputs. */
+  public static File createDirectory() throws IOException {
+    return Files.createTempDirectory("bioformats-benchmark").toFile();
+  }
+
+  /** Recursively delete the given file or directory. */
+  public static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Return the pixels of the first plane of the given fake file name.
+   */
+  public static byte[] readPlane(String fakeId)
+    throws FormatException, IOException
+  {
+    IFormatReader reader = new FakeReader();
+    try {
+      reader.setId(fakeId);
+      return reader.openBytes(0);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Write a single plane TIFF file.
+   *
+   * @param compression one of the TiffWriter COMPRESSION_* values
+   * @param tiled whether to write {@link #TILE_SIZE} tiles instead of strips
+   */
+  public static File writeTiff(File directory, String compression,
+    boolean tiled) throws FormatException, IOException
+  {
+    String name = compression.replaceAll("\\W", "") +
+      (tiled ? "-tiled" : "-stripped") + ".tif";
+    File file = new File(directory, name);
+    write(fakeId(1, 1), new TiffWriter(), file, compression, tiled);
+    return file;
+  }
+
+  /** Write an uncompressed OME-TIFF file with the given number of planes. */
+  public static File writeOMETiff(File directory, int sizeZ)
+    throws FormatException, IOException
+  {
+    File file = new File(directory, "benchmark-" + sizeZ + ".ome.tif");
+    write(fakeId(1, sizeZ), new OMETiffWriter(), file,
+      TiffWriter.COMPRESSION_UNCOMPRESSED, false);
+    return file;
+  }
+
+  /** Create an empty fake file, as used by {@link FakeReader}. */
+  public static File writeFake(File directory, String fakeId)
+    throws IOException
+  {
+    File file = new File(directory, fakeId);
+    file.createNewFile();
+    return file;
+  }
+
+  // -- Helper methods --
+
+  private static void write(String fakeId, IFormatWriter writer, File file,
+    String compression, boolean tiled) throws FormatException, IOException
+  {
+    IFormatReader reader = new FakeReader();
+    IMetadata meta = MetadataTools.createOMEXMLMetadata();
+    reader.setMetadataStore(meta);
+    try {
+      reader.setId(fakeId);
+      writer.setMetadataRetrieve(meta);
+      writer.setCompression(compression);
+      if (tiled) {
+        writer.setTileSizeX(TILE_SIZE);
+        writer.setTileSizeY(TILE_SIZE);
+      }
+      writer.setId(file.getAbsolutePath());
+      for (int i=0; i<reader.getImageCount(); i++) {
+        writer.saveBytes(i, reader.openBytes(i));
+      }
+    }
+    finally {
+      writer.close();
+      reader.close();
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * Bio-Formats benchmarks
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.ChannelKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Channel layout conversion of a {@link BenchmarkFiles#PLANE_SIZE} square
+ * plane with {@link ChannelKernels}, against the per-sample loops that
+ * ImageTools and ChannelFiller used before the kernels were added.  The
+ * "loop" benchmarks are the baseline for the matching "kernel" ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ChannelKernelsBenchmark {
+
+  /** Seed for the pixel data, fixed so that all runs use the same input. */
+  private static final long SEED = 0x5eed;
+
+  @Param({"1", "2", "4"})
+  public int bytes;
+
+  @Param({"3", "4"})
+  public int channels;
+
+  private int pixels;
+  private byte[] interleaved;
+  private byte[] planar;
+  private byte[] channel;
+  private byte[] indices;
+  private byte[][] lut;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(SEED);
+    pixels = BenchmarkFiles.PLANE_SIZE * BenchmarkFiles.PLANE_SIZE;
+    interleaved = new byte[pixels * channels * bytes];
+    random.nextBytes(interleaved);
+    planar = new byte[interleaved.length];
+    channel = new byte[pixels * bytes];
+    indices = new byte[pixels];
+    random.nextBytes(indices);
+    lut = new byte[channels][256];
+    for (byte[] table : lut) {
+      random.nextBytes(table);
+    }
+  }
+
+  @Benchmark
+  public void extractChannelLoop(Blackhole blackhole) {
+    for (int c=0; c<channels; c++) {
+      // the loop formerly used by ImageTools.splitChannels
+      int next = 0;
+      for (int i=0; i<interleaved.length; i+=channels*bytes) {
+        for (int k=0; k<bytes; k++) {
+          if (next < channel.length) {
+            channel[next] = interleaved[i + c*bytes + k];
+          }
+          next++;
+        }
+      }
+      blackhole.consume(channel);
+    }
+  }
+
+  @Benchmark
+  public void extractChannelKernel(Blackhole blackhole) {
+    for (int c=0; c<channels; c++) {
+      ChannelKernels.extractChannel(interleaved, channel, c, channels, bytes,
+        pixels);
+      blackhole.consume(channel);
+    }
+  }
+
+  @Benchmark
+  public byte[] interleavedToPlanarLoop() {
+    for (int i=0; i<pixels; i++) {
+      for (int c=0; c<channels; c++) {
+        for (int k=0; k<bytes; k++) {
+          planar[(c * pixels + i) * bytes + k] =
+            interleaved[(i * channels + c) * bytes + k];
+        }
+      }
+    }
+    return planar;
+  }
+
+  @Benchmark
+  public byte[] interleavedToPlanarKernel() {
+    ChannelKernels.interleavedToPlanar(interleaved, planar, channels, bytes,
+      pixels);
+    return planar;
+  }
+
+  @Benchmark
+  public byte[] interleavedToPlanarParallel() {
+    ChannelKernels.interleavedToPlanar(interleaved, planar, channels, bytes,
+      pixels, true);
+    return planar;
+  }
+
+  @Benchmark
+  public byte[] planarToInterleavedKernel() {
+    ChannelKernels.planarToInterleaved(planar, interleaved, channels, bytes,
+      pixels);
+    return interleaved;
+  }
+
+  @Benchmark
+  public byte[] applyLookupTableLoop() {
+    // the steps formerly used by ChannelFiller for interleaved 8-bit data
+    byte[][] rgb = new byte[lut.length][indices.length];
+    for (int i=0; i<indices.length; i++) {
+      for (int j=0; j<lut.length; j++) {
+        rgb[j][i] = lut[j][indices[i] & 0xff];
+      }
+    }
+    int pt = 0;
+    for (int i=0; i<rgb[0].length; i++) {
+      for (int j=0; j<rgb.length; j++) {
+        interleaved[pt++] = rgb[j][i];
+      }
+    }
+    return interleaved;
+  }
+
+  @Benchmark
+  public byte[] applyLookupTableKernel() {
+    ChannelKernels.applyLookupTable(indices, lut, interleaved, true);
+    return interleaved;
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * Bio-Formats benchmarks
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.out.TiffWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Format detection with {@link ImageReader#getReader(String)}.
+ *
+ * Two files of the same format are queried alternately, since
+ * {@link ImageReader} skips detection when the file name is unchanged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ImageReaderBenchmark {
+
+  @Param({"tiff", "ome-tiff", "fake"})
+  public String format;
+
+  private File directory;
+  private String[] ids = new String[2];
+  private ImageReader reader;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    directory = BenchmarkFiles.createDirectory();
+    for (int i=0; i<ids.length; i++) {
+      File subdirectory = new File(directory, String.valueOf(i));
+      subdirectory.mkdir();
+      File file;
+      if (format.equals("tiff")) {
+        file = BenchmarkFiles.writeTiff(subdirectory,
+          TiffWriter.COMPRESSION_UNCOMPRESSED, false);
+      }
+      else if (format.equals("ome-tiff")) {
+        file = BenchmarkFiles.writeOMETiff(subdirectory, 1);
+      }
+      else {
+        file = BenchmarkFiles.writeFake(subdirectory,
+          BenchmarkFiles.fakeId(1, 1));
+      }
+      ids[i] = file.getAbsolutePath();
+    }
+    reader = new ImageReader();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    reader.close();
+    BenchmarkFiles.delete(directory);
+  }
+
+  @Benchmark
+  public IFormatReader getReader() throws Exception {
+    next = 1 - next;
+    return reader.getReader(ids[next]);
+  }
+
+}
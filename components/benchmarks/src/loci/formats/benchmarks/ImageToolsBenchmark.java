@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * Bio-Formats benchmarks
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.ImageTools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Extraction of every channel of a {@link BenchmarkFiles#PLANE_SIZE}
+ * square RGB plane with {@link ImageTools#splitChannels}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ImageToolsBenchmark {
+
+  private static final int CHANNELS = 3;
+
+  /** Seed for the pixel data, fixed so that all runs use the same input. */
+  private static final long SEED = 0x5eed;
+
+  @Param({"1", "2"})
+  public int bytes;
+
+  @Param({"true", "false"})
+  public boolean interleaved;
+
+  private byte[] plane;
+  private byte[] channel;
+
+  @Setup
+  public void setup() {
+    int channelLength =
+      BenchmarkFiles.PLANE_SIZE * BenchmarkFiles.PLANE_SIZE * bytes;
+    plane = new byte[channelLength * CHANNELS];
+    new Random(SEED).nextBytes(plane);
+    channel = new byte[channelLength];
+  }
+
+  @Benchmark
+  public void splitChannels(Blackhole blackhole) {
+    for (int c=0; c<CHANNELS; c++) {
+      blackhole.consume(ImageTools.splitChannels(plane, channel, c, CHANNELS,
+        bytes, false, interleaved, channel.length));
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Bio-Formats benchmarks
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.ImageReader;
+import loci.formats.Memoizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Initialization of an OME-TIFF file with and without {@link Memoizer}:
+ * a plain {@link ImageReader#setId}, a {@link Memoizer#setId} which saves
+ * a new memo file and one which loads an existing memo file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class MemoizerBenchmark {
+
+  @Param({"10", "500"})
+  public int planes;
+
+  private File directory;
+  private File cacheDirectory;
+  private String id;
+  private File memoFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    directory = BenchmarkFiles.createDirectory();
+    cacheDirectory = new File(directory, "memo");
+    cacheDirectory.mkdir();
+    id = BenchmarkFiles.writeOMETiff(directory, planes).getAbsolutePath();
+    memoFile = new Memoizer(0, cacheDirectory).getMemoFile(id);
+
+    // create the memo file used by loadMemo
+    Memoizer memoizer = new Memoizer(0, cacheDirectory);
+    memoizer.setId(id);
+    memoizer.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    BenchmarkFiles.delete(directory);
+  }
+
+  /** State deleting the memo file before each invocation. */
+  @State(Scope.Thread)
+  public static class NoMemo {
+    @Setup(Level.Invocation)
+    public void deleteMemo(MemoizerBenchmark benchmark) {
+      benchmark.memoFile.delete();
+    }
+  }
+
+  @Benchmark
+  public int setId() throws Exception {
+    ImageReader reader = new ImageReader();
+    try {
+      reader.setId(id);
+      return reader.getImageCount();
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Benchmark
+  public boolean saveMemo(NoMemo noMemo) throws Exception {
+    Memoizer memoizer = new Memoizer(0, cacheDirectory);
+    try {
+      memoizer.setId(id);
+      return memoizer.isSavedToMemo();
+    }
+    finally {
+      memoizer.close();
+    }
+  }
+
+  @Benchmark
+  public boolean loadMemo() throws Exception {
+    Memoizer memoizer = new Memoizer(0, cacheDirectory);
+    try {
+      memoizer.setId(id);
+      return memoizer.isLoadedFromMemo();
+    }
+    finally {
+      memoizer.close();
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * Bio-Formats benchmarks
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.MinMaxCalculator;
+import loci.formats.in.FakeReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Plane reads through {@link MinMaxCalculator}, compared with reads from
+ * the same {@link FakeReader} without min/max computation.
+ *
+ * Regions one row smaller than the plane are read, since
+ * {@link MinMaxCalculator} skips whole planes whose min/max values are
+ * already known.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class MinMaxCalculatorBenchmark {
+
+  @Param({"uint8", "uint16", "float"})
+  public String pixelType;
+
+  private IFormatReader reader;
+  private MinMaxCalculator minMax;
+  private byte[] buf;
+  private int width, height;
+
+  @Setup
+  public void setup() throws Exception {
+    String id = "benchmark&pixelType=" + pixelType +
+      "&sizeX=" + BenchmarkFiles.PLANE_SIZE +
+      "&sizeY=" + BenchmarkFiles.PLANE_SIZE + ".fake";
+    reader = new FakeReader();
+    reader.setId(id);
+    minMax = new MinMaxCalculator(new FakeReader());
+    minMax.setId(id);
+    width = reader.getSizeX();
+    height = reader.getSizeY() - 1;
+    buf = new byte[width * height * reader.getRGBChannelCount() *
+      FormatTools.getBytesPerPixel(reader.getPixelType())];
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    reader.close();
+    minMax.close();
+  }
+
+  @Benchmark
+  public byte[] openBytes() throws Exception {
+    return reader.openBytes(0, buf, 0, 0, width, height);
+  }
+
+  @Benchmark
+  public byte[] openBytesMinMax() throws Exception {
+    return minMax.openBytes(0, buf, 0, 0, width, height);
+  }
+
+}
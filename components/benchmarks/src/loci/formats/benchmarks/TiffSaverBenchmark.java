@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * Bio-Formats benchmarks
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import loci.common.ByteArrayHandle;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffSaver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of a whole {@link BenchmarkFiles#PLANE_SIZE} square uint8 plane
+ * into an in-memory TIFF with {@link TiffSaver#writeImage}, for stripped
+ * and tiled layouts and several compressions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class TiffSaverBenchmark {
+
+  @Param({"UNCOMPRESSED", "LZW", "DEFLATE", "JPEG"})
+  public String compression;
+
+  @Param({"stripped", "tiled"})
+  public String layout;
+
+  private byte[] plane;
+
+  @Setup
+  public void setup() throws Exception {
+    plane = BenchmarkFiles.readPlane(BenchmarkFiles.fakeId(1, 1));
+  }
+
+  @Benchmark
+  public long writeImage() throws Exception {
+    ByteArrayHandle handle = new ByteArrayHandle();
+    RandomAccessOutputStream out = new RandomAccessOutputStream(handle);
+    try {
+      TiffSaver saver = new TiffSaver(out, "benchmark.tif");
+      saver.writeHeader();
+
+      IFD ifd = new IFD();
+      ifd.putIFDValue(IFD.IMAGE_WIDTH, (long) BenchmarkFiles.PLANE_SIZE);
+      ifd.putIFDValue(IFD.IMAGE_LENGTH, (long) BenchmarkFiles.PLANE_SIZE);
+      ifd.putIFDValue(IFD.COMPRESSION,
+        TiffCompression.valueOf(compression).getCode());
+      if (layout.equals("tiled")) {
+        ifd.putIFDValue(IFD.TILE_WIDTH, (long) BenchmarkFiles.TILE_SIZE);
+        ifd.putIFDValue(IFD.TILE_LENGTH, (long) BenchmarkFiles.TILE_SIZE);
+      }
+      saver.writeImage(plane, ifd, 0, FormatTools.UINT8, true);
+      return handle.length();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+}
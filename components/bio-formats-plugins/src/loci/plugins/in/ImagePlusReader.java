@@ -38,7 +38,11 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import loci.common.Location;
 import loci.common.Region;
@@ -51,6 +55,7 @@ import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
 import loci.formats.Modulo;
 import loci.formats.meta.IMetadata;
+import loci.plugins.BF;
 import loci.plugins.Slicer;
 import loci.plugins.util.BFVirtualStack;
 import loci.plugins.util.ImageProcessorReader;
@@ -70,6 +75,9 @@ public class ImagePlusReader implements StatusReporter {
   /** Special property prefix for storing planar LUTs. */
   public static final String PROP_LUT = "LUT-";
 
+  /** Maximum number of threads used to read the planes of one series. */
+  private static final int MAX_LOAD_THREADS = 4;
+
   // -- Fields --
 
   /**
@@ -79,6 +87,13 @@ public class ImagePlusReader implements StatusReporter {
 
   protected List<StatusListener> listeners = new Vector<StatusListener>();
 
+  /** Serialized reader stack from which parallel readers are copied. */
+  private byte[] readerState;
+
+  /** Reader copies not in use, kept for the planes of later series. */
+  private final Queue<ImageProcessorReader> readerCopies =
+    new ConcurrentLinkedQueue<ImageProcessorReader>();
+
   // -- Constructors --
 
   /**
@@ -229,10 +244,15 @@ public class ImagePlusReader implements StatusReporter {
     startTiming();
 
     // read in each image series
-    for (int s=0; s<reader.getSeriesCount(); s++) {
-      if (!options.isSeriesOn(s)) continue;
-      final ImagePlus imp = readImage(s, thumbnail);
-      imps.add(imp);
+    try {
+      for (int s=0; s<reader.getSeriesCount(); s++) {
+        if (!options.isSeriesOn(s)) continue;
+        final ImagePlus imp = readImage(s, thumbnail);
+        imps.add(imp);
+      }
+    }
+    finally {
+      closeReaderCopies();
     }
 
     // concatenate compatible images
@@ -361,22 +381,34 @@ public class ImagePlusReader implements StatusReporter {
 
     // get list of planes to load
     final boolean[] load = getPlanesToLoad(s);
-    int current = 0, total = 0;
+    int total = 0;
     for (int j=0; j<load.length; j++) if (load[j]) total++;
-
-    final List<ImageProcessor> procs = new ArrayList<ImageProcessor>();
-    final List<String> labels = new ArrayList<String>();
+    final int[] planes = new int[total];
+    for (int i=0, j=0; i<load.length; i++) if (load[i]) planes[j++] = i;
 
     // read applicable image planes
     final Region region = process.getCropRegion(s);
-    for (int i=0; i<load.length; i++) {
-      if (!load[i]) continue;
+    final ImageProcessor[][] results = new ImageProcessor[total][];
+    final int threads = getLoadThreads(s, region, total, thumbnail);
+    if (threads > 1) {
+      readPlanes(process, s, planes, region, results, threads);
+    }
+    else {
+      for (int j=0; j<total; j++) {
+        // limit message update rate
+        updateTiming(s, j, j, total);
 
-      // limit message update rate
-      updateTiming(s, current, current++, total);
+        // get image processor for jth plane
+        results[j] =
+          readProcessors(process, reader, planes[j], region, thumbnail);
+      }
+    }
 
-      // get image processor for ith plane
-      final ImageProcessor[] p = readProcessors(process, i, region, thumbnail);
+    final List<ImageProcessor> procs = new ArrayList<ImageProcessor>();
+    final List<String> labels = new ArrayList<String>();
+    for (int j=0; j<total; j++) {
+      final int i = planes[j];
+      final ImageProcessor[] p = results[j];
       if (p == null || p.length == 0) {
         throw new FormatException("Cannot read plane #" + i);
       }
@@ -393,6 +425,168 @@ public class ImagePlusReader implements StatusReporter {
     return createStack(procs, labels, luts);
   }
 
+  /**
+   * Reads the given planes of series <code>s</code> using several threads.
+   * The first plane is read by the calling thread with the main reader, so
+   * that a missing LuraWave license code can still be prompted for; the
+   * remaining planes are then shared between the main reader and one
+   * reader copy per additional thread. Copies are deserialized from the
+   * initialized main reader and reused for later series. If a copy cannot
+   * be created, its share of the work is picked up by the other threads.
+   */
+  private void readPlanes(final ImportProcess process, final int s,
+    final int[] planes, final Region region, final ImageProcessor[][] results,
+    int threads) throws FormatException, IOException
+  {
+    final ImageProcessorReader reader = process.getReader();
+    final int total = planes.length;
+    updateTiming(s, 0, 0, total);
+    results[0] = readProcessors(process, reader, planes[0], region, false);
+
+    reader.setSeries(s);
+
+    // NB: serialized once per import, while no worker uses the main reader
+    if (readerState == null) {
+      try {
+        readerState = process.saveReaderState();
+      }
+      catch (FormatException e) {
+        BF.debug("Cannot copy reader for parallel loading: " +
+          e.getMessage());
+        threads = 1;
+      }
+    }
+    final byte[] state = readerState;
+
+    final AtomicInteger next = new AtomicInteger(1);
+    final AtomicInteger done = new AtomicInteger(1);
+    final AtomicReference<Exception> failure =
+      new AtomicReference<Exception>();
+
+    final Thread[] workers = new Thread[threads - 1];
+    for (int w=0; w<workers.length; w++) {
+      workers[w] = new Thread("Bio-Formats-Importer-" + (w + 1)) {
+        @Override
+        public void run() {
+          ImageProcessorReader copy = readerCopies.poll();
+          try {
+            if (copy == null) copy = process.createReaderCopy(state);
+            copy.setSeries(s);
+          }
+          catch (Exception e) {
+            BF.debug("Cannot create reader for parallel loading: " +
+              e.getMessage());
+            if (copy != null) closeReaderCopy(copy);
+            return;
+          }
+          try {
+            readPlanes(copy, s, planes, region, results, next, done, failure);
+          }
+          catch (Exception e) {
+            failure.compareAndSet(null, e);
+          }
+          finally {
+            readerCopies.add(copy);
+          }
+        }
+      };
+      workers[w].start();
+    }
+
+    try {
+      readPlanes(reader, s, planes, region, results, next, done, failure);
+    }
+    catch (FormatException e) {
+      failure.compareAndSet(null, e);
+    }
+    catch (IOException e) {
+      failure.compareAndSet(null, e);
+    }
+    finally {
+      for (Thread worker : workers) {
+        try {
+          worker.join();
+        }
+        catch (InterruptedException e) {
+          failure.compareAndSet(null, e);
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    final Exception e = failure.get();
+    if (e instanceof FormatException) throw (FormatException) e;
+    if (e instanceof IOException) throw (IOException) e;
+    if (e != null) throw new FormatException(e);
+  }
+
+  /** Closes the reader copies created for parallel loading. */
+  private void closeReaderCopies() {
+    ImageProcessorReader copy;
+    while ((copy = readerCopies.poll()) != null) closeReaderCopy(copy);
+    readerState = null;
+  }
+
+  private void closeReaderCopy(ImageProcessorReader copy) {
+    try {
+      copy.close();
+    }
+    catch (IOException e) {
+      BF.debug("Cannot close reader: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Reads queued planes with the given reader until all planes have been
+   * claimed or another thread has failed.
+   */
+  private void readPlanes(ImageProcessorReader reader, int s, int[] planes,
+    Region region, ImageProcessor[][] results, AtomicInteger next,
+    AtomicInteger done, AtomicReference<Exception> failure)
+    throws FormatException, IOException
+  {
+    while (failure.get() == null) {
+      final int j = next.getAndIncrement();
+      if (j >= planes.length) break;
+      results[j] = reader.openProcessors(planes[j],
+        region.x, region.y, region.width, region.height);
+      final int current = done.getAndIncrement();
+      updateTiming(s, current, current, planes.length);
+    }
+  }
+
+  /**
+   * Gets the number of threads with which to read the planes of series
+   * <code>s</code>. Each additional thread opens its own copy of the
+   * reader, so parallel loading is only used for local, non-virtual,
+   * non-autoscaled stacks, and is limited by the number of processors and
+   * by the memory left over once the whole stack has been read.
+   */
+  private int getLoadThreads(int s, Region region, int total,
+    boolean thumbnail)
+  {
+    final ImporterOptions options = process.getOptions();
+    if (!options.isParallelLoad() || thumbnail || total < 2) return 1;
+    if (options.isVirtual() || !options.isLocal()) return 1;
+    // min/max values must be gathered by the main reader
+    if (process.getMinMaxCalculator() != null) return 1;
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    threads = Math.min(threads, Math.min(total, MAX_LOAD_THREADS));
+
+    // each reader copy holds at least one decoded plane and one
+    // ImageProcessor in flight
+    final ImageProcessorReader reader = process.getReader();
+    final int bpp = FormatTools.getBytesPerPixel(reader.getPixelType());
+    final long planeSize = (long) bpp * region.width * region.height;
+    final long spare = MemoryDialog.getAvailableMemory() -
+      process.getMemoryUsage(s) - MemoryDialog.MINIMUM_MEMORY_PADDING;
+    final long copies = planeSize == 0 ? threads : spare / (2 * planeSize);
+    threads = (int) Math.max(1, Math.min(threads, copies + 1));
+    if (threads > 1) BF.debug("Loading planes with " + threads + " threads");
+    return threads;
+  }
+
   /**
    * HACK: This method mainly exists to prompt the user for a missing
    * LuraWave license code, in the case of LWF-compressed Flex.
@@ -400,9 +594,9 @@ public class ImagePlusReader implements StatusReporter {
    * @see ImportProcess#setId()
    */
   private ImageProcessor[] readProcessors(ImportProcess process,
-    int no, Region r, boolean thumbnail) throws FormatException, IOException
+    ImageProcessorReader reader, int no, Region r, boolean thumbnail)
+    throws FormatException, IOException
   {
-    final ImageProcessorReader reader = process.getReader();
     final ImporterOptions options = process.getOptions();
 
     boolean first = true;
@@ -467,7 +661,7 @@ public class ImagePlusReader implements StatusReporter {
     startTime = time = System.currentTimeMillis();
   }
 
-  private void updateTiming(int s, int i, int current, int total) {
+  private synchronized void updateTiming(int s, int i, int current, int total) {
     final ImageProcessorReader reader = process.getReader();
 
     long clock = System.currentTimeMillis();
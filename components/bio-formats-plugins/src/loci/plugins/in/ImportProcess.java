@@ -54,6 +54,7 @@ import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
 import loci.formats.MinMaxCalculator;
+import loci.formats.ReaderPool;
 import loci.formats.TileStitcher;
 import loci.formats.in.MetadataLevel;
 import loci.formats.meta.IMetadata;
@@ -306,6 +307,37 @@ public class ImportProcess implements StatusReporter {
     return reader;
   }
 
+  /**
+   * Serializes the initialized reader stack below the
+   * {@link VirtualReader}, so that independent copies can be created with
+   * {@link #createReaderCopy(byte[])} without parsing the dataset again.
+   * Must be called on the importing thread while {@link #getReader()} is
+   * not in use. Valid only after {@link ImportStep#DIM_ORDER}.
+   */
+  public byte[] saveReaderState() throws FormatException {
+    assertStep(ImportStep.DIM_ORDER);
+    if (!options.isLocal()) {
+      throw new FormatException("Only local files can be opened twice");
+    }
+    return ReaderPool.serialize(virtualReader.getReader());
+  }
+
+  /**
+   * Creates an independent reader from the result of
+   * {@link #saveReaderState()}, with the same file grouping, channel
+   * handling, dimension orders and tile stitching as {@link #getReader()},
+   * so that planes can be read from several threads at once. The caller is
+   * responsible for closing it.
+   * <p>
+   * This method does not use {@link #getReader()}, so it can be called on
+   * another thread while that reader is in use.
+   */
+  public ImageProcessorReader createReaderCopy(byte[] state)
+    throws FormatException, IOException
+  {
+    return new ImageProcessorReader(ReaderPool.deserialize(state));
+  }
+
   /** Valid only after {@link ImportStep#STACK}. */
   public String getCurrentFile() {
     assertStep(ImportStep.STACK);
@@ -422,29 +454,34 @@ public class ImportProcess implements StatusReporter {
   public long getMemoryUsage() {
     final int seriesCount = getSeriesCount();
     long total = 0;
-    for (int s=0; s<seriesCount; s++) {
-      if (!options.isSeriesOn(s)) continue;
-      reader.setSeries(s);
-      // determine size of one image plane
-      final Region cropRegion = getCropRegion(s);
-      final int bpp = FormatTools.getBytesPerPixel(reader.getPixelType());
-      final long planeSize = bpp * cropRegion.width * cropRegion.height;
-      // determine total number of image planes
-      final int cCount = getCCount(s);
-      final int zCount = getZCount(s);
-      final int tCount = getTCount(s);
-      final long planeCount = cCount * zCount * tCount;
-      // determine active number of image planes
-      final boolean isVirtual = options.isVirtual();
-      final long activeChannels = options.isColorModeComposite() ? cCount : 1;
-      final long activePlanes = isVirtual ? activeChannels : planeCount;
-      // compute total memory footprint for this series
-      final long seriesSize = planeSize * activePlanes;
-      total += seriesSize;
-    }
+    for (int s=0; s<seriesCount; s++) total += getMemoryUsage(s);
     return total;
   }
 
+  /**
+   * Gets a projection of required memory in bytes for the given series.
+   * Valid only after {@link ImportStep#SERIES}.
+   */
+  public long getMemoryUsage(int s) {
+    if (!options.isSeriesOn(s)) return 0;
+    reader.setSeries(s);
+    // determine size of one image plane
+    final Region cropRegion = getCropRegion(s);
+    final int bpp = FormatTools.getBytesPerPixel(reader.getPixelType());
+    final long planeSize = bpp * cropRegion.width * cropRegion.height;
+    // determine total number of image planes
+    final int cCount = getCCount(s);
+    final int zCount = getZCount(s);
+    final int tCount = getTCount(s);
+    final long planeCount = cCount * zCount * tCount;
+    // determine active number of image planes
+    final boolean isVirtual = options.isVirtual();
+    final long activeChannels = options.isColorModeComposite() ? cCount : 1;
+    final long activePlanes = isVirtual ? activeChannels : planeCount;
+    // compute total memory footprint for this series
+    return planeSize * activePlanes;
+  }
+
   // -- ImportProcess methods - post-METADATA --
 
   /** Valid only after {@link ImportStep#METADATA}. */
@@ -61,6 +61,7 @@ public class ImporterOptions extends OptionsList {
   public static final String KEY_ID              = "id";
   public static final String KEY_LOCATION        = "location";
   public static final String KEY_OPEN_ALL_SERIES = "openAllSeries";
+  public static final String KEY_PARALLEL_LOAD   = "parallelLoad";
   public static final String KEY_QUIET           = "quiet";
   //public static final String KEY_RECORD          = "record";
   public static final String KEY_SHOW_METADATA   = "showMetadata";
@@ -304,6 +305,11 @@ public class ImporterOptions extends OptionsList {
   public boolean openAllSeries() { return isSet(KEY_OPEN_ALL_SERIES); }
   public void setOpenAllSeries(boolean b) { setValue(KEY_OPEN_ALL_SERIES, b); }
 
+  // parallelLoad
+  public String getParallelLoadInfo() { return getInfo(KEY_PARALLEL_LOAD); }
+  public boolean isParallelLoad() { return isSet(KEY_PARALLEL_LOAD); }
+  public void setParallelLoad(boolean b) { setValue(KEY_PARALLEL_LOAD, b); }
+
   // quiet
   public String getQuietInfo() { return getInfo(KEY_QUIET); }
   public boolean isQuiet() { return isSet(KEY_QUIET); }
@@ -92,6 +92,7 @@ public class MainDialog extends ImporterDialog
   protected Checkbox swapDimsBox;
   protected Checkbox virtualBox;
   protected Checkbox stitchTilesBox;
+  protected Checkbox parallelLoadBox;
 
   protected Map<Component, String> infoTable;
   protected JEditorPane infoPane;
@@ -135,6 +136,7 @@ public class MainDialog extends ImporterDialog
     addCheckbox(gd, ImporterOptions.KEY_SWAP_DIMS);
     addCheckbox(gd, ImporterOptions.KEY_VIRTUAL);
     addCheckbox(gd, ImporterOptions.KEY_STITCH_TILES);
+    addCheckbox(gd, ImporterOptions.KEY_PARALLEL_LOAD);
     rebuildDialog(gd);
     return gd;
   }
@@ -163,6 +165,7 @@ public class MainDialog extends ImporterDialog
     options.setSwapDimensions(gd.getNextBoolean());
     options.setVirtual(gd.getNextBoolean());
     options.setStitchTiles(gd.getNextBoolean());
+    options.setParallelLoad(gd.getNextBoolean());
     return true;
   }
 
@@ -279,6 +282,7 @@ public class MainDialog extends ImporterDialog
       swapDimsBox       = boxes.get(boxIndex++);
       virtualBox        = boxes.get(boxIndex++);
       stitchTilesBox    = boxes.get(boxIndex++);
+      parallelLoadBox   = boxes.get(boxIndex++);
     }
     verifyOptions(null);
 
@@ -312,6 +316,7 @@ public class MainDialog extends ImporterDialog
     infoTable.put(swapDimsBox, options.getSwapDimensionsInfo());
     infoTable.put(virtualBox, options.getVirtualInfo());
     infoTable.put(stitchTilesBox, options.getStitchTilesInfo());
+    infoTable.put(parallelLoadBox, options.getParallelLoadInfo());
 
     // rebuild dialog using FormLayout to organize things more nicely
 
@@ -393,7 +398,9 @@ public class MainDialog extends ImporterDialog
     builder.add(specifyRangesBox, xyw(cc, 5, row, 3));
     row += 2;
     builder.add(cropBox, xyw(cc, 5, row, 3));
-    row += 4;
+    row += 2;
+    builder.add(parallelLoadBox, xyw(cc, 5, row, 3));
+    row += 2;
     builder.addSeparator("Split into separate windows", cc.xyw(5, row, 3));
     row += 2;
     builder.add(splitCBox, xyw(cc, 5, row, 3));
@@ -451,6 +458,7 @@ public class MainDialog extends ImporterDialog
     boolean stackOrderEnabled = stackOrderChoice.isEnabled();
     boolean swapDimsEnabled = swapDimsBox.isEnabled();
     boolean virtualEnabled = virtualBox.isEnabled();
+    boolean parallelLoadEnabled = parallelLoadBox.isEnabled();
 
     boolean isAutoscale = autoscaleBox.getState();
     String colorModeValue = colorModeChoice.getSelectedItem();
@@ -483,6 +491,7 @@ public class MainDialog extends ImporterDialog
     String stackOrderValue = stackOrderChoice.getSelectedItem();
     boolean isSwap = swapDimsBox.getState();
     boolean isVirtual = virtualBox.getState();
+    boolean isParallelLoad = parallelLoadBox.getState();
 
     // toggle availability of each option based on state of earlier options
 
@@ -569,6 +578,10 @@ public class MainDialog extends ImporterDialog
     cropEnabled = !isStackNone && !isVirtual;
     if (!cropEnabled) isCrop = false;
 
+    // parallelLoadBox
+    parallelLoadEnabled = !isStackNone && !isVirtual;
+    if (!parallelLoadEnabled) isParallelLoad = false;
+
     // == Color options ==
 
     // colorModeChoice
@@ -618,6 +631,7 @@ public class MainDialog extends ImporterDialog
     stackOrderChoice.setEnabled(stackOrderEnabled);
     swapDimsBox.setEnabled(swapDimsEnabled);
     virtualBox.setEnabled(virtualEnabled);
+    parallelLoadBox.setEnabled(parallelLoadEnabled);
 
     autoscaleBox.setState(isAutoscale);
     colorModeChoice.select(colorModeValue);
@@ -638,6 +652,7 @@ public class MainDialog extends ImporterDialog
     stackOrderChoice.select(stackOrderValue);
     swapDimsBox.setState(isSwap);
     virtualBox.setState(isVirtual);
+    parallelLoadBox.setState(isParallelLoad);
 
     if (IS_GLITCHED) {
       // HACK - work around a Mac OS X bug where GUI components do not update
@@ -661,7 +676,8 @@ public class MainDialog extends ImporterDialog
         stackFormatChoice,
         stackOrderChoice,
         swapDimsBox,
-        virtualBox
+        virtualBox,
+        parallelLoadBox
       };
 
       // identify currently focused component
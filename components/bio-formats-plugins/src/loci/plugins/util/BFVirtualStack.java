@@ -34,6 +34,7 @@ import java.awt.image.IndexColorModel;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import loci.formats.ChannelMerger;
 import loci.formats.FormatException;
@@ -43,16 +44,40 @@ import loci.formats.Modulo;
 import loci.formats.cache.Cache;
 import loci.formats.cache.CacheException;
 import loci.formats.cache.CacheStrategy;
-import loci.formats.cache.CrosshairStrategy;
+import loci.formats.cache.ICacheStrategy;
+import loci.formats.cache.MemoryCacheStore;
+import loci.formats.cache.RectangleStrategy;
 import loci.plugins.util.RecordedImageProcessor.MethodEntry;
 
 /**
  * Subclass of VirtualStack that uses Bio-Formats to read planes on demand.
  *
+ * Planes are cached by a {@link Cache} whose strategy loads all channels of
+ * the current position first, then the neighbouring focal planes, then the
+ * next time point. The cache is filled in the background by a prefetch
+ * executor shared by all virtual stacks. The caches of all open stacks
+ * share {@link MemoryCacheStore#SHARED_CAPACITY} bytes, split evenly
+ * between them; {@link #close()} releases a stack's share.
+ *
  * @author Melissa Linkert melissa at glencoesoftware.com
  */
 public class BFVirtualStack extends VirtualStack {
 
+  // -- Constants --
+
+  /** Number of focal planes to prefetch on each side of the current one. */
+  public static final int PREFETCH_Z_RANGE = 2;
+
+  /** Number of threads used to prefetch planes for all virtual stacks. */
+  private static final int PREFETCH_THREADS = 2;
+
+  /** Executor used to prefetch planes for all virtual stacks. */
+  private static ExecutorService prefetcher;
+
+  /** Cache stores of all open virtual stacks. */
+  private static final List<ProcessorStore> STORES =
+    new ArrayList<ProcessorStore>();
+
   // -- Fields --
 
   protected ImageProcessorReader reader;
@@ -71,10 +96,24 @@ public class BFVirtualStack extends VirtualStack {
 
   private int[] len;
 
+  /** Lengths of the channel axes within {@link #len}. */
+  private int[] subC;
+
+  /**
+   * Lock guarding the underlying reader, which is shared with the
+   * prefetch executor and possibly with the stacks of other series.
+   */
+  private final Object readerLock;
+
   private int[] planeIndexes;
 
   private float[] calibrationTable;
 
+  /** Whether {@link #close()} has been called; guarded by the reader lock. */
+  private volatile boolean closed;
+
+  private final ProcessorStore store;
+
   // -- Static utility methods --
 
   protected static int getWidth(IFormatReader r, String path, int series)
@@ -107,23 +146,34 @@ public class BFVirtualStack extends VirtualStack {
     this.record = record;
 
     this.series = r.getSeries();
+    readerLock = r;
 
-    // set up cache
-    int[] subC;
+    // set up cache; cached planes are never merged, so that each channel
+    // of a merged stack can be prefetched on its own
     Modulo moduloC = r.getModuloC();
     if (moduloC.length() > 1) {
       subC = new int[] {r.getSizeC() / moduloC.length(), moduloC.length()};
     } else {
       subC = new int[] {r.getSizeC()};
     }
-    if (merge) subC = new int[] {new ChannelMerger(r).getEffectiveSizeC()};
     len = new int[subC.length + 2];
     System.arraycopy(subC, 0, len, 0, subC.length);
     len[len.length - 2] = r.getSizeZ();
     len[len.length - 1] = r.getSizeT();
-    CacheStrategy strategy = new CrosshairStrategy(len);
+    CacheStrategy strategy = new RectangleStrategy(len);
+    for (int i=0; i<subC.length; i++) {
+      strategy.setPriority(ICacheStrategy.LOW_PRIORITY, i);
+      strategy.setRange(subC[i], i);
+    }
+    strategy.setRange(PREFETCH_Z_RANGE, len.length - 2);
+    strategy.setPriority(ICacheStrategy.HIGH_PRIORITY, len.length - 1);
+    strategy.setOrder(ICacheStrategy.FORWARD_ORDER, len.length - 1);
+    strategy.setRange(1, len.length - 1);
 
-    cache = new Cache(strategy, new ImageProcessorSource(r), true);
+    store = new ProcessorStore(MemoryCacheStore.SHARED_CAPACITY);
+    addStore(store);
+    cache = new Cache(strategy, new StackSource(r), store, false);
+    cache.setPrefetchExecutor(getPrefetchExecutor());
 
     methodStacks = new ArrayList<List<MethodEntry>>();
     for (int i=0; i<r.getImageCount(); i++) {
@@ -152,12 +202,25 @@ public class BFVirtualStack extends VirtualStack {
     this.planeIndexes = planeIndexes;
   }
 
+  /**
+   * Stops prefetching and releases this stack's cached planes and its share
+   * of the cache capacity. Planes that are being prefetched are finished
+   * before this method returns, so the reader can be closed afterwards.
+   */
+  public void close() {
+    if (closed) return;
+    cache.setPrefetchExecutor(null);
+    synchronized (readerLock) {
+      closed = true;
+    }
+    removeStore(store);
+    store.clear();
+  }
+
   // -- VirtualStack API methods --
 
   @Override
   public synchronized ImageProcessor getProcessor(int n) {
-    reader.setSeries(series);
-
     // check cache first
     if (currentSlice >= 0 && currentProcessor != null) {
       List<MethodEntry> currentStack = currentProcessor.getMethodStack();
@@ -166,32 +229,28 @@ public class BFVirtualStack extends VirtualStack {
       }
     }
     int sliceIndex = planeIndexes == null ? n - 1 : planeIndexes[n - 1];
-    int[] pos = reader.getZCTCoords(sliceIndex);
-    if (merge) pos = new ChannelMerger(reader).getZCTCoords(sliceIndex);
-    int[] cachePos = FormatTools.rasterToPosition(len, sliceIndex);
-    ImageProcessor ip = null;
-
-    try {
-      ip = (ImageProcessor) cache.getObject(cachePos);
-      cache.setCurrentPos(cachePos);
-    }
-    catch (CacheException exc) {
-      exc.printStackTrace();
+    int[] pos;
+    synchronized (readerLock) {
+      reader.setSeries(series);
+      pos = merge ? new ChannelMerger(reader).getZCTCoords(sliceIndex) :
+        reader.getZCTCoords(sliceIndex);
     }
+    int[] cachePos = getCachePosition(pos[0], pos[1], pos[2]);
 
-    // cache missed
-    try {
-      if (ip == null) {
-        ip = reader.openProcessors(reader.getIndex(pos[0], pos[1], pos[2]))[0];
+    // queue the planes around this one for prefetching
+    if (!closed) {
+      try {
+        cache.setCurrentPos(cachePos);
+        cache.recache();
+      }
+      catch (CacheException exc) {
+        exc.printStackTrace();
       }
-    }
-    catch (FormatException exc) {
-      exc.printStackTrace();
-    }
-    catch (IOException exc) {
-      exc.printStackTrace();
     }
 
+    // use the prefetched plane, if it is ready
+    ImageProcessor ip = openProcessor(pos[0], pos[1], pos[2]);
+
     if (colorize) {
       // apply color table, if necessary
       byte[] lut = new byte[256];
@@ -212,29 +271,15 @@ public class BFVirtualStack extends VirtualStack {
     }
     else if (merge) {
       currentSlice = n - 1;
-      ImageProcessor[] otherChannels =
-        new ImageProcessor[reader.getSizeC() - 1];
+      int sizeC;
+      synchronized (readerLock) {
+        reader.setSeries(series);
+        sizeC = reader.getSizeC();
+      }
+      ImageProcessor[] otherChannels = new ImageProcessor[sizeC - 1];
       for (int i=0; i<otherChannels.length; i++) {
         int channel = i >= pos[1] ? i + 1 : i;
-        try {
-          cachePos[0] = channel;
-          otherChannels[i] = (ImageProcessor) cache.getObject(cachePos);
-        }
-        catch (CacheException exc) {
-          exc.printStackTrace();
-        }
-        if (otherChannels[i] == null) {
-          try {
-            int index = reader.getIndex(pos[0], channel, pos[2]);
-            otherChannels[i] = reader.openProcessors(index)[0];
-          }
-          catch (FormatException exc) {
-            exc.printStackTrace();
-          }
-          catch (IOException exc) {
-            exc.printStackTrace();
-          }
-        }
+        otherChannels[i] = openProcessor(pos[0], channel, pos[2]);
       }
       currentProcessor = new RecordedImageProcessor(ip, pos[1], otherChannels);
       currentProcessor.setDoRecording(record);
@@ -265,22 +310,152 @@ public class BFVirtualStack extends VirtualStack {
 
   @Override
   public int getWidth() {
-    reader.setSeries(series);
-    return reader.getSizeX();
+    synchronized (readerLock) {
+      reader.setSeries(series);
+      return reader.getSizeX();
+    }
   }
 
   @Override
   public int getHeight() {
-    reader.setSeries(series);
-    return reader.getSizeY();
+    synchronized (readerLock) {
+      reader.setSeries(series);
+      return reader.getSizeY();
+    }
   }
 
   @Override
   public int getSize() {
-    if (reader.getCurrentFile() == null) return 0;
-    reader.setSeries(series);
-    if (merge) return new ChannelMerger(reader).getImageCount();
-    return planeIndexes == null ? reader.getImageCount() : planeIndexes.length;
+    synchronized (readerLock) {
+      if (reader.getCurrentFile() == null) return 0;
+      reader.setSeries(series);
+      if (merge) return new ChannelMerger(reader).getImageCount();
+      return planeIndexes == null ?
+        reader.getImageCount() : planeIndexes.length;
+    }
+  }
+
+  // -- Helper methods --
+
+  /** Gets the executor used to prefetch planes for all virtual stacks. */
+  private static synchronized ExecutorService getPrefetchExecutor() {
+    if (prefetcher == null) {
+      prefetcher = Cache.createPrefetchExecutor(PREFETCH_THREADS);
+    }
+    return prefetcher;
+  }
+
+  /** Adds the given store and splits the capacity between all stores. */
+  private static void addStore(ProcessorStore s) {
+    synchronized (STORES) {
+      STORES.add(s);
+      balanceStores();
+    }
+  }
+
+  /** Removes the given store and splits the capacity between the rest. */
+  private static void removeStore(ProcessorStore s) {
+    synchronized (STORES) {
+      STORES.remove(s);
+      balanceStores();
+    }
+  }
+
+  /** Splits the shared capacity evenly; the STORES lock must be held. */
+  private static void balanceStores() {
+    if (STORES.isEmpty()) return;
+    long capacity = MemoryCacheStore.SHARED_CAPACITY / STORES.size();
+    for (ProcessorStore s : STORES) {
+      s.setCapacity(capacity);
+    }
+  }
+
+  /** Gets the cache position of the given unmerged plane. */
+  private int[] getCachePosition(int z, int c, int t) {
+    int[] cachePos = new int[len.length];
+    int[] cPos = FormatTools.rasterToPosition(subC, c);
+    System.arraycopy(cPos, 0, cachePos, 0, cPos.length);
+    cachePos[len.length - 2] = z;
+    cachePos[len.length - 1] = t;
+    return cachePos;
+  }
+
+  /**
+   * Gets the given unmerged plane from the cache, or reads it if it has not
+   * been prefetched yet.
+   */
+  private ImageProcessor openProcessor(int z, int c, int t) {
+    int[] cachePos = getCachePosition(z, c, t);
+    try {
+      ImageProcessor ip = (ImageProcessor) cache.getObject(cachePos);
+      if (ip != null) return ip;
+    }
+    catch (CacheException exc) {
+      exc.printStackTrace();
+    }
+
+    try {
+      synchronized (readerLock) {
+        reader.setSeries(series);
+        return reader.openProcessors(reader.getIndex(z, c, t))[0];
+      }
+    }
+    catch (FormatException exc) {
+      exc.printStackTrace();
+    }
+    catch (IOException exc) {
+      exc.printStackTrace();
+    }
+    return null;
+  }
+
+  // -- Helper classes --
+
+  /**
+   * Cache source reading the unmerged planes of this stack's series, in
+   * the channel, Z, T order of the cache positions.
+   */
+  private class StackSource extends ImageProcessorSource {
+
+    public StackSource(IFormatReader r) { super(r); }
+
+    @Override
+    public int getObjectCount() {
+      return FormatTools.getRasterLength(len);
+    }
+
+    @Override
+    public Object getObject(int index) throws CacheException {
+      int[] cachePos = FormatTools.rasterToPosition(len, index);
+      int[] cPos = new int[subC.length];
+      System.arraycopy(cachePos, 0, cPos, 0, cPos.length);
+      int c = FormatTools.positionToRaster(subC, cPos);
+      int z = cachePos[len.length - 2];
+      int t = cachePos[len.length - 1];
+      synchronized (readerLock) {
+        if (closed || reader.getCurrentFile() == null) {
+          throw new CacheException("Virtual stack is closed");
+        }
+        reader.setSeries(series);
+        return super.getObject(reader.getIndex(z, c, t));
+      }
+    }
+
+  }
+
+  /** Memory cache store that measures ImageJ processors by their pixels. */
+  private static class ProcessorStore extends MemoryCacheStore {
+
+    public ProcessorStore(long capacity) { super(capacity); }
+
+    @Override
+    protected long measure(Object value) throws CacheException {
+      if (value instanceof ImageProcessor) {
+        return sizeOf(((ImageProcessor) value).getPixels());
+      }
+      return super.measure(value);
+    }
+
   }
 
 }
@@ -0,0 +1,828 @@
+/*
+ * #%L
+ * Bio-Formats command line tools for reading and converting files
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import loci.common.Constants;
+import loci.common.DebugTools;
+import loci.common.services.DependencyException;
+import loci.common.services.ServiceFactory;
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.ImageWriter;
+import loci.formats.MissingLibraryException;
+import loci.formats.services.OMEXMLService;
+import loci.formats.services.OMEXMLServiceImpl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BatchConverter converts many datasets in a single JVM, using the same
+ * options as {@link ImageConverter}.
+ *
+ * The OME-XML service and one {@link ImageReader} per concurrent conversion
+ * are created once and reused for every dataset.  Files are grouped into
+ * datasets using {@link IFormatReader#getUsedFiles()}: every input whose
+ * format may use several files is initialized once before any conversion
+ * starts, and datasets that use more files claim them first, so a file that
+ * can also be read on its own is converted as part of the larger dataset
+ * that contains it.  Inputs in single-file formats are only initialized for
+ * their conversion.
+ */
+public final class BatchConverter {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(BatchConverter.class);
+
+  /** Column names of the timing report. */
+  private static final String[] REPORT_COLUMNS = {
+    "input", "output", "status", "format", "files", "planes",
+    "init_ms", "read_ms", "write_ms", "total_ms", "message"
+  };
+
+  // -- Fields --
+
+  /** Options passed to each conversion, as for bfconvert. */
+  private final String[] converterArgs;
+
+  private int jobs = 1;
+  private boolean overwrite = false;
+  private String extension = ".ome.tiff";
+
+  /** File name glob used to select input files, or null. */
+  private String pattern;
+
+  /** Dataset that claimed each file, by absolute path. */
+  private final Map<String, Dataset> owners = new HashMap<String, Dataset>();
+
+  // -- Constructor --
+
+  /**
+   * Construct a batch converter.
+   *
+   * @param converterArgs options passed to each conversion, as for
+   *   bfconvert, excluding the input and output file names
+   */
+  public BatchConverter(String... converterArgs) {
+    this.converterArgs = converterArgs.clone();
+  }
+
+  // -- BatchConverter API methods --
+
+  /** Set the number of datasets converted concurrently. */
+  public void setJobs(int jobs) {
+    if (jobs < 1) {
+      throw new IllegalArgumentException("Invalid job count: " + jobs);
+    }
+    this.jobs = jobs;
+  }
+
+  public int getJobs() {
+    return jobs;
+  }
+
+  /** Set whether existing output files are overwritten (default false). */
+  public void setOverwrite(boolean overwrite) {
+    this.overwrite = overwrite;
+  }
+
+  public boolean isOverwrite() {
+    return overwrite;
+  }
+
+  /**
+   * Set the extension of output files whose name is derived from the input
+   * file name (default ".ome.tiff").  The extension determines the output
+   * format.
+   */
+  public void setExtension(String extension) {
+    this.extension = extension.startsWith(".") ? extension : "." + extension;
+  }
+
+  public String getExtension() {
+    return extension;
+  }
+
+  /**
+   * Set the glob (e.g. "*.svs") that names of input files found by
+   * {@link #findDatasets(File, File)} must match.  If null (default), all
+   * files that a reader claims by suffix are used.
+   */
+  public void setPattern(String pattern) {
+    this.pattern = pattern;
+  }
+
+  public String getPattern() {
+    return pattern;
+  }
+
+  /**
+   * Find the input files under the given file or directory.  Each output
+   * file is written to the same relative path under the output directory,
+   * with the extension replaced by {@link #getExtension()}.
+   */
+  public List<Dataset> findDatasets(File root, File outputDir) {
+    PathMatcher matcher = pattern == null ? null :
+      FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+    List<File> files = new ArrayList<File>();
+    collectFiles(root, matcher, new ImageReader(), files);
+    LOGGER.info("found {} candidate files under {}", files.size(), root);
+
+    String rootPath = root.getAbsolutePath();
+    Set<String> outputs = new HashSet<String>();
+    List<Dataset> datasets = new ArrayList<Dataset>();
+    for (File file : files) {
+      String relative = root.isDirectory() ?
+        file.getAbsolutePath().substring(rootPath.length() + 1) :
+        file.getName();
+      File output = new File(outputDir, getOutputName(relative));
+      if (!outputs.add(output.getAbsolutePath())) {
+        // another input has the same name with a different extension
+        output = new File(outputDir, relative + extension);
+        outputs.add(output.getAbsolutePath());
+      }
+      datasets.add(new Dataset(file.getPath(), output.getPath()));
+    }
+    return datasets;
+  }
+
+  /**
+   * Read the datasets listed in the given manifest.  Each non-empty line
+   * that does not start with '#' contains an input file name, optionally
+   * followed by a tab and an output file name.  Relative input names are
+   * resolved against the directory containing the manifest, and relative
+   * output names against the output directory.
+   *
+   * @param outputDir the output directory, or null if every line specifies
+   *   an output file name
+   */
+  public List<Dataset> readManifest(File manifest, File outputDir)
+    throws IOException
+  {
+    File parent = manifest.getAbsoluteFile().getParentFile();
+    List<Dataset> datasets = new ArrayList<Dataset>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+      new FileInputStream(manifest), Constants.ENCODING));
+    try {
+      String line;
+      int lineNumber = 0;
+      while ((line = in.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] tokens = line.split("\t");
+        File input = new File(tokens[0].trim());
+        if (!input.isAbsolute()) {
+          input = new File(parent, input.getPath());
+        }
+        File output;
+        if (tokens.length > 1 && !tokens[1].trim().isEmpty()) {
+          output = new File(tokens[1].trim());
+          if (!output.isAbsolute() && outputDir != null) {
+            output = new File(outputDir, output.getPath());
+          }
+        }
+        else if (outputDir != null) {
+          output = new File(outputDir, getOutputName(input.getName()));
+        }
+        else {
+          throw new IOException(manifest + ", line " + lineNumber +
+            ": no output file name and no output directory");
+        }
+        datasets.add(new Dataset(input.getPath(), output.getPath()));
+      }
+    }
+    finally {
+      in.close();
+    }
+    return datasets;
+  }
+
+  /**
+   * Convert the given datasets, {@link #getJobs()} at a time.  The result
+   * of each conversion is stored in its {@link Dataset}.
+   *
+   * @return the given datasets
+   */
+  public List<Dataset> convert(List<Dataset> datasets)
+    throws FormatException, InterruptedException
+  {
+    final OMEXMLService service;
+    try {
+      service = new ServiceFactory().getInstance(OMEXMLService.class);
+    }
+    catch (DependencyException e) {
+      throw new MissingLibraryException(OMEXMLServiceImpl.NO_OME_XML_MSG, e);
+    }
+
+    final BlockingQueue<ImageReader> readers =
+      new LinkedBlockingQueue<ImageReader>();
+    for (int i=0; i<jobs; i++) {
+      readers.add(new ImageReader());
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(jobs);
+    try {
+      group(datasets, readers, executor);
+      for (final Dataset dataset : datasets) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            ImageReader reader;
+            try {
+              reader = readers.take();
+            }
+            catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              dataset.failed(0, "interrupted");
+              return;
+            }
+            try {
+              convertDataset(dataset, reader, service);
+            }
+            finally {
+              readers.add(reader);
+            }
+          }
+        });
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    return datasets;
+  }
+
+  /**
+   * Write a tab-separated report with one line per dataset, preceded by a
+   * header line naming the columns.  Times are in milliseconds.
+   */
+  public static void writeReport(List<Dataset> datasets, PrintWriter out) {
+    out.println(join(REPORT_COLUMNS));
+    for (Dataset d : datasets) {
+      out.println(join(new String[] {
+        d.getInput(), d.getOutput(), d.getStatus().toString(),
+        d.getFormat() == null ? "" : d.getFormat(),
+        String.valueOf(d.getUsedFileCount()),
+        String.valueOf(d.getPlaneCount()), String.valueOf(d.getInitTime()),
+        String.valueOf(d.getReadTime()), String.valueOf(d.getWriteTime()),
+        String.valueOf(d.getTotalTime()),
+        d.getMessage() == null ? "" : d.getMessage()
+      }));
+    }
+    out.flush();
+  }
+
+  // -- Helper methods --
+
+  /** Convert one dataset using the given reader. */
+  private void convertDataset(final Dataset dataset, ImageReader reader,
+    OMEXMLService service)
+  {
+    long start = System.currentTimeMillis();
+    Dataset claimedBy = getOwner(dataset.getInput());
+    if (claimedBy != null && claimedBy != dataset) {
+      dataset.grouped(0, claimedBy.getInput());
+      return;
+    }
+    File output = new File(dataset.getOutput());
+    if (output.exists() && !overwrite) {
+      dataset.exists();
+      return;
+    }
+    File parent = output.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      dataset.failed(0, "could not create directory " + parent);
+      return;
+    }
+
+    // input of the dataset that contains this one, if any
+    final String[] owner = new String[1];
+    ImageConverter converter = new ImageConverter();
+    converter.setOMEXMLService(service);
+    converter.setBaseReader(reader);
+    converter.setInputFilter(new ImageConverter.InputFilter() {
+      @Override
+      public boolean accept(IFormatReader r) {
+        owner[0] = claim(dataset, r.getUsedFiles());
+        return owner[0] == null;
+      }
+    });
+
+    List<String> args = new ArrayList<String>();
+    args.add(CommandLineTools.NO_UPGRADE_CHECK);
+    args.addAll(Arrays.asList(converterArgs));
+    args.add("-overwrite");
+    args.add(dataset.getInput());
+    args.add(dataset.getOutput());
+    try {
+      boolean success = converter.testConvert(new ImageWriter(),
+        args.toArray(new String[args.size()]));
+      long elapsed = System.currentTimeMillis() - start;
+      if (!success) {
+        dataset.failed(elapsed, "invalid options");
+      }
+      else if (converter.isSkipped()) {
+        dataset.grouped(elapsed, owner[0]);
+      }
+      else {
+        dataset.converted(converter.getTiming());
+        LOGGER.info("{}: converted in {} ms", dataset.getInput(), elapsed);
+      }
+    }
+    catch (Exception e) {
+      dataset.failed(System.currentTimeMillis() - start, e.toString());
+      LOGGER.warn("{}: conversion failed", dataset.getInput(), e);
+    }
+  }
+
+  /**
+   * Group the given datasets before converting them.  Each input in a
+   * multi-file format is initialized with one of the given readers to find
+   * its used files; then datasets claim their files, those that use the
+   * most files first.  A dataset whose input has been claimed by another
+   * one is not converted.
+   */
+  private void group(List<Dataset> datasets,
+    final BlockingQueue<ImageReader> readers, ExecutorService executor)
+    throws InterruptedException
+  {
+    final Map<Dataset, List<String>> usedFiles =
+      new ConcurrentHashMap<Dataset, List<String>>();
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (final Dataset dataset : datasets) {
+      futures.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          ImageReader reader;
+          try {
+            reader = readers.take();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          try {
+            usedFiles.put(dataset, getUsedFiles(reader, dataset.getInput()));
+          }
+          finally {
+            readers.add(reader);
+          }
+        }
+      }));
+    }
+    for (Future<?> f : futures) {
+      try {
+        f.get();
+      }
+      catch (ExecutionException e) {
+        LOGGER.warn("Could not group datasets", e.getCause());
+      }
+    }
+
+    // the sort is stable, so equal datasets keep the order in which they
+    // were given
+    List<Dataset> bySize = new ArrayList<Dataset>();
+    for (Dataset dataset : datasets) {
+      if (usedFiles.containsKey(dataset)) bySize.add(dataset);
+    }
+    Collections.sort(bySize, new Comparator<Dataset>() {
+      @Override
+      public int compare(Dataset a, Dataset b) {
+        return usedFiles.get(b).size() - usedFiles.get(a).size();
+      }
+    });
+    synchronized (owners) {
+      owners.clear();
+      for (Dataset dataset : bySize) {
+        List<String> paths = usedFiles.get(dataset);
+        if (owners.containsKey(paths.get(0))) continue;
+        for (String path : paths) {
+          if (!owners.containsKey(path)) owners.put(path, dataset);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the absolute paths of the input file and of the files used by
+   * the dataset it belongs to.  Only the input file is returned if its
+   * format always uses a single file, without initializing it, or if it
+   * cannot be initialized; the error is then reported by its conversion.
+   */
+  private static List<String> getUsedFiles(ImageReader reader, String input)
+  {
+    List<String> paths = new ArrayList<String>();
+    paths.add(new File(input).getAbsolutePath());
+    try {
+      if (reader.isSingleFile(input)) {
+        return paths;
+      }
+      reader.setId(input);
+      for (String file : reader.getUsedFiles()) {
+        String path = new File(file).getAbsolutePath();
+        if (!paths.contains(path)) paths.add(path);
+      }
+    }
+    catch (FormatException e) {
+      LOGGER.debug("{}: could not find used files", input, e);
+    }
+    catch (IOException e) {
+      LOGGER.debug("{}: could not find used files", input, e);
+    }
+    finally {
+      try {
+        reader.close();
+      }
+      catch (IOException e) {
+        LOGGER.debug("{}: could not close reader", input, e);
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Claim the given files for a dataset, unless another dataset has already
+   * claimed any of them.
+   *
+   * @return null if the files were claimed, or the input of the dataset
+   *   which has already claimed one of them
+   */
+  private String claim(Dataset dataset, String[] usedFiles) {
+    List<String> paths = new ArrayList<String>();
+    paths.add(new File(dataset.getInput()).getAbsolutePath());
+    for (String file : usedFiles) {
+      paths.add(new File(file).getAbsolutePath());
+    }
+    synchronized (owners) {
+      for (String path : paths) {
+        Dataset owner = owners.get(path);
+        if (owner != null && owner != dataset) {
+          return owner.getInput();
+        }
+      }
+      for (String path : paths) {
+        owners.put(path, dataset);
+      }
+    }
+    return null;
+  }
+
+  /** Return the dataset that claimed the given file, or null. */
+  private Dataset getOwner(String file) {
+    synchronized (owners) {
+      return owners.get(new File(file).getAbsolutePath());
+    }
+  }
+
+  /** Replace the extension of the given file name with the output one. */
+  private String getOutputName(String name) {
+    String lower = name.toLowerCase();
+    int dot = name.lastIndexOf('.');
+    if (lower.endsWith(".ome.tif") || lower.endsWith(".ome.tiff")) {
+      dot = lower.lastIndexOf(".ome.");
+    }
+    if (dot > 0 && dot > name.lastIndexOf(File.separatorChar)) {
+      name = name.substring(0, dot);
+    }
+    return name + extension;
+  }
+
+  /**
+   * Recursively add to the given list all non-hidden files which match the
+   * pattern or, if there is no pattern, which a reader claims by name.
+   */
+  private void collectFiles(File file, PathMatcher matcher,
+    ImageReader suffixes, List<File> files)
+  {
+    if (file.getName().startsWith(".") && file.getParentFile() != null) {
+      return;
+    }
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children == null) {
+        LOGGER.warn("could not list directory {}", file);
+        return;
+      }
+      Arrays.sort(children);
+      for (File child : children) {
+        collectFiles(child, matcher, suffixes, files);
+      }
+    }
+    else if (matcher != null ? matcher.matches(file.toPath().getFileName()) :
+      suffixes.isThisType(file.getAbsolutePath(), false))
+    {
+      files.add(file);
+    }
+  }
+
+  /** Join the given values with tabs, replacing any tabs or newlines. */
+  private static String join(String[] values) {
+    StringBuilder sb = new StringBuilder();
+    for (int i=0; i<values.length; i++) {
+      if (i > 0) {
+        sb.append('\t');
+      }
+      sb.append(values[i].replaceAll("[\t\r\n]", " "));
+    }
+    return sb.toString();
+  }
+
+  private static void printUsage() {
+    String[] s = {
+      "To convert many files between formats, run:",
+      "  bfconvertbatch [-jobs count] [-report file] [-output dir]",
+      "    [-manifest file] [-extension ext] [-pattern glob] [-overwrite]",
+      "    [path ...] [-- bfconvert options]",
+      "",
+      "      -jobs: number of datasets to convert concurrently",
+      "    -report: write a tab-separated timing report to the given file",
+      "    -output: directory in which output files are written",
+      "  -manifest: file listing one input per line, optionally followed",
+      "             by a tab and the output file name",
+      " -extension: extension of output files (default .ome.tiff)",
+      "   -pattern: only convert files whose name matches the glob",
+      " -overwrite: overwrite output files that already exist",
+      "",
+      "Each path is a file or a directory that is searched recursively.",
+      "Options after -- are passed to each conversion; see bfconvert.",
+      "Files that belong to a dataset which has already been converted",
+      "are skipped."
+    };
+    for (int i=0; i<s.length; i++) LOGGER.info(s[i]);
+  }
+
+  // -- Helper classes --
+
+  /** Status of a dataset in a batch conversion. */
+  public enum Status {
+    /** Not converted yet. */
+    PENDING,
+    /** Converted successfully. */
+    CONVERTED,
+    /** Part of a dataset that was converted from another input file. */
+    GROUPED,
+    /** Not converted because the output file already exists. */
+    EXISTS,
+    /** Conversion failed. */
+    FAILED
+  }
+
+  /** An input file to convert, and the result of converting it. */
+  public static class Dataset {
+    private final String input;
+    private final String output;
+    private Status status = Status.PENDING;
+    private String format;
+    private String message;
+    private int usedFiles, planes;
+    private long initTime, readTime, writeTime, totalTime;
+
+    public Dataset(String input, String output) {
+      this.input = input;
+      this.output = output;
+    }
+
+    synchronized void converted(ImageConverter.ConversionTiming timing) {
+      status = Status.CONVERTED;
+      format = timing.format;
+      usedFiles = timing.usedFiles;
+      planes = timing.planes;
+      initTime = timing.initTime;
+      readTime = timing.readTime;
+      writeTime = timing.writeTime;
+      totalTime = timing.totalTime;
+    }
+
+    synchronized void grouped(long elapsed, String owner) {
+      status = Status.GROUPED;
+      totalTime = elapsed;
+      message = "part of " + owner;
+    }
+
+    synchronized void exists() {
+      status = Status.EXISTS;
+    }
+
+    synchronized void failed(long elapsed, String error) {
+      status = Status.FAILED;
+      totalTime = elapsed;
+      message = error;
+    }
+
+    public String getInput() {
+      return input;
+    }
+
+    public String getOutput() {
+      return output;
+    }
+
+    public synchronized Status getStatus() {
+      return status;
+    }
+
+    /** Return the format of the input, or null if it was not converted. */
+    public synchronized String getFormat() {
+      return format;
+    }
+
+    /** Return the reason the dataset was not converted, or null. */
+    public synchronized String getMessage() {
+      return message;
+    }
+
+    /** Return the number of files in the dataset. */
+    public synchronized int getUsedFileCount() {
+      return usedFiles;
+    }
+
+    /** Return the number of planes converted. */
+    public synchronized int getPlaneCount() {
+      return planes;
+    }
+
+    /** Return the time in ms spent initializing the reader and writer. */
+    public synchronized long getInitTime() {
+      return initTime;
+    }
+
+    /** Return the time in ms spent reading planes. */
+    public synchronized long getReadTime() {
+      return readTime;
+    }
+
+    /** Return the time in ms spent writing planes. */
+    public synchronized long getWriteTime() {
+      return writeTime;
+    }
+
+    /** Return the total time in ms spent on the dataset. */
+    public synchronized long getTotalTime() {
+      return totalTime;
+    }
+  }
+
+  // -- Main method --
+
+  public static void main(String[] args) throws Exception {
+    DebugTools.enableLogging("INFO");
+    int jobs = 1;
+    boolean overwrite = false;
+    String report = null, output = null, manifest = null;
+    String extension = null, pattern = null;
+    List<String> paths = new ArrayList<String>();
+    String[] converterArgs = new String[0];
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("--")) {
+        converterArgs = Arrays.copyOfRange(args, i + 1, args.length);
+        break;
+      }
+      else if (args[i].equals("-jobs") && i < args.length - 1) {
+        jobs = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-report") && i < args.length - 1) {
+        report = args[++i];
+      }
+      else if (args[i].equals("-output") && i < args.length - 1) {
+        output = args[++i];
+      }
+      else if (args[i].equals("-manifest") && i < args.length - 1) {
+        manifest = args[++i];
+      }
+      else if (args[i].equals("-extension") && i < args.length - 1) {
+        extension = args[++i];
+      }
+      else if (args[i].equals("-pattern") && i < args.length - 1) {
+        pattern = args[++i];
+      }
+      else if (args[i].equals("-overwrite")) {
+        overwrite = true;
+      }
+      else if (args[i].equals("-debug")) {
+        DebugTools.setRootLevel("DEBUG");
+      }
+      else if (args[i].startsWith("-")) {
+        LOGGER.error("Found unknown command flag: {}; exiting.", args[i]);
+        printUsage();
+        System.exit(2);
+      }
+      else {
+        paths.add(args[i]);
+      }
+    }
+    if ((paths.isEmpty() && manifest == null) ||
+      (!paths.isEmpty() && output == null))
+    {
+      printUsage();
+      System.exit(2);
+    }
+
+    BatchConverter converter = new BatchConverter(converterArgs);
+    converter.setJobs(jobs);
+    converter.setOverwrite(overwrite);
+    converter.setPattern(pattern);
+    if (extension != null) {
+      converter.setExtension(extension);
+    }
+
+    File outputDir = output == null ? null : new File(output);
+    List<Dataset> datasets = new ArrayList<Dataset>();
+    if (manifest != null) {
+      datasets.addAll(converter.readManifest(new File(manifest), outputDir));
+    }
+    for (String path : paths) {
+      datasets.addAll(converter.findDatasets(new File(path), outputDir));
+    }
+
+    long start = System.currentTimeMillis();
+    converter.convert(datasets);
+    long elapsed = System.currentTimeMillis() - start;
+
+    if (report != null) {
+      PrintWriter out = new PrintWriter(new OutputStreamWriter(
+        new FileOutputStream(report), Constants.ENCODING));
+      try {
+        writeReport(datasets, out);
+      }
+      finally {
+        out.close();
+      }
+    }
+
+    Map<Status, Integer> counts = new HashMap<Status, Integer>();
+    for (Dataset d : datasets) {
+      Integer count = counts.get(d.getStatus());
+      counts.put(d.getStatus(), count == null ? 1 : count + 1);
+    }
+    LOGGER.info("{} datasets in {} ms: {}",
+      new Object[] {datasets.size(), elapsed, counts});
+    System.exit(counts.containsKey(Status.FAILED) ? 1 : 0);
+  }
+
+}
@@ -34,9 +34,25 @@ package loci.formats.tools;
 
 import java.awt.image.IndexColorModel;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.common.Constants;
 import loci.common.DataTools;
@@ -52,11 +68,13 @@ import loci.formats.FilePattern;
 import loci.formats.FileStitcher;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
+import loci.formats.ICompressedTileReader;
 import loci.formats.IFormatReader;
 import loci.formats.IFormatWriter;
 import loci.formats.ImageReader;
 import loci.formats.ImageTools;
 import loci.formats.ImageWriter;
+import loci.formats.Memoizer;
 import loci.formats.MetadataTools;
 import loci.formats.MinMaxCalculator;
 import loci.formats.MissingLibraryException;
@@ -69,6 +87,8 @@ import loci.formats.out.TiffWriter;
 import loci.formats.services.OMEXMLService;
 import loci.formats.services.OMEXMLServiceImpl;
 import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffJournal;
+import loci.formats.tiff.TileCodec;
 
 import ome.xml.meta.OMEXMLMetadataRoot;
 import ome.xml.model.Image;
@@ -89,6 +109,9 @@ public final class ImageConverter {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(ImageConverter.class);
 
+  /** Number of tiles written between checkpoints when using -resume. */
+  private static final int CHECKPOINT_INTERVAL = 64;
+
   // -- Fields --
 
   private String in = null, out = null;
@@ -108,6 +131,8 @@ public final class ImageConverter {
   private int saveTileWidth = 0, saveTileHeight = 0;
   private boolean validate = false;
   private boolean zeroPadding = false;
+  private int threads = 1;
+  private boolean resume = false;
 
   private IFormatReader reader;
   private MinMaxCalculator minMax;
@@ -116,9 +141,61 @@ public final class ImageConverter {
   private boolean firstTile = true;
   private DynamicMetadataOptions options = new DynamicMetadataOptions();
 
+  /** TIFF writer whose checkpoint journal is used to skip written tiles. */
+  private TiffWriter resumeWriter;
+
+  /** Thread pool used for reading and compressing when threads > 1. */
+  private ExecutorService executor;
+
+  /** Readers used by the threads in {@link #executor}. */
+  private BlockingQueue<IFormatReader> readerPool;
+
+  /** Directory holding the memo file used to initialize pooled readers. */
+  private File memoDirectory;
+
+  /** Regions that have been submitted but not yet written, in order. */
+  private Deque<Future<ConvertedRegion>> pending =
+    new ArrayDeque<Future<ConvertedRegion>>();
+
+  /** Name of the file to which submitted regions are being written. */
+  private String pendingFile;
+
+  /**
+   * Wall time during which at least one pooled reader was reading, in
+   * milliseconds.  Guarded by {@link #readClock}.
+   */
+  private long readTime;
+
+  /** Number of pooled readers currently reading; guarded by readClock. */
+  private int activeReads;
+
+  /** Time at which the current period of reading started. */
+  private long readStart;
+
+  /** Lock guarding the read time accounting. */
+  private final Object readClock = new Object();
+
+  /** Total time spent writing submitted regions, in milliseconds. */
+  private long writeTime;
+
+  /** Shared service used to create metadata stores, or null. */
+  private OMEXMLService omexmlService;
+
+  /** Reader to wrap instead of a new {@link ImageReader}, or null. */
+  private ImageReader baseReader;
+
+  /** Decides whether the initialized input is converted, or null. */
+  private InputFilter inputFilter;
+
+  /** Whether the last conversion was skipped by {@link #inputFilter}. */
+  private boolean skipped;
+
+  /** Timing of the last successful conversion. */
+  private ConversionTiming timing;
+
   // -- Constructor --
 
-  private ImageConverter() { }
+  ImageConverter() { }
 
   /**
    * Parse the given argument list to determine how to perform file conversion.
@@ -199,6 +276,13 @@ public final class ImageConverter {
           }
           catch (NumberFormatException e) { }
         }
+        else if (args[i].equals("-threads")) {
+          try {
+            threads = Integer.parseInt(args[++i]);
+          }
+          catch (NumberFormatException e) { }
+        }
+        else if (args[i].equals("-resume")) resume = true;
         else if (!args[i].equals(CommandLineTools.NO_UPGRADE_CHECK)) {
           LOGGER.error("Found unknown command flag: {}; exiting.", args[i]);
           return false;
@@ -230,6 +314,7 @@ public final class ImageConverter {
       "    [-range start end] [-crop x,y,w,h] [-channel channel] [-z Z]",
       "    [-timepoint timepoint] [-nogroup] [-nolookup] [-autoscale]",
       "    [-version] [-no-upgrade] [-padded] [-option key value]",
+      "    [-threads count] [-resume]",
       "    in_file out_file",
       "",
       "    -version: print the library version and exit",
@@ -258,6 +343,10 @@ public final class ImageConverter {
       "  -timepoint: only convert the specified timepoint (indexed from 0)",
       "     -padded: filename indexes for series, z, c and t will be zero padded",
       "     -option: add the specified key/value pair to the options list",
+      "    -threads: number of threads to use for reading and compressing",
+      "              tiles; planes are still written in order",
+      "     -resume: checkpoint TIFF output as it is written, and continue",
+      "              an interrupted conversion from its last checkpoint",
       "",
       "If any of the following patterns are present in out_file, they will",
       "be replaced with the indicated metadata value from the input file.",
@@ -288,7 +377,11 @@ public final class ImageConverter {
       "  ...",
       "  converted_Z4_T2.tiff",
       "",
-      "Each file would have a single image plane."
+      "Each file would have a single image plane.",
+      "",
+      "When a tiled TIFF-based file is converted to TIFF or OME-TIFF and",
+      "-compression matches the compression of the input tiles, the tiles",
+      "are copied as-is instead of being decompressed and recompressed."
     };
     for (int i=0; i<s.length; i++) LOGGER.info(s[i]);
   }
@@ -298,8 +391,68 @@ public final class ImageConverter {
   /** A utility method for converting a file from the command line. */
   public boolean testConvert(IFormatWriter writer, String[] args)
     throws FormatException, IOException
+  {
+    try {
+      return convert(writer, args);
+    }
+    finally {
+      stopPipeline();
+      if (reader != null) {
+        reader.close();
+        reader = null;
+      }
+    }
+  }
+
+  // -- Package-private methods --
+
+  /**
+   * Set the service used to create metadata stores, so that it can be shared
+   * by several conversions.
+   */
+  void setOMEXMLService(OMEXMLService service) {
+    omexmlService = service;
+  }
+
+  /**
+   * Set the reader wrapped by the reader used for conversion.  The reader
+   * is closed once conversion finishes, and can then be reused.
+   */
+  void setBaseReader(ImageReader reader) {
+    baseReader = reader;
+  }
+
+  /** Set the filter that decides whether an initialized input is converted. */
+  void setInputFilter(InputFilter filter) {
+    inputFilter = filter;
+  }
+
+  /** Whether the last conversion was skipped by the input filter. */
+  boolean isSkipped() {
+    return skipped;
+  }
+
+  /** Get the timing of the last conversion, or null if it did not finish. */
+  ConversionTiming getTiming() {
+    return timing;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Convert the file given in the command line arguments.
+   * @param writer the {@link loci.formats.IFormatWriter} to use for writing
+   * @param args the list of command line arguments
+   * @return whether or not the conversion succeeded
+   * @throws FormatException
+   * @throws IOException
+   */
+  private boolean convert(IFormatWriter writer, String[] args)
+    throws FormatException, IOException
   {
     nextOutputIndex.clear();
+    skipped = false;
+    timing = null;
     options.setValidate(validate);
     writer.setMetadataOptions(options);
     firstTile = true;
@@ -320,7 +473,16 @@ public final class ImageConverter {
       return false;
     }
 
-    if (new Location(out).exists()) {
+    if (resume && out.indexOf('%') >= 0) {
+      LOGGER.warn("-resume requires a single output file; ignoring -resume");
+      resume = false;
+    }
+    boolean resuming =
+      resume && new Location(TiffJournal.getJournalFile(out)).exists();
+    if (resuming) {
+      LOGGER.info("Resuming conversion to {}", out);
+    }
+    else if (new Location(out).exists()) {
       if (overwrite == null) {
         LOGGER.warn("Output file {} exists.", out);
         LOGGER.warn("Do you want to overwrite it? ([y]/n)");
@@ -343,9 +505,7 @@ public final class ImageConverter {
 
     long start = System.currentTimeMillis();
     LOGGER.info(in);
-    reader = new ImageReader();
     if (stitch) {
-      reader = new FileStitcher(reader);
       Location f = new Location(in);
       String pat = null;
       if (!f.exists()) {
@@ -356,23 +516,29 @@ public final class ImageConverter {
       }
       if (pat != null) in = pat;
     }
-    if (separate) reader = new ChannelSeparator(reader);
-    if (merge) reader = new ChannelMerger(reader);
-    if (fill) reader = new ChannelFiller(reader);
+    if (threads > 1 && autoscale) {
+      LOGGER.warn("-autoscale requires all planes to be read by one " +
+        "reader; ignoring -threads");
+      threads = 1;
+    }
+    memoDirectory = null;
+    if (threads > 1) {
+      // pooled readers are initialized from the memo written by this reader
+      memoDirectory = Files.createTempDirectory("bfconvert").toFile();
+    }
+    reader = createReader(
+      baseReader == null ? new ImageReader() : baseReader, memoDirectory);
     minMax = null;
     if (autoscale) {
-      reader = new MinMaxCalculator(reader);
       minMax = (MinMaxCalculator) reader;
     }
 
-    reader.setMetadataOptions(options);
-    reader.setGroupFiles(group);
-    reader.setMetadataFiltered(true);
-    reader.setOriginalMetadataPopulated(true);
-    OMEXMLService service = null;
+    OMEXMLService service = omexmlService;
     try {
-      ServiceFactory factory = new ServiceFactory();
-      service = factory.getInstance(OMEXMLService.class);
+      if (service == null) {
+        ServiceFactory factory = new ServiceFactory();
+        service = factory.getInstance(OMEXMLService.class);
+      }
       reader.setMetadataStore(service.createOMEXMLMetadata());
     }
     catch (DependencyException de) {
@@ -384,6 +550,12 @@ public final class ImageConverter {
 
     reader.setId(in);
 
+    if (inputFilter != null && !inputFilter.accept(reader)) {
+      LOGGER.info("Skipping {}", in);
+      skipped = true;
+      return true;
+    }
+
     MetadataStore store = reader.getMetadataStore();
 
     MetadataTools.populatePixels(store, reader, false, false);
@@ -486,6 +658,19 @@ public final class ImageConverter {
       }
     }
 
+    resumeWriter = null;
+    if (resume) {
+      IFormatWriter w = getBaseWriter(writer);
+      if (w instanceof TiffWriter) {
+        resumeWriter = (TiffWriter) w;
+        resumeWriter.setCheckpointInterval(CHECKPOINT_INTERVAL);
+        resumeWriter.setResume(true);
+      }
+      else {
+        LOGGER.warn("-resume requires TIFF output; ignoring -resume");
+      }
+    }
+
     String format = writer.getFormat();
     LOGGER.info("[{}] -> {} [{}]",
       new Object[] {reader.getFormat(), out, format});
@@ -497,7 +682,12 @@ public final class ImageConverter {
     int first = series == -1 ? 0 : series;
     int last = series == -1 ? num : series + 1;
     long timeLastLogged = System.currentTimeMillis();
+    if (threads > 1) {
+      startPipeline();
+    }
     for (int q=first; q<last; q++) {
+      // planes of the previous series must be written before switching series
+      drainPipeline(writer);
       reader.setSeries(q);
       firstTile = true;
 
@@ -540,6 +730,9 @@ public final class ImageConverter {
 
         String outputName = FormatTools.getFilename(q, i, reader, out, zeroPadding);
         if (outputName.equals(FormatTools.getTileFilename(0, 0, 0, outputName))) {
+          if (!outputName.equals(pendingFile)) {
+            drainPipeline(writer);
+          }
           writer.setId(outputName);
           if (compression != null) writer.setCompression(compression);
         }
@@ -560,10 +753,21 @@ public final class ImageConverter {
         }
 
         long s = System.currentTimeMillis();
-        long m = convertPlane(writer, i, outputIndex, outputName);
-        long e = System.currentTimeMillis();
-        read += m - s;
-        write += e - m;
+        long e;
+        if (resumeWriter != null && resumeWriter.isPlaneWritten(outputIndex)) {
+          LOGGER.debug("Plane {} was already written", outputIndex);
+          e = s;
+        }
+        else if (executor != null) {
+          submitPlane(writer, i, outputIndex, outputName);
+          e = System.currentTimeMillis();
+        }
+        else {
+          long m = convertPlane(writer, i, outputIndex, outputName);
+          e = System.currentTimeMillis();
+          read += m - s;
+          write += e - m;
+        }
 
         nextOutputIndex.put(outputName, outputIndex + 1);
         if (i == endPlane - 1) {
@@ -590,6 +794,14 @@ public final class ImageConverter {
         count++;
       }
     }
+    if (executor != null) {
+      drainPipeline(writer);
+      pendingFile = null;
+      synchronized (readClock) {
+        read = readTime;
+      }
+      write = writeTime;
+    }
     writer.close();
     long end = System.currentTimeMillis();
     LOGGER.info("[done]");
@@ -601,12 +813,12 @@ public final class ImageConverter {
     float writeAvg = (float) write / total;
     LOGGER.info("{}s elapsed ({}+{}ms per plane, {}ms overhead)",
       new Object[] {sec, readAvg, writeAvg, initial});
+    timing = new ConversionTiming(reader.getFormat(),
+      reader.getUsedFiles().length, total, initial, read, write, end - start);
 
     return true;
   }
 
-  // -- Helper methods --
-
   /**
    * Convert the specified plane using the given writer.
    * @param writer the {@link loci.formats.IFormatWriter} to use for writing the plane
@@ -621,18 +833,8 @@ public final class ImageConverter {
     String currentFile)
     throws FormatException, IOException
   {
-    if (DataTools.safeMultiply64(width, height) >=
-      DataTools.safeMultiply64(4096, 4096) ||
-      saveTileWidth > 0 || saveTileHeight > 0)
-    {
-      // this is a "big image" or an output tile size was set, so we will attempt
-      // to convert it one tile at a time
-
-      if ((writer instanceof TiffWriter) || ((writer instanceof ImageWriter) &&
-        (((ImageWriter) writer).getWriter(out) instanceof TiffWriter)))
-      {
-        return convertTilePlane(writer, index, outputIndex, currentFile);
-      }
+    if (isTiledConversion(writer)) {
+      return convertTilePlane(writer, index, outputIndex, currentFile);
     }
 
     byte[] buf =
@@ -659,20 +861,19 @@ public final class ImageConverter {
     String currentFile)
     throws FormatException, IOException
   {
-    int w = reader.getOptimalTileWidth();
-    int h = reader.getOptimalTileHeight();
-    if (saveTileWidth > 0 && saveTileWidth <= width) {
-      w = saveTileWidth;
-    }
-    if (saveTileHeight > 0 && saveTileHeight <= height) {
-      h = saveTileHeight;
-    }
+    int w = getOutputTileWidth();
+    int h = getOutputTileHeight();
 
     if (firstTile) {
       LOGGER.info("Tile size = {} x {}", w, h);
       firstTile = false;
     }
 
+    TileCodec codec = getPassthroughCodec(writer, index, currentFile, w, h);
+    if (codec != null) {
+      return convertCompressedTilePlane(writer, codec, index, outputIndex);
+    }
+
     int nXTiles = width / w;
     int nYTiles = height / h;
 
@@ -694,6 +895,9 @@ public final class ImageConverter {
         int tileY = yCoordinate + y * h;
         int tileWidth = x < nXTiles - 1 ? w : width - (w * x);
         int tileHeight = y < nYTiles - 1 ? h : height - (h * y);
+        if (isTileWritten(outputIndex, tileX, tileY)) {
+          continue;
+        }
         byte[] buf =
           reader.openBytes(index, tileX, tileY, tileWidth, tileHeight);
 
@@ -751,7 +955,472 @@ public final class ImageConverter {
         }
       }
     }
-    return m;
+    return m == null ? System.currentTimeMillis() : m;
+  }
+
+  /**
+   * Copy the compressed tiles of the specified plane to the output file,
+   * without decoding and re-encoding them.
+   * @param writer the {@link loci.formats.IFormatWriter} to use for writing the plane
+   * @param codec the compression and tile layout shared by the input and output
+   * @param index the index of the plane to convert in the input file
+   * @param outputIndex the index of the plane to convert in the output file
+   * @return the time at which conversion started, in milliseconds
+   * @throws FormatException
+   * @throws IOException
+   */
+  private long convertCompressedTilePlane(IFormatWriter writer,
+    TileCodec codec, int index, int outputIndex)
+    throws FormatException, IOException
+  {
+    ICompressedTileReader tileReader = getCompressedTileReader(reader);
+    TiffWriter tiffWriter = (TiffWriter) getBaseWriter(writer);
+
+    int w = (int) codec.getTileWidth();
+    int h = (int) codec.getTileLength();
+    int nXTiles = (width + w - 1) / w;
+    int nYTiles = (height + h - 1) / h;
+
+    IFD ifd = new IFD();
+    ifd.put(IFD.TILE_WIDTH, w);
+    ifd.put(IFD.TILE_LENGTH, h);
+
+    LOGGER.debug("Copying compressed tiles ({})", codec);
+    applyLUT(writer);
+    Long m = null;
+    for (int y=0; y<nYTiles; y++) {
+      for (int x=0; x<nXTiles; x++) {
+        int tileX = x * w;
+        int tileY = y * h;
+        if (isTileWritten(outputIndex, tileX, tileY)) {
+          continue;
+        }
+        byte[] tile = tileReader.openCompressedTile(index, y, x);
+        if (m == null) {
+          m = System.currentTimeMillis();
+        }
+        if (tile != null) {
+          tiffWriter.saveCompressedTile(outputIndex, tile, codec, ifd,
+            tileX, tileY);
+        }
+        else {
+          // the tile is missing from the input file, so it has to be encoded
+          int tileWidth = Math.min(w, width - tileX);
+          int tileHeight = Math.min(h, height - tileY);
+          byte[] buf =
+            reader.openBytes(index, tileX, tileY, tileWidth, tileHeight);
+          tiffWriter.saveBytes(outputIndex, buf, ifd,
+            tileX, tileY, tileWidth, tileHeight);
+        }
+      }
+    }
+    return m == null ? System.currentTimeMillis() : m;
+  }
+
+  /**
+   * Get the compression and tile layout of the specified plane, if its tiles
+   * can be copied to the output file without being decoded.
+   * @param writer the {@link loci.formats.IFormatWriter} to use for writing the plane
+   * @param index the index of the plane to convert in the input file
+   * @param currentFile the file name or pattern being written to
+   * @param w the width of the tiles to be written
+   * @param h the height of the tiles to be written
+   * @return the codec shared by the input and output, or null if the plane
+   *         must be re-encoded
+   * @throws FormatException
+   * @throws IOException
+   */
+  private TileCodec getPassthroughCodec(IFormatWriter writer, int index,
+    String currentFile, int w, int h)
+    throws FormatException, IOException
+  {
+    // any cropping or pixel transformation requires decoding
+    if (autoscale || xCoordinate != 0 || yCoordinate != 0 ||
+      width != reader.getSizeX() || height != reader.getSizeY() ||
+      !currentFile.equals(FormatTools.getTileFilename(0, 0, 0, currentFile)))
+    {
+      return null;
+    }
+    ICompressedTileReader tileReader = getCompressedTileReader(reader);
+    IFormatWriter baseWriter = getBaseWriter(writer);
+    if (tileReader == null || !(baseWriter instanceof TiffWriter)) {
+      return null;
+    }
+    TileCodec codec = tileReader.getTileCodec(index);
+    if (codec == null || codec.getTileWidth() != w ||
+      codec.getTileLength() != h ||
+      !((TiffWriter) baseWriter).canSaveCompressedTile(codec))
+    {
+      return null;
+    }
+    return codec;
+  }
+
+  /**
+   * Determine whether the given tile was written before the conversion was
+   * resumed, according to the output file's checkpoint journal.
+   * @param outputIndex the index of the plane in the output file
+   * @param tileX the X coordinate of the tile in the output plane
+   * @param tileY the Y coordinate of the tile in the output plane
+   * @return true if the tile does not need to be converted again
+   */
+  private boolean isTileWritten(int outputIndex, int tileX, int tileY) {
+    return resumeWriter != null &&
+      resumeWriter.isTileWritten(outputIndex, tileX, tileY);
+  }
+
+  /**
+   * Get the writer that will actually write the output file.
+   * @param writer the {@link loci.formats.IFormatWriter} used for conversion
+   * @return the format-specific writer wrapped by an
+   *         {@link loci.formats.ImageWriter}, or the given writer
+   * @throws FormatException
+   */
+  private IFormatWriter getBaseWriter(IFormatWriter writer)
+    throws FormatException
+  {
+    if (writer instanceof ImageWriter) {
+      return ((ImageWriter) writer).getWriter(out);
+    }
+    return writer;
+  }
+
+  /**
+   * Determine whether planes should be converted one tile at a time.
+   * @param writer the {@link loci.formats.IFormatWriter} used for conversion
+   * @return true if the output is a TIFF and either the plane is large or
+   *         an output tile size was set
+   * @throws FormatException
+   */
+  private boolean isTiledConversion(IFormatWriter writer)
+    throws FormatException
+  {
+    // this is a "big image" or an output tile size was set, so we will attempt
+    // to convert it one tile at a time
+    boolean tiled = DataTools.safeMultiply64(width, height) >=
+      DataTools.safeMultiply64(4096, 4096) ||
+      saveTileWidth > 0 || saveTileHeight > 0;
+    return tiled && getBaseWriter(writer) instanceof TiffWriter;
+  }
+
+  /** Get the width of the tiles written by tiled conversion. */
+  private int getOutputTileWidth() {
+    if (saveTileWidth > 0 && saveTileWidth <= width) {
+      return saveTileWidth;
+    }
+    return reader.getOptimalTileWidth();
+  }
+
+  /** Get the height of the tiles written by tiled conversion. */
+  private int getOutputTileHeight() {
+    if (saveTileHeight > 0 && saveTileHeight <= height) {
+      return saveTileHeight;
+    }
+    return reader.getOptimalTileHeight();
+  }
+
+  /**
+   * Find the reader that can supply compressed tiles without decoding.
+   * @param r the reader used for conversion
+   * @return the format-specific reader, or null if it does not implement
+   *         {@link loci.formats.ICompressedTileReader} or is wrapped by a
+   *         reader that modifies pixels
+   */
+  private static ICompressedTileReader getCompressedTileReader(
+    IFormatReader r)
+  {
+    if (r instanceof Memoizer) {
+      r = ((Memoizer) r).getReader();
+    }
+    if (r instanceof ImageReader) {
+      r = ((ImageReader) r).getReader();
+    }
+    if (r instanceof ICompressedTileReader) {
+      return (ICompressedTileReader) r;
+    }
+    return null;
+  }
+
+  /**
+   * Create a reader with the wrappers and options requested on the
+   * command line.
+   * @param base the innermost reader
+   * @param memoDir the directory in which memo files are stored, or null if
+   *                the reader should not be memoized
+   */
+  private IFormatReader createReader(ImageReader base, File memoDir) {
+    IFormatReader r = base;
+    if (stitch) {
+      r = new FileStitcher(r);
+    }
+    if (separate) r = new ChannelSeparator(r);
+    if (merge) r = new ChannelMerger(r);
+    if (fill) r = new ChannelFiller(r);
+    if (autoscale) r = new MinMaxCalculator(r);
+    if (memoDir != null) {
+      r = new Memoizer(r, 0, memoDir);
+    }
+
+    r.setMetadataOptions(options);
+    r.setGroupFiles(group);
+    r.setMetadataFiltered(true);
+    r.setOriginalMetadataPopulated(true);
+    return r;
+  }
+
+  // -- Pipeline methods --
+
+  /**
+   * Start the worker threads and open one reader per thread.  Pooled readers
+   * are initialized from the memo file written by the primary reader, so
+   * the input is only parsed once.
+   */
+  private void startPipeline() throws FormatException, IOException {
+    final AtomicInteger threadCount = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "bfconvert-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    readerPool = new LinkedBlockingQueue<IFormatReader>();
+    synchronized (readClock) {
+      readTime = 0;
+      activeReads = 0;
+    }
+    writeTime = 0;
+
+    List<Future<IFormatReader>> readers =
+      new ArrayList<Future<IFormatReader>>();
+    for (int i=0; i<threads; i++) {
+      readers.add(executor.submit(new Callable<IFormatReader>() {
+        @Override
+        public IFormatReader call() throws Exception {
+          IFormatReader r =
+            createReader(new ImageReader(), memoDirectory);
+          r.setId(in);
+          return r;
+        }
+      }));
+    }
+    for (Future<IFormatReader> r : readers) {
+      readerPool.add(getResult(r));
+    }
+    LOGGER.info("Converting with {} threads", threads);
+  }
+
+  /**
+   * Queue the given plane for conversion by the worker threads.  Planes are
+   * read (and, for tiled TIFF output, compressed) in the background, and
+   * written in order by {@link #writeNextRegion(IFormatWriter)}.
+   */
+  private void submitPlane(IFormatWriter writer, int index, int outputIndex,
+    String currentFile)
+    throws FormatException, IOException
+  {
+    boolean tiled = isTiledConversion(writer);
+    if (tiled &&
+      !currentFile.equals(FormatTools.getTileFilename(0, 0, 0, currentFile)))
+    {
+      // each tile is written to a separate file
+      drainPipeline(writer);
+      long s = System.currentTimeMillis();
+      long m = convertTilePlane(writer, index, outputIndex, currentFile);
+      synchronized (readClock) {
+        readTime += m - s;
+      }
+      writeTime += System.currentTimeMillis() - m;
+      return;
+    }
+
+    pendingFile = currentFile;
+    int series = reader.getSeries();
+    if (!tiled) {
+      enqueue(writer, new ConvertedRegion(series, index, outputIndex,
+        xCoordinate, yCoordinate, width, height));
+      return;
+    }
+
+    TiffWriter tiffWriter = (TiffWriter) getBaseWriter(writer);
+    int w = getOutputTileWidth();
+    int h = getOutputTileHeight();
+    if (firstTile) {
+      LOGGER.info("Tile size = {} x {}", w, h);
+      firstTile = false;
+    }
+
+    TileCodec rawCodec = getPassthroughCodec(writer, index, currentFile, w, h);
+    TileCodec codec = null;
+    if (rawCodec == null && xCoordinate % w == 0 && yCoordinate % h == 0) {
+      // compressed tiles can only be written at tile boundaries
+      codec = tiffWriter.getTileCodec(w, h);
+    }
+
+    // all tiles of a plane must share one IFD
+    IFD ifd = new IFD();
+    ifd.put(IFD.TILE_WIDTH, w);
+    ifd.put(IFD.TILE_LENGTH, h);
+
+    int nXTiles = (width + w - 1) / w;
+    int nYTiles = (height + h - 1) / h;
+    for (int y=0; y<nYTiles; y++) {
+      for (int x=0; x<nXTiles; x++) {
+        int tileX = xCoordinate + x * w;
+        int tileY = yCoordinate + y * h;
+        int tileWidth = Math.min(w, width - x * w);
+        int tileHeight = Math.min(h, height - y * h);
+        if (isTileWritten(outputIndex, tileX, tileY)) {
+          continue;
+        }
+        ConvertedRegion region = new ConvertedRegion(series, index,
+          outputIndex, tileX, tileY, tileWidth, tileHeight);
+        region.writer = tiffWriter;
+        region.ifd = ifd;
+        region.row = y;
+        region.col = x;
+        region.rawCodec = rawCodec;
+        region.codec = codec;
+        enqueue(writer, region);
+      }
+    }
+  }
+
+  /**
+   * Submit the given region to the worker threads, first writing completed
+   * regions if too many are pending.
+   */
+  private void enqueue(IFormatWriter writer, ConvertedRegion region)
+    throws FormatException, IOException
+  {
+    while (pending.size() >= 2 * threads) {
+      writeNextRegion(writer);
+    }
+    pending.addLast(executor.submit(new RegionTask(region)));
+  }
+
+  /** Wait for the oldest pending region and write it. */
+  private void writeNextRegion(IFormatWriter writer)
+    throws FormatException, IOException
+  {
+    ConvertedRegion region = getResult(pending.removeFirst());
+    long start = System.currentTimeMillis();
+    // the lookup table is taken from the reader that decoded the region
+    setColorModel(writer, region.lut, region.lut16, region.littleEndian);
+    if (region.ifd == null) {
+      writer.saveBytes(region.outputIndex, region.data);
+    }
+    else if (region.dataCodec != null) {
+      region.writer.saveCompressedTile(region.outputIndex, region.data,
+        region.dataCodec, region.ifd, region.x, region.y);
+    }
+    else {
+      region.writer.saveBytes(region.outputIndex, region.data, region.ifd,
+        region.x, region.y, region.width, region.height);
+    }
+    writeTime += System.currentTimeMillis() - start;
+  }
+
+  /** Record that a pooled reader has started reading. */
+  private void startRead() {
+    synchronized (readClock) {
+      if (activeReads++ == 0) {
+        readStart = System.currentTimeMillis();
+      }
+    }
+  }
+
+  /**
+   * Record that a pooled reader has stopped reading.  Overlapping reads are
+   * only counted once, so the read time is wall time rather than the sum of
+   * the time spent by each thread.
+   */
+  private void endRead() {
+    synchronized (readClock) {
+      if (--activeReads == 0) {
+        readTime += System.currentTimeMillis() - readStart;
+      }
+    }
+  }
+
+  /** Write all pending regions. */
+  private void drainPipeline(IFormatWriter writer)
+    throws FormatException, IOException
+  {
+    while (!pending.isEmpty()) {
+      writeNextRegion(writer);
+    }
+  }
+
+  /**
+   * Stop the worker threads, close the pooled readers and remove the
+   * temporary memo files.  Regions that have not been written are discarded.
+   */
+  private void stopPipeline() throws IOException {
+    for (Future<ConvertedRegion> f : pending) {
+      f.cancel(true);
+    }
+    pending.clear();
+    pendingFile = null;
+    if (executor != null) {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      executor = null;
+    }
+    if (readerPool != null) {
+      for (IFormatReader r : readerPool) {
+        r.close();
+      }
+      readerPool = null;
+    }
+    if (memoDirectory != null) {
+      deleteRecursively(memoDirectory);
+      memoDirectory = null;
+    }
+  }
+
+  /**
+   * Get the result of a task run by the worker threads, rethrowing any
+   * exception thrown by the task.
+   */
+  private static <T> T getResult(Future<T> future)
+    throws FormatException, IOException
+  {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while converting", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FormatException) {
+        throw (FormatException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new FormatException(cause);
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    if (!file.delete()) {
+      LOGGER.debug("Could not delete {}", file);
+    }
   }
 
   /**
@@ -860,19 +1529,151 @@ public final class ImageConverter {
   {
     if (lookup) {
       byte[][] lut = reader.get8BitLookupTable();
-      if (lut != null) {
-        IndexColorModel model = new IndexColorModel(8, lut[0].length,
-          lut[0], lut[1], lut[2]);
-        writer.setColorModel(model);
-      }
-      else {
-        short[][] lut16 = reader.get16BitLookupTable();
-        if (lut16 != null) {
-          Index16ColorModel model = new Index16ColorModel(16, lut16[0].length,
-            lut16, reader.isLittleEndian());
-          writer.setColorModel(model);
+      short[][] lut16 = lut == null ? reader.get16BitLookupTable() : null;
+      setColorModel(writer, lut, lut16, reader.isLittleEndian());
+    }
+  }
+
+  /**
+   * Set the color model in the given writer from an 8-bit or 16-bit lookup
+   * table.  Nothing is changed if both lookup tables are null.
+   */
+  private void setColorModel(IFormatWriter writer, byte[][] lut,
+    short[][] lut16, boolean littleEndian)
+    throws FormatException, IOException
+  {
+    if (lut != null) {
+      IndexColorModel model = new IndexColorModel(8, lut[0].length,
+        lut[0], lut[1], lut[2]);
+      writer.setColorModel(model);
+    }
+    else if (lut16 != null) {
+      Index16ColorModel model = new Index16ColorModel(16, lut16[0].length,
+        lut16, littleEndian);
+      writer.setColorModel(model);
+    }
+  }
+
+  // -- Helper classes --
+
+  /** Decides whether an input is converted once it has been initialized. */
+  interface InputFilter {
+    /**
+     * @param reader the initialized reader
+     * @return true if the input should be converted
+     */
+    boolean accept(IFormatReader reader);
+  }
+
+  /** Timing of a single conversion, in milliseconds. */
+  static class ConversionTiming {
+    final String format;
+    final int usedFiles;
+    final int planes;
+    final long initTime;
+    final long readTime;
+    final long writeTime;
+    final long totalTime;
+
+    ConversionTiming(String format, int usedFiles, int planes,
+      long initTime, long readTime, long writeTime, long totalTime)
+    {
+      this.format = format;
+      this.usedFiles = usedFiles;
+      this.planes = planes;
+      this.initTime = initTime;
+      this.readTime = readTime;
+      this.writeTime = writeTime;
+      this.totalTime = totalTime;
+    }
+  }
+
+  /** A region of a plane that is converted by the worker threads. */
+  private static class ConvertedRegion {
+    final int series;
+    final int index;
+    final int outputIndex;
+    final int x;
+    final int y;
+    final int width;
+    final int height;
+
+    /** Writer for tiled output; null if the whole plane is saved at once. */
+    TiffWriter writer;
+    /** IFD shared by all tiles of the plane; null for untiled output. */
+    IFD ifd;
+    int row;
+    int col;
+    /** Codec of the input tile, if it can be copied without decoding. */
+    TileCodec rawCodec;
+    /** Codec with which to compress the tile in the worker thread. */
+    TileCodec codec;
+
+    /** Pixels read from the input. */
+    byte[] data;
+    /** Codec of the data if it is already compressed, or null. */
+    TileCodec dataCodec;
+    /** Lookup tables of the reader that read the data, if requested. */
+    byte[][] lut;
+    short[][] lut16;
+    boolean littleEndian;
+
+    ConvertedRegion(int series, int index, int outputIndex,
+      int x, int y, int width, int height)
+    {
+      this.series = series;
+      this.index = index;
+      this.outputIndex = outputIndex;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+  }
+
+  /** Reads and compresses a region using a reader from the pool. */
+  private class RegionTask implements Callable<ConvertedRegion> {
+    private final ConvertedRegion region;
+
+    RegionTask(ConvertedRegion region) {
+      this.region = region;
+    }
+
+    @Override
+    public ConvertedRegion call() throws Exception {
+      IFormatReader r = readerPool.take();
+      startRead();
+      try {
+        r.setSeries(region.series);
+        if (region.rawCodec != null) {
+          region.data = getCompressedTileReader(r).openCompressedTile(
+            region.index, region.row, region.col);
+          if (region.data != null) {
+            region.dataCodec = region.rawCodec;
+          }
+        }
+        if (region.data == null) {
+          region.data = r.openBytes(region.index,
+            region.x, region.y, region.width, region.height);
         }
+        if (lookup) {
+          region.lut = r.get8BitLookupTable();
+          if (region.lut == null) {
+            region.lut16 = r.get16BitLookupTable();
+          }
+          region.littleEndian = r.isLittleEndian();
+        }
+      }
+      finally {
+        endRead();
+        readerPool.put(r);
+      }
+      if (region.dataCodec == null && region.codec != null) {
+        region.data = region.writer.compressTile(region.data, region.codec,
+          region.width, region.height);
+        region.dataCodec = region.codec;
       }
+      return region;
     }
   }
 
@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * Bio-Formats command line tools for reading and converting files
+ * %%
+ * Copyright (C) 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.tools;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import loci.common.Constants;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.tools.BatchConverter.Dataset;
+import loci.formats.tools.BatchConverter.Status;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the functionality of BatchConverter
+ */
+public class BatchConverterTest {
+
+  private File inputDir;
+  private File outputDir;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    inputDir = Files.createTempDirectory("BatchConverterTest").toFile();
+    outputDir = Files.createTempDirectory("BatchConverterTest").toFile();
+    new File(inputDir, "a&sizeZ=2.fake").createNewFile();
+    File subdir = new File(inputDir, "sub");
+    subdir.mkdir();
+    new File(subdir, "b&sizeT=3.fake").createNewFile();
+    new File(inputDir, "notes.txt").createNewFile();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    delete(inputDir);
+    delete(outputDir);
+  }
+
+  @Test
+  public void testFindDatasets() {
+    BatchConverter converter = new BatchConverter();
+    converter.setPattern("*.fake");
+    List<Dataset> datasets = converter.findDatasets(inputDir, outputDir);
+    assertEquals(datasets.size(), 2);
+    assertEquals(datasets.get(0).getOutput(),
+      new File(outputDir, "a&sizeZ=2.ome.tiff").getPath());
+    assertEquals(datasets.get(1).getOutput(),
+      new File(outputDir, "sub" + File.separator + "b&sizeT=3.ome.tiff")
+      .getPath());
+  }
+
+  @Test
+  public void testConvertDirectory() throws Exception {
+    BatchConverter converter = new BatchConverter("-compression", "LZW");
+    converter.setJobs(2);
+    converter.setPattern("*.fake");
+    List<Dataset> datasets =
+      converter.convert(converter.findDatasets(inputDir, outputDir));
+    for (Dataset d : datasets) {
+      assertEquals(d.getStatus(), Status.CONVERTED, d.getMessage());
+      assertEquals(d.getFormat(), "Simulated data");
+    }
+    assertEquals(datasets.get(0).getPlaneCount(), 2);
+    assertEquals(datasets.get(1).getPlaneCount(), 3);
+    assertEquals(getImageCount(datasets.get(1).getOutput()), 3);
+
+    // outputs are not overwritten by default
+    converter.convert(datasets);
+    assertEquals(datasets.get(0).getStatus(), Status.EXISTS);
+  }
+
+  @Test
+  public void testManifest() throws Exception {
+    File manifest = new File(inputDir, "manifest.txt");
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(manifest), Constants.ENCODING));
+    out.println("# input\toutput");
+    out.println("a&sizeZ=2.fake\tfirst.ome.tiff");
+    out.println("a&sizeZ=2.fake\tsecond.ome.tiff");
+    out.println("sub/b&sizeT=3.fake");
+    out.close();
+
+    BatchConverter converter = new BatchConverter();
+    List<Dataset> datasets = converter.readManifest(manifest, outputDir);
+    assertEquals(datasets.size(), 3);
+    assertEquals(datasets.get(2).getOutput(),
+      new File(outputDir, "b&sizeT=3.ome.tiff").getPath());
+
+    converter.convert(datasets);
+    assertEquals(datasets.get(0).getStatus(), Status.CONVERTED);
+    // the same dataset is only converted once
+    assertEquals(datasets.get(1).getStatus(), Status.GROUPED);
+    assertTrue(!new File(datasets.get(1).getOutput()).exists());
+    assertEquals(datasets.get(2).getStatus(), Status.CONVERTED);
+
+    StringWriter report = new StringWriter();
+    BatchConverter.writeReport(datasets, new PrintWriter(report));
+    String[] lines = report.toString().split("\r?\n");
+    assertEquals(lines.length, 4);
+    assertTrue(lines[0].startsWith("input\toutput\tstatus"));
+    assertEquals(lines[1].split("\t", -1).length, 11);
+  }
+
+  @Test
+  public void testCompanionFileReadableOnItsOwn() throws Exception {
+    File patternDir = new File(inputDir, "pattern");
+    patternDir.mkdir();
+    File first = new File(patternDir, "z1.fake");
+    File second = new File(patternDir, "z2.fake");
+    first.createNewFile();
+    second.createNewFile();
+    File pattern = new File(patternDir, "stack.pattern");
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(pattern), Constants.ENCODING));
+    out.println("z<1-2>.fake");
+    out.close();
+
+    // the companion files come first, so that they would be converted
+    // first if datasets were grouped as they were converted
+    List<Dataset> datasets = new ArrayList<Dataset>();
+    datasets.add(new Dataset(first.getPath(),
+      new File(outputDir, "z1.ome.tiff").getPath()));
+    datasets.add(new Dataset(second.getPath(),
+      new File(outputDir, "z2.ome.tiff").getPath()));
+    datasets.add(new Dataset(pattern.getPath(),
+      new File(outputDir, "stack.ome.tiff").getPath()));
+
+    BatchConverter converter = new BatchConverter();
+    converter.convert(datasets);
+    assertEquals(datasets.get(2).getStatus(), Status.CONVERTED,
+      datasets.get(2).getMessage());
+    assertEquals(datasets.get(2).getUsedFileCount(), 3);
+    assertEquals(getImageCount(datasets.get(2).getOutput()), 2);
+    for (int i=0; i<2; i++) {
+      assertEquals(datasets.get(i).getStatus(), Status.GROUPED);
+      assertTrue(!new File(datasets.get(i).getOutput()).exists());
+    }
+  }
+
+  private int getImageCount(String file) throws Exception {
+    IFormatReader reader = new ImageReader();
+    try {
+      reader.setId(file);
+      return reader.getImageCount();
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  private void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+}
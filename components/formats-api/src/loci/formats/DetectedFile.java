@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * Top-level reader and writer APIs
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+/**
+ * Encompasses the result of detecting the format of a file with
+ * {@link FormatDetector}.
+ */
+public class DetectedFile {
+
+  // -- Fields --
+
+  /** Path to this file, as given to the detector. */
+  public String filename;
+
+  /**
+   * IFormatReader implementation that would be used to read this file,
+   * or null if the format is unknown.
+   */
+  public Class<? extends IFormatReader> reader;
+
+  /** Short name of the file format, or null if the format is unknown. */
+  public String format;
+
+  /**
+   * Whether this file must, can or cannot be grouped with others; one of
+   * {@link FormatTools#MUST_GROUP}, {@link FormatTools#CAN_GROUP} or
+   * {@link FormatTools#CANNOT_GROUP}, or -1 if the format is unknown.
+   */
+  public int fileGroupOption = -1;
+
+  /**
+   * Absolute paths of all files in the dataset that contains this file, or
+   * null if the dataset could not be determined. Files in the same dataset
+   * share the same array.
+   */
+  public String[] usedFiles;
+
+  /** The exception that prevented detection or grouping, if any. */
+  public Exception error;
+
+  // -- Object API methods --
+
+  @Override
+  public String toString() {
+    return "filename = " + filename + "\nreader = " +
+      (reader == null ? null : reader.getName()) +
+      "\nfile group option = " + fileGroupOption +
+      "\nused files = " + (usedFiles == null ? 0 : usedFiles.length);
+  }
+
+}
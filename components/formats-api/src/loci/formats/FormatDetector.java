@@ -0,0 +1,310 @@
+/*
+ * #%L
+ * Top-level reader and writer APIs
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import loci.common.Location;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects the format of many files at once, and groups them into datasets.
+ * Files are probed concurrently, each worker thread using its own
+ * {@link ImageReader} built from the same reader list; each file's header
+ * is read once to choose a reader.
+ *
+ * Grouping requires initializing a reader on each file that may belong to a
+ * multi-file dataset. Files that are already known to belong to a dataset
+ * are not initialized again.
+ */
+public class FormatDetector {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(FormatDetector.class);
+
+  // -- Fields --
+
+  /** Reader classes to choose from. */
+  private final ClassList<IFormatReader> classList;
+
+  /** Maximum number of files to probe concurrently. */
+  private final int threads;
+
+  /** Whether to determine the dataset that contains each file. */
+  private boolean groupFiles = true;
+
+  // -- Constructors --
+
+  /**
+   * Constructs a detector using the default reader list, and one thread
+   * per available processor.
+   */
+  public FormatDetector() {
+    this(ImageReader.getDefaultReaderClasses(),
+      Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructs a detector using the given reader list and
+   * number of threads.
+   */
+  public FormatDetector(ClassList<IFormatReader> classList, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+        "At least one thread is required: " + threads);
+    }
+    this.classList = classList;
+    this.threads = threads;
+  }
+
+  // -- FormatDetector API methods --
+
+  /**
+   * Sets whether {@link #detect(Collection)} determines the dataset that
+   * contains each file. If false, only the reader and file grouping option
+   * are determined.
+   */
+  public void setGroupFiles(boolean groupFiles) {
+    this.groupFiles = groupFiles;
+  }
+
+  /** Gets whether the dataset that contains each file is determined. */
+  public boolean isGroupFiles() {
+    return groupFiles;
+  }
+
+  /**
+   * Detects the format of each of the given files.
+   *
+   * @return one result per file, in the order given
+   */
+  public List<DetectedFile> detect(Collection<String> paths)
+    throws InterruptedException
+  {
+    final List<String> ids = new ArrayList<String>(paths);
+    final DetectedFile[] results = new DetectedFile[ids.size()];
+    int nThreads = Math.max(1, Math.min(threads, ids.size()));
+    final BlockingQueue<ImageReader> readers =
+      new LinkedBlockingQueue<ImageReader>();
+    for (int i=0; i<nThreads; i++) {
+      readers.add(new ImageReader(classList));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+    try {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int i=0; i<ids.size(); i++) {
+        final int index = i;
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() throws InterruptedException {
+            ImageReader reader = readers.take();
+            try {
+              results[index] = identify(reader, ids.get(index));
+            }
+            finally {
+              readers.add(reader);
+            }
+            return null;
+          }
+        });
+      }
+      runAll(executor, tasks);
+
+      if (groupFiles) {
+        // absolute path -> used files of the first dataset found to contain it
+        final ConcurrentMap<String, String[]> datasets =
+          new ConcurrentHashMap<String, String[]>();
+        tasks.clear();
+        for (final DetectedFile result : results) {
+          if (result.reader == null) continue;
+          tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+              String path = new Location(result.filename).getAbsolutePath();
+              if (datasets.containsKey(path)) return null;
+              ImageReader reader = readers.take();
+              try {
+                String[] used = group(reader, result);
+                if (used != null) {
+                  for (String file : used) {
+                    datasets.putIfAbsent(file, used);
+                  }
+                  datasets.putIfAbsent(path, used);
+                }
+              }
+              finally {
+                readers.add(reader);
+              }
+              return null;
+            }
+          });
+        }
+        runAll(executor, tasks);
+
+        for (DetectedFile result : results) {
+          if (result.reader != null) {
+            result.usedFiles = datasets.get(
+              new Location(result.filename).getAbsolutePath());
+          }
+        }
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    List<DetectedFile> list = new ArrayList<DetectedFile>();
+    for (DetectedFile result : results) {
+      list.add(result);
+    }
+    return list;
+  }
+
+  // -- Utility methods --
+
+  /**
+   * Gets the distinct datasets found by {@link #detect(Collection)}, as
+   * arrays of absolute paths, in the order in which they were first seen.
+   */
+  public static List<String[]> getDatasets(List<DetectedFile> files) {
+    Map<String[], Boolean> seen = new IdentityHashMap<String[], Boolean>();
+    List<String[]> datasets = new ArrayList<String[]>();
+    for (DetectedFile file : files) {
+      if (file.usedFiles != null && seen.put(file.usedFiles, true) == null) {
+        datasets.add(file.usedFiles);
+      }
+    }
+    return datasets;
+  }
+
+  // -- Helper methods --
+
+  /** Chooses a reader for the given file. */
+  private DetectedFile identify(ImageReader reader, String id) {
+    DetectedFile result = new DetectedFile();
+    result.filename = id;
+    try {
+      IFormatReader r = reader.getReader(id);
+      result.reader = r.getClass();
+      result.format = r.getFormat();
+      result.fileGroupOption = r.fileGroupOption(id);
+    }
+    catch (UnknownFormatException e) {
+      LOGGER.debug("Unknown format: {}", id);
+    }
+    catch (FormatException e) {
+      LOGGER.debug("", e);
+      result.error = e;
+    }
+    catch (IOException e) {
+      LOGGER.debug("", e);
+      result.error = e;
+    }
+    return result;
+  }
+
+  /**
+   * Determines the files in the dataset that contains the given file.
+   * Only files that may be part of a multi-file dataset are initialized.
+   *
+   * @return the absolute paths of the used files, or null on failure
+   */
+  private String[] group(ImageReader reader, DetectedFile file) {
+    String path = new Location(file.filename).getAbsolutePath();
+    try {
+      IFormatReader r = reader.getReader(file.filename);
+      if (file.fileGroupOption == FormatTools.CANNOT_GROUP &&
+        !r.hasCompanionFiles())
+      {
+        return new String[] {path};
+      }
+      reader.setId(file.filename);
+      String[] used = reader.getUsedFiles();
+      for (int i=0; i<used.length; i++) {
+        used[i] = new Location(used[i]).getAbsolutePath();
+      }
+      return used;
+    }
+    catch (FormatException e) {
+      LOGGER.debug("", e);
+      file.error = e;
+    }
+    catch (IOException e) {
+      LOGGER.debug("", e);
+      file.error = e;
+    }
+    finally {
+      try {
+        reader.close();
+      }
+      catch (IOException e) {
+        LOGGER.debug("", e);
+      }
+    }
+    return null;
+  }
+
+  /** Runs the given tasks and waits for all of them to finish. */
+  private void runAll(ExecutorService executor, List<Callable<Void>> tasks)
+    throws InterruptedException
+  {
+    for (Future<Void> f : executor.invokeAll(tasks)) {
+      try {
+        f.get();
+      }
+      catch (ExecutionException e) {
+        LOGGER.warn("Detection failed", e.getCause());
+      }
+    }
+  }
+
+}
@@ -580,6 +580,24 @@ public abstract class FormatReader extends FormatHandler
     return new FilterMetadata(getMetadataStore(), isMetadataFiltered());
   }
 
+  // -- FormatReader API methods --
+
+  /**
+   * Returns true if the file extension must match one of this reader's
+   * suffixes for a file to be identified as an instance of this format.
+   */
+  public boolean isSuffixNecessary() {
+    return suffixNecessary;
+  }
+
+  /**
+   * Returns true if a file extension matching one of this reader's suffixes
+   * is enough to identify a file as an instance of this format.
+   */
+  public boolean isSuffixSufficient() {
+    return suffixSufficient;
+  }
+
   // -- IFormatReader API methods --
 
   /**
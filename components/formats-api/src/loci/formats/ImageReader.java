@@ -36,9 +36,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import loci.common.Location;
@@ -65,11 +68,29 @@ public class ImageReader implements IFormatReader {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(ImageReader.class);
 
+  /** Maximum number of remembered format detection results. */
+  private static final int MAX_DETECTION_CACHE_SIZE = 10000;
+
   // -- Static fields --
 
   /** Default list of reader classes, for use with noargs constructor. */
   private static ClassList<IFormatReader> defaultClasses;
 
+  /**
+   * Recent format detection results, keyed by reader list, open flag and
+   * file path.  Each entry records the file's modification time and length,
+   * so that results for files which have changed are not reused.
+   */
+  private static final Map<String, DetectionResult> detectionCache =
+    new LinkedHashMap<String, DetectionResult>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, DetectionResult> eldest)
+      {
+        return size() > MAX_DETECTION_CACHE_SIZE;
+      }
+    };
+
   // -- Static utility methods --
 
   public static ClassList<IFormatReader> getDefaultReaderClasses() {
@@ -87,6 +108,13 @@ public class ImageReader implements IFormatReader {
     return defaultClasses;
   }
 
+  /** Discards all remembered format detection results. */
+  public static void clearDetectionCache() {
+    synchronized (detectionCache) {
+      detectionCache.clear();
+    }
+  }
+
   // -- Fields --
 
   /** List of supported file format readers. */
@@ -106,6 +134,22 @@ public class ImageReader implements IFormatReader {
 
   private boolean allowOpen = true;
 
+  /**
+   * Whether each reader relies on the standard suffix and stream checks in
+   * {@link FormatReader#isThisType(String, boolean)}.
+   * Populated the first time a reader is chosen.
+   */
+  private boolean[] standardDetection;
+
+  /**
+   * Indices of readers with the standard detection logic, keyed by
+   * lower case suffix.  Populated the first time a reader is chosen.
+   */
+  private Map<String, List<Integer>> suffixIndex;
+
+  /** Identifies this reader list in the detection cache. */
+  private String readerListKey;
+
   // -- Constructors --
 
   /**
@@ -179,20 +223,12 @@ public class ImageReader implements IFormatReader {
 
     if (!id.equals(currentId)) {
       // initialize file
-      boolean success = false;
-      if (!invalid) {
-        for (int i=0; i<readers.length; i++) {
-          if (readers[i].isThisType(id, allowOpen)) {
-            current = i;
-            currentId = id;
-            success = true;
-            break;
-          }
-        }
-      }
-      if (!success) {
+      int index = invalid ? -1 : detectReader(id);
+      if (index < 0) {
         throw new UnknownFormatException("Unknown file format: " + id);
       }
+      current = index;
+      currentId = id;
     }
     return getReader();
   }
@@ -849,4 +885,173 @@ public class ImageReader implements IFormatReader {
   @Override
   public void close() throws IOException { close(false); }
 
+
+  // -- Helper methods --
+
+  /**
+   * Finds the first reader in the list that identifies the given file.
+   * This is equivalent to calling {@link IFormatReader#isThisType(String,
+   * boolean)} on each reader in turn, but readers whose suffix does not
+   * match are skipped without further checks, and the readers that examine
+   * the file contents all share a single stream.  Results for regular files
+   * are remembered until the file is modified.
+   *
+   * @return the index of the matching reader, or -1 if there is none
+   */
+  private int detectReader(String id) {
+    if (suffixIndex == null) buildSuffixIndex();
+
+    File file = null;
+    String cacheKey = null;
+    if (Location.getMappedId(id).equals(id)) {
+      file = new File(id).getAbsoluteFile();
+      if (file.isFile()) {
+        cacheKey = readerListKey + allowOpen + file.getPath();
+        DetectionResult cached;
+        synchronized (detectionCache) {
+          cached = detectionCache.get(cacheKey);
+        }
+        if (cached != null && cached.lastModified == file.lastModified() &&
+          cached.length == file.length())
+        {
+          for (int i=0; i<readers.length; i++) {
+            if (readers[i].getClass().equals(cached.readerClass)) return i;
+          }
+        }
+      }
+      else cacheKey = null;
+    }
+
+    boolean[] suffixMatch = new boolean[readers.length];
+    String lname = id.toLowerCase();
+    for (int i=lname.indexOf('.'); i>=0; i=lname.indexOf('.', i + 1)) {
+      markSuffix(lname.substring(i + 1), suffixMatch);
+    }
+    for (String compression : FormatHandler.COMPRESSION_SUFFIXES) {
+      String ext = "." + compression;
+      if (lname.endsWith(ext)) {
+        String base = lname.substring(0, lname.length() - ext.length());
+        for (int i=base.indexOf('.'); i>=0; i=base.indexOf('.', i + 1)) {
+          markSuffix(base.substring(i + 1), suffixMatch);
+        }
+      }
+    }
+
+    int match = -1;
+    RandomAccessInputStream stream = null;
+    boolean streamFailed = false;
+    try {
+      for (int i=0; i<readers.length && match < 0; i++) {
+        if (!standardDetection[i]) {
+          if (readers[i].isThisType(id, allowOpen)) match = i;
+          continue;
+        }
+
+        // same logic as FormatReader.isThisType(String, boolean)
+        FormatReader r = (FormatReader) readers[i];
+        if (!r.isSuffixSufficient() && !allowOpen) continue;
+        if (r.isSuffixNecessary() || r.isSuffixSufficient()) {
+          if (r.isSuffixNecessary() && !suffixMatch[i]) continue;
+          if (suffixMatch[i] && r.isSuffixSufficient()) {
+            match = i;
+            continue;
+          }
+        }
+        if (!allowOpen || streamFailed) continue;
+        try {
+          if (stream == null) {
+            stream = new RandomAccessInputStream(id);
+          }
+          stream.seek(0);
+          stream.order(false);
+          if (r.isThisType(stream)) match = i;
+        }
+        catch (IOException e) {
+          LOGGER.debug("", e);
+          streamFailed = stream == null;
+        }
+      }
+    }
+    finally {
+      if (stream != null) {
+        try {
+          stream.close();
+        }
+        catch (IOException e) {
+          LOGGER.debug("", e);
+        }
+      }
+    }
+
+    if (match >= 0 && cacheKey != null) {
+      DetectionResult result = new DetectionResult(readers[match].getClass(),
+        file.lastModified(), file.length());
+      synchronized (detectionCache) {
+        detectionCache.put(cacheKey, result);
+      }
+    }
+    return match;
+  }
+
+  /** Marks the readers with the standard detection logic for a suffix. */
+  private void markSuffix(String suffix, boolean[] suffixMatch) {
+    List<Integer> indices = suffixIndex.get(suffix);
+    if (indices != null) {
+      for (Integer index : indices) {
+        suffixMatch[index] = true;
+      }
+    }
+  }
+
+  /**
+   * Determines which readers use the standard detection logic, and indexes
+   * them by suffix.
+   */
+  private void buildSuffixIndex() {
+    standardDetection = new boolean[readers.length];
+    Map<String, List<Integer>> index = new HashMap<String, List<Integer>>();
+    StringBuilder key = new StringBuilder();
+    for (int i=0; i<readers.length; i++) {
+      key.append(readers[i].getClass().getName()).append(';');
+      if (!(readers[i] instanceof FormatReader)) continue;
+      try {
+        standardDetection[i] = readers[i].getClass().getMethod("isThisType",
+          String.class, boolean.class).getDeclaringClass() == FormatReader.class;
+      }
+      catch (NoSuchMethodException e) {
+        LOGGER.debug("", e);
+      }
+      String[] suffixes = readers[i].getSuffixes();
+      if (!standardDetection[i] || suffixes == null) continue;
+      for (String suffix : suffixes) {
+        String s = suffix.toLowerCase();
+        List<Integer> list = index.get(s);
+        if (list == null) {
+          list = new ArrayList<Integer>();
+          index.put(s, list);
+        }
+        list.add(i);
+      }
+    }
+    readerListKey = key.toString().hashCode() + ":";
+    suffixIndex = index;
+  }
+
+  // -- Helper classes --
+
+  /** A remembered format detection result. */
+  private static class DetectionResult {
+    final Class<? extends IFormatReader> readerClass;
+    final long lastModified;
+    final long length;
+
+    DetectionResult(Class<? extends IFormatReader> readerClass,
+      long lastModified, long length)
+    {
+      this.readerClass = readerClass;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+
 }
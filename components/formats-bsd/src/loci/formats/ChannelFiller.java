@@ -161,50 +161,14 @@ public class ChannelFiller extends ReaderWrapper {
     // uint16 but we are filling with an 8-bit color table, the pixel type
     // should change to uint8.
 
-    // TODO: This logic below is opaque and could use some comments.
-
     byte[] pix = reader.openBytes(no, x, y, w, h);
     if (getPixelType() == FormatTools.UINT8) {
-      byte[][] b = ImageTools.indexedToRGB(reader.get8BitLookupTable(), pix);
-      if (isInterleaved()) {
-        int pt = 0;
-        for (int i=0; i<b[0].length; i++) {
-          for (int j=0; j<b.length; j++) {
-            buf[pt++] = b[j][i];
-          }
-        }
-      }
-      else {
-        for (int i=0; i<b.length; i++) {
-          System.arraycopy(b[i], 0, buf, i*b[i].length, b[i].length);
-        }
-      }
-      return buf;
-    }
-    short[][] s = ImageTools.indexedToRGB(reader.get16BitLookupTable(),
-      pix, isLittleEndian());
-
-    if (isInterleaved()) {
-      int pt = 0;
-      for (int i=0; i<s[0].length; i++) {
-        for (int j=0; j<s.length; j++) {
-          buf[pt++] = (byte) (isLittleEndian() ?
-            (s[j][i] & 0xff) : (s[j][i] >> 8));
-          buf[pt++] = (byte) (isLittleEndian() ?
-            (s[j][i] >> 8) : (s[j][i] & 0xff));
-        }
-      }
+      ChannelKernels.applyLookupTable(pix, reader.get8BitLookupTable(), buf,
+        isInterleaved());
     }
     else {
-      int pt = 0;
-      for (int i=0; i<s.length; i++) {
-        for (int j=0; j<s[i].length; j++) {
-          buf[pt++] = (byte) (isLittleEndian() ?
-            (s[i][j] & 0xff) : (s[i][j] >> 8));
-          buf[pt++] = (byte) (isLittleEndian() ?
-            (s[i][j] >> 8) : (s[i][j] & 0xff));
-        }
-      }
+      ChannelKernels.applyLookupTable(pix, reader.get16BitLookupTable(), buf,
+        isLittleEndian(), isInterleaved());
     }
     return buf;
   }
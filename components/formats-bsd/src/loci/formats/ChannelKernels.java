@@ -0,0 +1,620 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Kernels for converting pixel data between channel layouts: interleaved
+ * to planar, planar to interleaved, single channel extraction and lookup
+ * table expansion.
+ *
+ * Each kernel selects a loop specialized for the number of bytes per sample
+ * (1, 2, 4 or 8, with a generic fallback) and, where it matters, the number
+ * of channels, so that the inner loops contain no per-pixel branches.
+ * Kernels that take a 'parallel' flag split large arrays into ranges of
+ * pixels that are processed by a shared pool of daemon threads; small
+ * arrays are always processed by the calling thread.
+ *
+ * Sample bytes are copied as they are, so the byte order is preserved.
+ */
+public final class ChannelKernels {
+
+  // -- Constants --
+
+  /** Minimum number of bytes written before a kernel is run in parallel. */
+  private static final long PARALLEL_THRESHOLD = 1 << 20;
+
+  /** Minimum number of pixels processed by one parallel task. */
+  private static final int MIN_TASK_PIXELS = 1 << 16;
+
+  // -- Static fields --
+
+  /** Pool used for parallel kernels; created when first needed. */
+  private static ForkJoinPool pool;
+
+  // -- Constructor --
+
+  private ChannelKernels() { }
+
+  // -- Channel extraction --
+
+  /**
+   * Copies one channel of interleaved data into a separate array.
+   *
+   * @param src interleaved data with 'c' samples of 'bytes' bytes per pixel
+   * @param dest array into which the channel's samples are copied
+   * @param channel index of the channel to copy
+   * @param c number of channels in 'src'
+   * @param bytes number of bytes per sample
+   * @param pixels number of pixels to copy
+   */
+  public static void extractChannel(byte[] src, byte[] dest, int channel,
+    int c, int bytes, int pixels)
+  {
+    extractChannel(src, dest, channel, c, bytes, pixels, false);
+  }
+
+  /**
+   * Copies one channel of interleaved data into a separate array, optionally
+   * using multiple threads.
+   *
+   * @see #extractChannel(byte[], byte[], int, int, int, int)
+   */
+  public static void extractChannel(final byte[] src, final byte[] dest,
+    int channel, int c, final int bytes, int pixels, boolean parallel)
+  {
+    checkLength(src, (long) pixels * c * bytes);
+    checkLength(dest, (long) pixels * bytes);
+    if (c == 1) {
+      System.arraycopy(src, 0, dest, 0, pixels * bytes);
+      return;
+    }
+    final int offset = channel * bytes;
+    final int stride = c * bytes;
+    run(new Kernel() {
+      @Override
+      public void run(int from, int to) {
+        gather(src, offset + from * stride, stride, dest, from * bytes, bytes,
+          to - from);
+      }
+    }, pixels, (long) pixels * bytes, parallel);
+  }
+
+  // -- Layout conversion --
+
+  /**
+   * Converts interleaved data (RGBRGB...) to planar data (RR...GG...BB...).
+   *
+   * @param src interleaved data with 'c' samples of 'bytes' bytes per pixel
+   * @param dest array that receives one plane of 'pixels' samples per channel
+   * @param c number of channels
+   * @param bytes number of bytes per sample
+   * @param pixels number of pixels in each channel
+   */
+  public static void interleavedToPlanar(byte[] src, byte[] dest, int c,
+    int bytes, int pixels)
+  {
+    interleavedToPlanar(src, dest, c, bytes, pixels, false);
+  }
+
+  /**
+   * Converts interleaved data to planar data, optionally using multiple
+   * threads.
+   *
+   * @see #interleavedToPlanar(byte[], byte[], int, int, int)
+   */
+  public static void interleavedToPlanar(final byte[] src, final byte[] dest,
+    final int c, final int bytes, final int pixels, boolean parallel)
+  {
+    long length = (long) pixels * c * bytes;
+    checkLength(src, length);
+    checkLength(dest, length);
+    if (c == 1) {
+      System.arraycopy(src, 0, dest, 0, (int) length);
+      return;
+    }
+    final int stride = c * bytes;
+    final int plane = pixels * bytes;
+    run(new Kernel() {
+      @Override
+      public void run(int from, int to) {
+        int n = to - from;
+        if (bytes == 1 && c >= 2 && c <= 4) {
+          deinterleaveBytes(src, dest, c, pixels, from, to);
+          return;
+        }
+        for (int ch=0; ch<c; ch++) {
+          gather(src, from * stride + ch * bytes, stride,
+            dest, ch * plane + from * bytes, bytes, n);
+        }
+      }
+    }, pixels, length, parallel);
+  }
+
+  /**
+   * Converts planar data (RR...GG...BB...) to interleaved data (RGBRGB...).
+   *
+   * @param src planar data with one plane of 'pixels' samples per channel
+   * @param dest array that receives 'c' samples of 'bytes' bytes per pixel
+   * @param c number of channels
+   * @param bytes number of bytes per sample
+   * @param pixels number of pixels in each channel
+   */
+  public static void planarToInterleaved(byte[] src, byte[] dest, int c,
+    int bytes, int pixels)
+  {
+    planarToInterleaved(src, dest, c, bytes, pixels, false);
+  }
+
+  /**
+   * Converts planar data to interleaved data, optionally using multiple
+   * threads.
+   *
+   * @see #planarToInterleaved(byte[], byte[], int, int, int)
+   */
+  public static void planarToInterleaved(final byte[] src, final byte[] dest,
+    final int c, final int bytes, final int pixels, boolean parallel)
+  {
+    long length = (long) pixels * c * bytes;
+    checkLength(src, length);
+    checkLength(dest, length);
+    if (c == 1) {
+      System.arraycopy(src, 0, dest, 0, (int) length);
+      return;
+    }
+    final int stride = c * bytes;
+    final int plane = pixels * bytes;
+    run(new Kernel() {
+      @Override
+      public void run(int from, int to) {
+        int n = to - from;
+        if (bytes == 1 && c >= 2 && c <= 4) {
+          interleaveBytes(src, dest, c, pixels, from, to);
+          return;
+        }
+        for (int ch=0; ch<c; ch++) {
+          scatter(src, ch * plane + from * bytes, dest,
+            from * stride + ch * bytes, stride, bytes, n);
+        }
+      }
+    }, pixels, length, parallel);
+  }
+
+  // -- Lookup tables --
+
+  /**
+   * Expands 8-bit indices into one 8-bit sample per lookup table channel.
+   *
+   * @param src one index per pixel
+   * @param lut lookup table, indexed by channel and then by index
+   * @param dest array that receives lut.length samples per pixel
+   * @param interleaved true if 'dest' should be interleaved, false if planar
+   */
+  public static void applyLookupTable(byte[] src, byte[][] lut, byte[] dest,
+    boolean interleaved)
+  {
+    applyLookupTable(src, lut, dest, interleaved, false);
+  }
+
+  /**
+   * Expands 8-bit indices using the given lookup table, optionally using
+   * multiple threads.
+   *
+   * @see #applyLookupTable(byte[], byte[][], byte[], boolean)
+   */
+  public static void applyLookupTable(final byte[] src, final byte[][] lut,
+    final byte[] dest, final boolean interleaved, boolean parallel)
+  {
+    final int c = lut.length;
+    final int pixels = src.length;
+    checkLength(dest, (long) pixels * c);
+    run(new Kernel() {
+      @Override
+      public void run(int from, int to) {
+        if (interleaved && c == 3) {
+          byte[] r = lut[0], g = lut[1], b = lut[2];
+          for (int i=from, d=from*3; i<to; i++, d+=3) {
+            int index = src[i] & 0xff;
+            dest[d] = r[index];
+            dest[d + 1] = g[index];
+            dest[d + 2] = b[index];
+          }
+          return;
+        }
+        int step = interleaved ? c : 1;
+        for (int ch=0; ch<c; ch++) {
+          byte[] table = lut[ch];
+          int d = interleaved ? from * c + ch : ch * pixels + from;
+          for (int i=from; i<to; i++, d+=step) {
+            dest[d] = table[src[i] & 0xff];
+          }
+        }
+      }
+    }, pixels, (long) pixels * c, parallel);
+  }
+
+  /**
+   * Expands 16-bit indices into one 16-bit sample per lookup table channel.
+   * The indices and the samples use the same byte order.
+   *
+   * @param src two bytes per pixel, holding the index
+   * @param lut lookup table, indexed by channel and then by index
+   * @param dest array that receives lut.length samples per pixel
+   * @param little true if 'src' and 'dest' are little-endian
+   * @param interleaved true if 'dest' should be interleaved, false if planar
+   */
+  public static void applyLookupTable(byte[] src, short[][] lut, byte[] dest,
+    boolean little, boolean interleaved)
+  {
+    applyLookupTable(src, lut, dest, little, interleaved, false);
+  }
+
+  /**
+   * Expands 16-bit indices using the given lookup table, optionally using
+   * multiple threads.
+   *
+   * @see #applyLookupTable(byte[], short[][], byte[], boolean, boolean)
+   */
+  public static void applyLookupTable(final byte[] src, final short[][] lut,
+    final byte[] dest, boolean little, final boolean interleaved,
+    boolean parallel)
+  {
+    final int c = lut.length;
+    final int pixels = src.length / 2;
+    checkLength(dest, (long) pixels * c * 2);
+    // byte order is handled by offsets instead of branches
+    final int lo = little ? 0 : 1;
+    final int hi = 1 - lo;
+    run(new Kernel() {
+      @Override
+      public void run(int from, int to) {
+        int step = interleaved ? c * 2 : 2;
+        for (int ch=0; ch<c; ch++) {
+          short[] table = lut[ch];
+          int d = 2 * (interleaved ? from * c + ch : ch * pixels + from);
+          for (int i=from, s=from*2; i<to; i++, s+=2, d+=step) {
+            int index = (src[s + lo] & 0xff) | ((src[s + hi] & 0xff) << 8);
+            short value = table[index];
+            dest[d + lo] = (byte) value;
+            dest[d + hi] = (byte) (value >> 8);
+          }
+        }
+      }
+    }, pixels, (long) pixels * c * 2, parallel);
+  }
+
+  /**
+   * Looks up 16-bit indices in a single lookup table channel.
+   *
+   * @param src two bytes per pixel, holding the index
+   * @param lut lookup table for one channel
+   * @param dest array that receives one sample per pixel
+   * @param little true if 'src' is little-endian
+   */
+  public static void applyLookupTable(byte[] src, short[] lut, short[] dest,
+    boolean little)
+  {
+    int lo = little ? 0 : 1;
+    int hi = 1 - lo;
+    int pixels = src.length / 2;
+    checkLength(dest, pixels);
+    for (int i=0, s=0; i<pixels; i++, s+=2) {
+      dest[i] = lut[(src[s + lo] & 0xff) | ((src[s + hi] & 0xff) << 8)];
+    }
+  }
+
+  // -- Packing --
+
+  /**
+   * Packs up to four 8-bit channels into one int per pixel, with the first
+   * channel in bits 16-23, the second in bits 8-15, the third in bits 0-7
+   * and the fourth in bits 24-31.  A single channel is replicated into all
+   * four bytes; missing channels are 0.
+   *
+   * @param src 'c' samples per pixel
+   * @param dest array that receives one value per pixel
+   * @param c number of channels in 'src'
+   * @param interleaved true if 'src' is interleaved, false if planar
+   */
+  public static void packRGB(byte[] src, int[] dest, int c,
+    boolean interleaved)
+  {
+    int pixels = dest.length;
+    checkLength(src, (long) pixels * c);
+    // sample j of pixel i is at i * stride + j * step
+    int stride = interleaved ? c : 1;
+    int step = interleaved ? 1 : pixels;
+    switch (Math.min(c, 4)) {
+      case 0:
+        break;
+      case 1:
+        for (int i=0; i<pixels; i++) {
+          int v = src[i] & 0xff;
+          dest[i] = v | (v << 8) | (v << 16) | (v << 24);
+        }
+        break;
+      case 2:
+        for (int i=0, s=0; i<pixels; i++, s+=stride) {
+          dest[i] = ((src[s] & 0xff) << 16) | ((src[s + step] & 0xff) << 8);
+        }
+        break;
+      case 3:
+        for (int i=0, s=0; i<pixels; i++, s+=stride) {
+          dest[i] = ((src[s] & 0xff) << 16) |
+            ((src[s + step] & 0xff) << 8) | (src[s + 2 * step] & 0xff);
+        }
+        break;
+      default:
+        for (int i=0, s=0; i<pixels; i++, s+=stride) {
+          dest[i] = ((src[s] & 0xff) << 16) |
+            ((src[s + step] & 0xff) << 8) | (src[s + 2 * step] & 0xff) |
+            ((src[s + 3 * step] & 0xff) << 24);
+        }
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Copies 'n' samples from 'src', starting at 'srcOffset' and 'stride'
+   * bytes apart, to consecutive samples of 'dest'.
+   */
+  private static void gather(byte[] src, int srcOffset, int stride,
+    byte[] dest, int destOffset, int bytes, int n)
+  {
+    int s = srcOffset;
+    int d = destOffset;
+    switch (bytes) {
+      case 1:
+        for (int i=0; i<n; i++, s+=stride) {
+          dest[d++] = src[s];
+        }
+        break;
+      case 2:
+        for (int i=0; i<n; i++, s+=stride, d+=2) {
+          dest[d] = src[s];
+          dest[d + 1] = src[s + 1];
+        }
+        break;
+      case 4:
+        for (int i=0; i<n; i++, s+=stride, d+=4) {
+          dest[d] = src[s];
+          dest[d + 1] = src[s + 1];
+          dest[d + 2] = src[s + 2];
+          dest[d + 3] = src[s + 3];
+        }
+        break;
+      case 8:
+        for (int i=0; i<n; i++, s+=stride, d+=8) {
+          dest[d] = src[s];
+          dest[d + 1] = src[s + 1];
+          dest[d + 2] = src[s + 2];
+          dest[d + 3] = src[s + 3];
+          dest[d + 4] = src[s + 4];
+          dest[d + 5] = src[s + 5];
+          dest[d + 6] = src[s + 6];
+          dest[d + 7] = src[s + 7];
+        }
+        break;
+      default:
+        for (int i=0; i<n; i++, s+=stride, d+=bytes) {
+          System.arraycopy(src, s, dest, d, bytes);
+        }
+    }
+  }
+
+  /**
+   * Copies 'n' consecutive samples from 'src' to 'dest', starting at
+   * 'destOffset' and 'stride' bytes apart.
+   */
+  private static void scatter(byte[] src, int srcOffset, byte[] dest,
+    int destOffset, int stride, int bytes, int n)
+  {
+    int s = srcOffset;
+    int d = destOffset;
+    switch (bytes) {
+      case 1:
+        for (int i=0; i<n; i++, d+=stride) {
+          dest[d] = src[s++];
+        }
+        break;
+      case 2:
+        for (int i=0; i<n; i++, s+=2, d+=stride) {
+          dest[d] = src[s];
+          dest[d + 1] = src[s + 1];
+        }
+        break;
+      case 4:
+        for (int i=0; i<n; i++, s+=4, d+=stride) {
+          dest[d] = src[s];
+          dest[d + 1] = src[s + 1];
+          dest[d + 2] = src[s + 2];
+          dest[d + 3] = src[s + 3];
+        }
+        break;
+      case 8:
+        for (int i=0; i<n; i++, s+=8, d+=stride) {
+          dest[d] = src[s];
+          dest[d + 1] = src[s + 1];
+          dest[d + 2] = src[s + 2];
+          dest[d + 3] = src[s + 3];
+          dest[d + 4] = src[s + 4];
+          dest[d + 5] = src[s + 5];
+          dest[d + 6] = src[s + 6];
+          dest[d + 7] = src[s + 7];
+        }
+        break;
+      default:
+        for (int i=0; i<n; i++, s+=bytes, d+=stride) {
+          System.arraycopy(src, s, dest, d, bytes);
+        }
+    }
+  }
+
+  /**
+   * Converts pixels [from, to) of interleaved 8-bit data with 2 to 4
+   * channels to planar data in a single pass.
+   */
+  private static void deinterleaveBytes(byte[] src, byte[] dest, int c,
+    int pixels, int from, int to)
+  {
+    int p1 = pixels, p2 = 2 * pixels, p3 = 3 * pixels;
+    switch (c) {
+      case 2:
+        for (int i=from, s=from*2; i<to; i++, s+=2) {
+          dest[i] = src[s];
+          dest[p1 + i] = src[s + 1];
+        }
+        break;
+      case 3:
+        for (int i=from, s=from*3; i<to; i++, s+=3) {
+          dest[i] = src[s];
+          dest[p1 + i] = src[s + 1];
+          dest[p2 + i] = src[s + 2];
+        }
+        break;
+      default:
+        for (int i=from, s=from*4; i<to; i++, s+=4) {
+          dest[i] = src[s];
+          dest[p1 + i] = src[s + 1];
+          dest[p2 + i] = src[s + 2];
+          dest[p3 + i] = src[s + 3];
+        }
+    }
+  }
+
+  /**
+   * Converts pixels [from, to) of planar 8-bit data with 2 to 4 channels to
+   * interleaved data in a single pass.
+   */
+  private static void interleaveBytes(byte[] src, byte[] dest, int c,
+    int pixels, int from, int to)
+  {
+    int p1 = pixels, p2 = 2 * pixels, p3 = 3 * pixels;
+    switch (c) {
+      case 2:
+        for (int i=from, d=from*2; i<to; i++, d+=2) {
+          dest[d] = src[i];
+          dest[d + 1] = src[p1 + i];
+        }
+        break;
+      case 3:
+        for (int i=from, d=from*3; i<to; i++, d+=3) {
+          dest[d] = src[i];
+          dest[d + 1] = src[p1 + i];
+          dest[d + 2] = src[p2 + i];
+        }
+        break;
+      default:
+        for (int i=from, d=from*4; i<to; i++, d+=4) {
+          dest[d] = src[i];
+          dest[d + 1] = src[p1 + i];
+          dest[d + 2] = src[p2 + i];
+          dest[d + 3] = src[p3 + i];
+        }
+    }
+  }
+
+  private static void checkLength(byte[] array, long length) {
+    if (array.length < length) {
+      throw new IllegalArgumentException("Array length " + array.length +
+        " is less than the expected " + length);
+    }
+  }
+
+  private static void checkLength(short[] array, long length) {
+    if (array.length < length) {
+      throw new IllegalArgumentException("Array length " + array.length +
+        " is less than the expected " + length);
+    }
+  }
+
+  /**
+   * Runs the given kernel over 'pixels' pixels, splitting the work across
+   * the shared pool if requested and the output is large enough.
+   */
+  private static void run(Kernel kernel, int pixels, long outputBytes,
+    boolean parallel)
+  {
+    if (!parallel || outputBytes < PARALLEL_THRESHOLD ||
+      pixels < 2 * MIN_TASK_PIXELS)
+    {
+      kernel.run(0, pixels);
+      return;
+    }
+    getPool().invoke(new KernelTask(kernel, 0, pixels));
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool();
+    }
+    return pool;
+  }
+
+  // -- Helper classes --
+
+  /** A conversion applied to a range of pixels. */
+  private interface Kernel {
+    /** Processes pixels [from, to). */
+    void run(int from, int to);
+  }
+
+  /** Splits a kernel's range of pixels until it is small enough to run. */
+  private static class KernelTask extends RecursiveAction {
+    private final Kernel kernel;
+    private final int from;
+    private final int to;
+
+    KernelTask(Kernel kernel, int from, int to) {
+      this.kernel = kernel;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from < 2 * MIN_TASK_PIXELS) {
+        kernel.run(from, to);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new KernelTask(kernel, from, middle),
+        new KernelTask(kernel, middle, to));
+    }
+  }
+
+}
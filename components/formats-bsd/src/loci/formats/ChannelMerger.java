@@ -168,8 +168,12 @@ public class ChannelMerger extends ReaderWrapper {
     int sizeC = getSizeC();
     int[] nos = getZCTCoords(no);
     int z = nos[0], t = nos[2];
+    // the merged planes are not interleaved, so each channel is a single
+    // copy; one buffer is reused for all of them
+    byte[] b =
+      DataTools.allocate(w, h, FormatTools.getBytesPerPixel(getPixelType()));
     for (int c=0; c<sizeC; c++) {
-      byte[] b = reader.openBytes(reader.getIndex(z, c, t), x, y, w, h);
+      reader.openBytes(reader.getIndex(z, c, t), b, x, y, w, h);
       System.arraycopy(b, 0, buf, c * b.length, b.length);
     }
     return buf;
@@ -0,0 +1,1050 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reader wrapper that lets several threads share one reader when they
+ * request the same regions at the same time.
+ *
+ * Requests are queued and read by one thread at a time. Identical requests
+ * (same series, resolution, plane and region) that are queued or being
+ * read at the same time share a single read. Requests for the same plane
+ * that are queued together and that cover adjacent tiles of the
+ * underlying reader's optimal tile grid are merged into one larger read,
+ * and the result is split between them. Requests queue up naturally while
+ * a read is in progress; a coalescing window can be set to also gather
+ * requests before the first read.
+ *
+ * {@link #openBytes(int, byte[], int, int, int, int)} reads from the
+ * current series and resolution; threads that share this reader should
+ * use {@link #openBytes(int, int, int, byte[], int, int, int, int)}
+ * instead, which does not depend on the current series.
+ */
+public class CoalescingReader extends ReaderWrapper {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(CoalescingReader.class);
+
+  /** Default maximum size of a merged read, in bytes. */
+  public static final long DEFAULT_MAX_MERGED_BYTES = 16 * 1024 * 1024;
+
+  // -- Fields --
+
+  /** Guards all fields below, and is used to wait for reads. */
+  private final Object lock = new Object();
+
+  /** Requests that are queued or being read, by region. */
+  private final Map<Region, Request> inFlight =
+    new HashMap<Region, Request>();
+
+  /** Requests that are queued but not yet being read. */
+  private final List<Request> pending = new ArrayList<Request>();
+
+  /** Whether a thread is currently reading on behalf of the queue. */
+  private boolean reading;
+
+  private long window;
+  private long maxMergedBytes = DEFAULT_MAX_MERGED_BYTES;
+
+  private long requestCount, sharedCount, readCount;
+
+  /**
+   * Series, resolution and core index as set by callers. The wrapped
+   * reader's own position changes temporarily while a batch is read.
+   */
+  private int series, resolution, coreIndex;
+
+  // -- Constructors --
+
+  /** Constructs a CoalescingReader around a new image reader. */
+  public CoalescingReader() { super(); }
+
+  /** Constructs a CoalescingReader with the given reader. */
+  public CoalescingReader(IFormatReader r) {
+    super(r);
+    synchronized (lock) {
+      updatePosition();
+    }
+  }
+
+  // -- CoalescingReader API methods --
+
+  /**
+   * Sets the time in milliseconds for which a thread waits for more
+   * requests before reading, when no read is in progress. The default of 0
+   * only coalesces requests that arrive while a read is in progress.
+   */
+  public void setCoalescingWindow(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("Invalid window: " + millis);
+    }
+    synchronized (lock) {
+      window = millis;
+    }
+  }
+
+  /** Gets the coalescing window in milliseconds. */
+  public long getCoalescingWindow() {
+    synchronized (lock) {
+      return window;
+    }
+  }
+
+  /** Sets the maximum size of a merged read, in bytes; 0 disables merging. */
+  public void setMaxMergedBytes(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Invalid size: " + bytes);
+    }
+    synchronized (lock) {
+      maxMergedBytes = bytes;
+    }
+  }
+
+  /** Gets the maximum size of a merged read, in bytes. */
+  public long getMaxMergedBytes() {
+    synchronized (lock) {
+      return maxMergedBytes;
+    }
+  }
+
+  /** Gets the number of region requests made so far. */
+  public long getRequestCount() {
+    synchronized (lock) {
+      return requestCount;
+    }
+  }
+
+  /** Gets the number of requests that shared an identical request's read. */
+  public long getSharedCount() {
+    synchronized (lock) {
+      return sharedCount;
+    }
+  }
+
+  /** Gets the number of reads made from the wrapped reader. */
+  public long getReadCount() {
+    synchronized (lock) {
+      return readCount;
+    }
+  }
+
+  /**
+   * Obtains a sub-image of the specified image plane of the given series and
+   * resolution into a pre-allocated byte array. This method can be called
+   * from several threads at once.
+   *
+   * @param buf the destination buffer, or null to allocate one
+   * @see IFormatReader#openBytes(int, byte[], int, int, int, int)
+   */
+  public byte[] openBytes(int series, int resolution, int no, byte[] buf,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    FormatTools.assertId(getCurrentFile(), true, 2);
+    Region region = new Region(series, resolution, no, x, y, w, h);
+    Request request;
+    synchronized (lock) {
+      requestCount++;
+      request = inFlight.get(region);
+      if (request == null) {
+        request = new Request(region);
+        inFlight.put(region, request);
+        pending.add(request);
+      }
+      else sharedCount++;
+      request.callers++;
+    }
+    await(request);
+
+    Throwable t = request.failure;
+    if (t instanceof FormatException) {
+      throw new FormatException(t.getMessage(), t);
+    }
+    if (t instanceof IOException) throw new IOException(t.getMessage(), t);
+    if (t instanceof RuntimeException) throw (RuntimeException) t;
+    if (t instanceof Error) throw (Error) t;
+
+    byte[] result = request.result;
+    synchronized (lock) {
+      // other callers only leave once they have copied the result
+      if (buf == null && request.callers == 1) {
+        request.callers = 0;
+        return result;
+      }
+    }
+    try {
+      if (buf == null) return result.clone();
+      if (buf.length < result.length) {
+        throw new FormatException("Buffer too small (got " + buf.length +
+          ", expected " + result.length + ")");
+      }
+      System.arraycopy(result, 0, buf, 0, result.length);
+      return buf;
+    }
+    finally {
+      synchronized (lock) {
+        request.callers--;
+      }
+    }
+  }
+
+  // -- IFormatReader API methods --
+
+  /* @see IFormatReader#setSeries(int) */
+  @Override
+  public void setSeries(int no) {
+    synchronized (lock) {
+      awaitIdle();
+      reader.setSeries(no);
+      updatePosition();
+    }
+  }
+
+  /* @see IFormatReader#getSeries() */
+  @Override
+  public int getSeries() {
+    synchronized (lock) {
+      return series;
+    }
+  }
+
+  /* @see IFormatReader#setResolution(int) */
+  @Override
+  public void setResolution(int no) {
+    synchronized (lock) {
+      awaitIdle();
+      reader.setResolution(no);
+      updatePosition();
+    }
+  }
+
+  /* @see IFormatReader#getResolution() */
+  @Override
+  public int getResolution() {
+    synchronized (lock) {
+      return resolution;
+    }
+  }
+
+  /* @see IFormatReader#setCoreIndex(int) */
+  @Override
+  public void setCoreIndex(int no) {
+    synchronized (lock) {
+      awaitIdle();
+      reader.setCoreIndex(no);
+      updatePosition();
+    }
+  }
+
+  /* @see IFormatReader#getCoreIndex() */
+  @Override
+  public int getCoreIndex() {
+    synchronized (lock) {
+      return coreIndex;
+    }
+  }
+
+  /* @see IFormatReader#setId(String) */
+  @Override
+  public void setId(String id) throws FormatException, IOException {
+    super.setId(id);
+    synchronized (lock) {
+      updatePosition();
+    }
+  }
+
+  /* @see IFormatReader#close(boolean) */
+  @Override
+  public void close(boolean fileOnly) throws IOException {
+    super.close(fileOnly);
+    synchronized (lock) {
+      updatePosition();
+    }
+  }
+
+  /* @see IFormatReader#close() */
+  @Override
+  public void close() throws IOException {
+    super.close();
+    synchronized (lock) {
+      updatePosition();
+    }
+  }
+
+  /* @see IFormatReader#openBytes(int) */
+  @Override
+  public byte[] openBytes(int no) throws FormatException, IOException {
+    return openBytes(no, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, byte[]) */
+  @Override
+  public byte[] openBytes(int no, byte[] buf)
+    throws FormatException, IOException
+  {
+    return openBytes(no, buf, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, int, int, int, int) */
+  @Override
+  public byte[] openBytes(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openBytes(no, null, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openBytes(int, byte[], int, int, int, int) */
+  @Override
+  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openBytes(getSeries(), getResolution(), no, buf, x, y, w, h);
+  }
+
+  // NB: the methods below depend on the current series and resolution, so
+  // they wait until no batch has moved the wrapped reader elsewhere.
+  // Thumbnails and planes opened with openPlane are read while holding
+  // the lock, so that no batch can start during the read.
+
+  /* @see IFormatReader#getImageCount() */
+  @Override
+  public int getImageCount() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getImageCount();
+    }
+  }
+
+  /* @see IFormatReader#isRGB() */
+  @Override
+  public boolean isRGB() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.isRGB();
+    }
+  }
+
+  /* @see IFormatReader#getSizeX() */
+  @Override
+  public int getSizeX() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSizeX();
+    }
+  }
+
+  /* @see IFormatReader#getSizeY() */
+  @Override
+  public int getSizeY() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSizeY();
+    }
+  }
+
+  /* @see IFormatReader#getSizeZ() */
+  @Override
+  public int getSizeZ() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSizeZ();
+    }
+  }
+
+  /* @see IFormatReader#getSizeC() */
+  @Override
+  public int getSizeC() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSizeC();
+    }
+  }
+
+  /* @see IFormatReader#getSizeT() */
+  @Override
+  public int getSizeT() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSizeT();
+    }
+  }
+
+  /* @see IFormatReader#getPixelType() */
+  @Override
+  public int getPixelType() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getPixelType();
+    }
+  }
+
+  /* @see IFormatReader#getBitsPerPixel() */
+  @Override
+  public int getBitsPerPixel() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getBitsPerPixel();
+    }
+  }
+
+  /* @see IFormatReader#getEffectiveSizeC() */
+  @Override
+  public int getEffectiveSizeC() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getEffectiveSizeC();
+    }
+  }
+
+  /* @see IFormatReader#getRGBChannelCount() */
+  @Override
+  public int getRGBChannelCount() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getRGBChannelCount();
+    }
+  }
+
+  /* @see IFormatReader#isIndexed() */
+  @Override
+  public boolean isIndexed() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.isIndexed();
+    }
+  }
+
+  /* @see IFormatReader#isFalseColor() */
+  @Override
+  public boolean isFalseColor() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.isFalseColor();
+    }
+  }
+
+  /* @see IFormatReader#get8BitLookupTable() */
+  @Override
+  public byte[][] get8BitLookupTable() throws FormatException, IOException {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.get8BitLookupTable();
+    }
+  }
+
+  /* @see IFormatReader#get16BitLookupTable() */
+  @Override
+  public short[][] get16BitLookupTable() throws FormatException, IOException {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.get16BitLookupTable();
+    }
+  }
+
+  /* @see IFormatReader#getModuloZ() */
+  @Override
+  public Modulo getModuloZ() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getModuloZ();
+    }
+  }
+
+  /* @see IFormatReader#getModuloC() */
+  @Override
+  public Modulo getModuloC() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getModuloC();
+    }
+  }
+
+  /* @see IFormatReader#getModuloT() */
+  @Override
+  public Modulo getModuloT() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getModuloT();
+    }
+  }
+
+  /* @see IFormatReader#getThumbSizeX() */
+  @Override
+  public int getThumbSizeX() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getThumbSizeX();
+    }
+  }
+
+  /* @see IFormatReader#getThumbSizeY() */
+  @Override
+  public int getThumbSizeY() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getThumbSizeY();
+    }
+  }
+
+  /* @see IFormatReader#isLittleEndian() */
+  @Override
+  public boolean isLittleEndian() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.isLittleEndian();
+    }
+  }
+
+  /* @see IFormatReader#getDimensionOrder() */
+  @Override
+  public String getDimensionOrder() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getDimensionOrder();
+    }
+  }
+
+  /* @see IFormatReader#isOrderCertain() */
+  @Override
+  public boolean isOrderCertain() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.isOrderCertain();
+    }
+  }
+
+  /* @see IFormatReader#isThumbnailSeries() */
+  @Override
+  public boolean isThumbnailSeries() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.isThumbnailSeries();
+    }
+  }
+
+  /* @see IFormatReader#isInterleaved() */
+  @Override
+  public boolean isInterleaved() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.isInterleaved();
+    }
+  }
+
+  /* @see IFormatReader#isInterleaved(int) */
+  @Override
+  public boolean isInterleaved(int subC) {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.isInterleaved(subC);
+    }
+  }
+
+  /* @see IFormatReader#openThumbBytes(int) */
+  @Override
+  public byte[] openThumbBytes(int no) throws FormatException, IOException {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.openThumbBytes(no);
+    }
+  }
+
+  /* @see IFormatReader#openPlane(int, int, int, int, int) */
+  @Override
+  public Object openPlane(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.openPlane(no, x, y, w, h);
+    }
+  }
+
+  /* @see IFormatReader#getSeriesUsedFiles() */
+  @Override
+  public String[] getSeriesUsedFiles() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSeriesUsedFiles();
+    }
+  }
+
+  /* @see IFormatReader#getSeriesUsedFiles(boolean) */
+  @Override
+  public String[] getSeriesUsedFiles(boolean noPixels) {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSeriesUsedFiles(noPixels);
+    }
+  }
+
+  /* @see IFormatReader#getAdvancedSeriesUsedFiles(boolean) */
+  @Override
+  public FileInfo[] getAdvancedSeriesUsedFiles(boolean noPixels) {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getAdvancedSeriesUsedFiles(noPixels);
+    }
+  }
+
+  /* @see IFormatReader#getIndex(int, int, int) */
+  @Override
+  public int getIndex(int z, int c, int t) {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getIndex(z, c, t);
+    }
+  }
+
+  /* @see IFormatReader#getIndex(int, int, int, int, int, int) */
+  @Override
+  public int getIndex(int z, int c, int t, int moduloZ, int moduloC,
+    int moduloT)
+  {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getIndex(z, c, t, moduloZ, moduloC, moduloT);
+    }
+  }
+
+  /* @see IFormatReader#getZCTCoords(int) */
+  @Override
+  public int[] getZCTCoords(int index) {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getZCTCoords(index);
+    }
+  }
+
+  /* @see IFormatReader#getZCTModuloCoords(int) */
+  @Override
+  public int[] getZCTModuloCoords(int index) {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getZCTModuloCoords(index);
+    }
+  }
+
+  /* @see IFormatReader#getSeriesMetadataValue(String) */
+  @Override
+  public Object getSeriesMetadataValue(String field) {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSeriesMetadataValue(field);
+    }
+  }
+
+  /* @see IFormatReader#getSeriesMetadata() */
+  @Override
+  public Hashtable<String, Object> getSeriesMetadata() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getSeriesMetadata();
+    }
+  }
+
+  /* @see IFormatReader#getOptimalTileWidth() */
+  @Override
+  public int getOptimalTileWidth() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getOptimalTileWidth();
+    }
+  }
+
+  /* @see IFormatReader#getOptimalTileHeight() */
+  @Override
+  public int getOptimalTileHeight() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getOptimalTileHeight();
+    }
+  }
+
+  /* @see IFormatReader#getResolutionCount() */
+  @Override
+  public int getResolutionCount() {
+    synchronized (lock) {
+      awaitIdle();
+      return reader.getResolutionCount();
+    }
+  }
+
+  // -- Helper methods --
+
+  /** Records the wrapped reader's position; the lock must be held. */
+  private void updatePosition() {
+    series = reader.getSeries();
+    resolution = reader.getResolution();
+    coreIndex = reader.getCoreIndex();
+  }
+
+  /**
+   * Waits until no batch is being read, so that the wrapped reader is at
+   * the position set by callers; the lock must be held.
+   */
+  private void awaitIdle() {
+    boolean interrupted = false;
+    while (reading) {
+      try {
+        lock.wait();
+      }
+      catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Waits until the given request has been read. Whenever no other thread
+   * is reading, the calling thread reads all queued requests itself.
+   */
+  private void await(Request request) throws InterruptedIOException {
+    while (true) {
+      List<Request> batch;
+      long mergeLimit;
+      synchronized (lock) {
+        boolean leading = false;
+        try {
+          while (!request.done && reading) lock.wait();
+          if (request.done) return;
+          reading = leading = true;
+          if (window > 0) lock.wait(window);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          // queued requests are read by the next waiting thread
+          if (leading) {
+            reading = false;
+            lock.notifyAll();
+          }
+          throw new InterruptedIOException("Interrupted reading a region");
+        }
+        batch = new ArrayList<Request>(pending);
+        pending.clear();
+        mergeLimit = maxMergedBytes;
+      }
+
+      int reads = 0;
+      try {
+        reads = readBatch(batch, mergeLimit);
+      }
+      finally {
+        synchronized (lock) {
+          readCount += reads;
+          for (Request r : batch) {
+            r.done = true;
+            inFlight.remove(r.region);
+          }
+          reading = false;
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the given requests, setting the result or failure of each one.
+   * @return the number of reads made from the wrapped reader
+   */
+  private int readBatch(List<Request> batch, long mergeLimit) {
+    int reads = 0;
+    int series = reader.getSeries();
+    int resolution = reader.getResolution();
+    List<Request> left = new ArrayList<Request>(batch);
+    while (!left.isEmpty()) {
+      // gather the requests for one plane
+      Region first = left.get(0).region;
+      List<Request> plane = new ArrayList<Request>();
+      for (Iterator<Request> it=left.iterator(); it.hasNext();) {
+        Request r = it.next();
+        if (r.region.isSamePlane(first)) {
+          plane.add(r);
+          it.remove();
+        }
+      }
+      try {
+        if (reader.getSeries() != first.series) {
+          reader.setSeries(first.series);
+        }
+        if (reader.getResolution() != first.resolution) {
+          reader.setResolution(first.resolution);
+        }
+        for (List<Request> cluster : cluster(plane, mergeLimit)) {
+          try {
+            read(cluster);
+            reads++;
+          }
+          catch (Throwable t) {
+            for (Request r : cluster) r.failure = t;
+          }
+        }
+      }
+      catch (Throwable t) {
+        for (Request r : plane) {
+          if (r.result == null) r.failure = t;
+        }
+      }
+    }
+    try {
+      if (reader.getSeries() != series) reader.setSeries(series);
+      if (reader.getResolution() != resolution) {
+        reader.setResolution(resolution);
+      }
+    }
+    catch (RuntimeException e) {
+      LOGGER.debug("Could not restore series {}", series, e);
+    }
+    return reads;
+  }
+
+  /**
+   * Splits requests for one plane into groups that can each be read at
+   * once. Requests that touch each other are read together if they can be
+   * merged; otherwise, runs of adjacent requests within a row are.
+   *
+   * @see #canMerge(List, long)
+   */
+  private List<List<Request>> cluster(List<Request> plane, long mergeLimit) {
+    List<List<Request>> clusters = new ArrayList<List<Request>>();
+    boolean merge = plane.size() > 1 && mergeLimit > 0 &&
+      reader.getOptimalTileWidth() > 0 && reader.getOptimalTileHeight() > 0;
+
+    List<Request> left = new ArrayList<Request>(plane);
+    while (!left.isEmpty()) {
+      List<Request> group = new ArrayList<Request>();
+      group.add(left.remove(0));
+      for (int i=0; merge && i<group.size(); i++) {
+        Region r = group.get(i).region;
+        for (Iterator<Request> it=left.iterator(); it.hasNext();) {
+          Request candidate = it.next();
+          if (r.touches(candidate.region)) {
+            group.add(candidate);
+            it.remove();
+          }
+        }
+      }
+      if (group.size() == 1 || canMerge(group, mergeLimit)) {
+        clusters.add(group);
+        continue;
+      }
+
+      while (!group.isEmpty()) {
+        Region seed = group.get(0).region;
+        List<Request> row = new ArrayList<Request>();
+        for (Iterator<Request> it=group.iterator(); it.hasNext();) {
+          Request r = it.next();
+          if (r.region.y == seed.y && r.region.h == seed.h) {
+            row.add(r);
+            it.remove();
+          }
+        }
+        Collections.sort(row, new Comparator<Request>() {
+          @Override
+          public int compare(Request a, Request b) {
+            return a.region.x - b.region.x;
+          }
+        });
+
+        List<Request> run = new ArrayList<Request>();
+        for (Request r : row) {
+          if (!run.isEmpty()) {
+            Region last = run.get(run.size() - 1).region;
+            run.add(r);
+            if (last.x + last.w == r.region.x && canMerge(run, mergeLimit)) {
+              continue;
+            }
+            run.remove(run.size() - 1);
+            clusters.add(run);
+            run = new ArrayList<Request>();
+          }
+          run.add(r);
+        }
+        clusters.add(run);
+      }
+    }
+    return clusters;
+  }
+
+  /**
+   * Returns true if the given requests for one plane can be read at once:
+   * their bounding box must be aligned to the optimal tile grid, must not
+   * contain pixels that were not requested, and must not be larger than the
+   * given number of bytes.
+   */
+  private boolean canMerge(List<Request> requests, long mergeLimit) {
+    int tileWidth = reader.getOptimalTileWidth();
+    int tileHeight = reader.getOptimalTileHeight();
+    int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+    int x1 = 0, y1 = 0;
+    long area = 0;
+    for (Request r : requests) {
+      x0 = Math.min(x0, r.region.x);
+      y0 = Math.min(y0, r.region.y);
+      x1 = Math.max(x1, r.region.x + r.region.w);
+      y1 = Math.max(y1, r.region.y + r.region.h);
+      area += (long) r.region.w * r.region.h;
+    }
+    long boxArea = (long) (x1 - x0) * (y1 - y0);
+    long pixelBytes = (long) reader.getRGBChannelCount() *
+      FormatTools.getBytesPerPixel(reader.getPixelType());
+    return x0 % tileWidth == 0 && y0 % tileHeight == 0 &&
+      ((x1 - x0) % tileWidth == 0 || x1 == reader.getSizeX()) &&
+      ((y1 - y0) % tileHeight == 0 || y1 == reader.getSizeY()) &&
+      boxArea <= area && boxArea * pixelBytes <= mergeLimit;
+  }
+
+  /** Reads a group of requests for one plane with a single read. */
+  private void read(List<Request> cluster)
+    throws FormatException, IOException
+  {
+    Region first = cluster.get(0).region;
+    if (cluster.size() == 1) {
+      cluster.get(0).result =
+        reader.openBytes(first.no, first.x, first.y, first.w, first.h);
+      return;
+    }
+
+    int x0 = first.x, y0 = first.y;
+    int x1 = first.x + first.w, y1 = first.y + first.h;
+    for (Request r : cluster) {
+      x0 = Math.min(x0, r.region.x);
+      y0 = Math.min(y0, r.region.y);
+      x1 = Math.max(x1, r.region.x + r.region.w);
+      y1 = Math.max(y1, r.region.y + r.region.h);
+    }
+    int boxWidth = x1 - x0, boxHeight = y1 - y0;
+    byte[] merged = reader.openBytes(first.no, x0, y0, boxWidth, boxHeight);
+    LOGGER.trace("Merged {} regions into {}x{} at {},{}",
+      cluster.size(), boxWidth, boxHeight, x0, y0);
+
+    int bpp = FormatTools.getBytesPerPixel(reader.getPixelType());
+    int rgb = reader.getRGBChannelCount();
+    boolean interleaved = rgb == 1 || reader.isInterleaved();
+    int planes = interleaved ? 1 : rgb;
+    int pixel = interleaved ? bpp * rgb : bpp;
+    int boxPlane = boxWidth * boxHeight * pixel;
+    for (Request r : cluster) {
+      Region region = r.region;
+      int rowBytes = region.w * pixel;
+      byte[] result = new byte[planes * region.h * rowBytes];
+      for (int p=0; p<planes; p++) {
+        for (int row=0; row<region.h; row++) {
+          int src = p * boxPlane + pixel *
+            ((region.y - y0 + row) * boxWidth + region.x - x0);
+          int dest = (p * region.h + row) * rowBytes;
+          System.arraycopy(merged, src, result, dest, rowBytes);
+        }
+      }
+      r.result = result;
+    }
+  }
+
+  // -- Helper classes --
+
+  /** A region of a plane of a series and resolution. */
+  private static class Region {
+    final int series, resolution, no, x, y, w, h;
+
+    Region(int series, int resolution, int no, int x, int y, int w, int h) {
+      this.series = series;
+      this.resolution = resolution;
+      this.no = no;
+      this.x = x;
+      this.y = y;
+      this.w = w;
+      this.h = h;
+    }
+
+    /** Returns true if the regions overlap or share an edge or corner. */
+    boolean touches(Region r) {
+      return x <= r.x + r.w && r.x <= x + w && y <= r.y + r.h && r.y <= y + h;
+    }
+
+    boolean isSamePlane(Region r) {
+      return series == r.series && resolution == r.resolution && no == r.no;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Region)) return false;
+      Region r = (Region) o;
+      return isSamePlane(r) && x == r.x && y == r.y && w == r.w && h == r.h;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = series;
+      hash = 31 * hash + resolution;
+      hash = 31 * hash + no;
+      hash = 31 * hash + x;
+      hash = 31 * hash + y;
+      hash = 31 * hash + w;
+      return 31 * hash + h;
+    }
+  }
+
+  /** A queued or in-progress read, shared by identical requests. */
+  private static class Request {
+    final Region region;
+
+    /** Number of threads waiting for this request; guarded by the lock. */
+    int callers;
+
+    /** Whether the request has been read; guarded by the lock. */
+    boolean done;
+
+    byte[] result;
+    Throwable failure;
+
+    Request(Region region) { this.region = region; }
+  }
+
+}
@@ -37,10 +37,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import loci.common.DataTools;
 import loci.common.Location;
@@ -63,6 +71,9 @@ public class FileStitcher extends ReaderWrapper {
 
   private static final int MAX_READERS = 1000;
 
+  /** Default maximum number of constituent files kept open at once. */
+  public static final int DEFAULT_MAX_OPEN_FILES = 16;
+
   // -- Fields --
 
   /**
@@ -96,6 +107,22 @@ public class FileStitcher extends ReaderWrapper {
   private ExternalSeries[] externals;
   private ClassList<IFormatReader> classList;
 
+  /** Maximum number of constituent files (other than the first) kept open. */
+  private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+
+  /** Number of threads used to initialize constituent files in parallel. */
+  private int initThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Pooled constituent readers with an open file, ordered from least to
+   * most recently used.
+   */
+  private LinkedHashMap<DimensionSwapper, PooledFile> openFiles =
+    new LinkedHashMap<DimensionSwapper, PooledFile>(16, 0.75f, true);
+
+  /** Cached list of used files, populated the first time it is requested. */
+  private String[] usedFiles;
+
   // -- Constructors --
 
   /** Constructs a FileStitcher around a new image reader. */
@@ -166,6 +193,42 @@ public class FileStitcher extends ReaderWrapper {
     return !doNotChangePattern;
   }
 
+  /**
+   * Sets the maximum number of constituent files that are kept open at once,
+   * in addition to the first file of each pattern.  When the limit is
+   * reached, the least recently used file is closed so that its reader can
+   * be reused.
+   */
+  public void setMaxOpenFiles(int maxOpenFiles) {
+    if (maxOpenFiles < 1) {
+      throw new IllegalArgumentException(
+        "At least one open file is required: " + maxOpenFiles);
+    }
+    this.maxOpenFiles = maxOpenFiles;
+  }
+
+  /** Gets the maximum number of constituent files that are kept open. */
+  public int getMaxOpenFiles() {
+    return maxOpenFiles;
+  }
+
+  /**
+   * Sets the number of threads used when each constituent file must be
+   * initialized, e.g. by {@link #getUsedFiles()}.
+   */
+  public void setInitializationThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+        "At least one thread is required: " + threads);
+    }
+    initThreads = threads;
+  }
+
+  /** Gets the number of threads used to initialize constituent files. */
+  public int getInitializationThreads() {
+    return initThreads;
+  }
+
   /** Gets the reader appropriate for use with the given image plane. */
   public IFormatReader getReader(int no) throws FormatException, IOException {
     if (noStitch) return reader;
@@ -478,11 +541,7 @@ public class FileStitcher extends ReaderWrapper {
     int ino = pos[1];
 
     if (ino < r.getImageCount()) {
-      byte[] b = r.openBytes(ino, buf, x, y, w, h);
-      if (!noStitch && ino == r.getImageCount() - 1) {
-        r.close();
-      }
-      return b;
+      return r.openBytes(ino, buf, x, y, w, h);
     }
 
     // return a blank image to cover for the fact that
@@ -541,6 +600,8 @@ public class FileStitcher extends ReaderWrapper {
     if (!fileOnly) {
       noStitch = false;
       externals = null;
+      openFiles.clear();
+      usedFiles = null;
       sizeZ = sizeC = sizeT = null;
       lenZ = lenC = lenT = null;
       core.clear();
@@ -671,6 +732,8 @@ public class FileStitcher extends ReaderWrapper {
 
     if (noStitch) return reader.getUsedFiles();
 
+    if (usedFiles != null) return usedFiles.clone();
+
     // returning the files list directly here is fast, since we do not
     // have to call initFile on each constituent file; but we can only do so
     // when each constituent file does not itself have multiple used files
@@ -683,26 +746,17 @@ public class FileStitcher extends ReaderWrapper {
         files.add(path);
       }
 
-      DimensionSwapper[] readers = s.getReaders();
-      for (int i=0; i<readers.length; i++) {
-        try {
-          readers[i].setId(f[i]);
-          String[] used = readers[i].getUsedFiles();
-          for (String file : used) {
-            String path = new Location(file).getAbsolutePath();
-            files.add(path);
-          }
-          readers[i].close();
-        }
-        catch (FormatException e) {
-          LOGGER.debug("", e);
-        }
-        catch (IOException e) {
-          LOGGER.debug("", e);
+      int nFiles = f.length > MAX_READERS ? 1 : f.length;
+      for (String[] used : getConstituentUsedFiles(s, nFiles)) {
+        if (used == null) continue;
+        for (String file : used) {
+          String path = new Location(file).getAbsolutePath();
+          files.add(path);
         }
       }
     }
-    return files.toArray(new String[files.size()]);
+    usedFiles = files.toArray(new String[files.size()]);
+    return usedFiles.clone();
   }
 
   /* @see IFormatReader#getUsedFiles() */
@@ -1204,7 +1258,10 @@ public class FileStitcher extends ReaderWrapper {
     }
 
     int fno = FormatTools.positionToRaster(count, pos);
-    DimensionSwapper r = getReader(sno, fno);
+
+    // all files in the pattern are assumed to have the same dimensions,
+    // so the first file's metadata is used rather than initializing this one
+    DimensionSwapper r = getReader(sno, 0);
 
     int ino;
     if (posZ[0] < r.getSizeZ() && posC[0] < r.getSizeC() &&
@@ -1222,21 +1279,27 @@ public class FileStitcher extends ReaderWrapper {
 
   protected void initReader(int sno, int fno) {
     int external = getExternalSeries(sno);
-    DimensionSwapper r = externals[external].getReader(fno);
+    ExternalSeries s = externals[external];
+    DimensionSwapper r = s.getReader(fno);
+    int readerSeries = reader.getSeriesCount() > 1 ? sno : 0;
+    String newOrder = ((DimensionSwapper) reader).getInputOrder();
+    if (s.isInitialized(r, readerSeries, newOrder)) {
+      return;
+    }
     try {
       if (r.getCurrentFile() == null) {
         r.setGroupFiles(false);
       }
-      r.setId(externals[external].getFiles()[fno]);
-      r.setSeries(reader.getSeriesCount() > 1 ? sno : 0);
-      String newOrder = ((DimensionSwapper) reader).getInputOrder();
-      if ((externals[external].getFiles().length > 1 || !r.isOrderCertain()) &&
+      r.setId(s.getFiles()[fno]);
+      r.setSeries(readerSeries);
+      if ((s.getFiles().length > 1 || !r.isOrderCertain()) &&
         (r.getRGBChannelCount() == 1 ||
         newOrder.indexOf('C') == r.getDimensionOrder().indexOf('C')))
       {
         r.swapDimensions(newOrder);
       }
       r.setOutputOrder(newOrder);
+      s.setInitialized(r, readerSeries, newOrder);
     }
     catch (FormatException e) {
       LOGGER.debug("", e);
@@ -1246,10 +1309,146 @@ public class FileStitcher extends ReaderWrapper {
     }
   }
 
+  /** Constructs a new reader for a single constituent file. */
+  private DimensionSwapper createReader() {
+    DimensionSwapper r = null;
+    if (classList != null) {
+      r = new DimensionSwapper(new ImageReader(classList));
+    }
+    else r = new DimensionSwapper();
+    r.setMetadataOptions(getMetadataOptions());
+    r.setGroupFiles(false);
+    return r;
+  }
+
+  /**
+   * Obtains a reader for the given constituent file, closing the least
+   * recently used file if the maximum number of open files has been reached.
+   */
+  private DimensionSwapper acquireReader(ExternalSeries s, int fno) {
+    DimensionSwapper r = null;
+    if (openFiles.size() >= maxOpenFiles) {
+      Iterator<Map.Entry<DimensionSwapper, PooledFile>> it =
+        openFiles.entrySet().iterator();
+      Map.Entry<DimensionSwapper, PooledFile> eldest = it.next();
+      it.remove();
+      r = eldest.getKey();
+      eldest.getValue().series.release(eldest.getValue().fileIndex);
+      try {
+        r.close();
+      }
+      catch (IOException e) {
+        LOGGER.debug("Could not close " + r.getCurrentFile(), e);
+      }
+    }
+    else {
+      r = createReader();
+      DimensionSwapper first = s.getReader(0);
+      r.setNormalized(first.isNormalized());
+      r.setOriginalMetadataPopulated(first.isOriginalMetadataPopulated());
+    }
+    openFiles.put(r, new PooledFile(s, fno));
+    return r;
+  }
+
+  /**
+   * Retrieves the used files for the first <code>nFiles</code> files in the
+   * given series.  Files other than the first are initialized in parallel,
+   * using temporary readers so that the pool of open files is not disturbed.
+   *
+   * @return an array with one entry per file; entries for files that could
+   *   not be initialized are null
+   */
+  private String[][] getConstituentUsedFiles(ExternalSeries s, int nFiles) {
+    final String[] f = s.getFiles();
+    final String[][] used = new String[nFiles][];
+    used[0] = s.getReader(0).getUsedFiles();
+    if (nFiles == 1) return used;
+
+    final int nThreads = Math.min(initThreads, nFiles - 1);
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int t=0; t<nThreads; t++) {
+      final int start = t + 1;
+      final DimensionSwapper r = createReader();
+      r.setOriginalMetadataPopulated(false);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          try {
+            for (int i=start; i<used.length; i+=nThreads) {
+              try {
+                r.setId(f[i]);
+                used[i] = r.getUsedFiles();
+              }
+              catch (FormatException e) {
+                LOGGER.debug("", e);
+              }
+              catch (IOException e) {
+                LOGGER.debug("", e);
+              }
+            }
+          }
+          finally {
+            r.close();
+          }
+          return null;
+        }
+      });
+    }
+
+    if (nThreads == 1) {
+      try {
+        tasks.get(0).call();
+      }
+      catch (Exception e) {
+        LOGGER.debug("", e);
+      }
+      return used;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+    try {
+      for (Future<Void> result : pool.invokeAll(tasks)) {
+        try {
+          result.get();
+        }
+        catch (ExecutionException e) {
+          LOGGER.debug("", e.getCause());
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      LOGGER.debug("Interrupted while initializing files", e);
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      pool.shutdownNow();
+    }
+    return used;
+  }
+
   // -- Helper classes --
 
+  /** Identifies the constituent file currently assigned to a pooled reader. */
+  static class PooledFile {
+    final ExternalSeries series;
+    final int fileIndex;
+
+    PooledFile(ExternalSeries series, int fileIndex) {
+      this.series = series;
+      this.fileIndex = fileIndex;
+    }
+  }
+
   class ExternalSeries {
-    private DimensionSwapper[] readers;
+    /** Reader for the first file, which is kept open until close(). */
+    private DimensionSwapper firstReader;
+    /** Pooled readers for the other files, keyed by file index. */
+    private Map<Integer, DimensionSwapper> readers =
+      new HashMap<Integer, DimensionSwapper>();
+    /** Series and input order each reader was last configured with. */
+    private Map<DimensionSwapper, String> initialized =
+      new HashMap<DimensionSwapper, String>();
     private String[] files;
     private FilePattern pattern;
     private byte[] blankThumbBytes;
@@ -1263,38 +1462,62 @@ public class FileStitcher extends ReaderWrapper {
       this.pattern = pattern;
       files = this.pattern.getFiles();
 
-      int nReaders = files.length > MAX_READERS ? 1 : files.length;
-      readers = new DimensionSwapper[nReaders];
-      for (int i=0; i<readers.length; i++) {
-        if (classList != null) {
-          readers[i] = new DimensionSwapper(new ImageReader(classList));
-        }
-        else readers[i] = new DimensionSwapper();
-        readers[i].setMetadataOptions(getMetadataOptions());
-        readers[i].setGroupFiles(false);
-      }
-      readers[0].setId(files[0]);
+      firstReader = createReader();
+      firstReader.setId(files[0]);
 
-      ag = new AxisGuesser(this.pattern, readers[0].getDimensionOrder(),
-        readers[0].getSizeZ(), readers[0].getSizeT(),
-        readers[0].getSizeC(), readers[0].isOrderCertain());
+      ag = new AxisGuesser(this.pattern, firstReader.getDimensionOrder(),
+        firstReader.getSizeZ(), firstReader.getSizeT(),
+        firstReader.getSizeC(), firstReader.isOrderCertain());
 
-      blankThumbBytes = new byte[FormatTools.getPlaneSize(readers[0],
-        readers[0].getThumbSizeX(), readers[0].getThumbSizeY())];
+      blankThumbBytes = new byte[FormatTools.getPlaneSize(firstReader,
+        firstReader.getThumbSizeX(), firstReader.getThumbSizeY())];
 
-      originalOrder = readers[0].getDimensionOrder();
-      imagesPerFile = readers[0].getImageCount();
+      originalOrder = firstReader.getDimensionOrder();
+      imagesPerFile = firstReader.getImageCount();
     }
 
     public DimensionSwapper getReader(int fno) {
-      if (fno < readers.length) {
-        return readers[fno];
+      if (fno == 0 || fno >= files.length) {
+        return firstReader;
       }
-      return readers[0];
+      DimensionSwapper r = readers.get(fno);
+      if (r == null) {
+        r = acquireReader(this, fno);
+        readers.put(fno, r);
+      }
+      else {
+        // mark as most recently used
+        openFiles.get(r);
+      }
+      return r;
     }
 
     public DimensionSwapper[] getReaders() {
-      return readers;
+      DimensionSwapper[] r = new DimensionSwapper[readers.size() + 1];
+      r[0] = firstReader;
+      int next = 1;
+      for (DimensionSwapper pooled : readers.values()) {
+        r[next++] = pooled;
+      }
+      return r;
+    }
+
+    /** Removes the given file's reader, after it has been evicted. */
+    void release(int fno) {
+      DimensionSwapper r = readers.remove(fno);
+      if (r != null) {
+        initialized.remove(r);
+      }
+    }
+
+    boolean isInitialized(DimensionSwapper r, int series, String order) {
+      String state = initialized.get(r);
+      return state != null && state.equals(series + order) &&
+        r.getCurrentFile() != null;
+    }
+
+    void setInitialized(DimensionSwapper r, int series, String order) {
+      initialized.put(r, series + order);
     }
 
     public FilePattern getFilePattern() {
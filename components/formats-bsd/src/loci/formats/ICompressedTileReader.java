@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.IOException;
+
+import loci.formats.tiff.TileCodec;
+
+/**
+ * Interface for readers that can return tiles exactly as they are stored
+ * in the file, without decompressing them.  Together with
+ * {@link ICompressedTileWriter} this allows tiled images to be copied
+ * between files without decoding and re-encoding every tile.
+ *
+ * Both methods operate on the current series and resolution.
+ */
+public interface ICompressedTileReader {
+
+  /**
+   * Gets the description of how the tiles of the given plane are
+   * compressed, or null if compressed tiles cannot be read for that plane
+   * (for example because the pixels returned by
+   * {@link IFormatReader#openBytes(int)} are transformed after decoding).
+   */
+  TileCodec getTileCodec(int no) throws FormatException, IOException;
+
+  /**
+   * Reads the given compressed tile of the given plane.  Tiles are indexed
+   * according to the geometry of {@link #getTileCodec(int)}; tiles along
+   * the right and bottom edges are stored at full size.
+   *
+   * @return the compressed tile, or null if the tile is not present in the
+   *   file and must be read with {@link IFormatReader#openBytes(int)}
+   * @throws FormatException if {@link #getTileCodec(int)} returns null for
+   *   the given plane
+   */
+  byte[] openCompressedTile(int no, int row, int col)
+    throws FormatException, IOException;
+
+}
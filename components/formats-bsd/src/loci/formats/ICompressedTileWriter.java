@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.IOException;
+
+import loci.formats.tiff.TileCodec;
+
+/**
+ * Interface for writers that can store tiles which have already been
+ * compressed, e.g. tiles obtained from an {@link ICompressedTileReader}.
+ */
+public interface ICompressedTileWriter {
+
+  /**
+   * Returns true if tiles compressed with the given codec can be saved to
+   * the current series as-is.  This requires the codec to match the
+   * writer's compression type and the pixel type, channel count and
+   * sample layout of the current series.
+   */
+  boolean canSaveCompressedTile(TileCodec codec) throws FormatException;
+
+  /**
+   * Saves a compressed tile to the given plane of the current series.
+   *
+   * @param no the plane index within the current series
+   * @param tile the compressed tile data
+   * @param codec the description of how the tile was compressed; every
+   *   tile of a plane must use the same codec
+   * @param x the X coordinate of the tile's upper-left corner, which must
+   *   be a multiple of the codec's tile width
+   * @param y the Y coordinate of the tile's upper-left corner, which must
+   *   be a multiple of the codec's tile length
+   * @throws FormatException if {@link #canSaveCompressedTile(TileCodec)}
+   *   returns false for the codec
+   */
+  void saveCompressedTile(int no, byte[] tile, TileCodec codec, int x, int y)
+    throws FormatException, IOException;
+
+}
@@ -163,25 +163,7 @@ public final class ImageTools {
     }
 
     int c = b.length / rtn.length;
-
-    for (int i=0; i<rtn.length; i++) {
-      byte[] a = new byte[4];
-      int maxC = Math.min(c, a.length);
-      for (int j=maxC-1; j>=0; j--) {
-        a[j] = b[interleaved ? i * c + j : i + j * w * h];
-      }
-      if (c == 1) {
-        for (int j=1; j<a.length; j++) {
-          a[j] = a[0];
-        }
-      }
-
-      byte tmp = a[0];
-      a[0] = a[2];
-      a[2] = tmp;
-      rtn[i] = DataTools.bytesToInt(a, true);
-    }
-
+    ChannelKernels.packRGB(b, rtn, c, interleaved);
     return rtn;
   }
 
@@ -224,13 +206,8 @@ public final class ImageTools {
       System.arraycopy(array, channelLength * index, rtn, 0, channelLength);
     }
     else {
-      int next = 0;
-      for (int i=0; i<array.length; i+=c*bytes) {
-        for (int k=0; k<bytes; k++) {
-          if (next < rtn.length) rtn[next] = array[i + index*bytes + k];
-          next++;
-        }
-      }
+      int pixels = Math.min(array.length / (c * bytes), rtn.length / bytes);
+      ChannelKernels.extractChannel(array, rtn, index, c, bytes, pixels);
     }
     return rtn;
   }
@@ -551,10 +528,11 @@ public final class ImageTools {
   /** Converts a LUT and an array of indices into an array of RGB tuples. */
   public static byte[][] indexedToRGB(byte[][] lut, byte[] b) {
     byte[][] rtn = new byte[lut.length][b.length];
-
-    for (int i=0; i<b.length; i++) {
-      for (int j=0; j<lut.length; j++) {
-        rtn[j][i] = lut[j][b[i] & 0xff];
+    for (int j=0; j<lut.length; j++) {
+      byte[] table = lut[j];
+      byte[] channel = rtn[j];
+      for (int i=0; i<b.length; i++) {
+        channel[i] = table[b[i] & 0xff];
       }
     }
     return rtn;
@@ -563,11 +541,8 @@ public final class ImageTools {
   /** Converts a LUT and an array of indices into an array of RGB tuples. */
   public static short[][] indexedToRGB(short[][] lut, byte[] b, boolean le) {
     short[][] rtn = new short[lut.length][b.length / 2];
-    for (int i=0; i<b.length/2; i++) {
-      for (int j=0; j<lut.length; j++) {
-        int index = DataTools.bytesToInt(b, i*2, 2, le);
-        rtn[j][i] = lut[j][index];
-      }
+    for (int j=0; j<lut.length; j++) {
+      ChannelKernels.applyLookupTable(b, lut[j], rtn[j], le);
     }
     return rtn;
   }
@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Storage backend for {@link Memoizer} memo files.
+ *
+ * By default a {@link Memoizer} writes one hidden memo file per dataset; a
+ * {@code MemoStore} set via {@link Memoizer#setMemoStore(MemoStore)}
+ * replaces that layout with a store of serialized memos keyed by the
+ * absolute path of the dataset's file. Implementations must be safe for
+ * use by several memoizers in different threads.
+ *
+ * @see SegmentedMemoStore
+ */
+public interface MemoStore extends Closeable {
+
+  /**
+   * Return the memo stored under the given key, or null if there is none
+   * or it was stored before the given time.
+   *
+   * @param key the absolute path of the file passed to
+   *   {@link Memoizer#setId(String)}
+   * @param notBefore the minimum time, in milliseconds since the epoch, at
+   *   which the memo must have been stored to be valid
+   */
+  byte[] get(String key, long notBefore) throws IOException;
+
+  /** Store the given memo under the given key, replacing any previous one. */
+  void put(String key, byte[] memo) throws IOException;
+
+  /**
+   * Remove the memo stored under the given key.
+   *
+   * @return true if a memo was removed
+   */
+  boolean remove(String key) throws IOException;
+
+}
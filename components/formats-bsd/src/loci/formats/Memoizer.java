@@ -32,12 +32,42 @@
 
 package loci.formats;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.ArrayIndexOutOfBoundsException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import loci.common.Constants;
 import loci.common.Location;
@@ -46,10 +76,12 @@ import loci.common.RandomAccessOutputStream;
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
 import loci.common.services.ServiceFactory;
+import loci.formats.meta.DummyMetadata;
 import loci.formats.meta.MetadataRetrieve;
 import loci.formats.meta.MetadataStore;
 import loci.formats.services.OMEXMLService;
 import loci.formats.services.OMEXMLServiceImpl;
+import loci.formats.tiff.IFDOffsetIndex;
 
 import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
@@ -58,6 +90,8 @@ import org.slf4j.LoggerFactory;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
@@ -118,10 +152,55 @@ public class Memoizer extends ReaderWrapper {
 
   public static class KryoDeser implements Deser {
 
-    final public Kryo kryo = new Kryo();
-    {
-      // See https://github.com/EsotericSoftware/kryo/issues/216
-      ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy()).setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+    /**
+     * Kryo instance used by this deserializer. It is borrowed from a pool
+     * shared by all memoizers, since creating and configuring a Kryo
+     * instance is comparatively expensive, and returned to the pool by
+     * {@link #close()} unless {@link #getKryo()} has been called or further
+     * classes have been registered with it.
+     *
+     * @deprecated use {@link #getKryo()} to customize the instance
+     */
+    @Deprecated
+    public final Kryo kryo = borrowKryo();
+
+    /** Next registration ID of {@link #kryo} when it was borrowed. */
+    private final int registrationId = kryo.getNextRegistrationId();
+
+    /** Whether {@link #kryo} may have been customized by a caller. */
+    private boolean exposed = false;
+
+    private boolean closed = false;
+
+    /** Whether loaded metadata stores are deserialized on first use. */
+    private boolean lazyMetadata = false;
+
+    /**
+     * Set whether the metadata store of a loaded reader is deserialized
+     * only when it is first used. The reader then gets a proxy which
+     * implements the public interfaces of the store, so the store can no
+     * longer be cast to its class.
+     *
+     *  @param lazy whether stores are deserialized on first use
+     *  (default {@code false})
+     */
+    public void setLazyMetadata(boolean lazy) {
+      this.lazyMetadata = lazy;
+    }
+
+    /** @see #setLazyMetadata(boolean) */
+    public boolean isLazyMetadata() {
+      return lazyMetadata;
+    }
+
+    /**
+     * Return the Kryo instance used by this deserializer, e.g. to register
+     * additional serializers.  The instance is then private to this
+     * deserializer and is not reused by other memoizers once it is closed.
+     */
+    public Kryo getKryo() {
+      exposed = true;
+      return kryo;
     }
 
     FileInputStream fis;
@@ -134,14 +213,30 @@ public class Memoizer extends ReaderWrapper {
       loadStop();
       saveStop();
       kryo.reset();
+      if (!closed) {
+        closed = true;
+        if (!exposed && kryo.getNextRegistrationId() == registrationId) {
+          releaseKryo(kryo);
+        }
+      }
     }
 
     @Override
-    public void loadStart(File memoFile) throws FileNotFoundException {
+    public void loadStart(File memoFile) throws IOException {
+        byte[] bytes = readSharedMemo(memoFile);
+        if (bytes != null) {
+          loadStart(bytes);
+          return;
+        }
         fis = new FileInputStream(memoFile);
         input = new Input(fis);
     }
 
+    /** Start loading a memo held in memory, e.g. from a {@link MemoStore}. */
+    public void loadStart(byte[] memo) {
+        input = new Input(memo);
+    }
+
     @Override
     public Integer loadVersion() {
         return kryo.readObject(input, Integer.class);
@@ -157,10 +252,47 @@ public class Memoizer extends ReaderWrapper {
         return kryo.readObject(input, String.class);
     }
 
+    /**
+     * Read the reader section and, if present, the metadata store section.
+     * If {@link #isLazyMetadata()}, the metadata store section is kept
+     * compressed in memory and only deserialized when the store is first
+     * used.
+     */
     @Override
-    public IFormatReader loadReader() {
-        Class<?> c = kryo.readObject(input, Class.class);
-        return (IFormatReader) kryo.readObject(input, c);
+    public IFormatReader loadReader() throws ClassNotFoundException {
+      byte[] readerSection = readSection(input);
+      if (!input.readBoolean()) {
+        return readReader(readerSection);
+      }
+
+      Class<?> storeClass = Class.forName(
+        input.readString(), true, kryo.getClassLoader());
+      byte[] storeSection = readSection(input);
+      Object store = lazyMetadata ?
+        LazyMetadataStore.create(storeClass, storeSection) :
+        LazyMetadataStore.read(storeSection);
+      Registration registration = kryo.getRegistration(storeClass);
+      Serializer previous = registration.getSerializer();
+      registration.setSerializer(
+        new DetachedStoreSerializer(null, store, previous));
+      try {
+        return readReader(readerSection);
+      }
+      finally {
+        registration.setSerializer(previous);
+      }
+    }
+
+    private IFormatReader readReader(byte[] section) {
+      Input in = new Input(new InflaterInputStream(
+        new ByteArrayInputStream(section)));
+      try {
+        Class<?> c = kryo.readObject(in, Class.class);
+        return (IFormatReader) kryo.readObject(in, c);
+      }
+      finally {
+        in.close();
+      }
     }
 
     @Override
@@ -202,8 +334,92 @@ public class Memoizer extends ReaderWrapper {
 
     @Override
     public void saveReader(IFormatReader reader) {
-      kryo.writeObject(output, reader.getClass());
-      kryo.writeObject(output, reader);
+      writeSections(output, reader);
+    }
+
+    /**
+     * Write the reader and its metadata store as two separately compressed
+     * sections. References to the metadata store are omitted from the
+     * reader section so that the store can be loaded lazily.
+     */
+    private void writeSections(Output out, IFormatReader reader) {
+      final MetadataStore store = reader.getMetadataStore();
+      final boolean detach = store != null &&
+        !(store instanceof DummyMetadata) &&
+        LazyMetadataStore.getInterfaces(store.getClass()).length > 0;
+
+      if (detach) {
+        Registration registration = kryo.getRegistration(store.getClass());
+        Serializer previous = registration.getSerializer();
+        registration.setSerializer(
+          new DetachedStoreSerializer(store, null, previous));
+        try {
+          writeSection(out, reader.getClass(), reader);
+        }
+        finally {
+          registration.setSerializer(previous);
+        }
+        out.writeBoolean(true);
+        out.writeString(store.getClass().getName());
+        writeSection(out, null, store);
+      }
+      else {
+        writeSection(out, reader.getClass(), reader);
+        out.writeBoolean(false);
+      }
+    }
+
+    /**
+     * Write a length-prefixed, compressed section containing the given
+     * object. If a type is given, it is written first and the object is
+     * written without class information.
+     */
+    private void writeSection(Output out, Class<?> type, Object value) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+      Output section = new Output(new DeflaterOutputStream(bytes, deflater));
+      try {
+        if (type != null) {
+          kryo.writeObject(section, type);
+          kryo.writeObject(section, value);
+        }
+        else {
+          kryo.writeClassAndObject(section, value);
+        }
+      }
+      finally {
+        section.close();
+        deflater.end();
+      }
+      out.writeInt(bytes.size());
+      out.writeBytes(bytes.toByteArray());
+    }
+
+    private static byte[] readSection(Input in) {
+      int length = in.readInt();
+      return in.readBytes(length);
+    }
+
+    /**
+     * Serialize the same content as {@link #saveVersion(Integer)},
+     * {@link #saveReleaseVersion(String)} and
+     * {@link #saveReader(IFormatReader)} into memory, so that the result can
+     * be written to disk later without touching the reader again.
+     */
+    public byte[] saveToBytes(Integer version, String releaseVersion,
+      IFormatReader reader)
+    {
+      Output bytes = new Output(8192, -1);
+      try {
+        kryo.writeObject(bytes, version);
+        kryo.writeObject(bytes, releaseVersion);
+        writeSections(bytes, reader);
+        return bytes.toBytes();
+      }
+      finally {
+        bytes.close();
+        kryo.reset();
+      }
     }
 
     @Override
@@ -326,14 +542,181 @@ public class Memoizer extends ReaderWrapper {
 
   }
 
+  /**
+   * Stands in for a detached metadata store while the reader section of a
+   * memo file is written or read. Only the detached store itself is left
+   * out; other objects of the same class are handled by the serializer
+   * that was previously registered for that class.
+   */
+  private static class DetachedStoreSerializer extends Serializer<Object> {
+
+    /** Store to leave out when writing. */
+    private final Object detached;
+
+    /** Store to substitute when reading. */
+    private final Object store;
+
+    private final Serializer<Object> previous;
+
+    @SuppressWarnings("unchecked")
+    DetachedStoreSerializer(Object detached, Object store,
+      Serializer previous)
+    {
+      this.detached = detached;
+      this.store = store;
+      this.previous = previous;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, Object object) {
+      boolean isDetached = object == detached;
+      output.writeBoolean(isDetached);
+      if (!isDetached) {
+        previous.write(kryo, output, object);
+      }
+    }
+
+    @Override
+    public Object read(Kryo kryo, Input input, Class<Object> type) {
+      if (input.readBoolean()) {
+        return store;
+      }
+      return previous.read(kryo, input, type);
+    }
+
+  }
+
+  /**
+   * Proxy handler which deserializes a compressed metadata store section on
+   * first use and then delegates all calls to the deserialized store.
+   */
+  private static class LazyMetadataStore implements InvocationHandler {
+
+    private byte[] section;
+    private Object store;
+
+    private LazyMetadataStore(byte[] section) {
+      this.section = section;
+    }
+
+    /**
+     * Create a proxy implementing the public interfaces of the given
+     * store class, backed by the given compressed section.
+     */
+    static Object create(Class<?> storeClass, byte[] section) {
+      return Proxy.newProxyInstance(storeClass.getClassLoader(),
+        getInterfaces(storeClass), new LazyMetadataStore(section));
+    }
+
+    /** Return the public interfaces implemented by the given class. */
+    static Class<?>[] getInterfaces(Class<?> c) {
+      Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+      for (Class<?> type = c; type != null; type = type.getSuperclass()) {
+        for (Class<?> i : type.getInterfaces()) {
+          if (Modifier.isPublic(i.getModifiers())) {
+            interfaces.add(i);
+          }
+        }
+      }
+      if (!interfaces.contains(MetadataStore.class)) {
+        return new Class<?>[0];
+      }
+      return interfaces.toArray(new Class<?>[interfaces.size()]);
+    }
+
+    private synchronized Object getStore() {
+      if (store == null) {
+        store = read(section);
+        section = null;
+      }
+      return store;
+    }
+
+    /** Deserialize the store held by the given compressed section. */
+    static Object read(byte[] section) {
+      final StopWatch sw =
+        new Slf4JStopWatch(LOGGER, Slf4JStopWatch.DEBUG_LEVEL);
+      Kryo kryo = borrowKryo();
+      Input in = new Input(new InflaterInputStream(
+        new ByteArrayInputStream(section)));
+      try {
+        return kryo.readClassAndObject(in);
+      }
+      finally {
+        in.close();
+        releaseKryo(kryo);
+        sw.stop("loci.formats.Memoizer.loadMetadataStore");
+      }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+      throws Throwable
+    {
+      try {
+        return method.invoke(getStore(), args);
+      }
+      catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+  }
+
+  /** Contents of a memo file held by the shared cache. */
+  private static class SharedMemo {
+    final long length;
+    final long lastModified;
+    final byte[] bytes;
+
+    SharedMemo(long length, long lastModified, byte[] bytes) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.bytes = bytes;
+    }
+  }
+
   // -- Constants --
 
+  /** Kryo instances shared by all {@link KryoDeser} instances. */
+  private static final BlockingQueue<Kryo> KRYO_POOL =
+    new LinkedBlockingQueue<Kryo>(
+      2 * Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Contents of recently used memo files, shared by all memoizers and
+   * keyed by absolute path. Entries are only used while the memo file's
+   * length and modification time are unchanged.
+   */
+  private static final LinkedHashMap<String, SharedMemo> SHARED_MEMOS =
+    new LinkedHashMap<String, SharedMemo>(16, 0.75f, true);
+
+  /** Temporary files of asynchronous memo file writes in progress. */
+  private static final Set<File> PENDING_TEMP_FILES =
+    Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+  /** Maximum number of memo files waiting to be written asynchronously. */
+  private static final int MAX_PENDING_SAVES = 16;
+
+  /**
+   * Maximum time in seconds that JVM shutdown waits for queued asynchronous
+   * memo file writes to complete.
+   */
+  private static final long SHUTDOWN_SAVE_TIMEOUT = 30;
+
+  /**
+   * Asynchronous memo file writes that have been scheduled but have not
+   * yet completed, keyed by the absolute path of the memo file.
+   */
+  private static final ConcurrentHashMap<String, Future<Boolean>>
+    PENDING_SAVES = new ConcurrentHashMap<String, Future<Boolean>>();
+
   /**
    * Default file version. Bumping this number will invalidate all other
    * cached items. This should happen when the order and type of objects stored
    * in the memo file changes.
    */
-  public static final Integer VERSION = 3;
+  public static final Integer VERSION = 6;
 
   /**
    * Default value for {@link #minimumElapsed} if none is provided in the
@@ -377,8 +760,6 @@ public class Memoizer extends ReaderWrapper {
 
   private File memoFile;
 
-  private File tempFile;
-
   private boolean skipLoad = false;
 
   private boolean skipSave = false;
@@ -402,6 +783,27 @@ public class Memoizer extends ReaderWrapper {
    */
   private boolean savedToMemo = false;
 
+  /**
+   * Backend holding memos instead of one memo file per dataset, or null to
+   * use {@link #getMemoFile(String)}.
+   */
+  private MemoStore memoStore = null;
+
+  /** Key of the current dataset in {@link #memoStore}. */
+  private String memoKey;
+
+  /**
+   * Whether memo files are written on a background thread instead of
+   * during {@link #setId(String)}.
+   */
+  private boolean asyncSaving = false;
+
+  /**
+   * Whether the metadata store of a reader loaded from a memo is
+   * deserialized on first use.
+   */
+  private boolean lazyMetadata = false;
+
   /**
    * {@link MetadataStore} set by the caller. This value will be held locally
    * and <em>not</em> set on the {@link #reader} delegate until the execution
@@ -420,6 +822,15 @@ public class Memoizer extends ReaderWrapper {
    */
   private MetadataStore replacementMetadataStore = null;
 
+  /** Maximum total size in bytes of {@link #SHARED_MEMOS}. */
+  private static long sharedMemoCapacity = 0;
+
+  /** Current total size in bytes of {@link #SHARED_MEMOS}. */
+  private static long sharedMemoSize = 0;
+
+  /** Executor used for asynchronous memo file writes; created lazily. */
+  private static ExecutorService saveExecutor;
+
   // -- Constructors --
 
   /**
@@ -607,6 +1018,164 @@ public class Memoizer extends ReaderWrapper {
     this.versionChecking = version;
   }
 
+  /**
+   * Set the maximum number of bytes of memo file contents that are kept in
+   * memory and shared by all memoizers in this JVM. When the same memo file
+   * is loaded repeatedly (e.g. by several readers opened on the same
+   * dataset), cached contents are deserialized without touching the disk.
+   *
+   * A value of 0 (default) disables the shared cache and discards any
+   * cached contents.
+   *
+   *  @param bytes the maximum total size of the shared cache in bytes
+   */
+  public static void setSharedCacheSize(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Invalid cache size: " + bytes);
+    }
+    synchronized (SHARED_MEMOS) {
+      sharedMemoCapacity = bytes;
+      trimSharedCache();
+    }
+  }
+
+  /**
+   * Return the maximum number of bytes of memo file contents that are
+   * shared by all memoizers in this JVM.
+   *
+   * @see #setSharedCacheSize(long)
+   */
+  public static long getSharedCacheSize() {
+    synchronized (SHARED_MEMOS) {
+      return sharedMemoCapacity;
+    }
+  }
+
+  /** Discard all memo file contents held by the shared cache. */
+  public static void clearSharedCache() {
+    synchronized (SHARED_MEMOS) {
+      SHARED_MEMOS.clear();
+      sharedMemoSize = 0;
+    }
+  }
+
+  /**
+   * Set whether memo files are written on a background thread.
+   *
+   * If {@code true}, {@link #setId(String)} serializes the initialized
+   * reader into memory and returns as soon as the memo file write has been
+   * queued; the temporary file, write and rename are then handled by a
+   * shared background thread. If a write of the same memo file is already
+   * queued, no new snapshot is taken. If the queue is full, the memo file
+   * is written synchronously as usual.
+   *
+   * Only the file I/O is deferred: serialization still runs on the thread
+   * that calls {@link #setId(String)}, as the reader may be used as soon as
+   * that method returns. When the JVM exits, writes that are still queued
+   * are given up to 30 seconds to complete; temporary files of writes that
+   * have not completed by then are deleted.
+   *
+   * {@link #isSavedToMemo()} reports whether a write was queued, not
+   * whether it has completed; see {@link #awaitPendingSaves()}.
+   *
+   * Asynchronous saving requires {@link #getDeser()} to return a
+   * {@link KryoDeser}; otherwise memo files are always written
+   * synchronously.
+   *
+   *  @param async a boolean specifying whether memo files are written
+   *  asynchronously (default {@code false})
+   */
+  public void setAsyncSaving(boolean async) {
+    this.asyncSaving = async;
+  }
+
+  /**
+   * Return whether memo files are written on a background thread.
+   *
+   * @see #setAsyncSaving(boolean)
+   */
+  public boolean isAsyncSaving() {
+    return asyncSaving;
+  }
+
+  /**
+   * Block until all asynchronous memo file writes queued so far have
+   * completed.
+   *
+   * @throws InterruptedException if the current thread is interrupted
+   * while waiting
+   */
+  public static void awaitPendingSaves() throws InterruptedException {
+    for (Future<Boolean> save : PENDING_SAVES.values()) {
+      try {
+        save.get();
+      }
+      catch (ExecutionException e) {
+        LOGGER.warn("asynchronous memo save failed", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Set whether the metadata store of a reader loaded from a memo is only
+   * deserialized when it is first used. For plates and other large
+   * datasets the store is usually the bulk of the memo, so this reduces
+   * the time taken by {@link #setId(String)} when the metadata is not
+   * needed.
+   *
+   * The store returned by {@link #getMetadataStore()} is then a proxy
+   * implementing the public interfaces of the original store, so it cannot
+   * be cast to the class of that store. Stores passed to
+   * {@link #setMetadataStore(MetadataStore)} are filled as usual.
+   *
+   * Lazy loading requires {@link #getDeser()} to return a
+   * {@link KryoDeser}.
+   *
+   *  @param lazy whether stores are deserialized on first use
+   *  (default {@code false})
+   */
+  public void setLazyMetadata(boolean lazy) {
+    this.lazyMetadata = lazy;
+  }
+
+  /**
+   * Return whether the metadata store of a reader loaded from a memo is
+   * deserialized on first use.
+   *
+   * @see #setLazyMetadata(boolean)
+   */
+  public boolean isLazyMetadata() {
+    return lazyMetadata;
+  }
+
+  /**
+   * Set the backend used to store memos. If non-null, memos are loaded from
+   * and saved to the given store, keyed by the absolute path of the file
+   * passed to {@link #setId(String)}, and no memo files are written under
+   * the memo directory. If null (default), one memo file per dataset is
+   * written as described by {@link #getMemoFile(String)}.
+   *
+   * The store is not closed by this memoizer.
+   *
+   * Storing memos in a {@link MemoStore} requires {@link #getDeser()} to
+   * return a {@link KryoDeser}.
+   *
+   *  @param store the memo store to use, or null
+   */
+  public void setMemoStore(MemoStore store) {
+    this.memoStore = store;
+  }
+
+  /**
+   * Return the backend used to store memos, or null if one memo file per
+   * dataset is written.
+   *
+   * @see #setMemoStore(MemoStore)
+   */
+  public MemoStore getMemoStore() {
+    return memoStore;
+  }
+
   protected void cleanup() {
     if (ser != null) {
       ser.close();
@@ -639,9 +1208,16 @@ public class Memoizer extends ReaderWrapper {
     StopWatch sw = stopWatch();
     try {
       realFile = new Location(id);
-      memoFile = getMemoFile(id);
+      memoKey = new File(id).getAbsolutePath();
+      memoFile = memoStore == null ? getMemoFile(id) : null;
+      if (memoFile != null && !doInPlaceCaching &&
+        directory.getAbsoluteFile().getParentFile() != null)
+      {
+        // keep TIFF IFD indexes next to the memo files
+        IFDOffsetIndex.setDefaultDirectory(directory);
+      }
 
-      if (memoFile == null) {
+      if (memoFile == null && memoStore == null) {
         // Memoization disabled.
         if (userMetadataStore != null) {
           reader.setMetadataStore(userMetadataStore);
@@ -663,7 +1239,7 @@ public class Memoizer extends ReaderWrapper {
           reader.reopenFile();
         } catch (FileNotFoundException e) {
           LOGGER.info("could not reopen file - deleting invalid memo file: {}", memoFile);
-          deleteQuietly(memoFile);
+          deleteMemo();
           memo = null;
           reader.close();
           loadedFromMemo = false;
@@ -681,7 +1257,8 @@ public class Memoizer extends ReaderWrapper {
           LOGGER.debug("skipping save memo. elapsed millis: {}", elapsed);
           return; // EARLY EXIT!
         }
-        savedToMemo = saveMemo(); // Should never throw.
+        // Should never throw.
+        savedToMemo = asyncSaving ? saveMemoAsync() : saveMemo();
       }
     } catch (ServiceException e) {
       LOGGER.error("Could not create OMEXMLMetadata", e);
@@ -717,6 +1294,7 @@ public class Memoizer extends ReaderWrapper {
     try {
       if (file != null && file.exists()) {
         if (file.delete()) {
+          invalidateSharedMemo(file);
           LOGGER.trace("deleted {}", file);
           return true;
         } else {
@@ -729,6 +1307,104 @@ public class Memoizer extends ReaderWrapper {
     return false;
   }
 
+  /**
+   * Take a {@link Kryo} instance from the shared pool, creating and
+   * configuring a new instance if the pool is empty.
+   */
+  static Kryo borrowKryo() {
+    Kryo kryo = KRYO_POOL.poll();
+    if (kryo == null) {
+      kryo = new Kryo();
+      // See https://github.com/EsotericSoftware/kryo/issues/216
+      ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy()).setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+    }
+    return kryo;
+  }
+  /**
+   * Reset a {@link Kryo} instance obtained from {@link #borrowKryo()} and
+   * return it to the shared pool.
+   */
+  static void releaseKryo(Kryo kryo) {
+    kryo.reset();
+    KRYO_POOL.offer(kryo);
+  }
+
+
+  /**
+   * Return the contents of the given memo file from the shared cache,
+   * reading and caching the whole file if the cache is enabled and the file
+   * fits. Returns null if the shared cache cannot be used for this file.
+   */
+  private static byte[] readSharedMemo(File memoFile) throws IOException {
+    String key = memoFile.getAbsolutePath();
+    long length = memoFile.length();
+    long lastModified = memoFile.lastModified();
+    synchronized (SHARED_MEMOS) {
+      if (sharedMemoCapacity <= 0 || length > sharedMemoCapacity ||
+        length > Integer.MAX_VALUE)
+      {
+        return null;
+      }
+      SharedMemo cached = SHARED_MEMOS.get(key);
+      if (cached != null) {
+        if (cached.length == length && cached.lastModified == lastModified) {
+          LOGGER.trace("shared memo cache hit: {}", memoFile);
+          return cached.bytes;
+        }
+        SHARED_MEMOS.remove(key);
+        sharedMemoSize -= cached.bytes.length;
+      }
+    }
+
+    byte[] bytes = new byte[(int) length];
+    DataInputStream in = new DataInputStream(new FileInputStream(memoFile));
+    try {
+      in.readFully(bytes);
+    }
+    finally {
+      in.close();
+    }
+
+    // only cache the contents if the file did not change while reading
+    if (memoFile.lastModified() == lastModified &&
+      memoFile.length() == length)
+    {
+      synchronized (SHARED_MEMOS) {
+        SharedMemo previous = SHARED_MEMOS.put(key,
+          new SharedMemo(length, lastModified, bytes));
+        if (previous != null) {
+          sharedMemoSize -= previous.bytes.length;
+        }
+        sharedMemoSize += bytes.length;
+        trimSharedCache();
+      }
+    }
+    return bytes;
+  }
+
+  /** Remove any shared cache entry for the given memo file. */
+  private static void invalidateSharedMemo(File memoFile) {
+    synchronized (SHARED_MEMOS) {
+      SharedMemo cached = SHARED_MEMOS.remove(memoFile.getAbsolutePath());
+      if (cached != null) {
+        sharedMemoSize -= cached.bytes.length;
+      }
+    }
+  }
+
+  /**
+   * Evict the least recently used shared cache entries until the cache
+   * fits its capacity. Callers must hold the lock on {@link #SHARED_MEMOS}.
+   */
+  private static void trimSharedCache() {
+    Iterator<Map.Entry<String, SharedMemo>> entries =
+      SHARED_MEMOS.entrySet().iterator();
+    while (sharedMemoSize > sharedMemoCapacity && entries.hasNext()) {
+      sharedMemoSize -= entries.next().getValue().bytes.length;
+      entries.remove();
+    }
+  }
+
   /**
    * Returns a configured {@link Kryo} instance. This method can be modified
    * by consumers. The returned instance is not thread-safe.
@@ -824,6 +1500,10 @@ public class Memoizer extends ReaderWrapper {
       return null;
     }
 
+    if (memoStore != null) {
+      return loadStoredMemo();
+    }
+
     if (!memoFile.exists()) {
       LOGGER.trace("Memo file doesn't exist: {}", memoFile);
       return null;
@@ -843,9 +1523,35 @@ public class Memoizer extends ReaderWrapper {
     }
 
     final Deser ser = getDeser();
+    ser.loadStart(memoFile);
+    return loadMemo(ser);
+  }
+
+  /** Load a memo from {@link #memoStore}. */
+  private IFormatReader loadStoredMemo() throws IOException, FormatException {
+    final Deser ser = getDeser();
+    if (!(ser instanceof KryoDeser)) {
+      LOGGER.warn("memo store requires KryoDeser, found {}", ser.getClass());
+      return null;
+    }
+    byte[] memo = memoStore.get(memoKey, realFile.lastModified());
+    if (memo == null) {
+      LOGGER.trace("No valid stored memo: {}", memoKey);
+      return null;
+    }
+    ((KryoDeser) ser).loadStart(memo);
+    return loadMemo(ser);
+  }
+
+  /**
+   * Read and validate a memo from the given {@link Deser}, on which
+   * loadStart has already been called.
+   */
+  private IFormatReader loadMemo(Deser ser)
+    throws IOException, FormatException
+  {
     final StopWatch sw = stopWatch();
     IFormatReader copy = null;
-    ser.loadStart(memoFile);
     try {
 
       // VERSION
@@ -862,6 +1568,9 @@ public class Memoizer extends ReaderWrapper {
        }
 
       // CLASS & COPY
+      if (ser instanceof KryoDeser) {
+        ((KryoDeser) ser).setLazyMetadata(lazyMetadata);
+      }
       try {
         copy = ser.loadReader();
       } catch (ClassNotFoundException e) {
@@ -894,24 +1603,28 @@ public class Memoizer extends ReaderWrapper {
       // Check flags
       // DataV1 class?
       // Handle exceptions on read/write. possibly deleting.
-      LOGGER.debug("loaded memo file: {} ({} bytes)",
-        memoFile, memoFile.length());
+      if (memoFile != null) {
+        LOGGER.debug("loaded memo file: {} ({} bytes)",
+          memoFile, memoFile.length());
+      } else {
+        LOGGER.debug("loaded stored memo: {}", memoKey);
+      }
       return copy;
     } catch (KryoException e) {
       LOGGER.warn("deleting invalid memo file: {}", memoFile, e);
       LOGGER.debug("Kryo Exception: " + e.getMessage());
-      deleteQuietly(memoFile);
+      deleteMemo();
       return null;
     } catch (ArrayIndexOutOfBoundsException e) {
       LOGGER.warn("deleting invalid memo file: {}", memoFile, e);
       LOGGER.debug("ArrayIndexOutOfBoundsException: " + e.getMessage());
-      deleteQuietly(memoFile);
+      deleteMemo();
       return null;
     } catch (Throwable t) {
       // Logging at error since this is unexpected.
       LOGGER.error("deleting invalid memo file: {}", memoFile, t);
       LOGGER.debug("Other Exception: " + t.getMessage());
-      deleteQuietly(memoFile);
+      deleteMemo();
       return null;
     } finally {
       ser.loadStop();
@@ -929,9 +1642,14 @@ public class Memoizer extends ReaderWrapper {
       return false;
     }
 
+    if (memoStore != null) {
+      return saveStoredMemo();
+    }
+
     final Deser ser = getDeser();
     final StopWatch sw = stopWatch();
     boolean rv = true;
+    File tempFile = null;
     try {
       // Create temporary location for output
       // Note: can't rename tempfile until resources are closed.
@@ -971,6 +1689,7 @@ public class Memoizer extends ReaderWrapper {
         if (!tempFile.renameTo(memoFile)) {
           LOGGER.error("temp file rename returned false: {}", tempFile);
         } else {
+          invalidateSharedMemo(memoFile);
           LOGGER.debug("saved memo file: {} ({} bytes)",
             memoFile, memoFile.length());
         }
@@ -980,6 +1699,220 @@ public class Memoizer extends ReaderWrapper {
     }
     return rv;
   }
+  /** Serialize the reader and put it in {@link #memoStore}. */
+  private boolean saveStoredMemo() {
+    final Deser deser = getDeser();
+    if (!(deser instanceof KryoDeser)) {
+      LOGGER.warn("memo store requires KryoDeser, found {}", deser.getClass());
+      return false;
+    }
+    final StopWatch sw = stopWatch();
+    try {
+      byte[] bytes = ((KryoDeser) deser).saveToBytes(
+        VERSION, FormatTools.VERSION, reader);
+      memoStore.put(memoKey, bytes);
+      LOGGER.debug("stored memo: {} ({} bytes)", memoKey, bytes.length);
+      return true;
+    } catch (Throwable t) {
+      LOGGER.warn(String.format("failed to store memo: %s", memoKey), t);
+      return false;
+    } finally {
+      sw.stop("loci.formats.Memoizer.saveMemo");
+    }
+  }
+
+  /** Delete the memo of the current dataset, wherever it is stored. */
+  private void deleteMemo() {
+    if (memoStore == null) {
+      deleteQuietly(memoFile);
+      return;
+    }
+    try {
+      memoStore.remove(memoKey);
+    } catch (Throwable t) {
+      LOGGER.error("memo removal failed: {}", memoKey, t);
+    }
+  }
+
+  /**
+   * Serialize the reader into memory and queue the memo file write on the
+   * shared background executor.
+   *
+   * @return {@code true} if the memo file was queued or written,
+   * {@code false} otherwise.
+   * @see #setAsyncSaving(boolean)
+   */
+  private boolean saveMemoAsync() {
+    if (skipSave) {
+      LOGGER.trace("skip memo");
+      return false;
+    }
+
+    final Deser deser = getDeser();
+    if (!(deser instanceof KryoDeser)) {
+      return saveMemo();
+    }
+
+    final File target = memoFile;
+    final MemoStore store = memoStore;
+    final String key = store == null ? target.getAbsolutePath() : memoKey;
+    Future<Boolean> pending = PENDING_SAVES.get(key);
+    if (pending != null && !pending.isDone()) {
+      LOGGER.debug("memo save already pending: {}", target);
+      return true;
+    }
+
+    final StopWatch sw = stopWatch();
+    final byte[] bytes;
+    try {
+      bytes = ((KryoDeser) deser).saveToBytes(
+        VERSION, FormatTools.VERSION, reader);
+    } catch (Throwable t) {
+      LOGGER.warn(String.format("failed to save memo file: %s", key), t);
+      return false;
+    } finally {
+      sw.stop("loci.formats.Memoizer.saveMemoAsync");
+    }
+
+    final FutureTask<Boolean> save = new FutureTask<Boolean>(
+      new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          try {
+            if (store != null) {
+              return putMemo(store, key, bytes);
+            }
+            return writeMemo(target, bytes);
+          }
+          finally {
+            PENDING_SAVES.remove(key);
+          }
+        }
+      });
+    if (PENDING_SAVES.putIfAbsent(key, save) != null) {
+      LOGGER.debug("memo save already pending: {}", target);
+      return true;
+    }
+    try {
+      getSaveExecutor().execute(save);
+    } catch (RejectedExecutionException e) {
+      LOGGER.debug("memo save queue full, saving synchronously: {}", target);
+      save.run();
+      try {
+        return save.get();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException ee) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Write a serialized memo to a temporary file next to the given memo file
+   * and rename it into place.
+   *
+   * @return {@code true} if the memo file was written, {@code false}
+   * otherwise.
+   */
+  private static boolean writeMemo(File target, byte[] bytes) {
+    final StopWatch sw =
+      new Slf4JStopWatch(LOGGER, Slf4JStopWatch.DEBUG_LEVEL);
+    File tempFile = null;
+    boolean rv = false;
+    try {
+      tempFile = File.createTempFile(
+        target.getName(), "", target.getParentFile());
+      PENDING_TEMP_FILES.add(tempFile);
+      FileOutputStream out = new FileOutputStream(tempFile);
+      try {
+        out.write(bytes);
+      }
+      finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(target)) {
+        LOGGER.error("temp file rename returned false: {}", tempFile);
+      } else {
+        invalidateSharedMemo(target);
+        LOGGER.debug("saved memo file: {} ({} bytes)",
+          target, target.length());
+        rv = true;
+      }
+    } catch (Throwable t) {
+      LOGGER.warn(String.format("failed to save memo file: %s", target), t);
+    } finally {
+      sw.stop("loci.formats.Memoizer.writeMemo");
+      if (tempFile != null) {
+        if (tempFile.exists() && !tempFile.delete()) {
+          LOGGER.warn("file deletion failed {}", tempFile);
+        }
+        PENDING_TEMP_FILES.remove(tempFile);
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Put a serialized memo in the given store.
+   *
+   * @return {@code true} if the memo was stored, {@code false} otherwise.
+   */
+  private static boolean putMemo(MemoStore store, String key, byte[] bytes) {
+    try {
+      store.put(key, bytes);
+      LOGGER.debug("stored memo: {} ({} bytes)", key, bytes.length);
+      return true;
+    } catch (Throwable t) {
+      LOGGER.warn(String.format("failed to store memo: %s", key), t);
+      return false;
+    }
+  }
+
+  /** Return the shared executor used for asynchronous memo writes. */
+  private static synchronized ExecutorService getSaveExecutor() {
+    if (saveExecutor == null) {
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+        60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_PENDING_SAVES),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Memoizer-save");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+      executor.allowCoreThreadTimeOut(true);
+      saveExecutor = executor;
+      // the writer is a daemon thread, so let queued writes finish before
+      // the JVM halts, and clean up after any that do not finish in time
+      Runtime.getRuntime().addShutdownHook(
+        new Thread("Memoizer-save-cleanup") {
+          @Override
+          public void run() {
+            executor.shutdown();
+            try {
+              if (!executor.awaitTermination(
+                SHUTDOWN_SAVE_TIMEOUT, TimeUnit.SECONDS))
+              {
+                LOGGER.warn("{} memo saves did not complete before exit",
+                  PENDING_SAVES.size());
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            for (File tempFile : PENDING_TEMP_FILES) {
+              tempFile.delete();
+            }
+          }
+        });
+    }
+    return saveExecutor;
+  }
+
 
 
   /**
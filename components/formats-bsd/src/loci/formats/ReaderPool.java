@@ -0,0 +1,343 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread-safe facade over a bounded pool of readers for a single dataset.
+ *
+ * The pool is built from one initialized reader, including any reader
+ * wrappers. That reader is serialized once with Kryo, as used by
+ * {@link Memoizer}, and further readers are deserialized from the result
+ * when they are first needed, so the dataset is only parsed once. Unlike a
+ * memo, the serialized reader includes its whole metadata store.
+ *
+ * Each call to {@link #readRegion} checks out a reader, sets the series and
+ * resolution, reads the region and returns the reader to the pool, so
+ * callers never share reader state. At most {@link #getMaxReaders()}
+ * calls read at the same time; other callers wait for a reader to be
+ * returned. Waiting uses java.util.concurrent primitives rather than
+ * monitors, so that large numbers of lightweight threads can share a pool.
+ */
+public class ReaderPool implements Closeable {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(ReaderPool.class);
+
+  // -- Fields --
+
+  /** The reader from which the pool was built. */
+  private final IFormatReader template;
+
+  /** Serialized form of the template, from which new readers are built. */
+  private final byte[] memo;
+
+  /** Maximum number of readers. */
+  private final int maxReaders;
+
+  /** Permits for reading, one per reader that may exist. */
+  private final Semaphore permits;
+
+  /** Readers that are not currently checked out. */
+  private final Queue<IFormatReader> idleReaders =
+    new ConcurrentLinkedQueue<IFormatReader>();
+
+  /** Number of readers that have been created, including the template. */
+  private final AtomicInteger readerCount = new AtomicInteger(1);
+
+  /** Whether {@link #close()} has been called. */
+  private volatile boolean closed;
+
+  // -- Constructors --
+
+  /**
+   * Constructs a pool of at most <code>maxReaders</code> readers from the
+   * given initialized reader, which is owned by the pool from now on and
+   * is closed by {@link #close()}.
+   */
+  public ReaderPool(IFormatReader reader, int maxReaders)
+    throws FormatException
+  {
+    this(reader, maxReaders, false);
+  }
+
+  /**
+   * Constructs a pool of at most <code>maxReaders</code> readers from the
+   * given initialized reader, which is owned by the pool from now on and
+   * is closed by {@link #close()}. If <code>fair</code> is set, waiting
+   * callers obtain readers in the order in which they asked for them.
+   */
+  public ReaderPool(IFormatReader reader, int maxReaders, boolean fair)
+    throws FormatException
+  {
+    if (reader == null || reader.getCurrentFile() == null) {
+      throw new FormatException("Reader must be initialized");
+    }
+    if (maxReaders < 1) {
+      throw new IllegalArgumentException(
+        "Invalid number of readers: " + maxReaders);
+    }
+    this.template = reader;
+    this.maxReaders = maxReaders;
+    this.permits = new Semaphore(maxReaders, fair);
+    this.memo = maxReaders > 1 ? serialize(reader) : null;
+    idleReaders.add(reader);
+  }
+
+  // -- ReaderPool API methods --
+
+  /** Gets the maximum number of readers in this pool. */
+  public int getMaxReaders() { return maxReaders; }
+
+  /** Gets the number of readers created so far, including the original. */
+  public int getReaderCount() { return readerCount.get(); }
+
+  /** Gets the name of the file from which the pool reads. */
+  public String getCurrentFile() { return template.getCurrentFile(); }
+
+  /**
+   * Gets the core metadata of every series and resolution. The list is
+   * shared with the original reader and must not be modified.
+   */
+  public List<CoreMetadata> getCoreMetadataList() {
+    return template.getCoreMetadataList();
+  }
+
+  /**
+   * Reads the given region of a plane into a newly allocated buffer.
+   *
+   * @see #readRegion(int, int, int, int, int, int, int, byte[])
+   */
+  public byte[] readRegion(int series, int resolution, int no,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    return readRegion(series, resolution, no, x, y, w, h, null);
+  }
+
+  /**
+   * Reads the given region of a plane of the given series and resolution
+   * into <code>buf</code>, as {@link IFormatReader#openBytes(int, byte[],
+   * int, int, int, int)} would. This method can be called from any thread;
+   * it blocks while all of the pool's readers are in use.
+   *
+   * @param buf the destination buffer, or null to allocate one
+   * @return the buffer containing the region
+   */
+  public byte[] readRegion(int series, int resolution, int no,
+    int x, int y, int w, int h, byte[] buf)
+    throws FormatException, IOException
+  {
+    IFormatReader r = checkout();
+    try {
+      if (r.getSeries() != series) r.setSeries(series);
+      if (r.getResolution() != resolution) r.setResolution(resolution);
+      if (buf == null) return r.openBytes(no, x, y, w, h);
+      return r.openBytes(no, buf, x, y, w, h);
+    }
+    finally {
+      checkin(r);
+    }
+  }
+
+  /**
+   * Waits for a reader that is not in use and returns it, creating a new
+   * reader if fewer than {@link #getMaxReaders()} exist. The reader must be
+   * returned with {@link #checkin(IFormatReader)} once the caller is done
+   * with it, and must not be closed or re-initialized.
+   */
+  public IFormatReader checkout() throws FormatException, IOException {
+    try {
+      permits.acquire();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a reader");
+    }
+    return take();
+  }
+
+  /**
+   * Returns a reader that is not in use, creating a new one if needed, or
+   * null if all readers are still in use after the given time.
+   *
+   * @see #checkout()
+   */
+  public IFormatReader checkout(long timeout, TimeUnit unit)
+    throws FormatException, IOException
+  {
+    try {
+      if (!permits.tryAcquire(timeout, unit)) return null;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a reader");
+    }
+    return take();
+  }
+
+  /** Returns a reader obtained from {@link #checkout()} to the pool. */
+  public void checkin(IFormatReader r) {
+    if (closed) {
+      closeQuietly(r);
+    }
+    else {
+      idleReaders.add(r);
+    }
+    permits.release();
+  }
+
+  // -- Closeable API methods --
+
+  /**
+   * Closes every reader that is not checked out; readers that are checked
+   * out are closed when they are returned.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    IFormatReader r;
+    while ((r = idleReaders.poll()) != null) closeQuietly(r);
+  }
+
+  // -- Utility methods --
+
+  /**
+   * Serializes an initialized reader, including its wrappers, so that
+   * independent copies can be built with {@link #deserialize(byte[])}
+   * without parsing the dataset again. The reader must not be used by
+   * another thread while it is being serialized.
+   */
+  public static byte[] serialize(IFormatReader reader)
+    throws FormatException
+  {
+    Kryo kryo = Memoizer.borrowKryo();
+    Output output = new Output(8192, -1);
+    try {
+      kryo.writeClassAndObject(output, reader);
+      return output.toBytes();
+    }
+    catch (KryoException e) {
+      throw new FormatException("Could not serialize reader", e);
+    }
+    finally {
+      output.close();
+      Memoizer.releaseKryo(kryo);
+    }
+  }
+
+  /**
+   * Builds a new reader from the result of {@link #serialize(IFormatReader)}
+   * and reopens its files. The caller is responsible for closing it.
+   */
+  public static IFormatReader deserialize(byte[] state)
+    throws FormatException, IOException
+  {
+    Kryo kryo = Memoizer.borrowKryo();
+    Input input = new Input(state);
+    try {
+      IFormatReader r = (IFormatReader) kryo.readClassAndObject(input);
+      r.reopenFile();
+      return r;
+    }
+    catch (KryoException e) {
+      throw new FormatException("Could not copy reader", e);
+    }
+    finally {
+      input.close();
+      Memoizer.releaseKryo(kryo);
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Takes an idle reader, or creates one, after a permit has been
+   * acquired. The permit is released if no reader can be provided.
+   */
+  private IFormatReader take() throws FormatException, IOException {
+    boolean ok = false;
+    try {
+      if (closed) throw new IOException("Reader pool is closed");
+      IFormatReader r = idleReaders.poll();
+      if (r == null) {
+        // a permit guarantees that fewer than maxReaders are in use, and
+        // every reader that is not in use is idle
+        r = createReader();
+        readerCount.incrementAndGet();
+      }
+      ok = true;
+      return r;
+    }
+    finally {
+      if (!ok) permits.release();
+    }
+  }
+
+  /** Builds a new reader from the serialized template. */
+  private IFormatReader createReader() throws FormatException, IOException {
+    IFormatReader r = deserialize(memo);
+    LOGGER.debug("Created reader #{} for {}",
+      readerCount.get() + 1, getCurrentFile());
+    return r;
+  }
+
+  private static void closeQuietly(IFormatReader r) {
+    try {
+      r.close();
+    }
+    catch (IOException e) {
+      LOGGER.debug("Could not close reader", e);
+    }
+  }
+
+}
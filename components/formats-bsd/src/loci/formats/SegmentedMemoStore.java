@@ -0,0 +1,757 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MemoStore} keeping all memos in a few large append-only segment
+ * files plus an index, instead of one file per dataset.
+ *
+ * Memos are appended to the active segment; a new segment is started once
+ * the active one exceeds the segment size. When the total size of all
+ * memos exceeds the maximum size, the least recently used memos are
+ * evicted. Removed and evicted memos are recorded by appending a removal
+ * record. Segments in which less than half of the bytes still belong to
+ * live memos are compacted by copying their live memos to the active
+ * segment and deleting them; removal records are copied as well for as
+ * long as an older segment may still contain the removed memo.
+ *
+ * The index is written by {@link #flush()} and {@link #close()}. Each
+ * segment record also contains its key and timestamp, so if the index is
+ * missing or does not match the segments (e.g. after a crash), it is
+ * rebuilt by scanning the segments.
+ *
+ * A store directory can only be opened by one instance at a time; an
+ * instance is safe for use by multiple threads.
+ */
+public class SegmentedMemoStore implements MemoStore {
+
+  // -- Constants --
+
+  /** Default maximum size of a segment file in bytes. */
+  public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(SegmentedMemoStore.class);
+
+  private static final int INDEX_MAGIC = 0x42464d49; // BFMI
+  private static final int RECORD_MAGIC = 0x42464d52; // BFMR
+  private static final int VERSION = 1;
+
+  private static final String INDEX_FILE = "index";
+  private static final String LOCK_FILE = "lock";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".bfmemo";
+
+  /** Length marking a removed memo. */
+  private static final int TOMBSTONE = -1;
+
+  // -- Fields --
+
+  private final File directory;
+
+  /** Maximum total size of live memos in bytes, or 0 for no limit. */
+  private final long maxSize;
+
+  private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+  /** Index entries by key, in least recently used order. */
+  private final LinkedHashMap<String, Entry> index =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  private final TreeMap<Integer, Segment> segments =
+    new TreeMap<Integer, Segment>();
+
+  private RandomAccessFile active;
+  private int activeId = -1;
+
+  /** Total size of live memos in bytes. */
+  private long liveSize = 0;
+
+  private boolean indexModified = false;
+
+  private RandomAccessFile lockFile;
+  private FileLock lock;
+
+  // -- Constructors --
+
+  /**
+   * Open or create a store in the given directory.
+   *
+   * @param directory the directory holding the segment and index files
+   * @param maxSize the maximum total size of stored memos in bytes, or 0
+   *   for no limit
+   * @throws IOException if the directory cannot be created or is already
+   *   in use by another store instance
+   */
+  public SegmentedMemoStore(File directory, long maxSize) throws IOException {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("Invalid maximum size: " + maxSize);
+    }
+    this.directory = directory;
+    this.maxSize = maxSize;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+    try {
+      lock = lockFile.getChannel().tryLock();
+    }
+    catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock == null) {
+      lockFile.close();
+      throw new IOException("Memo store is already in use: " + directory);
+    }
+
+    for (File f : listSegmentFiles()) {
+      int id = getSegmentId(f);
+      segments.put(id, new Segment(f, f.length()));
+    }
+    if (!readIndex()) {
+      rebuildIndex();
+    }
+    evict(null);
+  }
+
+  // -- SegmentedMemoStore API methods --
+
+  /** Set the size in bytes above which a new segment file is started. */
+  public synchronized void setSegmentSize(long segmentSize) {
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException(
+        "Invalid segment size: " + segmentSize);
+    }
+    this.segmentSize = segmentSize;
+  }
+
+  public synchronized long getSegmentSize() {
+    return segmentSize;
+  }
+
+  /** Return the maximum total size of stored memos in bytes. */
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /** Return the total size of all stored memos in bytes. */
+  public synchronized long getSize() {
+    return liveSize;
+  }
+
+  /** Return the number of stored memos. */
+  public synchronized int getCount() {
+    return index.size();
+  }
+
+  /** Return the number of segment files. */
+  public synchronized int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Rewrite all segments, other than the active one, in which less than
+   * half of the bytes belong to live memos. Removal records are kept if an
+   * older segment still contains a memo with the same key, so that the
+   * memo is not restored if the index has to be rebuilt.
+   */
+  public synchronized void compact() throws IOException {
+    List<Integer> sparse = new ArrayList<Integer>();
+    for (Map.Entry<Integer, Segment> s : segments.entrySet()) {
+      Segment segment = s.getValue();
+      if (s.getKey() != activeId && segment.liveBytes * 2 < segment.length) {
+        sparse.add(s.getKey());
+      }
+    }
+    if (sparse.isEmpty()) {
+      return;
+    }
+
+    // keys of the memo records in each segment, read as needed
+    Map<Integer, Set<String>> keys = new HashMap<Integer, Set<String>>();
+    for (Integer id : sparse) {
+      Segment segment = segments.get(id);
+      List<Record> removed = new ArrayList<Record>();
+      for (Record record : readRecords(segment)) {
+        if (record.length == TOMBSTONE && !index.containsKey(record.key) &&
+          isInOlderSegment(record.key, id, keys))
+        {
+          removed.add(record);
+        }
+      }
+      List<Map.Entry<String, Entry>> live =
+        new ArrayList<Map.Entry<String, Entry>>();
+      for (Map.Entry<String, Entry> e : index.entrySet()) {
+        if (e.getValue().segment == id) {
+          live.add(e);
+        }
+      }
+      for (Map.Entry<String, Entry> e : live) {
+        Entry entry = e.getValue();
+        byte[] memo = read(entry);
+        Entry copy = append(e.getKey(), entry.timestamp, memo);
+        // replace without changing the access order
+        entry.segment = copy.segment;
+        entry.offset = copy.offset;
+        segments.get(copy.segment).liveBytes += entry.length;
+      }
+      for (Record record : removed) {
+        appendRecord(record.key, record.timestamp, null);
+      }
+      segments.remove(id);
+      keys.remove(id);
+      if (!segment.file.delete()) {
+        LOGGER.warn("could not delete segment {}", segment.file);
+      }
+      LOGGER.debug("compacted segment {} ({} live memos, {} removals)",
+        new Object[] {segment.file, live.size(), removed.size()});
+    }
+    indexModified = true;
+    writeIndex();
+  }
+
+  /** Write the index, so that the next open does not need to rebuild it. */
+  public synchronized void flush() throws IOException {
+    if (active != null) {
+      active.getChannel().force(false);
+    }
+    if (indexModified) {
+      writeIndex();
+    }
+  }
+
+  // -- MemoStore API methods --
+
+  @Override
+  public synchronized byte[] get(String key, long notBefore)
+    throws IOException
+  {
+    Entry entry = index.get(key);
+    if (entry == null || entry.timestamp < notBefore) {
+      return null;
+    }
+    indexModified = true;
+    return read(entry);
+  }
+
+  @Override
+  public synchronized void put(String key, byte[] memo) throws IOException {
+    Entry entry = append(key, System.currentTimeMillis(), memo);
+    Entry previous = index.put(key, entry);
+    if (previous != null) {
+      release(previous);
+    }
+    liveSize += entry.length;
+    segments.get(entry.segment).liveBytes += entry.length;
+    indexModified = true;
+    evict(key);
+    if (needsCompaction()) {
+      compact();
+    }
+  }
+
+  @Override
+  public synchronized boolean remove(String key) throws IOException {
+    Entry entry = index.remove(key);
+    if (entry == null) {
+      return false;
+    }
+    release(entry);
+    appendRecord(key, System.currentTimeMillis(), null);
+    indexModified = true;
+    return true;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (lock == null) {
+      return;
+    }
+    try {
+      flush();
+      if (active != null) {
+        active.close();
+        active = null;
+      }
+    }
+    finally {
+      lock.release();
+      lock = null;
+      lockFile.close();
+    }
+  }
+
+  // -- Helper methods --
+
+  /** Append a memo record and return its index entry. */
+  private Entry append(String key, long timestamp, byte[] memo)
+    throws IOException
+  {
+    long offset = appendRecord(key, timestamp, memo);
+    return new Entry(activeId, offset, memo.length, timestamp);
+  }
+
+  /**
+   * Append a record to the active segment, starting a new segment if
+   * needed, and return the offset of the memo bytes. A null memo writes a
+   * removal record.
+   */
+  private long appendRecord(String key, long timestamp, byte[] memo)
+    throws IOException
+  {
+    if (active == null || (active.length() > 0 &&
+      active.length() + (memo == null ? 0 : memo.length) > segmentSize))
+    {
+      startSegment();
+    }
+    Segment segment = segments.get(activeId);
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(header);
+    out.writeInt(RECORD_MAGIC);
+    out.writeUTF(key);
+    out.writeLong(timestamp);
+    out.writeInt(memo == null ? TOMBSTONE : memo.length);
+    out.close();
+
+    long offset = segment.length;
+    active.seek(offset);
+    active.write(header.toByteArray());
+    if (memo != null) {
+      active.write(memo);
+    }
+    segment.length = active.getFilePointer();
+    return offset + header.size();
+  }
+
+  /** Close the active segment and open a new, empty one. */
+  private void startSegment() throws IOException {
+    if (active != null) {
+      active.close();
+    }
+    activeId = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+    File f = new File(directory, SEGMENT_PREFIX + activeId + SEGMENT_SUFFIX);
+    active = new RandomAccessFile(f, "rw");
+    active.setLength(0);
+    segments.put(activeId, new Segment(f, 0));
+  }
+
+  private byte[] read(Entry entry) throws IOException {
+    byte[] memo = new byte[entry.length];
+    Segment segment = segments.get(entry.segment);
+    if (entry.segment == activeId && active != null) {
+      active.seek(entry.offset);
+      active.readFully(memo);
+      return memo;
+    }
+    RandomAccessFile in = new RandomAccessFile(segment.file, "r");
+    try {
+      in.seek(entry.offset);
+      in.readFully(memo);
+    }
+    finally {
+      in.close();
+    }
+    return memo;
+  }
+
+  /** Account for an index entry that no longer refers to a live memo. */
+  private void release(Entry entry) {
+    liveSize -= entry.length;
+    Segment segment = segments.get(entry.segment);
+    if (segment != null) {
+      segment.liveBytes -= entry.length;
+    }
+  }
+
+  /**
+   * Return whether a segment older than the given segment contains a memo
+   * record with the given key. The keys of each segment are read once and
+   * cached in the given map.
+   */
+  private boolean isInOlderSegment(String key, int segment,
+    Map<Integer, Set<String>> keys)
+    throws IOException
+  {
+    for (Map.Entry<Integer, Segment> s :
+      segments.headMap(segment).entrySet())
+    {
+      Set<String> segmentKeys = keys.get(s.getKey());
+      if (segmentKeys == null) {
+        segmentKeys = new HashSet<String>();
+        for (Record record : readRecords(s.getValue())) {
+          if (record.length != TOMBSTONE) {
+            segmentKeys.add(record.key);
+          }
+        }
+        keys.put(s.getKey(), segmentKeys);
+      }
+      if (segmentKeys.contains(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Read the headers of all records in the given segment, which must not be
+   * the active segment.
+   */
+  private List<Record> readRecords(Segment segment) throws IOException {
+    List<Record> records = new ArrayList<Record>();
+    RandomAccessFile in = new RandomAccessFile(segment.file, "r");
+    try {
+      long offset = 0;
+      while (offset < segment.length) {
+        in.seek(offset);
+        if (in.readInt() != RECORD_MAGIC) {
+          break;
+        }
+        String key = in.readUTF();
+        long timestamp = in.readLong();
+        int length = in.readInt();
+        records.add(new Record(key, timestamp, length));
+        offset = in.getFilePointer() + Math.max(length, 0);
+      }
+    }
+    catch (EOFException e) {
+      LOGGER.debug("truncated record in {}", segment.file);
+    }
+    finally {
+      in.close();
+    }
+    return records;
+  }
+
+  /**
+   * Remove least recently used memos, other than the given key, until the
+   * store fits its maximum size. A removal record is appended for each
+   * evicted memo, so that it is not restored if the index is rebuilt.
+   */
+  private void evict(String keep) throws IOException {
+    if (maxSize <= 0) {
+      return;
+    }
+    Iterator<Map.Entry<String, Entry>> entries = index.entrySet().iterator();
+    while (liveSize > maxSize && entries.hasNext()) {
+      Map.Entry<String, Entry> e = entries.next();
+      if (e.getKey().equals(keep)) {
+        continue;
+      }
+      LOGGER.debug("evicting memo {}", e.getKey());
+      release(e.getValue());
+      entries.remove();
+      appendRecord(e.getKey(), System.currentTimeMillis(), null);
+      indexModified = true;
+    }
+  }
+
+  /** Return whether dead bytes make up more than half of all segments. */
+  private boolean needsCompaction() {
+    long total = 0;
+    for (Segment segment : segments.values()) {
+      total += segment.length;
+    }
+    return total > segmentSize && liveSize * 2 < total;
+  }
+
+  private File[] listSegmentFiles() {
+    File[] files = directory.listFiles();
+    List<File> list = new ArrayList<File>();
+    if (files != null) {
+      for (File f : files) {
+        String name = f.getName();
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+          try {
+            getSegmentId(f);
+            list.add(f);
+          }
+          catch (NumberFormatException e) {
+            LOGGER.debug("ignoring {}", f);
+          }
+        }
+      }
+    }
+    return list.toArray(new File[list.size()]);
+  }
+
+  private static int getSegmentId(File f) {
+    String name = f.getName();
+    return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+      name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /**
+   * Read the index file. Returns false if it is missing, invalid or does
+   * not match the segment files.
+   */
+  private boolean readIndex() {
+    File f = new File(directory, INDEX_FILE);
+    if (!f.exists()) {
+      return false;
+    }
+    try {
+      DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(f)));
+      try {
+        if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+          return false;
+        }
+        int segmentCount = in.readInt();
+        if (segmentCount != segments.size()) {
+          return false;
+        }
+        for (int i=0; i<segmentCount; i++) {
+          Segment segment = segments.get(in.readInt());
+          if (segment == null || segment.length != in.readLong()) {
+            return false;
+          }
+        }
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+          String key = in.readUTF();
+          Entry entry = new Entry(in.readInt(), in.readLong(), in.readInt(),
+            in.readLong());
+          Segment segment = segments.get(entry.segment);
+          if (segment == null ||
+            entry.offset + entry.length > segment.length)
+          {
+            return false;
+          }
+          index.put(key, entry);
+          segment.liveBytes += entry.length;
+          liveSize += entry.length;
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOGGER.debug("invalid memo store index {}", f, e);
+      return false;
+    }
+    return true;
+  }
+
+  /** Rebuild the index by scanning all segment files in order. */
+  private void rebuildIndex() throws IOException {
+    LOGGER.info("rebuilding memo store index in {}", directory);
+    index.clear();
+    liveSize = 0;
+    for (Map.Entry<Integer, Segment> s : segments.entrySet()) {
+      Segment segment = s.getValue();
+      segment.liveBytes = 0;
+      long offset = 0;
+      DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(segment.file)));
+      try {
+        while (offset < segment.length) {
+          if (in.readInt() != RECORD_MAGIC) {
+            break;
+          }
+          String key = in.readUTF();
+          long timestamp = in.readLong();
+          int length = in.readInt();
+          long dataOffset = offset + 16 + utfLength(key);
+          if (length != TOMBSTONE) {
+            if (dataOffset + length > segment.length) {
+              break;
+            }
+            skipFully(in, length);
+          }
+          Entry previous = index.remove(key);
+          if (previous != null) {
+            release(previous);
+          }
+          if (length != TOMBSTONE) {
+            index.put(key, new Entry(s.getKey(), dataOffset, length,
+              timestamp));
+            segment.liveBytes += length;
+            liveSize += length;
+          }
+          offset = dataOffset + Math.max(length, 0);
+        }
+      }
+      catch (EOFException e) {
+        LOGGER.debug("truncated record in {}", segment.file);
+      }
+      finally {
+        in.close();
+      }
+      if (offset < segment.length) {
+        LOGGER.warn("truncating damaged segment {} at {}",
+          segment.file, offset);
+        RandomAccessFile f = new RandomAccessFile(segment.file, "rw");
+        try {
+          f.setLength(offset);
+        }
+        finally {
+          f.close();
+        }
+        segment.length = offset;
+      }
+    }
+    indexModified = true;
+  }
+
+  private static void skipFully(DataInputStream in, int length)
+    throws IOException
+  {
+    int remaining = length;
+    while (remaining > 0) {
+      int skipped = in.skipBytes(remaining);
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      remaining -= skipped;
+    }
+  }
+
+  /** Return the number of bytes written by writeUTF for the given key. */
+  private static int utfLength(String key) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(key);
+    out.close();
+    return bytes.size();
+  }
+
+  /** Write the index to a temporary file and rename it into place. */
+  private void writeIndex() throws IOException {
+    File f = new File(directory, INDEX_FILE);
+    File tmp = File.createTempFile(INDEX_FILE, ".tmp", directory);
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(INDEX_MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(segments.size());
+      for (Map.Entry<Integer, Segment> s : segments.entrySet()) {
+        out.writeInt(s.getKey());
+        out.writeLong(s.getValue().length);
+      }
+      out.writeInt(index.size());
+      for (Map.Entry<String, Entry> e : index.entrySet()) {
+        Entry entry = e.getValue();
+        out.writeUTF(e.getKey());
+        out.writeInt(entry.segment);
+        out.writeLong(entry.offset);
+        out.writeInt(entry.length);
+        out.writeLong(entry.timestamp);
+      }
+    }
+    finally {
+      out.close();
+    }
+    if (f.exists() && !f.delete()) {
+      LOGGER.warn("could not replace memo store index {}", f);
+    }
+    if (!tmp.renameTo(f)) {
+      LOGGER.warn("could not rename memo store index {}", tmp);
+      tmp.delete();
+      return;
+    }
+    indexModified = false;
+  }
+
+  // -- Helper classes --
+
+  /** Location of one memo in a segment. */
+  private static class Entry {
+    int segment;
+    long offset;
+    final int length;
+    final long timestamp;
+
+    Entry(int segment, long offset, int length, long timestamp) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /** Header of one record in a segment. */
+  private static class Record {
+    final String key;
+    final long timestamp;
+    final int length;
+
+    Record(String key, long timestamp, int length) {
+      this.key = key;
+      this.timestamp = timestamp;
+      this.length = length;
+    }
+  }
+
+  private static class Segment {
+    final File file;
+    long length;
+    long liveBytes;
+
+    Segment(File file, long length) {
+      this.file = file;
+      this.length = length;
+    }
+  }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import loci.formats.cache.CacheException;
+import loci.formats.cache.CacheKey;
+import loci.formats.cache.ICacheStore;
+import loci.formats.cache.MemoryCacheStore;
+
+/**
+ * Reader wrapper that caches decoded tiles of the wrapped reader.
+ *
+ * Region requests are split along the wrapped reader's optimal tile grid
+ * ({@link #getOptimalTileWidth()} by {@link #getOptimalTileHeight()}).
+ * Each intersecting tile is read whole and kept in an {@link ICacheStore},
+ * keyed by dataset, series, resolution, plane and tile index, and the
+ * requested region is copied together from the cached tiles. Overlapping
+ * requests, such as those made while panning a viewer, therefore decode
+ * each native tile only once while it stays in the cache.
+ *
+ * Each call to {@link #setId(String)} starts a new dataset, so one store
+ * can be shared by several readers. Copies of an initialized reader, such
+ * as those made by {@link ReaderPool}, belong to the same dataset and share
+ * its tiles. Opening another file or closing the reader removes only the
+ * tiles of its own dataset.
+ *
+ * By default, all readers share one least recently used
+ * {@link MemoryCacheStore} of {@link MemoryCacheStore#SHARED_CAPACITY}
+ * bytes; an {@link loci.formats.cache.OffHeapCacheStore} can be used to
+ * keep tiles outside the Java heap. The store is not serialized with the
+ * reader, so copies use the shared store until they are given another one.
+ */
+public class TileCacheReader extends ReaderWrapper {
+
+  // -- Constants --
+
+  /** Store shared by readers that were not given a store. */
+  private static final ICacheStore SHARED_STORE =
+    new MemoryCacheStore(MemoryCacheStore.SHARED_CAPACITY);
+
+  // -- Fields --
+
+  /** Store holding decoded tiles, or null for the shared store. */
+  protected transient ICacheStore store;
+
+  /** Dataset of the cached tiles of the current file, or null. */
+  private String dataset;
+
+  private long hits, misses;
+
+  // -- Constructors --
+
+  /** Constructs a TileCacheReader around a new image reader. */
+  public TileCacheReader() {
+    super();
+    store = SHARED_STORE;
+  }
+
+  /** Constructs a TileCacheReader with the given reader. */
+  public TileCacheReader(IFormatReader r) {
+    this(r, SHARED_STORE);
+  }
+
+  /**
+   * Constructs a TileCacheReader with the given reader, caching tiles in
+   * the given store.
+   */
+  public TileCacheReader(IFormatReader r, ICacheStore store) {
+    super(r);
+    if (store == null) throw new IllegalArgumentException("store is null");
+    this.store = store;
+  }
+
+  // -- TileCacheReader API methods --
+
+  /** Gets the store holding decoded tiles. */
+  public ICacheStore getCacheStore() {
+    if (store == null) store = SHARED_STORE;
+    return store;
+  }
+
+  /**
+   * Sets the store holding decoded tiles. The tiles of this reader are
+   * removed from the previous store, which is not closed.
+   */
+  public void setCacheStore(ICacheStore store) {
+    if (store == null) throw new IllegalArgumentException("store is null");
+    getCacheStore().removeDataset(dataset);
+    this.store = store;
+  }
+
+  /**
+   * Gets the store shared by all readers that were not given a store.
+   * Its capacity can be changed with {@link ICacheStore#setCapacity(long)}.
+   */
+  public static ICacheStore getSharedCacheStore() { return SHARED_STORE; }
+
+  /** Gets the number of tiles that were found in the cache. */
+  public long getHitCount() { return hits; }
+
+  /** Gets the number of tiles that had to be read. */
+  public long getMissCount() { return misses; }
+
+  // -- IFormatReader API methods --
+
+  /* @see IFormatReader#openBytes(int) */
+  @Override
+  public byte[] openBytes(int no) throws FormatException, IOException {
+    return openBytes(no, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, byte[]) */
+  @Override
+  public byte[] openBytes(int no, byte[] buf)
+    throws FormatException, IOException
+  {
+    return openBytes(no, buf, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, int, int, int, int) */
+  @Override
+  public byte[] openBytes(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    byte[] buf = new byte[w * h * getRGBChannelCount() *
+      FormatTools.getBytesPerPixel(getPixelType())];
+    return openBytes(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openBytes(int, byte[], int, int, int, int) */
+  @Override
+  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
+
+    int tileWidth = getOptimalTileWidth();
+    int tileHeight = getOptimalTileHeight();
+    int sizeX = getSizeX();
+    int sizeY = getSizeY();
+    if (tileWidth <= 0 || tileHeight <= 0) {
+      return super.openBytes(no, buf, x, y, w, h);
+    }
+
+    int bpp = FormatTools.getBytesPerPixel(getPixelType());
+    int rgb = getRGBChannelCount();
+    boolean interleaved = rgb == 1 || isInterleaved();
+    int planes = interleaved ? 1 : rgb;
+    int pixel = interleaved ? bpp * rgb : bpp;
+
+    int cols = (sizeX + tileWidth - 1) / tileWidth;
+    int firstCol = x / tileWidth, lastCol = (x + w - 1) / tileWidth;
+    int firstRow = y / tileHeight, lastRow = (y + h - 1) / tileHeight;
+    for (int row=firstRow; row<=lastRow; row++) {
+      int tileY = row * tileHeight;
+      int th = Math.min(tileHeight, sizeY - tileY);
+      for (int col=firstCol; col<=lastCol; col++) {
+        int tileX = col * tileWidth;
+        int tw = Math.min(tileWidth, sizeX - tileX);
+        byte[] tile = getTile(no, row * cols + col, tileX, tileY, tw, th);
+
+        // copy the intersection of the tile and the requested region
+        int x0 = Math.max(x, tileX), x1 = Math.min(x + w, tileX + tw);
+        int y0 = Math.max(y, tileY), y1 = Math.min(y + h, tileY + th);
+        int rowBytes = (x1 - x0) * pixel;
+        for (int p=0; p<planes; p++) {
+          for (int yy=y0; yy<y1; yy++) {
+            int src = pixel * (p * tw * th + (yy - tileY) * tw + x0 - tileX);
+            int dest = pixel * (p * w * h + (yy - y) * w + x0 - x);
+            System.arraycopy(tile, src, buf, dest, rowBytes);
+          }
+        }
+      }
+    }
+    return buf;
+  }
+
+  /* @see IFormatReader#close(boolean) */
+  @Override
+  public void close(boolean fileOnly) throws IOException {
+    super.close(fileOnly);
+    if (!fileOnly) removeTiles();
+  }
+
+  // -- IFormatHandler API methods --
+
+  /* @see IFormatHandler#getNativeDataType() */
+  @Override
+  public Class<?> getNativeDataType() {
+    return byte[].class;
+  }
+
+  /* @see IFormatHandler#setId(String) */
+  @Override
+  public void setId(String id) throws FormatException, IOException {
+    removeTiles();
+    super.setId(id);
+    dataset = id + "#" + UUID.randomUUID();
+  }
+
+  /* @see IFormatHandler#close() */
+  @Override
+  public void close() throws IOException {
+    super.close();
+    removeTiles();
+  }
+
+  // -- Helper methods --
+
+  /** Removes the tiles of the current dataset from the store. */
+  private void removeTiles() {
+    getCacheStore().removeDataset(dataset);
+    dataset = null;
+  }
+
+  /**
+   * Gets the given tile of a plane of the current series and resolution,
+   * from the cache if possible. The returned array must not be modified.
+   */
+  private byte[] getTile(int no, int tile, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    if (dataset == null) {
+      // the wrapped reader was initialized before it was wrapped
+      dataset = getCurrentFile() + "#" + UUID.randomUUID();
+    }
+    CacheKey key =
+      new CacheKey(dataset, getSeries(), getResolution(), no, tile);
+    ICacheStore cache = getCacheStore();
+    try {
+      byte[] bytes = (byte[]) cache.get(key);
+      if (bytes != null) {
+        hits++;
+        return bytes;
+      }
+      misses++;
+      bytes = reader.openBytes(no, x, y, w, h);
+      cache.put(key, bytes);
+      return bytes;
+    }
+    catch (CacheException e) {
+      throw new FormatException("Could not cache tile #" + tile, e);
+    }
+  }
+
+}
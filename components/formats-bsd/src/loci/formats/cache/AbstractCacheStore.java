@@ -0,0 +1,339 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.cache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.Vector;
+
+/**
+ * Superclass of cache stores that hold a bounded number of bytes, discarding
+ * objects according to an {@link EvictionPolicy} when the bound is exceeded.
+ * Subclasses decide how objects are represented while they are stored.
+ */
+public abstract class AbstractCacheStore implements ICacheStore {
+
+  // -- Fields --
+
+  /** Maximum number of bytes to store. */
+  private long capacity;
+
+  /** Number of bytes currently stored. */
+  private long size;
+
+  /** Policy used to choose objects for eviction. */
+  private final EvictionPolicy policy;
+
+  /** Stored entries, keyed by cache key. */
+  private final Map<CacheKey, Entry> entries = new HashMap<CacheKey, Entry>();
+
+  /** Stored entries, ordered from first to last candidate for eviction. */
+  private final TreeSet<Entry> evictionOrder = new TreeSet<Entry>();
+
+  /** Counter used to order accesses. */
+  private long clock;
+
+  /** List of cache event listeners. */
+  private final Vector<CacheListener> listeners = new Vector<CacheListener>();
+
+  // -- Constructors --
+
+  /** Constructs a cache store with the given capacity in bytes. */
+  public AbstractCacheStore(long capacity, EvictionPolicy policy) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    if (policy == null) throw new IllegalArgumentException("policy is null");
+    this.capacity = capacity;
+    this.policy = policy;
+  }
+
+  // -- AbstractCacheStore API methods --
+
+  /** Gets the policy used to choose objects for eviction. */
+  public EvictionPolicy getEvictionPolicy() { return policy; }
+
+  // -- ICacheStore API methods --
+
+  /* @see ICacheStore#get(CacheKey) */
+  @Override
+  public Object get(CacheKey key) throws CacheException {
+    synchronized (this) {
+      Entry e = entries.get(key);
+      if (e == null) return null;
+      evictionOrder.remove(e);
+      e.hits++;
+      e.lastAccess = ++clock;
+      evictionOrder.add(e);
+      // NB: read while locked, so that the entry cannot be released
+      return read(e.value);
+    }
+  }
+
+  /* @see ICacheStore#put(CacheKey, Object) */
+  @Override
+  public boolean put(CacheKey key, Object value) throws CacheException {
+    if (value == null) throw new CacheException("value is null");
+    long bytes = measure(value);
+    if (bytes > capacity) return false;
+    List<CacheKey> dropped = new ArrayList<CacheKey>();
+    synchronized (this) {
+      Entry old = entries.remove(key);
+      if (old != null) discard(old);
+      while (size + bytes > capacity && !evictionOrder.isEmpty()) {
+        Entry eldest = evictionOrder.first();
+        entries.remove(eldest.key);
+        discard(eldest);
+        dropped.add(eldest.key);
+      }
+      Entry e = new Entry(key, write(value), bytes);
+      e.lastAccess = ++clock;
+      entries.put(key, e);
+      evictionOrder.add(e);
+      size += bytes;
+    }
+    notifyDropped(dropped);
+    return true;
+  }
+
+  /* @see ICacheStore#remove(CacheKey) */
+  @Override
+  public void remove(CacheKey key) {
+    synchronized (this) {
+      Entry e = entries.remove(key);
+      if (e == null) return;
+      discard(e);
+    }
+  }
+
+  /* @see ICacheStore#removeDataset(String) */
+  @Override
+  public synchronized void removeDataset(String dataset) {
+    if (dataset == null) return;
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry e = it.next();
+      if (dataset.equals(e.key.getDataset())) {
+        it.remove();
+        discard(e);
+      }
+    }
+  }
+
+  /* @see ICacheStore#contains(CacheKey) */
+  @Override
+  public synchronized boolean contains(CacheKey key) {
+    return entries.containsKey(key);
+  }
+
+  /* @see ICacheStore#clear() */
+  @Override
+  public synchronized void clear() {
+    for (Entry e : entries.values()) {
+      release(e.value);
+    }
+    entries.clear();
+    evictionOrder.clear();
+    size = 0;
+  }
+
+  /* @see ICacheStore#getObjectCount() */
+  @Override
+  public synchronized int getObjectCount() { return entries.size(); }
+
+  /* @see ICacheStore#getSize() */
+  @Override
+  public synchronized long getSize() { return size; }
+
+  /* @see ICacheStore#getCapacity() */
+  @Override
+  public synchronized long getCapacity() { return capacity; }
+
+  /* @see ICacheStore#setCapacity(long) */
+  @Override
+  public void setCapacity(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Invalid capacity: " + bytes);
+    }
+    List<CacheKey> dropped = new ArrayList<CacheKey>();
+    synchronized (this) {
+      capacity = bytes;
+      while (size > capacity && !evictionOrder.isEmpty()) {
+        Entry eldest = evictionOrder.first();
+        entries.remove(eldest.key);
+        discard(eldest);
+        dropped.add(eldest.key);
+      }
+    }
+    notifyDropped(dropped);
+  }
+
+  // -- CacheReporter API methods --
+
+  /* @see CacheReporter#addCacheListener(CacheListener) */
+  @Override
+  public void addCacheListener(CacheListener l) {
+    listeners.add(l);
+  }
+
+  /* @see CacheReporter#removeCacheListener(CacheListener) */
+  @Override
+  public void removeCacheListener(CacheListener l) {
+    listeners.remove(l);
+  }
+
+  /* @see CacheReporter#getCacheListeners() */
+  @Override
+  public CacheListener[] getCacheListeners() {
+    synchronized (listeners) {
+      CacheListener[] l = new CacheListener[listeners.size()];
+      listeners.copyInto(l);
+      return l;
+    }
+  }
+
+  // -- Utility methods --
+
+  /**
+   * Estimates the number of bytes used by the given object. Primitive arrays,
+   * arrays of primitive arrays and BufferedImages are measured; other
+   * objects are assumed to use no memory.
+   */
+  public static long sizeOf(Object o) {
+    if (o instanceof byte[]) return ((byte[]) o).length;
+    if (o instanceof short[] || o instanceof char[]) {
+      return 2L * Array.getLength(o);
+    }
+    if (o instanceof int[] || o instanceof float[]) {
+      return 4L * Array.getLength(o);
+    }
+    if (o instanceof long[] || o instanceof double[]) {
+      return 8L * Array.getLength(o);
+    }
+    if (o instanceof Object[]) {
+      long total = 0;
+      for (Object element : (Object[]) o) {
+        total += sizeOf(element);
+      }
+      return total;
+    }
+    if (o instanceof BufferedImage) {
+      DataBuffer buffer = ((BufferedImage) o).getRaster().getDataBuffer();
+      return (long) buffer.getSize() * buffer.getNumBanks() *
+        DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+    return 0;
+  }
+
+  // -- Internal AbstractCacheStore API methods --
+
+  /**
+   * Gets the number of bytes that storing the given object will use.
+   * By default, this is the estimate from {@link #sizeOf(Object)}.
+   */
+  protected long measure(Object value) throws CacheException {
+    return sizeOf(value);
+  }
+
+  /**
+   * Converts the given object into the representation that is stored.
+   * Called while holding this store's lock.
+   */
+  protected abstract Object write(Object value) throws CacheException;
+
+  /**
+   * Converts a stored representation back into the original object.
+   * Called while holding this store's lock.
+   */
+  protected abstract Object read(Object stored) throws CacheException;
+
+  /**
+   * Frees any resources held by a stored representation that has been
+   * evicted or removed. Called while holding this store's lock.
+   */
+  protected abstract void release(Object stored);
+
+  // -- Helper methods --
+
+  private void discard(Entry e) {
+    evictionOrder.remove(e);
+    size -= e.size;
+    release(e.value);
+  }
+
+  private void notifyDropped(List<CacheKey> dropped) {
+    if (dropped.isEmpty()) return;
+    CacheListener[] l = getCacheListeners();
+    for (CacheKey key : dropped) {
+      CacheEvent event = new CacheEvent(this, CacheEvent.OBJECT_DROPPED, key);
+      for (CacheListener listener : l) {
+        listener.cacheUpdated(event);
+      }
+    }
+  }
+
+  // -- Helper classes --
+
+  /** A stored object along with its eviction bookkeeping. */
+  private class Entry implements Comparable<Entry> {
+    final CacheKey key;
+    final Object value;
+    final long size;
+    long hits;
+    long lastAccess;
+
+    Entry(CacheKey key, Object value, long size) {
+      this.key = key;
+      this.value = value;
+      this.size = size;
+    }
+
+    @Override
+    public int compareTo(Entry e) {
+      if (policy == EvictionPolicy.LFU && hits != e.hits) {
+        return hits < e.hits ? -1 : 1;
+      }
+      // access times are unique, so no two entries compare as equal
+      return lastAccess < e.lastAccess ? -1 :
+        (lastAccess == e.lastAccess ? 0 : 1);
+    }
+  }
+
+}
@@ -48,6 +48,12 @@ public class ByteArraySource extends CacheSource {
   /** Constructs a byte array source from the given Bio-Formats reader. */
   public ByteArraySource(IFormatReader r) { super(r); }
 
+  /**
+   * Constructs a byte array source from the given Bio-Formats readers,
+   * which must all be initialized on the same file.
+   */
+  public ByteArraySource(IFormatReader[] r) { super(r); }
+
   /** Constructs a byte array source that draws from the given file. */
   public ByteArraySource(String id) throws CacheException { super(id); }
 
@@ -56,9 +62,26 @@ public class ByteArraySource extends CacheSource {
   /* @see loci.formats.cache.ICacheSource#getObject(int) */
   @Override
   public Object getObject(int index) throws CacheException {
-    try { return reader.openBytes(index); }
+    IFormatReader r = acquireReader();
+    try { return r.openBytes(index); }
+    catch (FormatException exc) { throw new CacheException(exc); }
+    catch (IOException exc) { throw new CacheException(exc); }
+    finally { releaseReader(r); }
+  }
+
+  // -- CacheSource API methods --
+
+  /* @see CacheSource#getTile(int, int) */
+  @Override
+  public Object getTile(int index, int tile) throws CacheException {
+    int[] bounds = getTileBounds(tile);
+    IFormatReader r = acquireReader();
+    try {
+      return r.openBytes(index, bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
     catch (FormatException exc) { throw new CacheException(exc); }
     catch (IOException exc) { throw new CacheException(exc); }
+    finally { releaseReader(r); }
   }
 
 }
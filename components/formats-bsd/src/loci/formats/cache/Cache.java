@@ -32,9 +32,23 @@
 
 package loci.formats.cache;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Cache provides a means of managing subsets of large collections of image
@@ -46,9 +60,23 @@ import loci.formats.FormatTools;
  * across the multidimensional image series's dimensional axes, with the
  * strategy indicating which surrounding planes to load into the cache (i.e.,
  * planes within a certain range along each dimensional axis).
+ *
+ * Cached objects are held in an {@link ICacheStore}, keyed by series,
+ * resolution, plane and tile, which bounds the number of bytes in memory.
+ * The load list is cut to the number of objects that fit in the store, so
+ * that lower priority objects never evict the objects ahead of them.
+ * If a prefetch executor is set, planes on the load list are loaded in
+ * the background, concurrently if the source allows it.
  */
 public class Cache implements CacheReporter {
 
+  // -- Constants --
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Cache.class);
+
+  /** Tile list used when whole objects are cached. */
+  private static final int[] WHOLE_PLANE = {CacheKey.WHOLE_PLANE};
+
   // -- Fields --
 
   /** Current cache strategy. */
@@ -60,8 +88,8 @@ public class Cache implements CacheReporter {
   /** Current dimensional position. */
   protected int[] currentPos;
 
-  /** Master array containing cached objects. */
-  protected Object[] cache;
+  /** Storage for cached objects. */
+  protected ICacheStore store;
 
   /** Whether each position is currently supposed to be cached. */
   protected boolean[] inCache;
@@ -72,33 +100,103 @@ public class Cache implements CacheReporter {
   /** Whether the cache should automatically update when a parameter changes. */
   protected boolean autoUpdate;
 
+  /** Tiles to cache at each position on the load list. */
+  protected int[] tiles = WHOLE_PLANE;
+
+  /** Executor used to load objects in the background, if any. */
+  protected ExecutorService prefetcher;
+
+  /** Incremented whenever the load list changes, to skip stale loads. */
+  private final AtomicInteger generation = new AtomicInteger();
+
+  /** Size in bytes of the largest object loaded so far, or 0 if unknown. */
+  private volatile long objectSize;
+
+  /** Keys of objects that are currently being loaded. */
+  private final Set<CacheKey> loading =
+    Collections.synchronizedSet(new HashSet<CacheKey>());
+
+  /** Forwards evictions from the store to this cache's listeners. */
+  private final CacheListener storeListener = new CacheListener() {
+    @Override
+    public void cacheUpdated(CacheEvent e) {
+      if (e.getType() == CacheEvent.OBJECT_DROPPED && e.getKey() != null &&
+        e.getKey().isWholePlane() && e.getKey().getPlane() < inCache.length)
+      {
+        notifyListeners(new CacheEvent(Cache.this, CacheEvent.OBJECT_DROPPED,
+          e.getKey().getPlane()));
+      }
+    }
+  };
+
   // -- Constructors --
 
   /** Constructs an object cache with the given cache strategy and source. */
   public Cache(ICacheStrategy strategy, ICacheSource source,
     boolean autoUpdate) throws CacheException
+  {
+    this(strategy, source, new MemoryCacheStore(), autoUpdate);
+  }
+
+  /**
+   * Constructs an object cache with the given cache strategy and source,
+   * storing cached objects in the given store.
+   */
+  public Cache(ICacheStrategy strategy, ICacheSource source,
+    ICacheStore store, boolean autoUpdate) throws CacheException
   {
     if (strategy == null) throw new CacheException("strategy is null");
     if (source == null) throw new CacheException("source is null");
+    if (store == null) throw new CacheException("store is null");
     this.strategy = strategy;
     this.source = source;
+    this.store = store;
     this.autoUpdate = autoUpdate;
     listeners = new Vector<CacheListener>();
+    store.addCacheListener(storeListener);
     reset();
     if (autoUpdate) recache();
   }
 
   // -- Cache API methods --
 
+  /**
+   * Creates an executor suitable for background loading, using the given
+   * number of low priority daemon threads.
+   */
+  public static ExecutorService createPrefetchExecutor(int threads) {
+    final AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r,
+          "Bio-Formats-Cache-Updater-" + count.incrementAndGet());
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    };
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<Runnable>(), factory);
+  }
+
   /** Gets the cached object at the given dimensional position. */
   public Object getObject(int[] pos) throws CacheException {
+    return getObject(pos, CacheKey.WHOLE_PLANE);
+  }
+
+  /**
+   * Gets the given tile of the cached object at the given dimensional
+   * position, or null if the tile is not cached.
+   */
+  public Object getObject(int[] pos, int tile) throws CacheException {
     if (pos.length != strategy.getLengths().length) {
       throw new CacheException("Invalid number of axes; got " + pos.length +
         "; expected " + strategy.getLengths().length);
     }
 
     int ndx = FormatTools.positionToRaster(strategy.getLengths(), pos);
-    return cache[ndx];
+    return store.get(getKey(ndx, tile));
   }
 
   /**
@@ -111,13 +209,19 @@ public class Cache implements CacheReporter {
 
   /** Returns true if the object at the given index is in the cache. */
   public boolean isInCache(int pos) throws CacheException {
-    return inCache[pos];
+    if (!inCache[pos]) return false;
+    for (int tile : tiles) {
+      if (!store.contains(getKey(pos, tile))) return false;
+    }
+    return true;
   }
 
   /** Reallocates the cache. */
   public void reset() throws CacheException {
+    generation.incrementAndGet();
     currentPos = new int[strategy.getLengths().length];
-    cache = new Object[source.getObjectCount()];
+    objectSize = 0;
+    store.clear();
     inCache = new boolean[source.getObjectCount()];
   }
 
@@ -127,9 +231,20 @@ public class Cache implements CacheReporter {
   /** Gets the cache's caching source. */
   public ICacheSource getSource() { return source; }
 
+  /** Gets the cache's object store. */
+  public ICacheStore getStore() { return store; }
+
   /** Gets the current dimensional position. */
   public int[] getCurrentPos() { return currentPos; }
 
+  /** Gets the tiles cached at each position, or null for whole objects. */
+  public int[] getTiles() {
+    return tiles == WHOLE_PLANE ? null : tiles.clone();
+  }
+
+  /** Gets the executor used to load objects in the background, if any. */
+  public ExecutorService getPrefetchExecutor() { return prefetcher; }
+
   /** Sets the cache's caching strategy. */
   public void setStrategy(ICacheStrategy strategy) throws CacheException {
     if (strategy == null) throw new CacheException("strategy is null");
@@ -155,6 +270,43 @@ public class Cache implements CacheReporter {
     if (autoUpdate) recache();
   }
 
+  /** Sets the store that holds cached objects. */
+  public void setStore(ICacheStore store) throws CacheException {
+    if (store == null) throw new CacheException("store is null");
+    this.store.removeCacheListener(storeListener);
+    this.store.clear();
+    this.store = store;
+    store.addCacheListener(storeListener);
+    reset();
+    if (autoUpdate) recache();
+  }
+
+  /**
+   * Sets the tiles to cache at each position on the load list, as indices
+   * into the row-major tile grid of the source; null caches whole objects.
+   * Caching tiles requires a {@link CacheSource}.
+   */
+  public void setTiles(int[] tiles) throws CacheException {
+    if (tiles != null && !(source instanceof CacheSource)) {
+      throw new CacheException("Source does not support tiles");
+    }
+    generation.incrementAndGet();
+    this.tiles = tiles == null ? WHOLE_PLANE : tiles.clone();
+    if (autoUpdate) recache();
+  }
+
+  /**
+   * Sets the executor used to load objects on the load list in the
+   * background, or null to load them on the calling thread. The executor
+   * is not shut down by this cache.
+   *
+   * @see #createPrefetchExecutor(int)
+   */
+  public void setPrefetchExecutor(ExecutorService prefetcher) {
+    generation.incrementAndGet();
+    this.prefetcher = prefetcher;
+  }
+
   /** Sets the current dimensional position. */
   public void setCurrentPos(int[] pos) throws CacheException {
     if (pos == null) throw new CacheException("pos is null");
@@ -175,38 +327,28 @@ public class Cache implements CacheReporter {
     if (autoUpdate) recache();
   }
 
-  /** Updates the given plane. */
+  /**
+   * Updates the given plane. Planes past the number that fit in the store
+   * are not loaded.
+   */
   public void recache(int n) throws CacheException {
     int[][] indices = strategy.getLoadList(currentPos);
-    int[] len = strategy.getLengths();
-
-    for (int i=0; i<inCache.length; i++) {
-      boolean found = false;
-      for (int j=0; j<indices.length; j++) {
-        if (i == FormatTools.positionToRaster(len, indices[j])) {
-          found = true;
-          break;
-        }
-      }
-      if (!found) {
-        inCache[i] = false;
-        if (cache[i] != null) {
-          cache[i] = null;
-          notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_DROPPED, i));
-        }
-      }
-    }
-
-    int ndx = FormatTools.positionToRaster(len, indices[n]);
-    if (ndx >= 0) inCache[ndx] = true;
+    dropUnlisted(indices);
+    if (n >= getLoadLimit()) return;
 
-    if (cache[ndx] == null) {
-      cache[ndx] = source.getObject(ndx);
-      notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_LOADED, ndx));
+    int ndx = FormatTools.positionToRaster(strategy.getLengths(), indices[n]);
+    if (ndx >= 0) {
+      inCache[ndx] = true;
+      load(ndx, n);
     }
   }
 
-  /** Updates all planes on the load list. */
+  /**
+   * Updates all planes on the load list. If a prefetch executor is set,
+   * the planes are queued for loading in load list order and this method
+   * returns immediately; queued planes that are no longer needed when
+   * the load list next changes are skipped.
+   */
   public void recache() throws CacheException {
     // what happens if cache source and cache strategy lengths do not match?
     // throw exception in that case
@@ -220,8 +362,40 @@ public class Cache implements CacheReporter {
     // each time through the loop only (i.e., only when a recache call occurs)
     //
     // /lo
-    for (int i=0; i<strategy.getLoadList(currentPos).length; i++) {
-      recache(i);
+    if (prefetcher == null) {
+      int count = strategy.getLoadList(currentPos).length;
+      for (int i=0; i<count && i<getLoadLimit(); i++) {
+        recache(i);
+      }
+      return;
+    }
+
+    final int gen = generation.incrementAndGet();
+    int[][] indices = strategy.getLoadList(currentPos);
+    dropUnlisted(indices);
+    int[] len = strategy.getLengths();
+    for (int i=0; i<indices.length && i<getLoadLimit(); i++) {
+      final int ndx = FormatTools.positionToRaster(len, indices[i]);
+      final int rank = i;
+      if (ndx < 0) continue;
+      inCache[ndx] = true;
+      try {
+        prefetcher.execute(new Runnable() {
+          @Override
+          public void run() {
+            if (generation.get() != gen || rank >= getLoadLimit()) return;
+            try {
+              load(ndx, rank);
+            }
+            catch (CacheException e) {
+              LOGGER.info("Could not load object #" + ndx, e);
+            }
+          }
+        });
+      }
+      catch (RejectedExecutionException e) {
+        throw new CacheException("Prefetch executor is not accepting tasks", e);
+      }
     }
   }
 
@@ -268,4 +442,97 @@ public class Cache implements CacheReporter {
     }
   }
 
+  /** Gets the store key for the given tile of the object at an index. */
+  protected CacheKey getKey(int ndx, int tile) {
+    if (source instanceof CacheSource) {
+      IFormatReader r = ((CacheSource) source).getReader();
+      return new CacheKey(r.getSeries(), r.getResolution(), ndx, tile);
+    }
+    return new CacheKey(0, 0, ndx, tile);
+  }
+
+  /**
+   * Gets the number of objects on the load list that fit in the store,
+   * based on the largest object loaded so far.
+   */
+  private int getLoadLimit() {
+    long size = objectSize * tiles.length;
+    if (size <= 0) return Integer.MAX_VALUE;
+    return (int) Math.min(store.getCapacity() / size, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Drops every object that is not on the given load list, or that is too
+   * far down the list to fit in the store.
+   */
+  private void dropUnlisted(int[][] indices) {
+    boolean[] listed = new boolean[inCache.length];
+    int[] len = strategy.getLengths();
+    int count = Math.min(indices.length, getLoadLimit());
+    for (int j=0; j<count; j++) {
+      int ndx = FormatTools.positionToRaster(len, indices[j]);
+      if (ndx >= 0) listed[ndx] = true;
+    }
+
+    for (int i=0; i<inCache.length; i++) {
+      if (listed[i]) continue;
+      inCache[i] = false;
+      boolean dropped = false;
+      for (int tile : tiles) {
+        CacheKey key = getKey(i, tile);
+        if (store.contains(key)) {
+          store.remove(key);
+          dropped = true;
+        }
+      }
+      if (dropped) {
+        notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_DROPPED, i));
+      }
+    }
+  }
+
+  /**
+   * Loads every cached tile of the object at the given index, which is at
+   * the given rank on the load list. Nothing is stored once the object
+   * turns out not to fit alongside the objects ahead of it.
+   */
+  private void load(int ndx, int rank) throws CacheException {
+    int[] t = tiles;
+    boolean loaded = false;
+    for (int tile : t) {
+      CacheKey key = getKey(ndx, tile);
+      if (store.contains(key) || !loading.add(key)) continue;
+      try {
+        Object o = retrieve(ndx, tile);
+        if (o == null) continue;
+        long size = AbstractCacheStore.sizeOf(o);
+        if (size > objectSize) objectSize = size;
+        if (rank >= getLoadLimit()) {
+          inCache[ndx] = false;
+          break;
+        }
+        if (store.put(key, o)) loaded = true;
+      }
+      finally {
+        loading.remove(key);
+      }
+    }
+    if (loaded) {
+      notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_LOADED, ndx));
+    }
+  }
+
+  /** Retrieves the given tile of the object at an index from the source. */
+  private Object retrieve(int ndx, int tile) throws CacheException {
+    if (source instanceof CacheSource) {
+      // NB: CacheSource serializes access to each of its readers
+      CacheSource s = (CacheSource) source;
+      return tile == CacheKey.WHOLE_PLANE ?
+        s.getObject(ndx) : s.getTile(ndx, tile);
+    }
+    synchronized (source) {
+      return source.getObject(ndx);
+    }
+  }
+
 }
@@ -76,6 +76,9 @@ public class CacheEvent {
   /** Relevant index to the event, if any. */
   protected int index;
 
+  /** Key of the relevant cached object, if any. */
+  protected CacheKey key;
+
   // -- Constructor --
 
   /** Constructs a cache event. */
@@ -88,6 +91,15 @@ public class CacheEvent {
     this.index = index;
   }
 
+  /**
+   * Constructs a cache event for the object with the given key.
+   * The event's index is the key's plane number.
+   */
+  public CacheEvent(Object source, int type, CacheKey key) {
+    this(source, type, key.getPlane());
+    this.key = key;
+  }
+
   // -- CacheEvent API methods --
 
   /** Gets the source of the cache update. */
@@ -103,6 +115,12 @@ public class CacheEvent {
    */
   public int getIndex() { return index; }
 
+  /**
+   * Gets the key of the cached object relevant to the cache update, if any.
+   * This parameter is only set for events sent by an {@link ICacheStore}.
+   */
+  public CacheKey getKey() { return key; }
+
   // -- Object API methods --
 
   @Override
@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.cache;
+
+/**
+ * Identifies a cached object by series, resolution, plane and tile, and
+ * optionally by the dataset it belongs to, so that one store can hold
+ * objects of several datasets. Whole planes use {@link #WHOLE_PLANE} as the
+ * tile index.
+ */
+public final class CacheKey {
+
+  // -- Constants --
+
+  /** Tile index used for objects that cover an entire plane. */
+  public static final int WHOLE_PLANE = -1;
+
+  // -- Fields --
+
+  private final String dataset;
+  private final int series;
+  private final int resolution;
+  private final int plane;
+  private final int tile;
+
+  // -- Constructors --
+
+  /** Constructs a key for a whole plane. */
+  public CacheKey(int series, int resolution, int plane) {
+    this(series, resolution, plane, WHOLE_PLANE);
+  }
+
+  /** Constructs a key for a single tile of a plane. */
+  public CacheKey(int series, int resolution, int plane, int tile) {
+    this(null, series, resolution, plane, tile);
+  }
+
+  /**
+   * Constructs a key for a single tile of a plane of the given dataset.
+   *
+   * @param dataset identifies the dataset, or null if the store holds
+   *   objects of a single dataset
+   */
+  public CacheKey(String dataset, int series, int resolution, int plane,
+    int tile)
+  {
+    this.dataset = dataset;
+    this.series = series;
+    this.resolution = resolution;
+    this.plane = plane;
+    this.tile = tile;
+  }
+
+  // -- CacheKey API methods --
+
+  /** Gets the dataset of this key, or null if there is none. */
+  public String getDataset() { return dataset; }
+
+  public int getSeries() { return series; }
+
+  public int getResolution() { return resolution; }
+
+  public int getPlane() { return plane; }
+
+  public int getTile() { return tile; }
+
+  /** Returns true if this key refers to an entire plane. */
+  public boolean isWholePlane() { return tile == WHOLE_PLANE; }
+
+  // -- Object API methods --
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof CacheKey)) return false;
+    CacheKey k = (CacheKey) o;
+    return series == k.series && resolution == k.resolution &&
+      plane == k.plane && tile == k.tile &&
+      (dataset == null ? k.dataset == null : dataset.equals(k.dataset));
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = dataset == null ? 0 : dataset.hashCode();
+    hash = 31 * hash + series;
+    hash = 31 * hash + resolution;
+    hash = 31 * hash + plane;
+    hash = 31 * hash + tile;
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    String s = "series=" + series + ", resolution=" + resolution +
+      ", plane=" + plane + ", tile=" + tile;
+    return dataset == null ? s : "dataset=" + dataset + ", " + s;
+  }
+
+}
@@ -33,6 +33,9 @@
 package loci.formats.cache;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import loci.formats.FileStitcher;
 import loci.formats.FormatException;
@@ -41,6 +44,10 @@ import loci.formats.IFormatReader;
 /**
  * Superclass of cache sources that retrieve image planes
  * from a data source (e.g., a file) using Bio-Formats.
+ *
+ * A cache source may be given several readers initialized on the same file,
+ * in which case up to that many objects can be retrieved concurrently.
+ * With a single reader, concurrent requests are serialized.
  */
 public abstract class CacheSource implements ICacheSource {
 
@@ -49,10 +56,30 @@ public abstract class CacheSource implements ICacheSource {
   /** Reader from which to draw image planes. */
   protected IFormatReader reader;
 
+  /** Readers that are not currently retrieving an object. */
+  private BlockingQueue<IFormatReader> idleReaders;
+
+  /** Total number of readers available to this source. */
+  private int readerCount;
+
   // -- Constructors --
 
   /** Constructs a cache source from the given Bio-Formats reader. */
-  public CacheSource(IFormatReader r) { reader = r; }
+  public CacheSource(IFormatReader r) { this(new IFormatReader[] {r}); }
+
+  /**
+   * Constructs a cache source from the given Bio-Formats readers, which must
+   * all be initialized on the same file. The first reader determines the
+   * current series and resolution.
+   */
+  public CacheSource(IFormatReader[] r) {
+    if (r == null || r.length == 0) {
+      throw new IllegalArgumentException("No readers given");
+    }
+    reader = r[0];
+    readerCount = r.length;
+    idleReaders = new LinkedBlockingQueue<IFormatReader>(Arrays.asList(r));
+  }
 
   /** Constructs a cache source that draws from the given file. */
   public CacheSource(String id) throws CacheException {
@@ -62,6 +89,82 @@ public abstract class CacheSource implements ICacheSource {
     catch (IOException exc) { throw new CacheException(exc); }
   }
 
+  // -- CacheSource API methods --
+
+  /** Gets the reader that determines the current series and resolution. */
+  public IFormatReader getReader() { return reader; }
+
+  /** Gets the number of objects that can be retrieved concurrently. */
+  public int getReaderCount() { return readerCount; }
+
+  /** Gets the width of each tile, as recommended by the reader. */
+  public int getTileWidth() { return reader.getOptimalTileWidth(); }
+
+  /** Gets the height of each tile, as recommended by the reader. */
+  public int getTileHeight() { return reader.getOptimalTileHeight(); }
+
+  /** Gets the number of tiles in each plane. */
+  public int getTileCount() {
+    int cols = (reader.getSizeX() + getTileWidth() - 1) / getTileWidth();
+    int rows = (reader.getSizeY() + getTileHeight() - 1) / getTileHeight();
+    return cols * rows;
+  }
+
+  /**
+   * Gets the bounds of the given tile, in row-major order.
+   * @return An array of size 4, dimensioned {x, y, width, height}.
+   */
+  public int[] getTileBounds(int tile) {
+    int tileWidth = getTileWidth();
+    int tileHeight = getTileHeight();
+    int cols = (reader.getSizeX() + tileWidth - 1) / tileWidth;
+    int x = (tile % cols) * tileWidth;
+    int y = (tile / cols) * tileHeight;
+    int w = Math.min(tileWidth, reader.getSizeX() - x);
+    int h = Math.min(tileHeight, reader.getSizeY() - y);
+    return new int[] {x, y, w, h};
+  }
+
+  /**
+   * Gets the given tile of the object corresponding to the given index.
+   * Sources that do not support tiles throw a CacheException.
+   */
+  public Object getTile(int index, int tile) throws CacheException {
+    throw new CacheException(getClass().getName() + " does not support tiles");
+  }
+
+  // -- Internal CacheSource API methods --
+
+  /**
+   * Waits for an idle reader, set to the current series and resolution.
+   * Each reader obtained this way must be returned with
+   * {@link #releaseReader(IFormatReader)}.
+   */
+  protected IFormatReader acquireReader() throws CacheException {
+    IFormatReader r;
+    try {
+      r = idleReaders.take();
+    }
+    catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new CacheException(exc);
+    }
+    if (r != reader) {
+      if (r.getSeries() != reader.getSeries()) {
+        r.setSeries(reader.getSeries());
+      }
+      if (r.getResolution() != reader.getResolution()) {
+        r.setResolution(reader.getResolution());
+      }
+    }
+    return r;
+  }
+
+  /** Returns a reader obtained from {@link #acquireReader()}. */
+  protected void releaseReader(IFormatReader r) {
+    idleReaders.add(r);
+  }
+
   // -- ICacheSource API methods --
 
   /* @see loci.formats.cache.ICacheSource#getObjectCount() */
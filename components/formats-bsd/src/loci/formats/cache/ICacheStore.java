@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.cache;
+
+/**
+ * Interface for cache storage backends. A cache store holds objects keyed by
+ * {@link CacheKey}, up to a fixed number of bytes; adding an object may cause
+ * others to be evicted, in which case an {@link CacheEvent#OBJECT_DROPPED}
+ * event is sent to each registered listener.
+ *
+ * Implementations must be thread-safe.
+ */
+public interface ICacheStore extends CacheReporter {
+
+  /** Gets the object stored under the given key, or null if absent. */
+  Object get(CacheKey key) throws CacheException;
+
+  /**
+   * Stores an object under the given key, evicting other objects as needed.
+   * @return true if the object was stored; false if it is larger than the
+   *   store's capacity
+   */
+  boolean put(CacheKey key, Object value) throws CacheException;
+
+  /** Removes the object stored under the given key, if any. */
+  void remove(CacheKey key);
+
+  /** Returns true if an object is stored under the given key. */
+  boolean contains(CacheKey key);
+
+  /**
+   * Removes the objects whose keys belong to the given dataset.
+   *
+   * @see CacheKey#getDataset()
+   */
+  void removeDataset(String dataset);
+
+  /** Removes all stored objects. */
+  void clear();
+
+  /** Gets the number of stored objects. */
+  int getObjectCount();
+
+  /** Gets the number of bytes used by the stored objects. */
+  long getSize();
+
+  /** Gets the maximum number of bytes that may be stored. */
+  long getCapacity();
+
+  /**
+   * Sets the maximum number of bytes that may be stored,
+   * evicting objects as needed.
+   */
+  void setCapacity(long bytes);
+
+}
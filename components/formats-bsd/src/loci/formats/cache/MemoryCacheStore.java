@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.cache;
+
+/**
+ * Cache store that keeps objects on the Java heap, as is.
+ */
+public class MemoryCacheStore extends AbstractCacheStore {
+
+  // -- Constants --
+
+  /** Capacity of a store created without a bound: effectively unbounded. */
+  public static final long UNBOUNDED = Long.MAX_VALUE;
+
+  /**
+   * Suggested total capacity of all bounded stores that are used together,
+   * e.g. by several viewers in one application: one quarter of the maximum
+   * heap size. It is not applied to any store unless requested.
+   */
+  public static final long SHARED_CAPACITY =
+    Runtime.getRuntime().maxMemory() / 4;
+
+  // -- Constructors --
+
+  /**
+   * Constructs a least recently used store without a bound, which keeps
+   * every object until it is removed, as caches did before stores existed.
+   */
+  public MemoryCacheStore() {
+    this(UNBOUNDED);
+  }
+
+  /** Constructs a least recently used store with the given capacity. */
+  public MemoryCacheStore(long capacity) {
+    this(capacity, EvictionPolicy.LRU);
+  }
+
+  /** Constructs a store with the given capacity and eviction policy. */
+  public MemoryCacheStore(long capacity, EvictionPolicy policy) {
+    super(capacity, policy);
+  }
+
+  // -- Internal AbstractCacheStore API methods --
+
+  @Override
+  protected Object write(Object value) { return value; }
+
+  @Override
+  protected Object read(Object stored) { return stored; }
+
+  @Override
+  protected void release(Object stored) { }
+
+}
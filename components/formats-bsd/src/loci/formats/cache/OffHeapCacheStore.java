@@ -0,0 +1,285 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache store that keeps byte arrays outside of the Java heap, either in
+ * direct ByteBuffers or in a memory-mapped spill file. Memory is allocated
+ * in slabs, each divided into fixed-size blocks; a stored array occupies as
+ * many blocks as needed, and its blocks are released as soon as it is
+ * evicted or removed. Retrieving an object copies it into a new byte array.
+ *
+ * Only byte arrays may be stored. {@link #close()} must be called to free
+ * the slabs and delete the spill file, if any.
+ */
+public class OffHeapCacheStore extends AbstractCacheStore implements Closeable {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(OffHeapCacheStore.class);
+
+  /** Default size of each block, in bytes. */
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  /** Default number of blocks in each slab. */
+  public static final int DEFAULT_BLOCKS_PER_SLAB = 1024;
+
+  // -- Fields --
+
+  /** Size of each block, in bytes. */
+  private final int blockSize;
+
+  /** Number of blocks in each slab. */
+  private final int blocksPerSlab;
+
+  /** Allocated slabs. */
+  private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+  /** Indices of blocks that have been released. */
+  private int[] freeBlocks = new int[16];
+
+  /** Number of valid entries in freeBlocks. */
+  private int freeCount;
+
+  /** Number of blocks that have ever been handed out. */
+  private int usedBlocks;
+
+  /** Spill file backing the slabs, or null for direct buffers. */
+  private final File spillFile;
+
+  /** Channel used to map the spill file. */
+  private RandomAccessFile spill;
+
+  // -- Constructors --
+
+  /**
+   * Constructs a least recently used store with the given capacity,
+   * using direct ByteBuffers.
+   */
+  public OffHeapCacheStore(long capacity) {
+    this(capacity, EvictionPolicy.LRU, null);
+  }
+
+  /**
+   * Constructs a store with the given capacity and eviction policy. If a spill
+   * file is given, the slabs are memory-mapped from that file, which is
+   * created if needed and deleted on {@link #close()}; otherwise direct
+   * ByteBuffers are used.
+   */
+  public OffHeapCacheStore(long capacity, EvictionPolicy policy,
+    File spillFile)
+  {
+    this(capacity, policy, spillFile, DEFAULT_BLOCK_SIZE,
+      DEFAULT_BLOCKS_PER_SLAB);
+  }
+
+  /**
+   * Constructs a store with the given capacity, eviction policy, spill file
+   * (may be null), block size and number of blocks per slab.
+   */
+  public OffHeapCacheStore(long capacity, EvictionPolicy policy,
+    File spillFile, int blockSize, int blocksPerSlab)
+  {
+    super(capacity, policy);
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Invalid block size: " + blockSize);
+    }
+    if (blocksPerSlab <= 0 ||
+      (long) blockSize * blocksPerSlab > Integer.MAX_VALUE)
+    {
+      throw new IllegalArgumentException(
+        "Invalid number of blocks per slab: " + blocksPerSlab);
+    }
+    this.blockSize = blockSize;
+    this.blocksPerSlab = blocksPerSlab;
+    this.spillFile = spillFile;
+  }
+
+  // -- OffHeapCacheStore API methods --
+
+  /** Gets the size of each block, in bytes. */
+  public int getBlockSize() { return blockSize; }
+
+  /** Gets the number of bytes of off-heap memory currently allocated. */
+  public synchronized long getAllocatedSize() {
+    return (long) slabs.size() * blocksPerSlab * blockSize;
+  }
+
+  // -- Closeable API methods --
+
+  /** Removes all stored objects and frees all slabs. */
+  @Override
+  public synchronized void close() throws IOException {
+    clear();
+    slabs.clear();
+    freeCount = 0;
+    usedBlocks = 0;
+    if (spill != null) {
+      spill.close();
+      spill = null;
+      if (!spillFile.delete()) {
+        LOGGER.debug("Could not delete {}", spillFile);
+      }
+    }
+  }
+
+  // -- Internal AbstractCacheStore API methods --
+
+  /* @see AbstractCacheStore#measure(Object) */
+  @Override
+  protected long measure(Object value) throws CacheException {
+    if (!(value instanceof byte[])) {
+      throw new CacheException("Only byte arrays can be stored off-heap");
+    }
+    long blocks = (((byte[]) value).length + blockSize - 1) / blockSize;
+    return blocks * blockSize;
+  }
+
+  /* @see AbstractCacheStore#write(Object) */
+  @Override
+  protected Object write(Object value) throws CacheException {
+    byte[] bytes = (byte[]) value;
+    int nBlocks = (bytes.length + blockSize - 1) / blockSize;
+    int[] blocks = new int[nBlocks];
+    for (int i=0; i<nBlocks; i++) {
+      try {
+        blocks[i] = allocateBlock();
+      }
+      catch (CacheException e) {
+        int[] partial = new int[i];
+        System.arraycopy(blocks, 0, partial, 0, i);
+        release(new Allocation(partial, 0));
+        throw e;
+      }
+      int offset = i * blockSize;
+      int len = Math.min(blockSize, bytes.length - offset);
+      getBlock(blocks[i]).put(bytes, offset, len);
+    }
+    return new Allocation(blocks, bytes.length);
+  }
+
+  /* @see AbstractCacheStore#read(Object) */
+  @Override
+  protected Object read(Object stored) {
+    Allocation a = (Allocation) stored;
+    byte[] bytes = new byte[a.length];
+    for (int i=0; i<a.blocks.length; i++) {
+      int offset = i * blockSize;
+      int len = Math.min(blockSize, bytes.length - offset);
+      getBlock(a.blocks[i]).get(bytes, offset, len);
+    }
+    return bytes;
+  }
+
+  /* @see AbstractCacheStore#release(Object) */
+  @Override
+  protected void release(Object stored) {
+    for (int block : ((Allocation) stored).blocks) {
+      if (freeCount == freeBlocks.length) {
+        int[] grown = new int[freeBlocks.length * 2];
+        System.arraycopy(freeBlocks, 0, grown, 0, freeCount);
+        freeBlocks = grown;
+      }
+      freeBlocks[freeCount++] = block;
+    }
+  }
+
+  // -- Helper methods --
+
+  /** Takes a released block, or a new one, allocating a slab if needed. */
+  private int allocateBlock() throws CacheException {
+    if (freeCount > 0) return freeBlocks[--freeCount];
+    int block = usedBlocks;
+    if (block / blocksPerSlab >= slabs.size()) {
+      slabs.add(allocateSlab(slabs.size()));
+    }
+    usedBlocks++;
+    return block;
+  }
+
+  private ByteBuffer allocateSlab(int index) throws CacheException {
+    int slabSize = blocksPerSlab * blockSize;
+    if (spillFile == null) {
+      try {
+        return ByteBuffer.allocateDirect(slabSize);
+      }
+      catch (OutOfMemoryError e) {
+        throw new CacheException("Could not allocate off-heap slab", e);
+      }
+    }
+    try {
+      if (spill == null) {
+        spill = new RandomAccessFile(spillFile, "rw");
+      }
+      return spill.getChannel().map(FileChannel.MapMode.READ_WRITE,
+        (long) index * slabSize, slabSize);
+    }
+    catch (IOException e) {
+      throw new CacheException("Could not map " + spillFile, e);
+    }
+  }
+
+  /** Gets a buffer positioned at the start of the given block. */
+  private ByteBuffer getBlock(int block) {
+    ByteBuffer b = slabs.get(block / blocksPerSlab).duplicate();
+    b.position((block % blocksPerSlab) * blockSize);
+    return b;
+  }
+
+  // -- Helper classes --
+
+  /** The blocks holding a stored byte array. */
+  private static class Allocation {
+    final int[] blocks;
+    final int length;
+
+    Allocation(int[] blocks, int length) {
+      this.blocks = blocks;
+      this.length = length;
+    }
+  }
+
+}
@@ -45,14 +45,17 @@ import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
 import loci.formats.FormatTools;
+import loci.formats.ICompressedTileReader;
 import loci.formats.MetadataTools;
 import loci.formats.codec.JPEG2000CodecOptions;
 import loci.formats.meta.MetadataStore;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
+import loci.formats.tiff.IFDOffsetIndex;
 import loci.formats.tiff.PhotoInterp;
 import loci.formats.tiff.TiffCompression;
 import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TileCodec;
 
 /**
  * MinimalTiffReader is the superclass for file format readers compatible with
@@ -60,7 +63,9 @@ import loci.formats.tiff.TiffParser;
  *
  * @author Melissa Linkert melissa at glencoesoftware.com
  */
-public class MinimalTiffReader extends FormatReader {
+public class MinimalTiffReader extends FormatReader
+  implements ICompressedTileReader
+{
 
   // -- Constants --
 
@@ -92,6 +97,15 @@ public class MinimalTiffReader extends FormatReader {
 
   protected boolean noSubresolutions = false;
 
+  /**
+   * Whether to assume that all IFDs have the same structure as the first,
+   * so that IFDs can be parsed on demand rather than during initialization.
+   */
+  protected boolean assumeUniformIFDs = false;
+
+  /** Persistent index of IFD offsets for the current file, if enabled. */
+  private transient IFDOffsetIndex offsetIndex;
+
   /** Number of JPEG 2000 resolution levels. */
   private Integer resolutionLevels;
 
@@ -124,6 +138,27 @@ public class MinimalTiffReader extends FormatReader {
     return ifds;
   }
 
+  /**
+   * Sets whether to assume that every IFD has the same dimensions, pixel
+   * type and compression as the first IFD. If so, and the first and last
+   * IFDs agree, the IFDs are parsed only when their planes are read.
+   * The first initialization of a file still follows the chain of IFD
+   * offsets to count the planes, but each IFD costs one offset read instead
+   * of a full parse of its entries. If an offset index is available (see
+   * {@link IFDOffsetIndex}), the offsets are recorded there and later
+   * initializations read only the first and last IFDs.
+   * Thumbnail IFDs and SubIFDs are not detected in this mode.
+   */
+  public void setAssumeUniformIFDs(boolean assumeUniformIFDs) {
+    FormatTools.assertId(currentId, false, 1);
+    this.assumeUniformIFDs = assumeUniformIFDs;
+  }
+
+  /** Gets whether IFDs are assumed to share the first IFD's structure. */
+  public boolean isAssumeUniformIFDs() {
+    return assumeUniformIFDs;
+  }
+
   /** Gets the list of IFDs associated with the current TIFF's thumbnails. */
   public IFDList getThumbnailIFDs() {
     return thumbnailIFDs;
@@ -357,8 +392,12 @@ public class MinimalTiffReader extends FormatReader {
   public void close(boolean fileOnly) throws IOException {
     super.close(fileOnly);
     if (!fileOnly) {
+      saveOffsetIndex();
+      offsetIndex = null;
       if (ifds != null) {
-        for (IFD ifd : ifds) {
+        for (int i=0; i<ifds.size(); i++) {
+          if (!ifds.isParsed(i)) continue;
+          IFD ifd = ifds.get(i);
           try {
             if (ifd.getOnDemandStripOffsets() != null) {
               ifd.getOnDemandStripOffsets().close();
@@ -420,6 +459,42 @@ public class MinimalTiffReader extends FormatReader {
     return super.getOptimalTileHeight();
   }
 
+  // -- ICompressedTileReader API methods --
+
+  /* @see loci.formats.ICompressedTileReader#getTileCodec(int) */
+  @Override
+  public TileCodec getTileCodec(int no) throws FormatException, IOException {
+    FormatTools.assertId(currentId, true, 1);
+    FormatTools.checkPlaneNumber(this, no);
+    IFD ifd = getCompressedTileIFD(no);
+    return ifd == null ? null : TileCodec.fromIFD(ifd);
+  }
+
+  /* @see loci.formats.ICompressedTileReader#openCompressedTile(int, int, int) */
+  @Override
+  public byte[] openCompressedTile(int no, int row, int col)
+    throws FormatException, IOException
+  {
+    FormatTools.assertId(currentId, true, 1);
+    FormatTools.checkPlaneNumber(this, no);
+    IFD ifd = getCompressedTileIFD(no);
+    if (ifd == null) {
+      throw new FormatException(
+        "Compressed tiles are not available for plane " + no);
+    }
+    if (row < 0 || col < 0 || row >= ifd.getTilesPerColumn() ||
+      col >= ifd.getTilesPerRow())
+    {
+      throw new FormatException("Invalid tile (row=" + row + ", column=" +
+        col + ")");
+    }
+    if (tiffParser == null) {
+      initTiffParser();
+    }
+    lastPlane = no;
+    return tiffParser.getCompressedTile(ifd, row, col);
+  }
+
   // -- Internal FormatReader API methods --
 
   /* @see loci.formats.FormatReader#initFile(String) */
@@ -427,6 +502,7 @@ public class MinimalTiffReader extends FormatReader {
   protected void initFile(String id) throws FormatException, IOException {
     super.initFile(id);
     in = new RandomAccessInputStream(id, 16);
+    offsetIndex = IFDOffsetIndex.open(id);
     initTiffParser();
     Boolean littleEndian = tiffParser.checkHeader();
     if (littleEndian == null) {
@@ -437,23 +513,27 @@ public class MinimalTiffReader extends FormatReader {
 
     LOGGER.info("Reading IFDs");
 
-    IFDList allIFDs = tiffParser.getIFDs();
-
-    if (allIFDs == null || allIFDs.size() == 0) {
-      throw new FormatException("No IFDs found");
-    }
-
-    ifds = new IFDList();
     thumbnailIFDs = new IFDList();
     subResolutionIFDs = new ArrayList<IFDList>();
-    for (IFD ifd : allIFDs) {
-      Number subfile = (Number) ifd.getIFDValue(IFD.NEW_SUBFILE_TYPE);
-      int subfileType = subfile == null ? 0 : subfile.intValue();
-      if (subfileType != 1 || allIFDs.size() <= 1) {
-        ifds.add(ifd);
+    ifds = assumeUniformIFDs ? getUniformIFDs() : null;
+
+    if (ifds == null) {
+      IFDList allIFDs = tiffParser.getIFDs();
+
+      if (allIFDs == null || allIFDs.size() == 0) {
+        throw new FormatException("No IFDs found");
       }
-      else if (subfileType == 1) {
-        thumbnailIFDs.add(ifd);
+
+      ifds = new IFDList();
+      for (IFD ifd : allIFDs) {
+        Number subfile = (Number) ifd.getIFDValue(IFD.NEW_SUBFILE_TYPE);
+        int subfileType = subfile == null ? 0 : subfile.intValue();
+        if (subfileType != 1 || allIFDs.size() <= 1) {
+          ifds.add(ifd);
+        }
+        else if (subfileType == 1) {
+          thumbnailIFDs.add(ifd);
+        }
       }
     }
 
@@ -464,7 +544,9 @@ public class MinimalTiffReader extends FormatReader {
     ms0.imageCount = ifds.size();
 
     tiffParser.setAssumeEqualStrips(equalStrips);
-    for (IFD ifd : ifds) {
+    // lazily parsed IFDs are filled in on access, and are never JPEG 2000
+    List<IFD> eagerIFDs = ifds.isLazy() ? new IFDList() : ifds;
+    for (IFD ifd : eagerIFDs) {
       tiffParser.fillInIFD(ifd);
       if ((ifd.getCompression() == TiffCompression.JPEG_2000
           || ifd.getCompression() == TiffCompression.JPEG_2000_LOSSY) &&
@@ -558,9 +640,12 @@ public class MinimalTiffReader extends FormatReader {
     if (isIndexed()) {
       ms0.sizeC = 1;
       ms0.rgb = false;
-      for (IFD ifd : ifds) {
-        ifd.putIFDValue(IFD.PHOTOMETRIC_INTERPRETATION,
-          PhotoInterp.RGB_PALETTE);
+      // lazily parsed IFDs are assumed to share the first IFD's palette
+      if (!ifds.isLazy()) {
+        for (IFD ifd : ifds) {
+          ifd.putIFDValue(IFD.PHOTOMETRIC_INTERPRETATION,
+            PhotoInterp.RGB_PALETTE);
+        }
       }
     }
     if (getSizeC() == 1 && !isIndexed()) ms0.rgb = false;
@@ -599,6 +684,7 @@ public class MinimalTiffReader extends FormatReader {
 
     MetadataStore store = makeFilterMetadata();
     MetadataTools.populatePixels(store, this);
+    saveOffsetIndex();
   }
 
   /**
@@ -621,6 +707,87 @@ public class MinimalTiffReader extends FormatReader {
   }
 
 
+  /**
+   * Gets a lazily parsed list of the main IFD chain, if the first and last
+   * IFDs have the same structure; returns null otherwise.  Only the first
+   * and last IFDs are parsed.  The IFD offsets are read from the offset
+   * index if one exists for this file; otherwise the chain of offsets is
+   * walked once, with one seek per IFD, and recorded in the index so that
+   * later initializations of the same file read no other IFD.
+   */
+  private IFDList getUniformIFDs() throws FormatException, IOException {
+    tiffParser.setAssumeEqualStrips(equalStrips);
+    IFDList list = tiffParser.getLazyIFDs();
+    if (list.size() == 0) return null;
+    IFD first = list.get(0);
+    IFD last = list.get(list.size() - 1);
+
+    TiffCompression compression = first.getCompression();
+    if (compression == TiffCompression.JPEG_2000 ||
+      compression == TiffCompression.JPEG_2000_LOSSY ||
+      first.containsKey(IFD.SUB_IFD) || last.containsKey(IFD.SUB_IFD) ||
+      first.getImageWidth() != last.getImageWidth() ||
+      first.getImageLength() != last.getImageLength() ||
+      first.getSamplesPerPixel() != last.getSamplesPerPixel() ||
+      first.getPixelType() != last.getPixelType() ||
+      first.getPlanarConfiguration() != last.getPlanarConfiguration() ||
+      first.getIFDIntValue(IFD.NEW_SUBFILE_TYPE, 0) !=
+      last.getIFDIntValue(IFD.NEW_SUBFILE_TYPE, 0) ||
+      compression != last.getCompression() ||
+      first.getPhotometricInterpretation() !=
+      last.getPhotometricInterpretation())
+    {
+      LOGGER.debug("IFDs are not uniform; parsing all IFDs");
+      return null;
+    }
+    LOGGER.debug("Assuming {} uniform IFDs", list.size());
+    return list;
+  }
+
+  /**
+   * Gets the IFD whose tiles make up the given plane of the current series
+   * and resolution, or null if the tiles stored in that IFD do not match
+   * the pixels returned by openBytes.  Subclasses which override openBytes
+   * should override this method as well if their tiles can be copied as-is.
+   */
+  protected IFD getCompressedTileIFD(int no)
+    throws FormatException, IOException
+  {
+    if (getCoreIndex() > 0 || !isOpenBytesInherited()) {
+      return null;
+    }
+    IFD ifd = ifds.get(no);
+    TiffCompression compression = ifd.getCompression();
+    if (compression == TiffCompression.JPEG_2000 ||
+      compression == TiffCompression.JPEG_2000_LOSSY)
+    {
+      // JPEG 2000 tiles may be decoded at a reduced resolution
+      return null;
+    }
+    int bits = ifd.getBitsPerSample()[0];
+    if (bits != FormatTools.getBytesPerPixel(getPixelType()) * 8) {
+      // packed or half-precision samples are converted after decoding
+      return null;
+    }
+    return ifd;
+  }
+
+  /**
+   * Returns true if openBytes is not overridden by a subclass, i.e. if
+   * planes are read directly from the IFD with the same index.
+   */
+  private boolean isOpenBytesInherited() {
+    try {
+      Class<?> declaring = getClass().getMethod("openBytes", int.class,
+        byte[].class, int.class, int.class, int.class, int.class)
+        .getDeclaringClass();
+      return declaring == MinimalTiffReader.class;
+    }
+    catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
   /** Reinitialize the underlying TiffParser. */
   protected void initTiffParser() {
     if (in == null) {
@@ -634,6 +801,20 @@ public class MinimalTiffReader extends FormatReader {
     tiffParser = new TiffParser(in);
     tiffParser.setDoCaching(false);
     tiffParser.setUse64BitOffsets(use64Bit);
+    tiffParser.setOffsetIndex(offsetIndex);
+    if (ifds != null) ifds.setTiffParser(tiffParser);
+  }
+
+  /** Writes the IFD offset index, if it has changed. */
+  private void saveOffsetIndex() {
+    if (offsetIndex != null && offsetIndex.isModified()) {
+      try {
+        offsetIndex.save();
+      }
+      catch (IOException e) {
+        LOGGER.warn("Could not save IFD offset index", e);
+      }
+    }
   }
 
 }
@@ -62,6 +62,7 @@ import loci.formats.services.OMEXMLService;
 import loci.formats.services.OMEXMLServiceImpl;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
+import loci.formats.tiff.IFDOffsetIndex;
 import loci.formats.tiff.PhotoInterp;
 import loci.formats.tiff.TiffIFDEntry;
 import loci.formats.tiff.TiffParser;
@@ -124,9 +125,19 @@ public class OMETiffReader extends FormatReader {
     String fileName = new Location(id).getAbsoluteFile().getAbsolutePath();
     RandomAccessInputStream ras = new RandomAccessInputStream(fileName, 16);
     TiffParser tp = new TiffParser(ras);
+    IFDOffsetIndex offsetIndex = IFDOffsetIndex.open(fileName);
+    tp.setOffsetIndex(offsetIndex);
     IFD ifd = tp.getFirstIFD();
     long[] ifdOffsets = tp.getIFDOffsets();
     ras.close();
+    if (offsetIndex != null && offsetIndex.isModified()) {
+      try {
+        offsetIndex.save();
+      }
+      catch (IOException e) {
+        LOGGER.warn("Could not save IFD offset index", e);
+      }
+    }
     String xml = ifd.getComment();
 
     if (service == null) setupService();
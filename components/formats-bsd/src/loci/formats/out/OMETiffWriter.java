@@ -59,6 +59,7 @@ import loci.formats.ome.OMEXMLMetadata;
 import loci.formats.services.OMEXMLService;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.TiffSaver;
+import loci.formats.tiff.TileCodec;
 import loci.formats.in.MetadataOptions;
 import loci.formats.in.DynamicMetadataOptions;
 
@@ -100,7 +101,8 @@ public class OMETiffWriter extends TiffWriter {
   @Override
   public void close() throws IOException {
     try {
-      if (currentId != null) {
+      // a partially written file gets its OME-XML once it is resumed
+      if (currentId != null && !isResumable()) {
         setupServiceAndMetadata();
 
         // remove any BinData and old TiffData elements from the OME-XML
@@ -216,17 +218,19 @@ public class OMETiffWriter extends TiffWriter {
     throws FormatException, IOException
   {
     super.saveBytes(no, buf, ifd, x, y, w, h);
+    recordImageLocation(no);
+  }
 
-    int index = no;
-    while (imageLocations[series][index] != null) {
-      if (index < imageLocations[series].length - 1) {
-        index++;
-      }
-      else {
-        break;
-      }
-    }
-    imageLocations[series][index] = currentId;
+  // -- TiffWriter API methods --
+
+  /* @see TiffWriter#saveCompressedTile(int, byte[], TileCodec, IFD, int, int) */
+  @Override
+  public void saveCompressedTile(int no, byte[] tile, TileCodec codec,
+    IFD ifd, int x, int y)
+    throws FormatException, IOException
+  {
+    super.saveCompressedTile(no, tile, codec, ifd, x, y);
+    recordImageLocation(no);
   }
 
   // -- FormatWriter API methods --
@@ -245,6 +249,19 @@ public class OMETiffWriter extends TiffWriter {
       }
       setSeries(0);
     }
+    if (isResume()) {
+      // planes written before resuming will not be saved again
+      int currentSeries = getSeries();
+      for (int i=0; i<imageLocations.length; i++) {
+        setSeries(i);
+        for (int no=0; no<imageLocations[i].length; no++) {
+          if (isPlaneWritten(no)) {
+            recordImageLocation(no);
+          }
+        }
+      }
+      setSeries(currentSeries);
+    }
   }
 
   // -- OMETiff-specific methods --
@@ -258,6 +275,20 @@ public class OMETiffWriter extends TiffWriter {
 
   // -- Helper methods --
 
+  /** Records that the given plane has been written to the current file. */
+  private void recordImageLocation(int no) {
+    int index = no;
+    while (imageLocations[series][index] != null) {
+      if (index < imageLocations[series].length - 1) {
+        index++;
+      }
+      else {
+        break;
+      }
+    }
+    imageLocations[series][index] = currentId;
+  }
+
   /** Gets the UUID corresponding to the given filename. */
   private String getUUID(String filename) {
     String uuid = uuids.get(filename);
@@ -32,28 +32,35 @@
 
 package loci.formats.out;
 
+import java.io.File;
 import java.io.IOException;
 import loci.common.RandomAccessInputStream;
 import loci.common.Region;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.FormatWriter;
+import loci.formats.ICompressedTileWriter;
 import loci.formats.ImageTools;
 import loci.formats.codec.CompressionType;
 import loci.formats.gui.AWTImageTools;
 import loci.formats.meta.MetadataRetrieve;
 import loci.formats.tiff.IFD;
+import loci.formats.tiff.PhotoInterp;
 import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffJournal;
 import loci.formats.tiff.TiffParser;
 import loci.formats.tiff.TiffRational;
 import loci.formats.tiff.TiffSaver;
+import loci.formats.tiff.TileCodec;
 import ome.units.quantity.Length;
 import ome.units.UNITS;
 
 /**
  * TiffWriter is the file format writer for TIFF files.
  */
-public class TiffWriter extends FormatWriter {
+public class TiffWriter extends FormatWriter
+  implements ICompressedTileWriter
+{
 
   // -- Constants --
 
@@ -100,6 +107,18 @@ public class TiffWriter extends FormatWriter {
   /** The tile height which will be used for writing. */
   protected int tileSizeY;
 
+  /** Number of tiles written between checkpoints; 0 disables the journal. */
+  private int checkpointInterval = 0;
+
+  /** Whether to continue writing files that have a checkpoint journal. */
+  private boolean resume = false;
+
+  /** The checkpoint journal of the current file, or null. */
+  private TiffJournal journal;
+
+  /** Number of tiles written since the last checkpoint. */
+  private int uncheckpointedTiles;
+
   /**
    * Sets the compression code for the specified IFD.
    * 
@@ -108,6 +127,14 @@ public class TiffWriter extends FormatWriter {
   private void formatCompression(IFD ifd)
     throws FormatException
   {
+    TiffCompression compressType = getCompressionType();
+    Object v = ifd.get(new Integer(IFD.COMPRESSION));
+    if (v == null)
+      ifd.put(new Integer(IFD.COMPRESSION), compressType.getCode());
+  }
+
+  /** Gets the TIFF compression scheme matching the current compression. */
+  private TiffCompression getCompressionType() {
     if (compression == null) compression = "";
     TiffCompression compressType = TiffCompression.UNCOMPRESSED;
     if (compression.equals(COMPRESSION_LZW)) {
@@ -122,9 +149,7 @@ public class TiffWriter extends FormatWriter {
     else if (compression.equals(COMPRESSION_JPEG)) {
       compressType = TiffCompression.JPEG;
     }
-    Object v = ifd.get(new Integer(IFD.COMPRESSION));
-    if (v == null)
-      ifd.put(new Integer(IFD.COMPRESSION), compressType.getCode());
+    return compressType;
   }
 
   // -- Constructors --
@@ -151,6 +176,18 @@ public class TiffWriter extends FormatWriter {
   /* @see loci.formats.FormatWriter#setId(String) */
   @Override
   public void setId(String id) throws FormatException, IOException {
+    boolean newFile = !id.equals(currentId);
+    TiffJournal resumed = null;
+    if (newFile && resume) {
+      resumed = TiffJournal.read(id);
+      if (resumed != null) {
+        resumed.restoreOutput();
+      }
+      else if (new File(id).length() > 0) {
+        throw new FormatException(id + " has no checkpoint journal; " +
+          "cannot resume");
+      }
+    }
     super.setId(id);
 
     // if a BigTIFF extension is used, or we know that
@@ -182,10 +219,16 @@ public class TiffWriter extends FormatWriter {
         }
       }
     }
+    if (resumed != null) {
+      isBigTiff = resumed.isBigTiff();
+    }
 
     synchronized (this) {
       setupTiffSaver();
     }
+    if (newFile) {
+      openJournal(resumed);
+    }
   }
 
   // -- TiffWriter API methods --
@@ -226,6 +269,7 @@ public class TiffWriter extends FormatWriter {
       ifd.put(new Integer(IFD.TILE_WIDTH), new Long(tileSizeX));
       ifd.put(new Integer(IFD.TILE_LENGTH), new Long(tileSizeY));
     }
+    resumePlane(no, ifd);
     if (tileSizeX < w || tileSizeY < h) {
       int tileNo = no;
       int numTilesX = (w + (x % tileSizeX) + tileSizeX - 1) / tileSizeX;
@@ -252,6 +296,7 @@ public class TiffWriter extends FormatWriter {
 
           tiffSaver.writeImage(tileBuf, ifd, index, type, tileParams.x, tileParams.y, tileParams.width, tileParams.height,
           no == getPlaneCount() - 1 && getSeries() == retrieve.getImageCount() - 1);
+          checkpoint(no, ifd);
         }
       }
     }
@@ -269,42 +314,195 @@ public class TiffWriter extends FormatWriter {
 
       tiffSaver.writeImage(buf, ifd, index, type, x, y, w, h,
       no == getPlaneCount() -1 && getSeries() == retrieve.getImageCount() - 1);
+      checkpoint(no, ifd);
     }
   }
 
   /**
-   * Performs the preparation for work prior to the usage of the TIFF saver.
-   * This method is factored out from <code>saveBytes()</code> in an attempt to
-   * ensure thread safety.
+   * Saves a tile that has already been compressed to the specified plane of
+   * the current series, without re-encoding it.  The IFD hashtable allows
+   * specification of additional TIFF parameters; when writing several
+   * tiles of the same plane, the same IFD should be passed each time.
+   *
+   * @see loci.formats.ICompressedTileWriter#saveCompressedTile(int, byte[],
+   *   TileCodec, int, int)
    */
-  protected int prepareToWriteImage(
-      int no, byte[] buf, IFD ifd, int x, int y, int w, int h)
-  throws IOException, FormatException {
+  public void saveCompressedTile(int no, byte[] tile, TileCodec codec,
+    IFD ifd, int x, int y)
+    throws FormatException, IOException
+  {
+    if (!canSaveCompressedTile(codec)) {
+      throw new FormatException("Tiles with " + codec +
+        " cannot be saved without re-encoding");
+    }
+    if (ifd == null) ifd = new IFD();
     MetadataRetrieve retrieve = getMetadataRetrieve();
-    boolean littleEndian = false;
-    if (retrieve.getPixelsBigEndian(series) != null) {
-      littleEndian = !retrieve.getPixelsBigEndian(series).booleanValue();
+    int type = FormatTools.pixelTypeFromString(
+        retrieve.getPixelsType(series).toString());
+    int imageWidth = retrieve.getPixelsSizeX(series).getValue().intValue();
+    int imageHeight = retrieve.getPixelsSizeY(series).getValue().intValue();
+    if (x < 0 || y < 0 || x >= imageWidth || y >= imageHeight) {
+      throw new FormatException("Tile position (" + x + ", " + y +
+        ") is outside the image");
     }
-    else if (retrieve.getPixelsBinDataCount(series) == 0) {
-      littleEndian = !retrieve.getPixelsBinDataBigEndian(series, 0).booleanValue();
+    checkTileSize(ifd, IFD.TILE_WIDTH, codec.getTileWidth());
+    checkTileSize(ifd, IFD.TILE_LENGTH, codec.getTileLength());
+    ifd.put(new Integer(IFD.TILE_WIDTH), new Long(codec.getTileWidth()));
+    ifd.put(new Integer(IFD.TILE_LENGTH), new Long(codec.getTileLength()));
+    resumePlane(no, ifd);
+
+    int index;
+    // This operation is synchronized
+    synchronized (this) {
+      // This operation is synchronized against the TIFF saver.
+      synchronized (tiffSaver) {
+        initializePlane(no);
+        index = prepareIFD(no, ifd, getSamplesPerPixel());
+      }
     }
 
-    // Ensure that no more than one thread manipulated the initialized array
-    // at one time.
-    synchronized (this) {
-      if (no < initialized[series].length && !initialized[series][no]) {
-        initialized[series][no] = true;
+    tiffSaver.writeCompressedTile(tile, ifd, codec, index, type, x, y,
+      no == getPlaneCount() - 1 && getSeries() == retrieve.getImageCount() - 1);
+    checkpoint(no, ifd);
+  }
 
-        RandomAccessInputStream tmp = createInputStream();
-        if (tmp.length() == 0) {
-          synchronized (this) {
-            // write TIFF header
-            tiffSaver.writeHeader();
-          }
-        }
-        tmp.close();
+  /**
+   * Sets the number of tiles (or untiled planes) written between
+   * checkpoints.  If greater than 0, a {@link TiffJournal} is kept next to
+   * each output file, so that writing can be resumed with
+   * {@link #setResume(boolean)} if it is interrupted.  The journal is
+   * deleted once every plane has been written.  Journals require planes to
+   * be written sequentially, one tile row after another.
+   *
+   * This must be called before setId.
+   */
+  public void setCheckpointInterval(int tiles) {
+    checkpointInterval = tiles;
+  }
+
+  public int getCheckpointInterval() {
+    return checkpointInterval;
+  }
+
+  /**
+   * Sets whether files that have a checkpoint journal are resumed.  If set,
+   * setId truncates an existing output file to its last checkpoint and
+   * {@link #isPlaneWritten(int)} and {@link #isTileWritten(int, int, int)}
+   * report what has already been written, so that it can be skipped.  An
+   * existing output file without a journal cannot be resumed.
+   *
+   * This must be called before setId.
+   */
+  public void setResume(boolean resume) {
+    this.resume = resume;
+  }
+
+  public boolean isResume() {
+    return resume;
+  }
+
+  /**
+   * Gets whether the given plane of the current series has been written
+   * completely, according to the checkpoint journal.
+   */
+  public boolean isPlaneWritten(int no) {
+    if (journal == null) {
+      return false;
+    }
+    int split = getPlaneCount() / super.getPlaneCount(series);
+    for (int i=0; i<split; i++) {
+      if (!journal.isPlaneComplete(series, no * split + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets whether the tile containing the given pixel of the given plane of
+   * the current series has been written, according to the checkpoint
+   * journal.
+   */
+  public boolean isTileWritten(int no, int x, int y) {
+    if (journal == null) {
+      return false;
+    }
+    int split = getPlaneCount() / super.getPlaneCount(series);
+    for (int i=0; i<split; i++) {
+      if (!journal.isTileWritten(series, no * split + i, x, y)) {
+        return false;
       }
     }
+    return true;
+  }
+
+  /**
+   * Gets the codec with which tiles of the given size are compressed in the
+   * current series.  Tiles compressed with
+   * {@link #compressTile(byte[], TileCodec, int, int)} can then be written
+   * in order with {@link #saveCompressedTile(int, byte[], TileCodec, IFD,
+   * int, int)}, so that several tiles can be compressed at once.
+   *
+   * @return the codec, or null if tiles cannot be compressed separately
+   *   (e.g. because channels are split or a color model is set)
+   */
+  public TileCodec getTileCodec(int tileWidth, int tileHeight)
+    throws FormatException
+  {
+    if (cm != null) {
+      return null;
+    }
+    MetadataRetrieve retrieve = getMetadataRetrieve();
+    int type = FormatTools.pixelTypeFromString(
+        retrieve.getPixelsType(series).toString());
+    int imageWidth = retrieve.getPixelsSizeX(series).getValue().intValue();
+    int imageHeight = retrieve.getPixelsSizeY(series).getValue().intValue();
+
+    IFD ifd = new IFD();
+    ifd.put(new Integer(IFD.IMAGE_WIDTH), new Long(imageWidth));
+    ifd.put(new Integer(IFD.IMAGE_LENGTH), new Long(imageHeight));
+    ifd.put(new Integer(IFD.TILE_WIDTH), new Long(tileWidth));
+    ifd.put(new Integer(IFD.TILE_LENGTH), new Long(tileHeight));
+    ifd.put(new Integer(IFD.LITTLE_ENDIAN),
+      new Boolean(isSeriesLittleEndian()));
+    ifd.putIFDValue(IFD.PLANAR_CONFIGURATION,
+      interleaved || getSamplesPerPixel() == 1 ? 1 : 2);
+    ifd.putIFDValue(IFD.SAMPLE_FORMAT, getSampleFormat(type));
+    formatCompression(ifd);
+
+    TileCodec codec = tiffSaver.getTileCodec(ifd, type, getSamplesPerPixel());
+    return canSaveCompressedTile(codec) ? codec : null;
+  }
+
+  /**
+   * Compresses a tile of the current series without writing it.  This may
+   * be called from several threads at once.
+   *
+   * @param buf the pixels of the tile
+   * @param codec the codec returned by {@link #getTileCodec(int, int)}
+   * @param w the width of the tile, which may be smaller than the codec's
+   *   tile width along the right edge of the image
+   * @param h the height of the tile, which may be smaller than the codec's
+   *   tile length along the bottom edge of the image
+   * @see loci.formats.tiff.TiffSaver#compressTile(byte[], TileCodec, int,
+   *   int)
+   */
+  public byte[] compressTile(byte[] buf, TileCodec codec, int w, int h)
+    throws FormatException, IOException
+  {
+    return tiffSaver.compressTile(buf, codec, w, h);
+  }
+
+  /**
+   * Performs the preparation for work prior to the usage of the TIFF saver.
+   * This method is factored out from <code>saveBytes()</code> in an attempt to
+   * ensure thread safety.
+   */
+  protected int prepareToWriteImage(
+      int no, byte[] buf, IFD ifd, int x, int y, int w, int h)
+  throws IOException, FormatException {
+    MetadataRetrieve retrieve = getMetadataRetrieve();
+    initializePlane(no);
 
     int c = getSamplesPerPixel();
     int type = FormatTools.pixelTypeFromString(
@@ -334,6 +532,45 @@ public class TiffWriter extends FormatWriter {
       return -1;
     }
 
+    return prepareIFD(no, ifd, c);
+  }
+
+  /**
+   * Writes the TIFF header if the given plane is the first to be written
+   * to an empty file.
+   */
+  private void initializePlane(int no) throws IOException {
+    // Ensure that no more than one thread manipulated the initialized array
+    // at one time.
+    synchronized (this) {
+      if (no < initialized[series].length && !initialized[series][no]) {
+        initialized[series][no] = true;
+
+        RandomAccessInputStream tmp = createInputStream();
+        if (tmp.length() == 0) {
+          synchronized (this) {
+            // write TIFF header
+            tiffSaver.writeHeader();
+          }
+        }
+        tmp.close();
+      }
+    }
+  }
+
+  /**
+   * Fills in the IFD of the given plane and positions the output stream,
+   * returning the index of the IFD within the file.
+   */
+  private int prepareIFD(int no, IFD ifd, int c)
+    throws IOException, FormatException
+  {
+    MetadataRetrieve retrieve = getMetadataRetrieve();
+    boolean littleEndian = isSeriesLittleEndian();
+    int type = FormatTools.pixelTypeFromString(
+      retrieve.getPixelsType(series).toString());
+    int bytesPerPixel = FormatTools.getBytesPerPixel(type);
+
     formatCompression(ifd);
     byte[][] lut = AWTImageTools.get8BitLookupTable(cm);
     if (lut != null) {
@@ -404,10 +641,7 @@ public class TiffWriter extends FormatWriter {
     ifd.putIFDValue(IFD.PLANAR_CONFIGURATION,
       interleaved || getSamplesPerPixel() == 1 ? 1 : 2);
 
-    int sampleFormat = 1;
-    if (FormatTools.isSigned(type)) sampleFormat = 2;
-    if (FormatTools.isFloatingPoint(type)) sampleFormat = 3;
-    ifd.putIFDValue(IFD.SAMPLE_FORMAT, sampleFormat);
+    ifd.putIFDValue(IFD.SAMPLE_FORMAT, getSampleFormat(type));
 
     int channels = retrieve.getPixelsSizeC(series).getValue().intValue();
     int z = retrieve.getPixelsSizeZ(series).getValue().intValue();
@@ -437,6 +671,16 @@ public class TiffWriter extends FormatWriter {
     if (tiffSaver != null) {
       tiffSaver.close();
     }
+    if (journal != null) {
+      if (journal.isComplete()) {
+        journal.delete();
+      }
+      else {
+        // record everything written so far, so that writing can resume
+        journal.write();
+      }
+      journal = null;
+    }
   }
 
   /* @see loci.formats.FormatWriter#getPlaneCount() */
@@ -490,6 +734,79 @@ public class TiffWriter extends FormatWriter {
     }
   }
 
+  // -- ICompressedTileWriter API methods --
+
+  /* @see loci.formats.ICompressedTileWriter#canSaveCompressedTile(TileCodec) */
+  @Override
+  public boolean canSaveCompressedTile(TileCodec codec)
+    throws FormatException
+  {
+    if (codec == null || !codec.isTiled()) {
+      return false;
+    }
+    MetadataRetrieve retrieve = getMetadataRetrieve();
+    int type = FormatTools.pixelTypeFromString(
+      retrieve.getPixelsType(series).toString());
+    int bytesPerPixel = FormatTools.getBytesPerPixel(type);
+    int c = getSamplesPerPixel();
+
+    // channels that would be split into separate planes cannot be copied
+    if (bytesPerPixel > 1 && c != 1 && c != 3) {
+      return false;
+    }
+    if (codec.getSamplesPerPixel() != c ||
+      (c > 1 && (!interleaved || codec.getPlanarConfiguration() != 1)))
+    {
+      return false;
+    }
+    for (int bits : codec.getBitsPerSample()) {
+      if (bits != bytesPerPixel * 8) {
+        return false;
+      }
+    }
+    if (codec.getSampleFormat() != getSampleFormat(type)) {
+      return false;
+    }
+    if (bytesPerPixel > 1 && codec.isLittleEndian() != isSeriesLittleEndian()) {
+      return false;
+    }
+    if (codec.getPhotometricInterpretation() == PhotoInterp.RGB_PALETTE) {
+      return false;
+    }
+    return codec.getCompression() == getCompressionType();
+  }
+
+  /**
+   * @see loci.formats.ICompressedTileWriter#saveCompressedTile(int, byte[],
+   *   TileCodec, int, int)
+   */
+  @Override
+  public void saveCompressedTile(int no, byte[] tile, TileCodec codec,
+    int x, int y)
+    throws FormatException, IOException
+  {
+    IFD ifd = new IFD();
+    if (!sequential) {
+      TiffParser parser = new TiffParser(currentId);
+      try {
+        long[] ifdOffsets = parser.getIFDOffsets();
+        if (no < ifdOffsets.length) {
+          ifd = parser.getIFD(ifdOffsets[no]);
+        }
+        saveCompressedTile(no, tile, codec, ifd, x, y);
+      }
+      finally {
+        RandomAccessInputStream tiffParserStream = parser.getStream();
+        if (tiffParserStream != null) {
+          tiffParserStream.close();
+        }
+      }
+    }
+    else {
+      saveCompressedTile(no, tile, codec, ifd, x, y);
+    }
+  }
+
   /* @see loci.formats.IFormatWriter#canDoStacks(String) */
   @Override
   public boolean canDoStacks() { return true; }
@@ -524,19 +841,85 @@ public class TiffWriter extends FormatWriter {
 
   // -- Helper methods --
 
+  /**
+   * Gets whether the current file has a checkpoint journal and is not yet
+   * complete, in which case writing can be resumed later.
+   */
+  protected boolean isResumable() {
+    return journal != null && !journal.isComplete();
+  }
+
+  /**
+   * Sets up the checkpoint journal of a newly opened file.
+   *
+   * @param resumed the journal read from disk, or null if the file is new
+   */
+  private void openJournal(TiffJournal resumed) throws FormatException {
+    journal = null;
+    uncheckpointedTiles = 0;
+    int[] planeCounts = new int[getMetadataRetrieve().getImageCount()];
+    for (int i=0; i<planeCounts.length; i++) {
+      planeCounts[i] = getPlaneCount(i);
+    }
+    if (resumed != null) {
+      resumed.checkPlaneCounts(planeCounts);
+      for (int s=0; s<planeCounts.length; s++) {
+        for (int p=0; p<planeCounts[s]; p++) {
+          if (resumed.isPlaneStarted(s, p)) {
+            initialized[s][p] = true;
+          }
+        }
+      }
+      journal = resumed;
+      LOGGER.info("Resuming {} from its last checkpoint", currentId);
+    }
+    else if (checkpointInterval > 0) {
+      journal = new TiffJournal(currentId, isBigTiff, planeCounts);
+    }
+  }
+
+  /**
+   * Restores the IFD of the given plane if it was partially written before
+   * the file was resumed.
+   */
+  private void resumePlane(int no, IFD ifd) throws FormatException {
+    if (journal != null) {
+      synchronized (tiffSaver) {
+        journal.resumePlane(series, no, ifd, tiffSaver);
+      }
+    }
+  }
+
+  /**
+   * Records the given plane in the checkpoint journal, and writes the
+   * journal if enough tiles have been written since the last checkpoint.
+   */
+  private void checkpoint(int no, IFD ifd)
+    throws FormatException, IOException
+  {
+    if (journal == null) {
+      return;
+    }
+    synchronized (tiffSaver) {
+      journal.update(series, no, ifd, out.length());
+      uncheckpointedTiles++;
+      if (checkpointInterval > 0 &&
+        uncheckpointedTiles >= checkpointInterval)
+      {
+        // buffered data must reach the file before the journal syncs it
+        out.flush();
+        journal.write();
+        uncheckpointedTiles = 0;
+      }
+    }
+  }
+
   protected void setupTiffSaver() throws IOException {
     out.close();
     out = createOutputStream();
     tiffSaver = createTiffSaver();
 
-    MetadataRetrieve retrieve = getMetadataRetrieve();
-    boolean littleEndian = false;
-    if (retrieve.getPixelsBigEndian(series) != null) {
-      littleEndian = !retrieve.getPixelsBigEndian(series).booleanValue();
-    }
-    else if (retrieve.getPixelsBinDataCount(series) == 0) {
-      littleEndian = !retrieve.getPixelsBinDataBigEndian(series, 0).booleanValue();
-    }
+    boolean littleEndian = isSeriesLittleEndian();
 
     tiffSaver.setWritingSequentially(sequential);
     tiffSaver.setLittleEndian(littleEndian);
@@ -611,6 +994,44 @@ public class TiffWriter extends FormatWriter {
     return returnBuf;
   }
   
+  /**
+   * Returns true if the pixels of the current series are stored
+   * little-endian.
+   */
+  private boolean isSeriesLittleEndian() {
+    MetadataRetrieve retrieve = getMetadataRetrieve();
+    boolean littleEndian = false;
+    if (retrieve.getPixelsBigEndian(series) != null) {
+      littleEndian = !retrieve.getPixelsBigEndian(series).booleanValue();
+    }
+    else if (retrieve.getPixelsBinDataCount(series) == 0) {
+      littleEndian = !retrieve.getPixelsBinDataBigEndian(series, 0).booleanValue();
+    }
+    return littleEndian;
+  }
+
+  /** Gets the TIFF SampleFormat value for the given pixel type. */
+  private static int getSampleFormat(int type) {
+    int sampleFormat = 1;
+    if (FormatTools.isSigned(type)) sampleFormat = 2;
+    if (FormatTools.isFloatingPoint(type)) sampleFormat = 3;
+    return sampleFormat;
+  }
+
+  /**
+   * Throws an exception if the IFD already defines a tile size which is
+   * different from the given one.
+   */
+  private static void checkTileSize(IFD ifd, int tag, long size)
+    throws FormatException
+  {
+    Object value = ifd.get(tag);
+    if (value instanceof Number && ((Number) value).longValue() != size) {
+      throw new FormatException(IFD.getIFDTagName(tag) + " is " + value +
+        "; compressed tiles require " + size);
+    }
+  }
+
   protected RandomAccessInputStream createInputStream() throws IOException {
     return new RandomAccessInputStream(currentId);
   }
@@ -33,9 +33,16 @@
 package loci.formats.tiff;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.lang.reflect.Array;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import loci.common.DebugTools;
 import loci.formats.FormatException;
@@ -47,17 +54,41 @@ import org.slf4j.LoggerFactory;
 /**
  * Data structure for working with TIFF Image File Directories (IFDs).
  *
+ * Entries are stored in arrays sorted by tag, rather than in a hash table;
+ * integer, long, short and boolean values are kept as primitives and only
+ * boxed when retrieved through the {@link Map} interface. This keeps the
+ * footprint of files with many thousands of IFDs small.
+ *
+ * An IFD is a {@code Map<Integer, Object>} with the put, get and remove
+ * semantics of a {@code HashMap}: values are stored by reference, so arrays
+ * obtained from it can be modified in place, and keys that are not tags are
+ * never found. Unlike a {@code HashMap}, it does not accept null tags and
+ * iterates in ascending tag order.
+ *
  * @author Curtis Rueden ctrueden at wisc.edu
  * @author Eric Kjellman egkjellman at wisc.edu
  * @author Melissa Linkert melissa at glencoesoftware.com
  * @author Chris Allan callan at blackcat.ca
  */
-public class IFD extends HashMap<Integer, Object> {
+public class IFD extends AbstractMap<Integer, Object>
+  implements Cloneable, Serializable
+{
 
   // -- Constants --
 
   private static final Logger LOGGER = LoggerFactory.getLogger(IFD.class);
 
+  private static final long serialVersionUID = 1L;
+
+  /** Storage kinds for entry values. */
+  private static final byte OBJECT = 0;
+  private static final byte INTEGER = 1;
+  private static final byte LONG = 2;
+  private static final byte SHORT = 3;
+  private static final byte BOOLEAN = 4;
+
+  private static final int DEFAULT_CAPACITY = 16;
+
   // non-IFD tags (for internal use)
   public static final int LITTLE_ENDIAN = 0;
   public static final int BIG_TIFF = 1;
@@ -197,31 +228,73 @@ public class IFD extends HashMap<Integer, Object> {
   public static final int SHARPNESS = 41994;
   public static final int SUBJECT_DISTANCE_RANGE = 41996;
 
+  // -- Fields --
+
+  /** Sorted tags of the entries in this IFD. */
+  private int[] tags;
+
+  /** Values of non-primitive entries, parallel to {@link #tags}. */
+  private Object[] objects;
+
+  /** Values of primitive entries, parallel to {@link #tags}. */
+  private long[] primitives;
+
+  /** Storage kind of each entry, parallel to {@link #tags}. */
+  private byte[] kinds;
+
+  /** Number of entries in this IFD. */
+  private int size;
+
+  private transient int modCount;
+
+  private transient Set<Map.Entry<Integer, Object>> entrySet;
+
   // -- Constructors --
 
   public IFD() {
-    super();
+    this(DEFAULT_CAPACITY);
+  }
+
+  /** Constructs an empty IFD with room for the given number of entries. */
+  public IFD(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException(
+        "Illegal capacity: " + initialCapacity);
+    }
+    tags = new int[initialCapacity];
+    objects = new Object[initialCapacity];
+    primitives = new long[initialCapacity];
+    kinds = new byte[initialCapacity];
   }
 
   public IFD(IFD ifd) {
-    super(ifd);
+    tags = Arrays.copyOf(ifd.tags, ifd.size);
+    objects = Arrays.copyOf(ifd.objects, ifd.size);
+    primitives = Arrays.copyOf(ifd.primitives, ifd.size);
+    kinds = Arrays.copyOf(ifd.kinds, ifd.size);
+    size = ifd.size;
   }
 
   // -- Tag retrieval methods --
 
   /** Gets whether this is a BigTIFF IFD. */
   public boolean isBigTiff() throws FormatException {
+    int index = indexOf(BIG_TIFF);
+    if (index >= 0 && kinds[index] == BOOLEAN) return primitives[index] != 0;
     return ((Boolean) getIFDValue(BIG_TIFF, Boolean.class)).booleanValue();
   }
 
   /** Gets whether the TIFF information in this IFD is little-endian. */
   public boolean isLittleEndian() throws FormatException {
+    int index = indexOf(LITTLE_ENDIAN);
+    if (index >= 0 && kinds[index] == BOOLEAN) return primitives[index] != 0;
     return ((Boolean) getIFDValue(LITTLE_ENDIAN, Boolean.class)).booleanValue();
   }
 
   /** Gets the given directory entry value from this IFD. */
   public Object getIFDValue(int tag) {
-    return get(new Integer(tag));
+    int index = indexOf(tag);
+    return index < 0 ? null : valueAt(index);
   }
 
   /**
@@ -229,7 +302,7 @@ public class IFD extends HashMap<Integer, Object> {
    * performing some error checking.
    */
   public Object getIFDValue(int tag, Class checkClass) throws FormatException {
-    Object value = get(new Integer(tag));
+    Object value = getIFDValue(tag);
     if (checkClass != null && value != null && !checkClass.isInstance(value)) {
       // wrap object in array of length 1, if appropriate
       Class cType = checkClass.getComponentType();
@@ -302,6 +375,10 @@ public class IFD extends HashMap<Integer, Object> {
    */
   public long getIFDLongValue(int tag, long defaultValue) throws FormatException
   {
+    int index = indexOf(tag);
+    if (index >= 0 && kinds[index] != OBJECT && kinds[index] != BOOLEAN) {
+      return primitives[index];
+    }
     long value = defaultValue;
     Number number = (Number) getIFDValue(tag, Number.class);
     if (number != null) value = number.longValue();
@@ -326,6 +403,10 @@ public class IFD extends HashMap<Integer, Object> {
    * performing some error checking.
    */
   public int getIFDIntValue(int tag, int defaultValue) throws FormatException {
+    int index = indexOf(tag);
+    if (index >= 0 && kinds[index] != OBJECT && kinds[index] != BOOLEAN) {
+      return (int) primitives[index];
+    }
     int value = defaultValue;
     Number number = (Number) getIFDValue(tag, Number.class);
     if (number != null) value = number.intValue();
@@ -523,8 +604,8 @@ public class IFD extends HashMap<Integer, Object> {
   }
 
   public boolean isTiled() throws FormatException {
-    Object offsets = get(new Integer(STRIP_OFFSETS));
-    Object tileWidth = get(new Integer(TILE_WIDTH));
+    Object offsets = getIFDValue(STRIP_OFFSETS);
+    Object tileWidth = getIFDValue(TILE_WIDTH);
     return offsets == null && tileWidth != null;
   }
 
@@ -934,22 +1015,105 @@ public class IFD extends HashMap<Integer, Object> {
 
   /** Adds a directory entry to this IFD. */
   public void putIFDValue(int tag, Object value) {
-    put(new Integer(tag), value);
+    store(tag, value);
   }
 
   /** Adds a directory entry of type BYTE to this IFD. */
   public void putIFDValue(int tag, short value) {
-    putIFDValue(tag, new Short(value));
+    store(tag, SHORT, value, null);
   }
 
   /** Adds a directory entry of type SHORT to this IFD. */
   public void putIFDValue(int tag, int value) {
-    putIFDValue(tag, new Integer(value));
+    store(tag, INTEGER, value, null);
   }
 
   /** Adds a directory entry of type LONG to this IFD. */
   public void putIFDValue(int tag, long value) {
-    putIFDValue(tag, new Long(value));
+    store(tag, LONG, value, null);
+  }
+
+  /** Adds a boolean entry (e.g. {@link #LITTLE_ENDIAN}) to this IFD. */
+  public void putIFDValue(int tag, boolean value) {
+    store(tag, BOOLEAN, value ? 1 : 0, null);
+  }
+
+  /** Releases any spare capacity held by this IFD. */
+  public void trimToSize() {
+    if (tags.length > size) {
+      tags = Arrays.copyOf(tags, size);
+      objects = Arrays.copyOf(objects, size);
+      primitives = Arrays.copyOf(primitives, size);
+      kinds = Arrays.copyOf(kinds, size);
+    }
+  }
+
+  // -- Map API methods --
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof Integer && indexOf((Integer) key) >= 0;
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (!(key instanceof Integer)) return null;
+    return getIFDValue((Integer) key);
+  }
+
+  @Override
+  public Object put(Integer key, Object value) {
+    if (key == null) throw new NullPointerException("IFD tags cannot be null");
+    return store(key, value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    if (!(key instanceof Integer)) return null;
+    int index = indexOf((Integer) key);
+    if (index < 0) return null;
+    Object old = valueAt(index);
+    removeAt(index);
+    return old;
+  }
+
+  @Override
+  public void putAll(Map<? extends Integer, ? extends Object> map) {
+    if (map instanceof IFD) {
+      IFD ifd = (IFD) map;
+      for (int i=0; i<ifd.size; i++) {
+        store(ifd.tags[i], ifd.kinds[i], ifd.primitives[i], ifd.objects[i]);
+      }
+    }
+    else super.putAll(map);
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(objects, 0, size, null);
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public Set<Map.Entry<Integer, Object>> entrySet() {
+    if (entrySet == null) entrySet = new EntrySet();
+    return entrySet;
+  }
+
+  @Override
+  public Object clone() {
+    return new IFD(this);
   }
 
   // -- Debugging --
@@ -996,4 +1160,178 @@ public class IFD extends HashMap<Integer, Object> {
     return DebugTools.getFieldName(IFD.class, value);
   }
 
+  // -- Helper methods --
+
+  /** Returns the index of the given tag, or a negative insertion point. */
+  private int indexOf(int tag) {
+    return Arrays.binarySearch(tags, 0, size, tag);
+  }
+
+  /** Returns the value at the given index, boxing primitives as needed. */
+  private Object valueAt(int index) {
+    long v = primitives[index];
+    switch (kinds[index]) {
+      case INTEGER: return Integer.valueOf((int) v);
+      case LONG: return Long.valueOf(v);
+      case SHORT: return Short.valueOf((short) v);
+      case BOOLEAN: return Boolean.valueOf(v != 0);
+      default: return objects[index];
+    }
+  }
+
+  /** Stores the given value, unboxing it if it has a primitive kind. */
+  private Object store(int tag, Object value) {
+    if (value instanceof Integer) {
+      return store(tag, INTEGER, ((Integer) value).intValue(), null);
+    }
+    if (value instanceof Long) {
+      return store(tag, LONG, ((Long) value).longValue(), null);
+    }
+    if (value instanceof Short) {
+      return store(tag, SHORT, ((Short) value).shortValue(), null);
+    }
+    if (value instanceof Boolean) {
+      return store(tag, BOOLEAN, ((Boolean) value) ? 1 : 0, null);
+    }
+    return store(tag, OBJECT, 0, value);
+  }
+
+  private Object store(int tag, byte kind, long primitive, Object object) {
+    int index = indexOf(tag);
+    Object old = null;
+    if (index >= 0) {
+      old = valueAt(index);
+    }
+    else {
+      index = -index - 1;
+      if (size == tags.length) {
+        int capacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+        tags = Arrays.copyOf(tags, capacity);
+        objects = Arrays.copyOf(objects, capacity);
+        primitives = Arrays.copyOf(primitives, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+      }
+      int tail = size - index;
+      System.arraycopy(tags, index, tags, index + 1, tail);
+      System.arraycopy(objects, index, objects, index + 1, tail);
+      System.arraycopy(primitives, index, primitives, index + 1, tail);
+      System.arraycopy(kinds, index, kinds, index + 1, tail);
+      tags[index] = tag;
+      size++;
+      modCount++;
+    }
+    kinds[index] = kind;
+    primitives[index] = primitive;
+    objects[index] = object;
+    return old;
+  }
+
+  private void removeAt(int index) {
+    int tail = size - index - 1;
+    System.arraycopy(tags, index + 1, tags, index, tail);
+    System.arraycopy(objects, index + 1, objects, index, tail);
+    System.arraycopy(primitives, index + 1, primitives, index, tail);
+    System.arraycopy(kinds, index + 1, kinds, index, tail);
+    size--;
+    objects[size] = null;
+    modCount++;
+  }
+
+  // -- Helper classes --
+
+  /** View of the entries of this IFD, in ascending tag order. */
+  private class EntrySet extends AbstractSet<Map.Entry<Integer, Object>> {
+    @Override
+    public Iterator<Map.Entry<Integer, Object>> iterator() {
+      return new EntryIterator();
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      IFD.this.clear();
+    }
+  }
+
+  private class EntryIterator implements Iterator<Map.Entry<Integer, Object>> {
+    private int next;
+    private int last = -1;
+    private int expectedModCount = modCount;
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public Map.Entry<Integer, Object> next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (next >= size) throw new NoSuchElementException();
+      last = next++;
+      return new Entry(tags[last]);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) throw new IllegalStateException();
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+      expectedModCount = modCount;
+    }
+  }
+
+  /** Entry that reads and writes through to the owning IFD. */
+  private class Entry implements Map.Entry<Integer, Object> {
+    private final int tag;
+
+    Entry(int tag) {
+      this.tag = tag;
+    }
+
+    @Override
+    public Integer getKey() {
+      return tag;
+    }
+
+    @Override
+    public Object getValue() {
+      return getIFDValue(tag);
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      return store(tag, value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) return false;
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      Object value = getValue();
+      return getKey().equals(e.getKey()) &&
+        (value == null ? e.getValue() == null : value.equals(e.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      Object value = getValue();
+      return tag ^ (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return tag + "=" + getValue();
+    }
+  }
+
 }
@@ -32,11 +32,262 @@
 
 package loci.formats.tiff;
 
+import java.io.IOException;
+import java.io.ObjectStreamException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
 
 /**
  * Data structure for working with a list of TIFF {@link IFD}s.
  *
+ * A list obtained from {@link TiffParser#getLazyIFDs()} knows the offset of
+ * every IFD in the chain, and parses (and fills in) each IFD only when it
+ * is first retrieved with {@link #get(int)}. Iterating over such a list,
+ * searching it, or modifying its structure first parses all remaining IFDs
+ * (see {@link #load()}). The bulk operations added to {@link List} in Java 8
+ * (forEach, removeIf, replaceAll, sort and spliterator) see IFDs that have
+ * not been parsed yet as null, so {@link #load()} should be called first.
+ *
  * @author Curtis Rueden ctrueden at wisc.edu
  */
-public class IFDList extends ArrayList<IFD> { }
+public class IFDList extends ArrayList<IFD> {
+
+  // -- Constants --
+
+  private static final long serialVersionUID = 1L;
+
+  // -- Fields --
+
+  /** Parser used to read IFDs on demand, or null if this list is eager. */
+  private transient TiffParser parser;
+
+  /** Offsets of the IFDs in this list, or null if this list is eager. */
+  private long[] offsets;
+
+  // -- Constructors --
+
+  public IFDList() {
+  }
+
+  /** Constructs a lazy list of the IFDs at the given offsets. */
+  IFDList(TiffParser parser, long[] offsets) {
+    super(Collections.<IFD>nCopies(offsets.length, null));
+    this.parser = parser;
+    this.offsets = offsets.clone();
+  }
+
+  // -- IFDList API methods --
+
+  /** Gets whether IFDs in this list are parsed on demand. */
+  public boolean isLazy() {
+    return offsets != null;
+  }
+
+  /** Gets whether the IFD at the given index has already been parsed. */
+  public boolean isParsed(int index) {
+    return !isLazy() || super.get(index) != null;
+  }
+
+  /**
+   * Sets the parser used to read IFDs on demand, e.g. after the
+   * underlying file has been reopened.
+   */
+  public void setTiffParser(TiffParser parser) {
+    if (isLazy()) this.parser = parser;
+  }
+
+  /**
+   * Gets the file offsets of the IFDs in this list, for lists obtained
+   * from {@link TiffParser#getLazyIFDs()}; returns null otherwise.
+   */
+  public long[] getOffsets() {
+    return offsets == null ? null : offsets.clone();
+  }
+
+  /** Parses all remaining IFDs and turns this into an eager list. */
+  public void load() {
+    if (!isLazy()) return;
+    for (int i=0; i<size(); i++) {
+      get(i);
+    }
+    parser = null;
+    offsets = null;
+  }
+
+  // -- List API methods --
+
+  @Override
+  public IFD get(int index) {
+    IFD ifd = super.get(index);
+    if (ifd == null && isLazy()) {
+      if (parser == null) {
+        throw new IllegalStateException("No parser for IFD #" + index);
+      }
+      try {
+        ifd = parser.getIFD(offsets[index]);
+        if (ifd == null) {
+          throw new IOException("Invalid IFD offset " + offsets[index]);
+        }
+        parser.fillInIFD(ifd);
+      }
+      catch (IOException e) {
+        throw new IllegalStateException("Could not read IFD #" + index, e);
+      }
+      super.set(index, ifd);
+    }
+    return ifd;
+  }
+
+  @Override
+  public IFD set(int index, IFD ifd) {
+    IFD old = isParsed(index) ? get(index) : null;
+    super.set(index, ifd);
+    return old;
+  }
+
+  @Override
+  public Iterator<IFD> iterator() {
+    load();
+    return super.iterator();
+  }
+
+  @Override
+  public ListIterator<IFD> listIterator() {
+    load();
+    return super.listIterator();
+  }
+
+  @Override
+  public ListIterator<IFD> listIterator(int index) {
+    load();
+    return super.listIterator(index);
+  }
+
+  @Override
+  public List<IFD> subList(int fromIndex, int toIndex) {
+    load();
+    return super.subList(fromIndex, toIndex);
+  }
+
+  @Override
+  public Object[] toArray() {
+    load();
+    return super.toArray();
+  }
+
+  @Override
+  public <T> T[] toArray(T[] a) {
+    load();
+    return super.toArray(a);
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    load();
+    return super.contains(o);
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    load();
+    return super.indexOf(o);
+  }
+
+  @Override
+  public int lastIndexOf(Object o) {
+    load();
+    return super.lastIndexOf(o);
+  }
+
+  @Override
+  public boolean add(IFD ifd) {
+    load();
+    return super.add(ifd);
+  }
+
+  @Override
+  public void add(int index, IFD ifd) {
+    load();
+    super.add(index, ifd);
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends IFD> c) {
+    load();
+    return super.addAll(c);
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<? extends IFD> c) {
+    load();
+    return super.addAll(index, c);
+  }
+
+  @Override
+  public IFD remove(int index) {
+    load();
+    return super.remove(index);
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    load();
+    return super.remove(o);
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    load();
+    return super.removeAll(c);
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    load();
+    return super.retainAll(c);
+  }
+
+  @Override
+  protected void removeRange(int fromIndex, int toIndex) {
+    load();
+    super.removeRange(fromIndex, toIndex);
+  }
+
+  @Override
+  public void clear() {
+    parser = null;
+    offsets = null;
+    super.clear();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    load();
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    load();
+    return super.hashCode();
+  }
+
+  @Override
+  public Object clone() {
+    load();
+    return super.clone();
+  }
+
+  // -- Helper methods --
+
+  /** Serializes lazy lists as a plain list of parsed IFDs. */
+  private Object writeReplace() throws ObjectStreamException {
+    load();
+    return this;
+  }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tiff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import loci.common.Location;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent index of the IFD offsets of a TIFF file, along with the
+ * position and length of each strip/tile offset and byte count array seen
+ * so far. The array values themselves are not stored; indexed arrays are
+ * read on demand from the TIFF file instead of being read while the IFD is
+ * parsed. An index is stored in a small binary file under the directory set
+ * by {@link #setDirectory(File)}, using the same layout as
+ * {@link loci.formats.Memoizer} memo files, and is only used while the TIFF
+ * file's length and modification time match.
+ *
+ * Indexing is disabled until a directory is set; {@link loci.formats.Memoizer}
+ * sets its memo directory if no other directory has been set.
+ */
+public class IFDOffsetIndex {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(IFDOffsetIndex.class);
+
+  /** File format version; bumping this number invalidates existing indexes. */
+  public static final int VERSION = 2;
+
+  private static final int MAGIC = 0x42464958; // "BFIX"
+
+  private static final String SUFFIX = ".bfindex";
+
+  // -- Static fields --
+
+  private static volatile File directory;
+
+  // -- Fields --
+
+  private final File indexFile;
+
+  private final long length;
+
+  private final long lastModified;
+
+  private long[] ifdOffsets;
+
+  /** Lengths of offset and byte count arrays, keyed by their position. */
+  private final Map<Long, Integer> counts = new HashMap<Long, Integer>();
+
+  private boolean modified;
+
+  // -- Constructors --
+
+  private IFDOffsetIndex(File indexFile, long length, long lastModified) {
+    this.indexFile = indexFile;
+    this.length = length;
+    this.lastModified = lastModified;
+  }
+
+  // -- Static methods --
+
+  /**
+   * Sets the directory under which index files are stored, typically the
+   * directory used for memo files; null disables indexing.
+   */
+  public static synchronized void setDirectory(File dir) {
+    directory = dir;
+  }
+
+  /**
+   * Sets the directory under which index files are stored, unless a
+   * directory has already been set.
+   */
+  public static synchronized void setDefaultDirectory(File dir) {
+    if (directory == null) {
+      directory = dir;
+    }
+  }
+
+  /** Gets the directory under which index files are stored. */
+  public static File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Gets the index file that corresponds to the given TIFF file,
+   * or null if indexing is disabled.
+   */
+  public static File getIndexFile(String id) {
+    File dir = directory;
+    if (dir == null) return null;
+    String path = new File(id).getAbsolutePath();
+    // strip the root (or drive letter), as Memoizer does
+    path = path.substring(path.indexOf(File.separator) + 1);
+    File f = new File(dir, path);
+    return new File(f.getParent(), "." + f.getName() + SUFFIX);
+  }
+
+  /**
+   * Opens the index for the given TIFF file. The returned index is empty if
+   * no up-to-date index was found. Returns null if indexing is disabled or
+   * the file is not a regular file (e.g. an in-memory mapped file).
+   */
+  public static IFDOffsetIndex open(String id) {
+    if (directory == null || !Location.getMappedId(id).equals(id)) {
+      return null;
+    }
+    File file = new File(new Location(id).getAbsolutePath());
+    File indexFile = getIndexFile(file.getPath());
+    if (!file.isFile() || indexFile == null) return null;
+
+    IFDOffsetIndex index =
+      new IFDOffsetIndex(indexFile, file.length(), file.lastModified());
+    if (indexFile.exists()) {
+      try {
+        index.read();
+      }
+      catch (IOException e) {
+        LOGGER.debug("Could not read IFD index {}", indexFile, e);
+        index.ifdOffsets = null;
+        index.counts.clear();
+      }
+    }
+    return index;
+  }
+
+  // -- IFDOffsetIndex API methods --
+
+  /** Gets the IFD offsets of the main IFD chain, or null if not known. */
+  public synchronized long[] getIFDOffsets() {
+    return ifdOffsets == null ? null : ifdOffsets.clone();
+  }
+
+  /** Records the IFD offsets of the main IFD chain. */
+  public synchronized void setIFDOffsets(long[] offsets) {
+    if (!Arrays.equals(ifdOffsets, offsets)) {
+      ifdOffsets = offsets.clone();
+      modified = true;
+    }
+  }
+
+  /**
+   * Gets whether an offset or byte count array with the given number of
+   * values, lying entirely within the file, is stored at the given position.
+   */
+  public synchronized boolean hasValues(long offset, int count) {
+    Integer indexed = counts.get(offset);
+    return indexed != null && indexed.intValue() == count;
+  }
+
+  /**
+   * Records that an offset or byte count array with the given number of
+   * values is stored at the given position.
+   */
+  public synchronized void putValues(long offset, int count) {
+    Integer previous = counts.put(offset, count);
+    if (previous == null || previous.intValue() != count) {
+      modified = true;
+    }
+  }
+
+  /** Gets whether this index has changed since it was opened or saved. */
+  public synchronized boolean isModified() {
+    return modified;
+  }
+
+  /** Writes this index to its index file. */
+  public synchronized void save() throws IOException {
+    File dir = indexFile.getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Could not create directory " + dir);
+    }
+    File tempFile = File.createTempFile(indexFile.getName(), "", dir);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      new GZIPOutputStream(new FileOutputStream(tempFile))));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(length);
+      out.writeLong(lastModified);
+      out.writeBoolean(ifdOffsets != null);
+      if (ifdOffsets != null) writeArray(out, ifdOffsets);
+      out.writeInt(counts.size());
+      for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+        out.writeLong(entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+    }
+    finally {
+      out.close();
+    }
+
+    if (indexFile.exists() && !indexFile.delete()) {
+      LOGGER.debug("Could not delete old IFD index {}", indexFile);
+    }
+    if (!tempFile.renameTo(indexFile)) {
+      tempFile.delete();
+      throw new IOException("Could not write IFD index " + indexFile);
+    }
+    modified = false;
+    LOGGER.debug("Saved IFD index {}", indexFile);
+  }
+
+  // -- Helper methods --
+
+  private void read() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+      new GZIPInputStream(new FileInputStream(indexFile))));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+        in.readLong() != length || in.readLong() != lastModified)
+      {
+        LOGGER.debug("Ignoring out-of-date IFD index {}", indexFile);
+        return;
+      }
+      if (in.readBoolean()) ifdOffsets = readArray(in);
+      int n = in.readInt();
+      for (int i=0; i<n; i++) {
+        long key = in.readLong();
+        counts.put(key, in.readInt());
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /** Writes the given array, delta-encoded so that it compresses well. */
+  private static void writeArray(DataOutputStream out, long[] v)
+    throws IOException
+  {
+    out.writeInt(v.length);
+    long previous = 0;
+    for (long value : v) {
+      out.writeLong(value - previous);
+      previous = value;
+    }
+  }
+
+  private static long[] readArray(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    if (n < 0) throw new IOException("Invalid array length " + n);
+    long[] v = new long[n];
+    long previous = 0;
+    for (int i=0; i<n; i++) {
+      v[i] = previous + in.readLong();
+      previous = v[i];
+    }
+    return v;
+  }
+
+}
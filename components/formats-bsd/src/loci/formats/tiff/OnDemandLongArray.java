@@ -45,12 +45,28 @@ public class OnDemandLongArray {
   private transient RandomAccessInputStream stream;
   private int size;
   private long start;
+  private int bytesPerElement = 8;
 
   public OnDemandLongArray(RandomAccessInputStream in) throws IOException {
     stream = in;
     start = stream.getFilePointer();
   }
 
+  /**
+   * Constructs an array of unsigned 4-byte or signed 8-byte values,
+   * starting at the current position of the given stream.
+   */
+  public OnDemandLongArray(RandomAccessInputStream in, int bytesPerElement)
+    throws IOException
+  {
+    this(in);
+    if (bytesPerElement != 4 && bytesPerElement != 8) {
+      throw new IllegalArgumentException(
+        "Unsupported element size: " + bytesPerElement);
+    }
+    this.bytesPerElement = bytesPerElement;
+  }
+
   public void setSize(int size) {
     this.size = size;
   }
@@ -65,8 +81,9 @@ public class OnDemandLongArray {
 
   public long get(int index) throws IOException {
     long fp = stream.getFilePointer();
-    stream.seek(start + index * 8);
-    long value = stream.readLong();
+    stream.seek(start + (long) index * bytesPerElement);
+    long value =
+      bytesPerElement == 4 ? stream.readUnsignedInt() : stream.readLong();
     stream.seek(fp);
     return value;
   }
@@ -78,9 +95,18 @@ public class OnDemandLongArray {
   public long[] toArray() throws IOException {
     long fp = stream.getFilePointer();
     stream.seek(start);
-    byte[] rawBytes = new byte[size * 8];
+    byte[] rawBytes = new byte[size * bytesPerElement];
     stream.readFully(rawBytes);
     stream.seek(fp);
+    if (bytesPerElement == 4) {
+      int[] values = (int[]) DataTools.makeDataArray(
+        rawBytes, 4, false, stream.isLittleEndian());
+      long[] longs = new long[values.length];
+      for (int i=0; i<values.length; i++) {
+        longs[i] = values[i] & 0xffffffffL;
+      }
+      return longs;
+    }
     return (long[]) DataTools.makeDataArray(rawBytes, 8, false, stream.isLittleEndian());
   }
 
@@ -0,0 +1,433 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.tiff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatException;
+
+/**
+ * Checkpoint journal for a TIFF file that is written sequentially.  The
+ * journal is stored next to the output file and records which planes are
+ * complete, along with the tile offsets and byte counts of the plane being
+ * written, so that an interrupted conversion can continue from its last
+ * checkpoint instead of starting again.
+ *
+ * Everything written to the output file after the last checkpoint is
+ * discarded when resuming.
+ */
+public class TiffJournal {
+
+  // -- Constants --
+
+  /** Suffix appended to the output file name to name the journal. */
+  public static final String SUFFIX = ".journal";
+
+  private static final int MAGIC = 0x42464a4e;
+  private static final int VERSION = 1;
+
+  // -- Fields --
+
+  private final String output;
+  private final boolean bigTiff;
+  private final boolean[][] complete;
+
+  /** Length of the output file at the last update. */
+  private long length;
+
+  /** Series and plane index of the plane being written, or -1. */
+  private int currentSeries = -1, currentPlane = -1;
+
+  private long ifdOffset;
+  private int tileWidth, tileLength, tilesPerRow;
+  private long[] offsets, byteCounts;
+
+  // -- Constructors --
+
+  /**
+   * Creates an empty journal for the given output file.
+   *
+   * @param output The name of the TIFF file being written.
+   * @param bigTiff Whether the file is a BigTIFF file.
+   * @param planeCounts The number of planes (IFDs) in each series.
+   */
+  public TiffJournal(String output, boolean bigTiff, int[] planeCounts) {
+    this.output = output;
+    this.bigTiff = bigTiff;
+    complete = new boolean[planeCounts.length][];
+    for (int i=0; i<planeCounts.length; i++) {
+      complete[i] = new boolean[planeCounts[i]];
+    }
+  }
+
+  // -- TiffJournal API methods --
+
+  /** Gets the name of the journal file for the given output file. */
+  public static String getJournalFile(String output) {
+    return output + SUFFIX;
+  }
+
+  /**
+   * Reads the journal of the given output file.
+   *
+   * @return the journal, or null if there is no journal
+   * @throws IOException if the journal exists but cannot be read
+   */
+  public static TiffJournal read(String output) throws IOException {
+    File file = new File(getJournalFile(output));
+    if (!file.exists()) {
+      return null;
+    }
+    DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException(file + " is not a valid journal");
+      }
+      long length = in.readLong();
+      boolean bigTiff = in.readBoolean();
+      int[] planeCounts = new int[in.readInt()];
+      for (int i=0; i<planeCounts.length; i++) {
+        planeCounts[i] = in.readInt();
+      }
+      TiffJournal journal = new TiffJournal(output, bigTiff, planeCounts);
+      journal.length = length;
+      for (boolean[] planes : journal.complete) {
+        for (int i=0; i<planes.length; i++) {
+          planes[i] = in.readBoolean();
+        }
+      }
+      journal.currentSeries = in.readInt();
+      journal.currentPlane = in.readInt();
+      if (journal.currentSeries >= 0) {
+        journal.ifdOffset = in.readLong();
+        journal.tileWidth = in.readInt();
+        journal.tileLength = in.readInt();
+        journal.tilesPerRow = in.readInt();
+        journal.offsets = new long[in.readInt()];
+        journal.byteCounts = new long[journal.offsets.length];
+        for (int i=0; i<journal.offsets.length; i++) {
+          journal.offsets[i] = in.readLong();
+          journal.byteCounts[i] = in.readLong();
+        }
+      }
+      return journal;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the journal.  The output file is synced first, so that the
+   * journal never describes data that is not on disk, and the journal
+   * replaces the previous one atomically where the file system allows.
+   * Any output buffered by the writer must be flushed before calling this
+   * method.
+   */
+  public synchronized void write() throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(output, "rw");
+    try {
+      raf.getChannel().force(false);
+    }
+    finally {
+      raf.close();
+    }
+
+    File target = new File(getJournalFile(output));
+    File tmp = new File(target.getPath() + ".tmp");
+    FileOutputStream stream = new FileOutputStream(tmp);
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(stream));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(length);
+      out.writeBoolean(bigTiff);
+      out.writeInt(complete.length);
+      for (boolean[] planes : complete) {
+        out.writeInt(planes.length);
+      }
+      for (boolean[] planes : complete) {
+        for (boolean plane : planes) {
+          out.writeBoolean(plane);
+        }
+      }
+      out.writeInt(currentSeries);
+      out.writeInt(currentPlane);
+      if (currentSeries >= 0) {
+        out.writeLong(ifdOffset);
+        out.writeInt(tileWidth);
+        out.writeInt(tileLength);
+        out.writeInt(tilesPerRow);
+        out.writeInt(offsets.length);
+        for (int i=0; i<offsets.length; i++) {
+          out.writeLong(offsets[i]);
+          out.writeLong(byteCounts[i]);
+        }
+      }
+      out.flush();
+      stream.getFD().sync();
+    }
+    finally {
+      out.close();
+    }
+
+    try {
+      Files.move(tmp.toPath(), target.toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp.toPath(), target.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /** Deletes the journal file, if it exists. */
+  public void delete() throws IOException {
+    Files.deleteIfExists(new File(getJournalFile(output)).toPath());
+  }
+
+  /** Gets whether the output file is a BigTIFF file. */
+  public boolean isBigTiff() {
+    return bigTiff;
+  }
+
+  /** Gets the length of the output file at the last checkpoint. */
+  public synchronized long getLength() {
+    return length;
+  }
+
+  /**
+   * Checks that the journal describes a file with the given number of
+   * planes in each series.
+   *
+   * @throws FormatException if the number of series or planes differs
+   */
+  public void checkPlaneCounts(int[] planeCounts) throws FormatException {
+    boolean matches = planeCounts.length == complete.length;
+    for (int i=0; matches && i<planeCounts.length; i++) {
+      matches = planeCounts[i] == complete[i].length;
+    }
+    if (!matches) {
+      throw new FormatException("The journal of " + output +
+        " does not match the image dimensions; cannot resume");
+    }
+  }
+
+  /** Gets whether every plane has been written. */
+  public synchronized boolean isComplete() {
+    for (boolean[] planes : complete) {
+      for (boolean plane : planes) {
+        if (!plane) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Gets whether the given plane has been written completely. */
+  public synchronized boolean isPlaneComplete(int series, int no) {
+    return series < complete.length && no < complete[series].length &&
+      complete[series][no];
+  }
+
+  /** Gets whether any part of the given plane has been written. */
+  public synchronized boolean isPlaneStarted(int series, int no) {
+    return isPlaneComplete(series, no) ||
+      (series == currentSeries && no == currentPlane);
+  }
+
+  /**
+   * Gets whether the tile containing the given pixel of the given plane has
+   * been written.
+   */
+  public synchronized boolean isTileWritten(int series, int no, int x, int y)
+  {
+    if (isPlaneComplete(series, no)) {
+      return true;
+    }
+    if (series != currentSeries || no != currentPlane) {
+      return false;
+    }
+    int tile = (y / tileLength) * tilesPerRow + x / tileWidth;
+    return tile < offsets.length && offsets[tile] != 0;
+  }
+
+  /**
+   * Records the state of a plane after one or more of its tiles or strips
+   * have been written.
+   *
+   * @param series The series containing the plane.
+   * @param no The index of the plane within its series.
+   * @param ifd The IFD of the plane, as updated by {@link TiffSaver}.
+   * @param fileLength The current length of the output file.
+   * @return true if the plane is now complete
+   */
+  public synchronized boolean update(int series, int no, IFD ifd,
+    long fileLength)
+    throws FormatException
+  {
+    length = fileLength;
+    boolean tiled = ifd.isTiled();
+    long[] planeOffsets = tiled ?
+      ifd.getIFDLongArray(IFD.TILE_OFFSETS) : ifd.getStripOffsets();
+    boolean done = planeOffsets != null;
+    for (int i=0; done && i<planeOffsets.length; i++) {
+      done = planeOffsets[i] != 0;
+    }
+    if (done) {
+      complete[series][no] = true;
+      if (series == currentSeries && no == currentPlane) {
+        currentSeries = -1;
+        currentPlane = -1;
+        offsets = null;
+        byteCounts = null;
+      }
+      return true;
+    }
+    Object reuse = ifd.get(IFD.REUSE);
+    if (!tiled || !(reuse instanceof Number)) {
+      throw new FormatException("Only planes written sequentially in tiles " +
+        "can be journaled");
+    }
+    currentSeries = series;
+    currentPlane = no;
+    ifdOffset = ((Number) reuse).longValue();
+    tileWidth = (int) ifd.getTileWidth();
+    tileLength = (int) ifd.getTileLength();
+    tilesPerRow = (int) ifd.getTilesPerRow();
+    offsets = planeOffsets;
+    byteCounts = ifd.getIFDLongArray(IFD.TILE_BYTE_COUNTS);
+    return false;
+  }
+
+  /**
+   * Checks that the output file can be resumed and truncates it to its
+   * length at the last checkpoint.
+   *
+   * @throws FormatException if the output file does not match the journal
+   */
+  public synchronized void restoreOutput()
+    throws FormatException, IOException
+  {
+    File file = new File(output);
+    if (!file.exists()) {
+      throw new FormatException(output + " does not exist; cannot resume");
+    }
+    if (file.length() < length) {
+      throw new FormatException(output + " is shorter than its last " +
+        "checkpoint (" + file.length() + " < " + length + "); cannot resume");
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(length);
+    }
+    finally {
+      raf.close();
+    }
+
+    RandomAccessInputStream in = new RandomAccessInputStream(output);
+    try {
+      TiffParser parser = new TiffParser(in);
+      if (parser.checkHeader() == null || parser.isBigTiff() != bigTiff) {
+        throw new FormatException(output + " does not have the expected " +
+          "TIFF header; cannot resume");
+      }
+      if (currentSeries >= 0) {
+        IFD ifd = ifdOffset < length ? parser.getIFD(ifdOffset) : null;
+        if (ifd == null || ifd.getTileWidth() != tileWidth ||
+          ifd.getTileLength() != tileLength ||
+          ifd.getIFDLongArray(IFD.TILE_OFFSETS).length != offsets.length)
+        {
+          throw new FormatException("The IFD at " + ifdOffset + " in " +
+            output + " does not match its journal; cannot resume");
+        }
+        for (int i=0; i<offsets.length; i++) {
+          if (offsets[i] != 0 && offsets[i] + byteCounts[i] > length) {
+            throw new FormatException("Tile " + i + " of " + output +
+              " extends beyond its last checkpoint; cannot resume");
+          }
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Prepares the IFD of the partially written plane, so that its remaining
+   * tiles are added to the existing IFD instead of a new one.  Does nothing
+   * if the given plane is not the one being written at the last checkpoint,
+   * or if the IFD already contains tile offsets.
+   *
+   * @param saver The saver to which the remaining tiles will be written.
+   * @throws FormatException if the IFD has a different tile size
+   */
+  public synchronized void resumePlane(int series, int no, IFD ifd,
+    TiffSaver saver)
+    throws FormatException
+  {
+    if (series != currentSeries || no != currentPlane ||
+      ifd.containsKey(IFD.TILE_OFFSETS))
+    {
+      return;
+    }
+    if (ifd.getTileWidth() != tileWidth || ifd.getTileLength() != tileLength)
+    {
+      throw new FormatException("Tile size " + ifd.getTileWidth() + "x" +
+        ifd.getTileLength() + " does not match the journal (" + tileWidth +
+        "x" + tileLength + ")");
+    }
+    ifd.put(IFD.REUSE, ifdOffset);
+    ifd.putIFDValue(IFD.TILE_OFFSETS, offsets.clone());
+    ifd.putIFDValue(IFD.TILE_BYTE_COUNTS, byteCounts.clone());
+    saver.resumeTiles(ifdOffset, offsets);
+  }
+
+}
@@ -34,6 +34,8 @@ package loci.formats.tiff;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 
@@ -64,6 +66,29 @@ public class TiffParser {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(TiffParser.class);
 
+  /**
+   * Minimum number of 32-bit strip/tile offsets or byte counts above which
+   * the values are read on demand rather than loaded into an array.
+   */
+  private static final int ON_DEMAND_ARRAY_THRESHOLD = 65536;
+
+  /**
+   * Maximum gap between out-of-line IFD values that are read together,
+   * and maximum size of a single combined read.
+   */
+  private static final int MAX_COALESCED_GAP = 4096;
+  private static final int MAX_COALESCED_READ = 1024 * 1024;
+
+  /** Orders IFD entries by the offset of their values. */
+  private static final Comparator<TiffIFDEntry> VALUE_OFFSET_ORDER =
+    new Comparator<TiffIFDEntry>() {
+      @Override
+      public int compare(TiffIFDEntry a, TiffIFDEntry b) {
+        long diff = a.getValueOffset() - b.getValueOffset();
+        return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+      }
+    };
+
   // -- Fields --
 
   /** Input source from which to parse TIFF data. */
@@ -90,6 +115,9 @@ public class TiffParser {
   /** Cached first IFD in the current file. */
   private IFD firstIFD;
 
+  /** Persistent index of IFD offsets and strip/tile offsets, if any. */
+  private IFDOffsetIndex offsetIndex;
+
   /** Codec options to be used when decoding compressed pixel data. */
   private CodecOptions codecOptions = CodecOptions.getDefaultOptions();
 
@@ -144,6 +172,20 @@ public class TiffParser {
     this.doCaching = doCaching;
   }
 
+  /**
+   * Sets the index used to look up IFD offsets, strip/tile offsets and byte
+   * counts without reading them from the file. Values read from the file
+   * are recorded in the index.
+   */
+  public void setOffsetIndex(IFDOffsetIndex offsetIndex) {
+    this.offsetIndex = offsetIndex;
+  }
+
+  /** Gets the index used to look up IFD, strip and tile offsets. */
+  public IFDOffsetIndex getOffsetIndex() {
+    return offsetIndex;
+  }
+
   /** Sets whether or not 64-bit offsets are used for non-BigTIFF files. */
   public void setUse64BitOffsets(boolean use64Bit) {
     fakeBigTiff = use64Bit;
@@ -288,28 +330,56 @@ public class TiffParser {
 
   /** Gets the offsets to every IFD in the file. */
   public long[] getIFDOffsets() throws IOException {
-    // check TIFF header
-    int bytesPerEntry = bigTiff ? TiffConstants.BIG_TIFF_BYTES_PER_ENTRY :
-      TiffConstants.BYTES_PER_ENTRY;
+    if (offsetIndex != null) {
+      long[] indexed = offsetIndex.getIFDOffsets();
+      if (indexed != null) return indexed;
+    }
 
     final List<Long> offsets = new ArrayList<Long>();
     long offset = getFirstOffset();
     while (offset > 0 && offset < in.length()) {
-      in.seek(offset);
       offsets.add(offset);
-      int nEntries = bigTiff ? (int) in.readLong() : in.readUnsignedShort();
-      in.skipBytes(nEntries * bytesPerEntry);
-      offset = getNextOffset(offset);
+      offset = getNextIFDOffset(offset);
     }
 
     long[] f = new long[offsets.size()];
     for (int i=0; i<f.length; i++) {
       f[i] = offsets.get(i).longValue();
     }
+    if (offsetIndex != null) offsetIndex.setIFDOffsets(f);
 
     return f;
   }
 
+  /**
+   * Gets a list of the IFDs in the main IFD chain, which are parsed and
+   * filled in only when accessed. Unlike {@link #getIFDs()}, SubIFDs and
+   * IFDs without an ImageWidth tag are not detected, as that would require
+   * parsing every IFD.
+   *
+   * The IFD offsets are obtained from {@link #getIFDOffsets()}: they are
+   * read from the offset index if there is one for this file, and otherwise
+   * found by walking the chain of IFDs, with one seek per IFD.
+   */
+  public IFDList getLazyIFDs() throws IOException {
+    return new IFDList(this, getIFDOffsets());
+  }
+
+  /**
+   * Gets the offset of the IFD that follows the IFD at the given offset,
+   * or 0 if there are no more IFDs.
+   */
+  private long getNextIFDOffset(long offset) throws IOException {
+    int bytesPerEntry = bigTiff ? TiffConstants.BIG_TIFF_BYTES_PER_ENTRY :
+      TiffConstants.BYTES_PER_ENTRY;
+    in.seek(offset);
+    int nEntries = bigTiff ? (int) in.readLong() : in.readUnsignedShort();
+    in.skipBytes(nEntries * bytesPerEntry);
+    long next = getNextOffset(offset);
+    return next > 0 && next < in.length() ? next : 0;
+  }
+
+
   /**
    * Gets the first IFD within the TIFF file, or null
    * if the input source is not a valid TIFF file.
@@ -368,67 +438,99 @@ public class TiffParser {
   /** Gets the IFD stored at the given offset.  */
   public IFD getIFD(long offset) throws IOException {
     if (offset < 0 || offset >= in.length()) return null;
-    IFD ifd = new IFD();
-
-    // save little-endian flag to internal LITTLE_ENDIAN tag
-    ifd.put(new Integer(IFD.LITTLE_ENDIAN), new Boolean(in.isLittleEndian()));
-    ifd.put(new Integer(IFD.BIG_TIFF), new Boolean(bigTiff));
 
     // read in directory entries for this IFD
     LOGGER.trace("getIFDs: seeking IFD at {}", offset);
     in.seek(offset);
     long numEntries = bigTiff ? in.readLong() : in.readUnsignedShort();
     LOGGER.trace("getIFDs: {} directory entries to read", numEntries);
-    if (numEntries == 0 || numEntries == 1) return ifd;
+
+    IFD ifd = new IFD((int) Math.min(numEntries, 1024) + 2);
+
+    // save little-endian flag to internal LITTLE_ENDIAN tag
+    ifd.putIFDValue(IFD.LITTLE_ENDIAN, in.isLittleEndian());
+    ifd.putIFDValue(IFD.BIG_TIFF, bigTiff);
+
+    if (numEntries == 0 || numEntries == 1) {
+      ifd.trimToSize();
+      return ifd;
+    }
 
     int bytesPerEntry = bigTiff ?
       TiffConstants.BIG_TIFF_BYTES_PER_ENTRY : TiffConstants.BYTES_PER_ENTRY;
     int baseOffset = bigTiff ? 8 : 2;
 
-    for (int i=0; i<numEntries; i++) {
-      in.seek(offset + baseOffset + bytesPerEntry * i);
-
-      TiffIFDEntry entry = null;
-      try {
-        entry = readTiffIFDEntry();
-      }
-      catch (EnumException e) {
-        LOGGER.debug("", e);
-      }
-      if (entry == null) break;
-      int count = entry.getValueCount();
-      int tag = entry.getTag();
-      long pointer = entry.getValueOffset();
-      int bpe = entry.getType().getBytesPerElement();
+    // read the whole entry table (and the following next-IFD offset) at once
+    long tableOffset = offset + baseOffset;
+    long tableLength = Math.min(bytesPerEntry * numEntries + (bigTiff ? 8 : 4),
+      in.length() - tableOffset);
+    if (tableLength < 0) tableLength = 0;
+    byte[] table = new byte[(int) tableLength];
+    in.seek(tableOffset);
+    in.readFully(table);
+    RandomAccessInputStream entries =
+      new RandomAccessInputStream(new ByteArrayHandle(table));
+    entries.order(in.isLittleEndian());
+
+    List<TiffIFDEntry> deferred = new ArrayList<TiffIFDEntry>();
+    try {
+      for (int i=0; i<numEntries; i++) {
+        if ((long) bytesPerEntry * (i + 1) > tableLength) break;
+        entries.seek(bytesPerEntry * i);
 
-      if (count < 0 || bpe <= 0) {
-        // invalid data
-        in.skipBytes(bytesPerEntry - 4 - (bigTiff ? 8 : 4));
-        continue;
-      }
-      Object value = null;
-
-      long inputLen = in.length();
-      if (count * bpe + pointer > inputLen) {
-        int oldCount = count;
-        count = (int) ((inputLen - pointer) / bpe);
-        LOGGER.trace("getIFDs: truncated {} array elements for tag {}",
-          (oldCount - count), tag);
-        if (count < 0) count = oldCount;
-      }
-      if (count < 0 || count > in.length()) break;
+        TiffIFDEntry entry = null;
+        try {
+          entry = readTiffIFDEntry(entries, tableOffset);
+        }
+        catch (EnumException e) {
+          LOGGER.debug("", e);
+        }
+        if (entry == null) break;
+        int count = entry.getValueCount();
+        int tag = entry.getTag();
+        long pointer = entry.getValueOffset();
+        int bpe = entry.getType().getBytesPerElement();
+
+        if (count < 0 || bpe <= 0) {
+          // invalid data
+          continue;
+        }
+        Object value = null;
+
+        long inputLen = in.length();
+        if (count * bpe + pointer > inputLen) {
+          int oldCount = count;
+          count = (int) ((inputLen - pointer) / bpe);
+          LOGGER.trace("getIFDs: truncated {} array elements for tag {}",
+            (oldCount - count), tag);
+          if (count < 0) count = oldCount;
+        }
+        if (count < 0 || count > in.length()) break;
 
-      if (pointer != in.getFilePointer() && !doCaching) {
-        value = entry;
-      }
-      else value = getIFDValue(entry);
+        boolean inline = pointer == tableOffset + entries.getFilePointer();
+        if (ifd.getIFDValue(tag) != null) continue;
+        if (inline) {
+          value = readIFDValue(entry, pointer, entries, tableOffset);
+        }
+        else {
+          // out-of-line values are filled in below, or on demand
+          value = entry;
+          if (doCaching) deferred.add(entry);
+        }
 
-      if (value != null && !ifd.containsKey(new Integer(tag))) {
-        ifd.put(new Integer(tag), value);
+        if (value != null) {
+          ifd.putIFDValue(tag, value);
+        }
       }
     }
+    finally {
+      entries.close();
+    }
+
+    readDeferredValues(ifd, deferred);
+    ifd.trimToSize();
 
-    long newOffset =offset + baseOffset + bytesPerEntry * numEntries;
+    long newOffset = tableOffset + bytesPerEntry * numEntries;
     if (newOffset < in.length()) {
       in.seek(newOffset);
     }
@@ -452,7 +554,7 @@ public class TiffParser {
       if ((entry.getValueCount() < 10 * 1024 * 1024 || entry.getTag() < 32768) &&
         entry.getTag() != IFD.COLOR_MAP)
       {
-        ifd.put(new Integer(entry.getTag()), getIFDValue(entry));
+        ifd.putIFDValue(entry.getTag(), getIFDValue(entry));
       }
     }
   }
@@ -478,11 +580,38 @@ public class TiffParser {
       in.seek(offset);
     }
 
+    return readIFDValue(entry, offset, in, 0);
+  }
+
+  /**
+   * Decodes the value of the given entry from a stream whose first byte
+   * corresponds to the given position in the file.
+   */
+  private Object readIFDValue(TiffIFDEntry entry, long offset,
+    RandomAccessInputStream src, long base) throws IOException
+  {
+    Object indexed = getIndexedValue(entry, offset);
+    if (indexed != null) return indexed;
+    Object value = decodeIFDValue(entry, offset, src, base);
+    if (isIndexable(entry) && offset + getValueLength(entry) <= in.length()) {
+      // only the position is recorded; the values stay in the file
+      offsetIndex.putValues(offset, entry.getValueCount());
+    }
+    return value;
+  }
+
+  private Object decodeIFDValue(TiffIFDEntry entry, long offset,
+    RandomAccessInputStream src, long base) throws IOException
+  {
+    IFDType type = entry.getType();
+    int count = entry.getValueCount();
+    if (base + src.getFilePointer() != offset) src.seek(offset - base);
+
     if (type == IFDType.BYTE) {
       // 8-bit unsigned integer
-      if (count == 1) return new Short(in.readByte());
+      if (count == 1) return new Short(src.readByte());
       byte[] bytes = new byte[count];
-      in.readFully(bytes);
+      src.readFully(bytes);
       // bytes are unsigned, so use shorts
       short[] shorts = new short[count];
       for (int j=0; j<count; j++) shorts[j] = (short) (bytes[j] & 0xff);
@@ -492,7 +621,7 @@ public class TiffParser {
       // 8-bit byte that contain a 7-bit ASCII code;
       // the last byte must be NUL (binary zero)
       byte[] ascii = new byte[count];
-      in.read(ascii);
+      src.read(ascii);
 
       // count number of null terminators
       int nullCount = 0;
@@ -520,57 +649,67 @@ public class TiffParser {
     }
     else if (type == IFDType.SHORT) {
       // 16-bit (2-byte) unsigned integer
-      if (count == 1) return new Integer(in.readUnsignedShort());
+      if (count == 1) return new Integer(src.readUnsignedShort());
       int[] shorts = new int[count];
       for (int j=0; j<count; j++) {
-        shorts[j] = in.readUnsignedShort();
+        shorts[j] = src.readUnsignedShort();
       }
       return shorts;
     }
     else if (type == IFDType.LONG || type == IFDType.IFD) {
       // 32-bit (4-byte) unsigned integer
-      if (count == 1) return new Long(in.readUnsignedInt());
+      if (count == 1) return new Long(src.readUnsignedInt());
+      int tag = entry.getTag();
+      if (count >= ON_DEMAND_ARRAY_THRESHOLD && (tag == IFD.STRIP_OFFSETS ||
+        tag == IFD.TILE_OFFSETS || tag == IFD.STRIP_BYTE_COUNTS ||
+        tag == IFD.TILE_BYTE_COUNTS))
+      {
+        OnDemandLongArray offsets = new OnDemandLongArray(src, 4);
+        offsets.setSize(
+          (int) Math.min(count, (src.length() + base - offset) / 4));
+        return offsets;
+      }
       long[] longs = new long[count];
       for (int j=0; j<count; j++) {
-        if (in.getFilePointer() + 4 <= in.length()) {
-          longs[j] = in.readUnsignedInt();
+        if (src.getFilePointer() + 4 <= src.length()) {
+          longs[j] = src.readUnsignedInt();
         }
       }
       return longs;
     }
     else if (type == IFDType.LONG8 || type == IFDType.SLONG8
              || type == IFDType.IFD8) {
-      if (count == 1) return new Long(in.readLong());
+      if (count == 1) return new Long(src.readLong());
       long[] longs = null;
 
       if (equalStrips && (entry.getTag() == IFD.STRIP_BYTE_COUNTS ||
         entry.getTag() == IFD.TILE_BYTE_COUNTS))
       {
         longs = new long[1];
-        longs[0] = in.readLong();
+        longs[0] = src.readLong();
       }
       else if (entry.getTag() == IFD.STRIP_OFFSETS ||
         entry.getTag() == IFD.TILE_OFFSETS ||
         entry.getTag() == IFD.STRIP_BYTE_COUNTS ||
         entry.getTag() == IFD.TILE_BYTE_COUNTS)
       {
-        OnDemandLongArray offsets = new OnDemandLongArray(in);
+        OnDemandLongArray offsets = new OnDemandLongArray(src);
         offsets.setSize(count);
         return offsets;
       }
       else {
         longs = new long[count];
-        for (int j=0; j<count; j++) longs[j] = in.readLong();
+        for (int j=0; j<count; j++) longs[j] = src.readLong();
       }
       return longs;
     }
     else if (type == IFDType.RATIONAL || type == IFDType.SRATIONAL) {
       // Two LONGs or SLONGs: the first represents the numerator
       // of a fraction; the second, the denominator
-      if (count == 1) return new TiffRational(in.readUnsignedInt(), in.readUnsignedInt());
+      if (count == 1) return new TiffRational(src.readUnsignedInt(), src.readUnsignedInt());
       TiffRational[] rationals = new TiffRational[count];
       for (int j=0; j<count; j++) {
-        rationals[j] = new TiffRational(in.readUnsignedInt(), in.readUnsignedInt());
+        rationals[j] = new TiffRational(src.readUnsignedInt(), src.readUnsignedInt());
       }
       return rationals;
     }
@@ -578,38 +717,38 @@ public class TiffParser {
       // SBYTE: An 8-bit signed (twos-complement) integer
       // UNDEFINED: An 8-bit byte that may contain anything,
       // depending on the definition of the field
-      if (count == 1) return new Byte(in.readByte());
+      if (count == 1) return new Byte(src.readByte());
       byte[] sbytes = new byte[count];
-      in.read(sbytes);
+      src.read(sbytes);
       return sbytes;
     }
     else if (type == IFDType.SSHORT) {
       // A 16-bit (2-byte) signed (twos-complement) integer
-      if (count == 1) return new Short(in.readShort());
+      if (count == 1) return new Short(src.readShort());
       short[] sshorts = new short[count];
-      for (int j=0; j<count; j++) sshorts[j] = in.readShort();
+      for (int j=0; j<count; j++) sshorts[j] = src.readShort();
       return sshorts;
     }
     else if (type == IFDType.SLONG) {
       // A 32-bit (4-byte) signed (twos-complement) integer
-      if (count == 1) return new Integer(in.readInt());
+      if (count == 1) return new Integer(src.readInt());
       int[] slongs = new int[count];
-      for (int j=0; j<count; j++) slongs[j] = in.readInt();
+      for (int j=0; j<count; j++) slongs[j] = src.readInt();
       return slongs;
     }
     else if (type == IFDType.FLOAT) {
       // Single precision (4-byte) IEEE format
-      if (count == 1) return new Float(in.readFloat());
+      if (count == 1) return new Float(src.readFloat());
       float[] floats = new float[count];
-      for (int j=0; j<count; j++) floats[j] = in.readFloat();
+      for (int j=0; j<count; j++) floats[j] = src.readFloat();
       return floats;
     }
     else if (type == IFDType.DOUBLE) {
       // Double precision (8-byte) IEEE format
-      if (count == 1) return new Double(in.readDouble());
+      if (count == 1) return new Double(src.readDouble());
       double[] doubles = new double[count];
       for (int j=0; j<count; j++) {
-        doubles[j] = in.readDouble();
+        doubles[j] = src.readDouble();
       }
       return doubles;
     }
@@ -628,44 +767,31 @@ public class TiffParser {
   }
 
   /**
-   * Retrieve the color map associated with the given IFD.
+   * Reads the given tile or strip exactly as it is stored in the file,
+   * without decompressing it.  Any JPEG tables shared by the IFD are not
+   * merged into the returned bytes; use {@link TileCodec#fromIFD(IFD)} to
+   * obtain them along with the rest of the codec description.
+   *
+   * @param ifd the IFD containing the tile
+   * @param row the tile or strip row index
+   * @param col the tile column index
+   * @return the compressed tile, or null if the tile is not present in the
+   *   file
    */
-  public int[] getColorMap(IFD ifd) throws IOException {
-    Object map = ifd.get(IFD.COLOR_MAP);
-    if (map == null) {
-      return null;
-    }
-    int[] colorMap = null;
-    if (map instanceof TiffIFDEntry) {
-      colorMap = (int[]) getIFDValue((TiffIFDEntry) map);
-    }
-    else if (map instanceof int[]) {
-      colorMap = (int[]) map;
-    }
-    return colorMap;
+  public byte[] getCompressedTile(IFD ifd, int row, int col)
+    throws FormatException, IOException
+  {
+    return readTileBytes(ifd, row, col);
   }
 
-  // -- TiffParser methods - image reading --
-
-  public byte[] getTile(IFD ifd, byte[] buf, int row, int col)
+  /**
+   * Reads the undecoded bytes of a tile or strip, correcting invalid byte
+   * counts along the way.  Returns null if the tile is empty or lies
+   * beyond the end of the file.
+   */
+  private byte[] readTileBytes(IFD ifd, int row, int col)
     throws FormatException, IOException
   {
-    byte[] jpegTable = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
-
-    codecOptions.interleaved = true;
-    codecOptions.littleEndian = ifd.isLittleEndian();
-
-    long tileWidth = ifd.getTileWidth();
-    long tileLength = ifd.getTileLength();
-    int samplesPerPixel = ifd.getSamplesPerPixel();
-    int planarConfig = ifd.getPlanarConfiguration();
-    TiffCompression compression = ifd.getCompression();
-
-    long numTileCols = ifd.getTilesPerRow();
-
-    int pixel = ifd.getBytesPerSample()[0];
-    int effectiveChannels = planarConfig == 2 ? 1 : samplesPerPixel;
-
     if (ifd.get(IFD.STRIP_BYTE_COUNTS) instanceof OnDemandLongArray) {
       OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.STRIP_BYTE_COUNTS);
       if (counts != null) {
@@ -679,6 +805,10 @@ public class TiffParser {
       }
     }
 
+    long tileWidth = ifd.getTileWidth();
+    long numTileCols = ifd.getTilesPerRow();
+    int pixel = ifd.getBytesPerSample()[0];
+
     long[] stripByteCounts = ifd.getStripByteCounts();
     long[] rowsPerStrip = ifd.getRowsPerStrip();
 
@@ -699,31 +829,72 @@ public class TiffParser {
     }
 
     long stripOffset = 0;
-    long nStrips = 0;
 
     if (ifd.getOnDemandStripOffsets() != null) {
       OnDemandLongArray stripOffsets = ifd.getOnDemandStripOffsets();
       stripOffsets.setStream(in);
       stripOffset = stripOffsets.get(offsetIndex);
-      nStrips = stripOffsets.size();
     }
     else {
       long[] stripOffsets = ifd.getStripOffsets();
       stripOffset = stripOffsets[offsetIndex];
-      nStrips = stripOffsets.length;
     }
 
-    int size = (int) (tileWidth * tileLength * pixel * effectiveChannels);
-
-    if (buf == null) buf = new byte[size];
     if (stripByteCounts[countIndex] == 0 || stripOffset >= in.length()) {
-      return buf;
+      return null;
     }
     byte[] tile = new byte[(int) stripByteCounts[countIndex]];
 
     LOGGER.debug("Reading tile Length {} Offset {}", tile.length, stripOffset);
     in.seek(stripOffset);
     in.read(tile);
+    return tile;
+  }
+
+  /**
+   * Retrieve the color map associated with the given IFD.
+   */
+  public int[] getColorMap(IFD ifd) throws IOException {
+    Object map = ifd.get(IFD.COLOR_MAP);
+    if (map == null) {
+      return null;
+    }
+    int[] colorMap = null;
+    if (map instanceof TiffIFDEntry) {
+      colorMap = (int[]) getIFDValue((TiffIFDEntry) map);
+    }
+    else if (map instanceof int[]) {
+      colorMap = (int[]) map;
+    }
+    return colorMap;
+  }
+
+  // -- TiffParser methods - image reading --
+
+  public byte[] getTile(IFD ifd, byte[] buf, int row, int col)
+    throws FormatException, IOException
+  {
+    byte[] jpegTable = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
+
+    codecOptions.interleaved = true;
+    codecOptions.littleEndian = ifd.isLittleEndian();
+
+    long tileWidth = ifd.getTileWidth();
+    long tileLength = ifd.getTileLength();
+    int samplesPerPixel = ifd.getSamplesPerPixel();
+    int planarConfig = ifd.getPlanarConfiguration();
+    TiffCompression compression = ifd.getCompression();
+
+    int pixel = ifd.getBytesPerSample()[0];
+    int effectiveChannels = planarConfig == 2 ? 1 : samplesPerPixel;
+
+    int size = (int) (tileWidth * tileLength * pixel * effectiveChannels);
+
+    if (buf == null) buf = new byte[size];
+    byte[] tile = readTileBytes(ifd, row, col);
+    if (tile == null) {
+      return buf;
+    }
 
     codecOptions.maxBytes = (int) Math.max(size, tile.length);
     codecOptions.ycbcr =
@@ -741,6 +912,9 @@ public class TiffParser {
     unpackBytes(buf, 0, tile, ifd);
 
     if (planarConfig == 2 && !ifd.isTiled() && ifd.getSamplesPerPixel() > 1) {
+      OnDemandLongArray onDemandOffsets = ifd.getOnDemandStripOffsets();
+      long nStrips = onDemandOffsets != null ? onDemandOffsets.size() :
+        ifd.getStripOffsets().length;
       int channel = (int) (row % nStrips);
       if (channel < ifd.getBytesPerSample().length) {
         int realBytes = ifd.getBytesPerSample()[channel];
@@ -1245,29 +1419,196 @@ public class TiffParser {
     return offset;
   }
 
+  /**
+   * Reads the values of the given out-of-line entries into the IFD,
+   * combining reads of values that lie close together in the file.
+   */
+  private void readDeferredValues(IFD ifd, List<TiffIFDEntry> deferred)
+    throws IOException
+  {
+    if (offsetIndex != null) {
+      for (int i=deferred.size() - 1; i>=0; i--) {
+        TiffIFDEntry entry = deferred.get(i);
+        Object indexed = getIndexedValue(entry, entry.getValueOffset());
+        if (indexed != null) {
+          setDeferredValue(ifd, entry, indexed);
+          deferred.remove(i);
+        }
+      }
+    }
+    Collections.sort(deferred, VALUE_OFFSET_ORDER);
+    long length = in.length();
+    int first = 0;
+    while (first < deferred.size()) {
+      TiffIFDEntry entry = deferred.get(first);
+      long start = entry.getValueOffset();
+      long end = start + getValueLength(entry);
+      int last = first + 1;
+      if (isCoalescable(entry, length)) {
+        while (last < deferred.size()) {
+          TiffIFDEntry next = deferred.get(last);
+          long nextEnd = next.getValueOffset() + getValueLength(next);
+          if (!isCoalescable(next, length) ||
+            next.getValueOffset() - end > MAX_COALESCED_GAP ||
+            Math.max(end, nextEnd) - start > MAX_COALESCED_READ)
+          {
+            break;
+          }
+          end = Math.max(end, nextEnd);
+          last++;
+        }
+      }
+
+      if (last - first == 1) {
+        setDeferredValue(ifd, entry, getIFDValue(entry));
+      }
+      else {
+        LOGGER.trace("getIFDs: reading {} values from {} in one {} byte read",
+          new Object[] {last - first, start, end - start});
+        byte[] buf = new byte[(int) (end - start)];
+        in.seek(start);
+        in.readFully(buf);
+        RandomAccessInputStream values =
+          new RandomAccessInputStream(new ByteArrayHandle(buf));
+        values.order(in.isLittleEndian());
+        try {
+          for (int i=first; i<last; i++) {
+            TiffIFDEntry e = deferred.get(i);
+            setDeferredValue(ifd, e,
+              readIFDValue(e, e.getValueOffset(), values, start));
+          }
+        }
+        finally {
+          values.close();
+        }
+      }
+      first = last;
+    }
+  }
+
+  private void setDeferredValue(IFD ifd, TiffIFDEntry entry, Object value) {
+    if (value == null) ifd.remove(entry.getTag());
+    else ifd.putIFDValue(entry.getTag(), value);
+  }
+
+  /**
+   * Whether the given entry's value can be decoded from a buffered copy
+   * of the file, rather than from the file itself.
+   */
+  private boolean isCoalescable(TiffIFDEntry entry, long length) {
+    long offset = entry.getValueOffset();
+    long valueLength = getValueLength(entry);
+    if (fakeBigTiff || offset < 0 || offset + valueLength > length ||
+      valueLength > MAX_COALESCED_READ)
+    {
+      return false;
+    }
+    // these are backed by the file itself; see readIFDValue
+    boolean offsetsOrCounts = isOffsetOrCountTag(entry.getTag());
+    IFDType type = entry.getType();
+    if (type == IFDType.LONG8 || type == IFDType.SLONG8 ||
+      type == IFDType.IFD8)
+    {
+      return !offsetsOrCounts;
+    }
+    if (type == IFDType.LONG || type == IFDType.IFD) {
+      return !offsetsOrCounts ||
+        entry.getValueCount() < ON_DEMAND_ARRAY_THRESHOLD;
+    }
+    return true;
+  }
+
+  private static boolean isOffsetOrCountTag(int tag) {
+    return tag == IFD.STRIP_OFFSETS || tag == IFD.TILE_OFFSETS ||
+      tag == IFD.STRIP_BYTE_COUNTS || tag == IFD.TILE_BYTE_COUNTS;
+  }
+
+  /**
+   * Whether the given entry is an offset or byte count array whose position
+   * can be recorded in the index. SHORT arrays are small enough to always
+   * be read while parsing, and byte counts assumed to be equal are read as
+   * a single value.
+   */
+  private boolean isIndexable(TiffIFDEntry entry) {
+    if (offsetIndex == null || entry.getValueCount() <= 1 ||
+      !isOffsetOrCountTag(entry.getTag()))
+    {
+      return false;
+    }
+    int tag = entry.getTag();
+    if (equalStrips &&
+      (tag == IFD.STRIP_BYTE_COUNTS || tag == IFD.TILE_BYTE_COUNTS))
+    {
+      return false;
+    }
+    IFDType type = entry.getType();
+    return type == IFDType.LONG || type == IFDType.IFD ||
+      type == IFDType.LONG8 || type == IFDType.SLONG8 ||
+      type == IFDType.IFD8;
+  }
+
+  /**
+   * Looks up the given offset or byte count array in the index. An indexed
+   * array is returned as an {@link OnDemandLongArray} backed by the file,
+   * so that its values are not read until they are needed.
+   */
+  private Object getIndexedValue(TiffIFDEntry entry, long offset)
+    throws IOException
+  {
+    if (!isIndexable(entry) ||
+      !offsetIndex.hasValues(offset, entry.getValueCount()))
+    {
+      return null;
+    }
+    long fp = in.getFilePointer();
+    in.seek(offset);
+    OnDemandLongArray values = new OnDemandLongArray(in,
+      entry.getType().getBytesPerElement() == 4 ? 4 : 8);
+    in.seek(fp);
+    values.setSize(entry.getValueCount());
+    return values;
+  }
+
+  private long getValueLength(TiffIFDEntry entry) {
+    return (long) entry.getValueCount() * entry.getType().getBytesPerElement();
+  }
+
   TiffIFDEntry readTiffIFDEntry() throws IOException {
-    int entryTag = in.readUnsignedShort();
+    return readTiffIFDEntry(in, 0);
+  }
+
+  /**
+   * Reads an IFD entry from a stream whose first byte corresponds to the
+   * given position in the file.
+   */
+  private TiffIFDEntry readTiffIFDEntry(RandomAccessInputStream s, long base)
+    throws IOException
+  {
+    int entryTag = s.readUnsignedShort();
 
     // Parse the entry's "Type"
     IFDType entryType;
     try {
-       entryType = IFDType.get(in.readUnsignedShort());
+       entryType = IFDType.get(s.readUnsignedShort());
     }
     catch (EnumException e) {
-      LOGGER.error("Error reading IFD type at: {}", in.getFilePointer());
+      LOGGER.error("Error reading IFD type at: {}", base + s.getFilePointer());
       throw e;
     }
 
     // Parse the entry's "ValueCount"
-    int valueCount = bigTiff ? (int) in.readLong() : in.readInt();
+    int valueCount = bigTiff ? (int) s.readLong() : s.readInt();
     if (valueCount < 0) {
       throw new RuntimeException("Count of '" + valueCount + "' unexpected.");
     }
 
     int nValueBytes = valueCount * entryType.getBytesPerElement();
     int threshhold = bigTiff ? 8 : 4;
-    long offset = nValueBytes > threshhold ?
-      getNextOffset(0) : in.getFilePointer();
+    long offset = base + s.getFilePointer();
+    if (nValueBytes > threshhold) {
+      // equivalent to getNextOffset(0)
+      offset = bigTiff || fakeBigTiff ? s.readLong() : s.readUnsignedInt();
+    }
 
     return new TiffIFDEntry(entryTag, entryType, valueCount, offset);
   }
@@ -402,6 +402,143 @@ public class TiffSaver {
     }
   }
 
+  /**
+   * Gets the codec with which {@link #writeImage} would compress the tiles
+   * of the given IFD.  The IFD itself is not modified.
+   *
+   * @param ifd The Image File Directories. Mustn't be <code>null</code>.
+   * @param pixelType The type of pixels.
+   * @param nChannels The number of samples per pixel.
+   * @throws FormatException
+   */
+  public TileCodec getTileCodec(IFD ifd, int pixelType, int nChannels)
+    throws FormatException
+  {
+    if (ifd == null) {
+      throw new FormatException("IFD cannot be null");
+    }
+    IFD copy = new IFD(ifd);
+    makeValidIFD(copy, pixelType, nChannels);
+    return TileCodec.fromIFD(copy);
+  }
+
+  /**
+   * Compresses a single tile in the same way as {@link #writeImage}, without
+   * writing it; the result can be written with
+   * {@link #writeCompressedTile}.  Tiles along the right and bottom edges of
+   * the image may be smaller than the codec's tile size, and are padded
+   * with zeros.  This method does not change the state of the saver, so
+   * several tiles may be compressed concurrently.
+   *
+   * @param buf The interleaved pixels of the tile.
+   * @param codec The codec with which to compress the tile.
+   * @param w   The width of the tile data.
+   * @param h   The height of the tile data.
+   * @return the compressed tile
+   * @throws FormatException
+   * @throws IOException
+   */
+  public byte[] compressTile(byte[] buf, TileCodec codec, int w, int h)
+    throws FormatException, IOException
+  {
+    if (buf == null) {
+      throw new FormatException("Image data cannot be null");
+    }
+    int tileWidth = (int) codec.getTileWidth();
+    int tileLength = (int) codec.getTileLength();
+    int nChannels = codec.getSamplesPerPixel();
+    if (!codec.isTiled() ||
+      (nChannels > 1 && codec.getPlanarConfiguration() != 1))
+    {
+      throw new FormatException(
+        "Only interleaved tiles can be compressed separately");
+    }
+    if (w > tileWidth || h > tileLength) {
+      throw new FormatException("Tile data (" + w + "x" + h +
+        ") is larger than the tile size (" + tileWidth + "x" + tileLength +
+        ")");
+    }
+
+    IFD ifd = codec.toIFD();
+    int bytesPerPixel = ifd.getBytesPerSample()[0];
+    int rowLength = w * nChannels * bytesPerPixel;
+    int tileRowLength = tileWidth * nChannels * bytesPerPixel;
+    if (buf.length < rowLength * h) {
+      throw new FormatException("Image data is too short (" + buf.length +
+        " < " + (rowLength * h) + ")");
+    }
+    byte[] tile = new byte[tileRowLength * tileLength];
+    for (int row=0; row<h; row++) {
+      System.arraycopy(buf, row * rowLength, tile, row * tileRowLength,
+        rowLength);
+    }
+
+    TiffCompression.difference(tile, ifd);
+    TiffCompression compression = codec.getCompression();
+    CodecOptions codecOptions =
+      compression.getCompressionCodecOptions(ifd, options);
+    codecOptions.height = tileLength;
+    codecOptions.width = tileWidth;
+    codecOptions.channels = nChannels;
+    return compression.compress(tile, codecOptions);
+  }
+
+  /**
+   * Writes a tile that has already been compressed, without decoding or
+   * re-encoding it.  The compression-related tags of the IFD are taken
+   * from the given codec, so the tile is stored exactly as it was read
+   * from the source file (e.g. with {@link TiffParser#getCompressedTile}).
+   * Only tiled images with interleaved or single-channel samples are
+   * supported.
+   *
+   * @param tile The compressed tile to write.
+   * @param ifd The Image File Directories. Mustn't be <code>null</code>.
+   * @param codec The description of how the tile was compressed.
+   * @param no  The image index within the current file, starting from 0.
+   * @param pixelType The type of pixels.
+   * @param x   The X-coordinate of the top-left corner of the tile.
+   * @param y   The Y-coordinate of the top-left corner of the tile.
+   * @param last Pass <code>true</code> if it is the last image,
+   *             <code>false</code> otherwise.
+   * @throws FormatException
+   * @throws IOException
+   */
+  public void writeCompressedTile(byte[] tile, IFD ifd, TileCodec codec,
+      int no, int pixelType, int x, int y, boolean last)
+  throws FormatException, IOException
+  {
+    LOGGER.debug("Attempting to write compressed tile.");
+    if (tile == null) {
+      throw new FormatException("Tile data cannot be null");
+    }
+    if (ifd == null) {
+      throw new FormatException("IFD cannot be null");
+    }
+    if (codec == null) {
+      throw new FormatException("Tile codec cannot be null");
+    }
+    int nChannels = codec.getSamplesPerPixel();
+    if (!codec.isTiled() ||
+      (nChannels > 1 && codec.getPlanarConfiguration() != 1))
+    {
+      throw new FormatException(
+        "Only interleaved tiles can be written without re-encoding");
+    }
+    if (x % codec.getTileWidth() != 0 || y % codec.getTileLength() != 0) {
+      throw new FormatException("Tile position (" + x + ", " + y +
+        ") is not aligned to the tile grid");
+    }
+
+    // This operation is synchronized
+    synchronized (this) {
+      makeValidIFD(ifd, pixelType, nChannels);
+      // makeValidIFD resets the photometric interpretation, which must
+      // match the encoded data (e.g. YCbCr JPEG tiles)
+      codec.apply(ifd);
+      writeImageIFD(ifd, no, new byte[][] {tile}, nChannels, last, x, y);
+    }
+  }
+
   /**
    * Performs the actual work of dealing with IFD data and writing it to the
    * TIFF for a given image or sub-image.
@@ -795,6 +932,24 @@ public class TiffSaver {
     overwriteIFDValue(in, 0, IFD.IMAGE_DESCRIPTION, value);
   }
 
+  // -- Package-private methods --
+
+  /**
+   * Restores the state of a tiled plane that was partially written before
+   * the file was reopened, so that its remaining tiles can be written
+   * sequentially.
+   *
+   * @param ifdOffset The file offset of the plane's IFD.
+   * @param offsets The offsets of the plane's tiles, 0 for missing tiles.
+   */
+  void resumeTiles(long ifdOffset, long[] offsets) {
+    sequentialTileFilePointer = ifdOffset;
+    sequentialTileOffsets = new ArrayList<Long>(offsets.length);
+    for (long offset : offsets) {
+      sequentialTileOffsets.add(offset);
+    }
+  }
+
   // -- Helper methods --
 
   /**
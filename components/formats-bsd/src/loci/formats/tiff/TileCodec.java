@@ -0,0 +1,256 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tiff;
+
+import java.util.Arrays;
+
+import loci.formats.FormatException;
+
+/**
+ * Describes how the tiles (or strips) of a TIFF IFD are encoded: the
+ * compression scheme, the tile geometry, the sample layout and any tables
+ * shared between tiles.  Two tiles with equal codecs can be copied from one
+ * file to another without being decoded and re-encoded.
+ *
+ * Instances are immutable and are usually obtained from
+ * {@link #fromIFD(IFD)}.
+ */
+public class TileCodec {
+
+  // -- Fields --
+
+  private final TiffCompression compression;
+  private final boolean tiled;
+  private final long tileWidth;
+  private final long tileLength;
+  private final int samplesPerPixel;
+  private final int[] bitsPerSample;
+  private final int sampleFormat;
+  private final int planarConfig;
+  private final PhotoInterp photometric;
+  private final int[] ycbcrSubsampling;
+  private final int predictor;
+  private final boolean littleEndian;
+  private final byte[] jpegTables;
+
+  // -- Constructor --
+
+  private TileCodec(IFD ifd) throws FormatException {
+    compression = ifd.getCompression();
+    tiled = ifd.isTiled();
+    tileWidth = ifd.getTileWidth();
+    tileLength = ifd.getTileLength();
+    samplesPerPixel = ifd.getSamplesPerPixel();
+    bitsPerSample = ifd.getBitsPerSample();
+    sampleFormat = ifd.getIFDIntValue(IFD.SAMPLE_FORMAT, 1);
+    planarConfig = ifd.getPlanarConfiguration();
+    photometric =
+      ifd.getIFDValue(IFD.PHOTOMETRIC_INTERPRETATION) == null &&
+      compression != TiffCompression.OLD_JPEG ?
+      null : ifd.getPhotometricInterpretation();
+    ycbcrSubsampling = ifd.getIFDIntArray(IFD.Y_CB_CR_SUB_SAMPLING);
+    predictor = ifd.getIFDIntValue(IFD.PREDICTOR, 1);
+    littleEndian = ifd.containsKey(IFD.LITTLE_ENDIAN) && ifd.isLittleEndian();
+    jpegTables = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
+  }
+
+  // -- TileCodec API methods --
+
+  /** Creates a codec description from the given IFD. */
+  public static TileCodec fromIFD(IFD ifd) throws FormatException {
+    return new TileCodec(ifd);
+  }
+
+  /** Gets the compression scheme used for each tile. */
+  public TiffCompression getCompression() {
+    return compression;
+  }
+
+  /** Returns true if the image is stored as tiles rather than strips. */
+  public boolean isTiled() {
+    return tiled;
+  }
+
+  /** Gets the width in pixels of a single tile or strip. */
+  public long getTileWidth() {
+    return tileWidth;
+  }
+
+  /** Gets the height in pixels of a single tile or strip. */
+  public long getTileLength() {
+    return tileLength;
+  }
+
+  /** Gets the number of samples stored for each pixel. */
+  public int getSamplesPerPixel() {
+    return samplesPerPixel;
+  }
+
+  /** Gets the number of bits used to store each sample. */
+  public int[] getBitsPerSample() {
+    return bitsPerSample.clone();
+  }
+
+  /** Gets the SampleFormat value; 1 (unsigned integer) if not set. */
+  public int getSampleFormat() {
+    return sampleFormat;
+  }
+
+  /** Gets the PlanarConfiguration value. */
+  public int getPlanarConfiguration() {
+    return planarConfig;
+  }
+
+  /**
+   * Gets the photometric interpretation of the decoded samples, or null if
+   * not set.
+   */
+  public PhotoInterp getPhotometricInterpretation() {
+    return photometric;
+  }
+
+  /** Gets the YCbCr subsampling factors, or null if not set. */
+  public int[] getYCbCrSubsampling() {
+    return ycbcrSubsampling == null ? null : ycbcrSubsampling.clone();
+  }
+
+  /** Gets the Predictor value; 1 (no prediction) if not set. */
+  public int getPredictor() {
+    return predictor;
+  }
+
+  /** Returns true if multi-byte samples are stored little-endian. */
+  public boolean isLittleEndian() {
+    return littleEndian;
+  }
+
+  /**
+   * Gets the JPEG tables shared by all tiles, or null if each tile is
+   * self-contained.
+   */
+  public byte[] getJPEGTables() {
+    return jpegTables == null ? null : jpegTables.clone();
+  }
+
+  /**
+   * Returns true if tiles encoded with this codec can be decoded using the
+   * given codec's parameters, i.e. if a compressed tile can be copied
+   * from one IFD to the other without re-encoding.
+   */
+  public boolean isCompatible(TileCodec codec) {
+    if (codec == null) {
+      return false;
+    }
+    if (compression != codec.compression || tiled != codec.tiled ||
+      tileWidth != codec.tileWidth || tileLength != codec.tileLength ||
+      samplesPerPixel != codec.samplesPerPixel ||
+      sampleFormat != codec.sampleFormat || predictor != codec.predictor ||
+      photometric != codec.photometric ||
+      !Arrays.equals(bitsPerSample, codec.bitsPerSample) ||
+      !Arrays.equals(ycbcrSubsampling, codec.ycbcrSubsampling) ||
+      !Arrays.equals(jpegTables, codec.jpegTables))
+    {
+      return false;
+    }
+    if (samplesPerPixel > 1 && planarConfig != codec.planarConfig) {
+      return false;
+    }
+    // byte order only matters if samples span more than one byte
+    // and the codec does not define its own byte order
+    boolean multiByte = false;
+    for (int bits : bitsPerSample) {
+      multiByte |= bits > 8;
+    }
+    return !multiByte || littleEndian == codec.littleEndian;
+  }
+
+  /**
+   * Records the compression-related tags of this codec in the given IFD,
+   * so that tiles written with {@link TiffSaver#writeCompressedTile} are
+   * decoded correctly.  The tile geometry and sample layout are not copied;
+   * these are set by the writer.
+   */
+  public void apply(IFD ifd) {
+    ifd.putIFDValue(IFD.COMPRESSION, compression.getCode());
+    if (photometric != null) {
+      ifd.putIFDValue(IFD.PHOTOMETRIC_INTERPRETATION, photometric.getCode());
+    }
+    if (predictor != 1) {
+      ifd.putIFDValue(IFD.PREDICTOR, predictor);
+    }
+    if (ycbcrSubsampling != null) {
+      ifd.putIFDValue(IFD.Y_CB_CR_SUB_SAMPLING, ycbcrSubsampling.clone());
+    }
+    if (jpegTables != null) {
+      ifd.putIFDValue(IFD.JPEG_TABLES, jpegTables.clone());
+    }
+  }
+
+  // -- Package-private methods --
+
+  /**
+   * Creates an IFD describing a single tile encoded with this codec, for
+   * use when compressing tiles.
+   */
+  IFD toIFD() {
+    IFD ifd = new IFD();
+    ifd.putIFDValue(IFD.IMAGE_WIDTH, tileWidth);
+    ifd.putIFDValue(IFD.IMAGE_LENGTH, tileLength);
+    if (tiled) {
+      ifd.putIFDValue(IFD.TILE_WIDTH, tileWidth);
+      ifd.putIFDValue(IFD.TILE_LENGTH, tileLength);
+    }
+    else {
+      ifd.putIFDValue(IFD.ROWS_PER_STRIP, new long[] {tileLength});
+    }
+    ifd.putIFDValue(IFD.SAMPLES_PER_PIXEL, samplesPerPixel);
+    ifd.putIFDValue(IFD.BITS_PER_SAMPLE, bitsPerSample.clone());
+    ifd.putIFDValue(IFD.SAMPLE_FORMAT, sampleFormat);
+    ifd.putIFDValue(IFD.PLANAR_CONFIGURATION, planarConfig);
+    ifd.putIFDValue(IFD.LITTLE_ENDIAN, littleEndian);
+    apply(ifd);
+    return ifd;
+  }
+
+  // -- Object API methods --
+
+  /* @see java.lang.Object#toString() */
+  @Override
+  public String toString() {
+    return "compression=" + compression + ", tileWidth=" + tileWidth +
+      ", tileLength=" + tileLength + ", samplesPerPixel=" + samplesPerPixel +
+      ", bitsPerSample=" + Arrays.toString(bitsPerSample) +
+      ", photometric=" + photometric;
+  }
+
+}
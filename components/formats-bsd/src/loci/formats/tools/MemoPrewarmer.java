@@ -0,0 +1,483 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.Memoizer;
+import loci.formats.ReaderWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility for generating {@link Memoizer} memo files for every dataset
+ * under one or more directory trees, so that the cost of initializing large
+ * datasets is paid ahead of time instead of on first use.
+ *
+ * Files are grouped into datasets using {@link IFormatReader#getUsedFiles()}:
+ * once a dataset has been initialized, none of its other files are opened.
+ * Datasets with a valid memo file are loaded from it and reported as
+ * skipped. Files which may belong to a multi-file dataset, according to
+ * {@link IFormatReader#isSingleFile(String)}, are initialized first, so that
+ * the other files of their datasets are claimed before the remaining
+ * single-file datasets are started. Each file is checked and initialized by
+ * a worker thread, and datasets sharing a memo file are never initialized
+ * concurrently.
+ */
+public class MemoPrewarmer {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(MemoPrewarmer.class);
+
+  /** Interval in milliseconds between checks of the memory limit. */
+  private static final long MEMORY_POLL_INTERVAL = 100;
+
+  // -- Fields --
+
+  /** Memo directory, or null to write memo files next to each dataset. */
+  private final File directory;
+
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /** Maximum used heap in bytes before new datasets are started. */
+  private long memoryLimit = 0;
+
+  /** Files that have already been opened or are part of a dataset. */
+  private final Set<String> claimed =
+    Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** Number of datasets currently being initialized. */
+  private final AtomicInteger active = new AtomicInteger();
+
+  /** Locks serializing the initialization of datasets by memo file. */
+  private final ConcurrentMap<String, Object> memoLocks =
+    new ConcurrentHashMap<String, Object>();
+
+  /** Readers used by each worker thread to detect single-file datasets. */
+  private final ThreadLocal<ImageReader> detectors =
+    new ThreadLocal<ImageReader>() {
+      @Override
+      protected ImageReader initialValue() {
+        return new ImageReader();
+      }
+    };
+
+  private final Map<String, ReaderTiming> timings =
+    new TreeMap<String, ReaderTiming>();
+
+  // -- Constructor --
+
+  /**
+   * Construct a prewarmer writing memo files under the given directory.
+   *
+   * @param directory the memo directory, as passed to
+   *   {@link Memoizer#Memoizer(long, File)}; if null, memo files are
+   *   written next to each dataset
+   */
+  public MemoPrewarmer(File directory) {
+    this.directory = directory;
+  }
+
+  // -- MemoPrewarmer API methods --
+
+  /** Set the number of datasets initialized in parallel. */
+  public void setThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Invalid thread count: " + threads);
+    }
+    this.threads = threads;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Set the amount of used heap memory, in bytes, above which no new
+   * dataset is started until running datasets have finished. A value of 0
+   * (default) disables the limit. At least one dataset is always allowed to
+   * run.
+   */
+  public void setMemoryLimit(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Invalid memory limit: " + bytes);
+    }
+    this.memoryLimit = bytes;
+  }
+
+  public long getMemoryLimit() {
+    return memoryLimit;
+  }
+
+  /**
+   * Generate memo files for all datasets found under the given files or
+   * directories, and return timing information per reader type.
+   */
+  public Map<String, ReaderTiming> prewarm(String... roots)
+    throws InterruptedException
+  {
+    List<File> files = new ArrayList<File>();
+    ImageReader suffixes = new ImageReader();
+    for (String root : roots) {
+      collectFiles(new File(root), suffixes, files);
+    }
+    LOGGER.info("found {} candidate files", files.size());
+
+    // multi-file datasets first, so that their files are claimed before
+    // any of them could be initialized on its own
+    final List<String> singleFile =
+      Collections.synchronizedList(new ArrayList<String>());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> pending = new ArrayList<Future<?>>();
+      for (File file : files) {
+        final String path = file.getAbsolutePath();
+        pending.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws InterruptedException {
+            if (isSingleFile(path)) singleFile.add(path);
+            else prewarmFile(path);
+            return null;
+          }
+        }));
+      }
+      await(pending);
+
+      pending.clear();
+      synchronized (singleFile) {
+        for (final String path : singleFile) {
+          pending.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+              prewarmFile(path);
+              return null;
+            }
+          }));
+        }
+      }
+      await(pending);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    synchronized (timings) {
+      return new TreeMap<String, ReaderTiming>(timings);
+    }
+  }
+
+  // -- Helper methods --
+
+  /** Wait for all of the given tasks to finish. */
+  private static void await(List<Future<?>> tasks)
+    throws InterruptedException
+  {
+    for (Future<?> task : tasks) {
+      try {
+        task.get();
+      }
+      catch (ExecutionException e) {
+        LOGGER.warn("prewarm task failed", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Return whether the given file is a single-file dataset; if this cannot
+   * be determined, the file is assumed to be part of a multi-file dataset.
+   */
+  private boolean isSingleFile(String path) {
+    try {
+      return detectors.get().isSingleFile(path);
+    }
+    catch (Exception e) {
+      LOGGER.debug("{}: could not check for a single file", path, e);
+      return false;
+    }
+  }
+
+  /** Return the lock guarding the memo file of the given dataset. */
+  private Object getMemoLock(Memoizer memoizer, String path) {
+    File memoFile = memoizer.getMemoFile(path);
+    String key = memoFile == null ? path : memoFile.getAbsolutePath();
+    Object lock = new Object();
+    Object existing = memoLocks.putIfAbsent(key, lock);
+    return existing == null ? lock : existing;
+  }
+
+  /**
+   * Recursively add to the given list all non-hidden files which a reader
+   * claims by name.
+   */
+  private void collectFiles(File file, ImageReader suffixes, List<File> files)
+  {
+    if (file.getName().startsWith(".") && file.getParentFile() != null) {
+      return;
+    }
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children == null) {
+        LOGGER.warn("could not list directory {}", file);
+        return;
+      }
+      Arrays.sort(children);
+      for (File child : children) {
+        collectFiles(child, suffixes, files);
+      }
+    }
+    else if (suffixes.isThisType(file.getAbsolutePath(), false)) {
+      files.add(file);
+    }
+  }
+
+  /** Initialize the dataset containing the given file, unless claimed. */
+  private void prewarmFile(String path) throws InterruptedException {
+    if (!claimed.add(path)) {
+      return;
+    }
+    waitForMemory();
+
+    Memoizer memoizer = directory == null ?
+      new Memoizer(0) : new Memoizer(0, directory);
+    String readerName = "unknown";
+    long start = System.currentTimeMillis();
+    active.incrementAndGet();
+    try {
+      synchronized (getMemoLock(memoizer, path)) {
+        memoizer.setId(path);
+      }
+      readerName = getReaderName(memoizer);
+      for (String used : memoizer.getUsedFiles()) {
+        claimed.add(new File(used).getAbsolutePath());
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      if (memoizer.isLoadedFromMemo()) {
+        getTiming(readerName).skipped(elapsed);
+      }
+      else if (memoizer.isSavedToMemo()) {
+        getTiming(readerName).created(elapsed);
+        LOGGER.info("{}: created memo in {} ms", path, elapsed);
+      }
+      else {
+        getTiming(readerName).failed();
+        LOGGER.warn("{}: memo file not saved", path);
+      }
+    }
+    catch (Exception e) {
+      getTiming(readerName).failed();
+      LOGGER.warn("{}: could not initialize", path, e);
+    }
+    finally {
+      active.decrementAndGet();
+      try {
+        memoizer.close();
+      }
+      catch (IOException e) {
+        LOGGER.debug("{}: could not close", path, e);
+      }
+    }
+  }
+
+  /**
+   * Block while the used heap exceeds the memory limit and another dataset
+   * is still being initialized.
+   */
+  private void waitForMemory() throws InterruptedException {
+    if (memoryLimit <= 0) {
+      return;
+    }
+    Runtime runtime = Runtime.getRuntime();
+    while (active.get() > 0 &&
+      runtime.totalMemory() - runtime.freeMemory() > memoryLimit)
+    {
+      Thread.sleep(MEMORY_POLL_INTERVAL);
+    }
+  }
+
+  /** Return the simple class name of the innermost reader. */
+  private static String getReaderName(IFormatReader reader) {
+    while (true) {
+      if (reader instanceof ReaderWrapper) {
+        reader = ((ReaderWrapper) reader).getReader();
+      }
+      else if (reader instanceof ImageReader) {
+        reader = ((ImageReader) reader).getReader();
+      }
+      else {
+        return reader.getClass().getSimpleName();
+      }
+    }
+  }
+
+  private ReaderTiming getTiming(String readerName) {
+    synchronized (timings) {
+      ReaderTiming timing = timings.get(readerName);
+      if (timing == null) {
+        timing = new ReaderTiming();
+        timings.put(readerName, timing);
+      }
+      return timing;
+    }
+  }
+
+  // -- Helper classes --
+
+  /** Counts and initialization times for datasets of one reader type. */
+  public static class ReaderTiming {
+    private int created, skipped, failed;
+    private long createTime, skipTime, maxCreateTime;
+
+    synchronized void created(long elapsed) {
+      created++;
+      createTime += elapsed;
+      maxCreateTime = Math.max(maxCreateTime, elapsed);
+    }
+
+    synchronized void skipped(long elapsed) {
+      skipped++;
+      skipTime += elapsed;
+    }
+
+    synchronized void failed() {
+      failed++;
+    }
+
+    /** Return the number of datasets for which a memo file was created. */
+    public synchronized int getCreatedCount() {
+      return created;
+    }
+
+    /** Return the number of datasets which already had a valid memo file. */
+    public synchronized int getSkippedCount() {
+      return skipped;
+    }
+
+    /** Return the number of datasets which could not be memoized. */
+    public synchronized int getFailedCount() {
+      return failed;
+    }
+
+    /** Return the total initialization time in ms of created memo files. */
+    public synchronized long getCreateTime() {
+      return createTime;
+    }
+
+    /** Return the longest initialization time in ms of one dataset. */
+    public synchronized long getMaxCreateTime() {
+      return maxCreateTime;
+    }
+
+    /** Return the total time in ms spent loading existing memo files. */
+    public synchronized long getSkipTime() {
+      return skipTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format(
+        "created=%d (total %d ms, max %d ms) skipped=%d (%d ms) failed=%d",
+        created, createTime, maxCreateTime, skipped, skipTime, failed);
+    }
+  }
+
+  // -- Main method --
+
+  public static void main(String[] args) throws Exception {
+    File directory = null;
+    int threads = -1;
+    long memoryLimit = 0;
+    List<String> roots = new ArrayList<String>();
+    for (int i=0; i<args.length; i++) {
+      if (args[i].equals("-cache") && i < args.length - 1) {
+        directory = new File(args[++i]);
+      }
+      else if (args[i].equals("-threads") && i < args.length - 1) {
+        threads = Integer.parseInt(args[++i]);
+      }
+      else if (args[i].equals("-memory") && i < args.length - 1) {
+        memoryLimit = Long.parseLong(args[++i]) * 1024 * 1024;
+      }
+      else if (args[i].startsWith("-")) {
+        roots.clear();
+        break;
+      }
+      else {
+        roots.add(args[i]);
+      }
+    }
+
+    if (roots.isEmpty()) {
+      System.err.println("Usage: memoprewarmer [-cache dir] [-threads n] " +
+        "[-memory MB] path [path ...]");
+      System.exit(2);
+    }
+
+    MemoPrewarmer prewarmer = new MemoPrewarmer(directory);
+    if (threads > 0) {
+      prewarmer.setThreads(threads);
+    }
+    prewarmer.setMemoryLimit(memoryLimit);
+
+    long start = System.currentTimeMillis();
+    Map<String, ReaderTiming> timings =
+      prewarmer.prewarm(roots.toArray(new String[roots.size()]));
+    for (Map.Entry<String, ReaderTiming> entry : timings.entrySet()) {
+      System.out.println(entry.getKey() + ": " + entry.getValue());
+    }
+    System.out.println("Finished in " +
+      (System.currentTimeMillis() - start) + " ms");
+  }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.IFormatReader;
+import loci.formats.cache.ByteArraySource;
+import loci.formats.cache.Cache;
+import loci.formats.cache.CacheKey;
+import loci.formats.cache.CrosshairStrategy;
+import loci.formats.cache.EvictionPolicy;
+import loci.formats.cache.ICacheStore;
+import loci.formats.cache.ICacheStrategy;
+import loci.formats.cache.MemoryCacheStore;
+import loci.formats.cache.OffHeapCacheStore;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link Cache} and its object stores.
+ */
+public class CacheTest {
+
+  private static final String TEST_FILE =
+    "test&sizeX=64&sizeY=64&sizeZ=20&sizeC=1&sizeT=1.fake";
+
+  private static final int PLANE_SIZE = 64 * 64;
+
+  private IFormatReader reader;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    reader = new FakeReader();
+    reader.setId(TEST_FILE);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reader.close();
+  }
+
+  private static CacheKey key(int plane) {
+    return new CacheKey(0, 0, plane);
+  }
+
+  @Test
+  public void testLRUEviction() throws Exception {
+    ICacheStore store = new MemoryCacheStore(30, EvictionPolicy.LRU);
+    store.put(key(0), new byte[10]);
+    store.put(key(1), new byte[10]);
+    store.put(key(2), new byte[10]);
+    assertNotNull(store.get(key(0)));
+    store.put(key(3), new byte[10]);
+    assertTrue(store.contains(key(0)));
+    assertFalse(store.contains(key(1)));
+    assertEquals(30, store.getSize());
+    assertEquals(3, store.getObjectCount());
+  }
+
+  @Test
+  public void testLFUEviction() throws Exception {
+    ICacheStore store = new MemoryCacheStore(30, EvictionPolicy.LFU);
+    store.put(key(0), new byte[10]);
+    store.put(key(1), new byte[10]);
+    store.put(key(2), new byte[10]);
+    store.get(key(0));
+    store.get(key(0));
+    store.get(key(1));
+    store.get(key(2));
+    store.get(key(2));
+    store.put(key(3), new byte[10]);
+    assertFalse(store.contains(key(1)));
+    assertTrue(store.contains(key(0)));
+    assertTrue(store.contains(key(2)));
+  }
+
+  @Test
+  public void testOversizedObject() throws Exception {
+    ICacheStore store = new MemoryCacheStore(10);
+    assertFalse(store.put(key(0), new byte[11]));
+    assertEquals(0, store.getObjectCount());
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    ICacheStore store = new MemoryCacheStore(2 * PLANE_SIZE);
+    ICacheStrategy strategy = new CrosshairStrategy(new int[] {20});
+    strategy.setRange(5, 0);
+    Cache cache =
+      new Cache(strategy, new ByteArraySource(reader), store, true);
+    assertTrue(store.getSize() <= 2 * PLANE_SIZE);
+    assertEquals(2, store.getObjectCount());
+
+    // the load list is cut to what fits, keeping the highest priorities
+    int[][] loadList = strategy.getLoadList(cache.getCurrentPos());
+    assertNotNull(cache.getObject(new int[] {0}));
+    assertNotNull(cache.getObject(loadList[1]));
+    assertFalse(cache.isInCache(loadList[2]));
+
+    cache.setCurrentPos(new int[] {10});
+    assertEquals(2, store.getObjectCount());
+    assertNotNull(cache.getObject(new int[] {10}));
+  }
+
+  @Test
+  public void testUnboundedByDefault() throws Exception {
+    assertEquals(MemoryCacheStore.UNBOUNDED,
+      new MemoryCacheStore().getCapacity());
+  }
+
+  @Test
+  public void testTiles() throws Exception {
+    Cache cache = new Cache(new CrosshairStrategy(new int[] {20}),
+      new ByteArraySource(reader), false);
+    cache.setTiles(new int[] {0});
+    cache.recache();
+    assertNotNull(cache.getObject(new int[] {0}, 0));
+    assertNull(cache.getObject(new int[] {0}));
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    ICacheStrategy strategy = new CrosshairStrategy(new int[] {20});
+    strategy.setRange(5, 0);
+    IFormatReader[] readers = {reader, new FakeReader(), new FakeReader()};
+    for (int i=1; i<readers.length; i++) {
+      readers[i].setId(TEST_FILE);
+    }
+    Cache cache = new Cache(strategy, new ByteArraySource(readers), false);
+    ExecutorService prefetcher = Cache.createPrefetchExecutor(3);
+    cache.setPrefetchExecutor(prefetcher);
+    cache.recache();
+    prefetcher.shutdown();
+    assertTrue(prefetcher.awaitTermination(10, TimeUnit.SECONDS));
+    int[][] loadList = strategy.getLoadList(cache.getCurrentPos());
+    for (int[] pos : loadList) {
+      assertTrue(cache.isInCache(pos));
+      byte[] plane = (byte[]) cache.getObject(pos);
+      assertEquals(pos[0], FakeReader.readSpecialPixels(plane)[1]);
+    }
+    for (int i=1; i<readers.length; i++) {
+      readers[i].close();
+    }
+  }
+
+  @Test
+  public void testOffHeapStore() throws Exception {
+    OffHeapCacheStore store =
+      new OffHeapCacheStore(4096, EvictionPolicy.LRU, null, 1024, 2);
+    byte[] a = new byte[1500];
+    byte[] b = new byte[2000];
+    Arrays.fill(a, (byte) 1);
+    Arrays.fill(b, (byte) 2);
+    assertTrue(store.put(key(0), a));
+    assertTrue(store.put(key(1), b));
+    assertEquals(4096, store.getSize());
+    assertTrue(Arrays.equals(a, (byte[]) store.get(key(0))));
+    assertTrue(Arrays.equals(b, (byte[]) store.get(key(1))));
+
+    // evicting the first array frees exactly enough blocks for the next
+    assertTrue(store.put(key(2), b));
+    assertFalse(store.contains(key(0)));
+    assertTrue(Arrays.equals(b, (byte[]) store.get(key(2))));
+    assertEquals(4096, store.getAllocatedSize());
+    store.close();
+    assertEquals(0, store.getAllocatedSize());
+  }
+
+  @Test
+  public void testSpillFile() throws Exception {
+    File spill = File.createTempFile("cache", ".spill");
+    OffHeapCacheStore store = new OffHeapCacheStore(
+      4 * PLANE_SIZE, EvictionPolicy.LRU, spill, 1024, 16);
+    Cache cache = new Cache(new CrosshairStrategy(new int[] {20}),
+      new ByteArraySource(reader), store, true);
+    byte[] plane = (byte[]) cache.getObject(new int[] {0});
+    assertTrue(Arrays.equals(reader.openBytes(0), plane));
+    store.close();
+    assertFalse(spill.exists());
+  }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Random;
+
+import loci.formats.ChannelKernels;
+import loci.formats.ImageTools;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the {@link ChannelKernels} against straightforward per-sample
+ * loops, for every specialized sample size and channel count.
+ */
+public class ChannelKernelsTest {
+
+  private static final int PIXELS = 1000;
+
+  /** Total bytes large enough for the parallel kernels to split the work. */
+  private static final int LARGE_BYTES = 2 << 20;
+
+  private static byte[] random(int length) {
+    byte[] b = new byte[length];
+    new Random(length).nextBytes(b);
+    return b;
+  }
+
+  @DataProvider(name = "layouts")
+  public Object[][] layouts() {
+    int[] bytes = {1, 2, 3, 4, 8};
+    int[] channels = {1, 2, 3, 4, 5};
+    Object[][] layouts = new Object[bytes.length * channels.length * 2][];
+    int next = 0;
+    for (int b : bytes) {
+      for (int c : channels) {
+        layouts[next++] = new Object[] {b, c, PIXELS, false};
+        layouts[next++] = new Object[] {b, c, LARGE_BYTES / (b * c), true};
+      }
+    }
+    return layouts;
+  }
+
+  @Test(dataProvider = "layouts")
+  public void testExtractChannel(int bytes, int c, int pixels,
+    boolean parallel)
+  {
+    byte[] src = random(pixels * c * bytes);
+    for (int channel=0; channel<c; channel++) {
+      byte[] dest = new byte[pixels * bytes];
+      ChannelKernels.extractChannel(src, dest, channel, c, bytes, pixels,
+        parallel);
+      for (int i=0; i<pixels; i++) {
+        for (int k=0; k<bytes; k++) {
+          assertEquals(dest[i * bytes + k],
+            src[(i * c + channel) * bytes + k]);
+        }
+      }
+    }
+  }
+
+  @Test(dataProvider = "layouts")
+  public void testInterleavedToPlanar(int bytes, int c, int pixels,
+    boolean parallel)
+  {
+    byte[] src = random(pixels * c * bytes);
+    byte[] dest = new byte[src.length];
+    ChannelKernels.interleavedToPlanar(src, dest, c, bytes, pixels, parallel);
+    for (int ch=0; ch<c; ch++) {
+      for (int i=0; i<pixels; i++) {
+        for (int k=0; k<bytes; k++) {
+          assertEquals(dest[(ch * pixels + i) * bytes + k],
+            src[(i * c + ch) * bytes + k]);
+        }
+      }
+    }
+
+    byte[] roundTrip = new byte[src.length];
+    ChannelKernels.planarToInterleaved(dest, roundTrip, c, bytes, pixels,
+      parallel);
+    assertEquals(roundTrip, src);
+  }
+
+  @Test
+  public void testApplyLookupTable() {
+    byte[][] lut = new byte[3][];
+    for (int c=0; c<lut.length; c++) {
+      lut[c] = random(256 + c);
+    }
+    byte[] src = random(PIXELS);
+    byte[] interleaved = new byte[PIXELS * 3];
+    byte[] planar = new byte[PIXELS * 3];
+    ChannelKernels.applyLookupTable(src, lut, interleaved, true);
+    ChannelKernels.applyLookupTable(src, lut, planar, false);
+    byte[][] expected = ImageTools.indexedToRGB(lut, src);
+    for (int c=0; c<lut.length; c++) {
+      for (int i=0; i<PIXELS; i++) {
+        assertEquals(expected[c][i], lut[c][src[i] & 0xff]);
+        assertEquals(interleaved[i * 3 + c], expected[c][i]);
+        assertEquals(planar[c * PIXELS + i], expected[c][i]);
+      }
+    }
+  }
+
+  @Test
+  public void testApplyLookupTable16() {
+    short[][] lut = new short[2][65536];
+    Random random = new Random(0);
+    for (short[] channel : lut) {
+      for (int i=0; i<channel.length; i++) {
+        channel[i] = (short) random.nextInt();
+      }
+    }
+    byte[] src = random(PIXELS * 2);
+    for (boolean little : new boolean[] {true, false}) {
+      short[][] expected = ImageTools.indexedToRGB(lut, src, little);
+      byte[] interleaved = new byte[PIXELS * 2 * lut.length];
+      byte[] planar = new byte[PIXELS * 2 * lut.length];
+      ChannelKernels.applyLookupTable(src, lut, interleaved, little, true);
+      ChannelKernels.applyLookupTable(src, lut, planar, little, false);
+      int lo = little ? 0 : 1;
+      for (int c=0; c<lut.length; c++) {
+        for (int i=0; i<PIXELS; i++) {
+          int index = little ?
+            (src[i * 2] & 0xff) | ((src[i * 2 + 1] & 0xff) << 8) :
+            (src[i * 2 + 1] & 0xff) | ((src[i * 2] & 0xff) << 8);
+          short value = lut[c][index];
+          assertEquals(expected[c][i], value);
+          int d = (i * lut.length + c) * 2;
+          assertEquals(interleaved[d + lo], (byte) value);
+          assertEquals(interleaved[d + 1 - lo], (byte) (value >> 8));
+          d = (c * PIXELS + i) * 2;
+          assertEquals(planar[d + lo], (byte) value);
+          assertEquals(planar[d + 1 - lo], (byte) (value >> 8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPackRGB() {
+    for (int c=1; c<=4; c++) {
+      byte[] src = random(PIXELS * c);
+      for (boolean interleaved : new boolean[] {true, false}) {
+        int[] packed = ImageTools.make24Bits(src, PIXELS, 1, interleaved);
+        for (int i=0; i<PIXELS; i++) {
+          int[] samples = new int[4];
+          for (int j=0; j<c; j++) {
+            samples[j] =
+              src[interleaved ? i * c + j : j * PIXELS + i] & 0xff;
+          }
+          if (c == 1) {
+            samples[1] = samples[0];
+            samples[2] = samples[0];
+            samples[3] = samples[0];
+          }
+          int expected = (samples[3] << 24) | (samples[0] << 16) |
+            (samples[1] << 8) | samples[2];
+          assertEquals(packed[i], expected);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSplitChannels() {
+    byte[] src = random(PIXELS * 3 * 2);
+    byte[] channel = ImageTools.splitChannels(src, 1, 3, 2, false, true);
+    assertEquals(channel.length, PIXELS * 2);
+    for (int i=0; i<PIXELS; i++) {
+      assertEquals(channel[i * 2], src[i * 6 + 2]);
+      assertEquals(channel[i * 2 + 1], src[i * 6 + 3]);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testShortDestination() {
+    ChannelKernels.interleavedToPlanar(new byte[12], new byte[6], 3, 1, 4);
+  }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import loci.formats.CoalescingReader;
+import loci.formats.FormatException;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class CoalescingReaderTest {
+
+  /** TiledFakeReader whose second series is half the size of the first. */
+  private static class MixedSizeFakeReader extends TiledFakeReader {
+    @Override
+    protected void initFile(String id) throws FormatException, IOException {
+      super.initFile(id);
+      core.get(1).sizeX /= 2;
+      core.get(1).sizeY /= 2;
+    }
+  }
+
+  private FakeReader reference;
+  private CoalescingReader reader;
+  private ExecutorService executor;
+
+  @BeforeMethod
+  public void setUp() {
+    reference = new FakeReader();
+    reader = new CoalescingReader(new TiledFakeReader());
+    executor = Executors.newFixedThreadPool(8);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    executor.shutdown();
+    reference.close();
+    reader.close();
+  }
+
+  @DataProvider(name = "files")
+  public Object[][] files() {
+    return new Object[][] {
+      {"test&pixelType=uint16&sizeX=64&sizeY=64&sizeZ=2&series=2.fake"},
+      {"test&sizeX=48&sizeY=48&sizeC=3&rgb=3&interleaved=true.fake"},
+      {"test&sizeX=48&sizeY=48&sizeC=3&rgb=3&interleaved=false.fake"}
+    };
+  }
+
+  /** Reads the given regions of plane 0 of series 0 at the same time. */
+  private List<byte[]> readConcurrently(final int[][] regions)
+    throws Exception
+  {
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+    for (final int[] r : regions) {
+      futures.add(executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          start.await();
+          return reader.openBytes(0, 0, 0, null, r[0], r[1], r[2], r[3]);
+        }
+      }));
+    }
+    start.countDown();
+    List<byte[]> results = new ArrayList<byte[]>();
+    for (Future<byte[]> f : futures) results.add(f.get());
+    return results;
+  }
+
+  private void checkResults(int[][] regions, List<byte[]> results)
+    throws Exception
+  {
+    for (int i=0; i<regions.length; i++) {
+      int[] r = regions[i];
+      assertEquals(results.get(i),
+        reference.openBytes(0, r[0], r[1], r[2], r[3]));
+    }
+  }
+
+  @Test(dataProvider = "files")
+  public void testOpenBytes(String id) throws Exception {
+    reference.setId(id);
+    reader.setId(id);
+    for (int s=0; s<reference.getSeriesCount(); s++) {
+      reference.setSeries(s);
+      reader.setSeries(s);
+      for (int no=0; no<reference.getImageCount(); no++) {
+        assertEquals(reader.openBytes(no), reference.openBytes(no));
+        assertEquals(reader.openBytes(no, 3, 5, 17, 9),
+          reference.openBytes(no, 3, 5, 17, 9));
+      }
+    }
+    assertEquals(reader.getSharedCount(), 0);
+    assertEquals(reader.getReadCount(), reader.getRequestCount());
+  }
+
+  @Test(dataProvider = "files")
+  public void testMergeAdjacentTiles(String id) throws Exception {
+    reference.setId(id);
+    reader.setId(id);
+    reader.setCoalescingWindow(1000);
+
+    // a 2x2 block of tiles, an identical request and an unaligned region
+    int[][] regions = {
+      {16, 16, 16, 16}, {32, 16, 16, 16}, {16, 32, 16, 16}, {32, 32, 16, 16},
+      {16, 16, 16, 16}, {1, 2, 7, 5}
+    };
+    List<byte[]> results = readConcurrently(regions);
+    checkResults(regions, results);
+    assertEquals(reader.getRequestCount(), regions.length);
+    assertEquals(reader.getSharedCount(), 1);
+    assertEquals(reader.getReadCount(), 2);
+  }
+
+  @Test
+  public void testMergeLimit() throws Exception {
+    String id = "test&sizeX=64&sizeY=64.fake";
+    reference.setId(id);
+    reader.setId(id);
+    reader.setCoalescingWindow(1000);
+    reader.setMaxMergedBytes(0);
+
+    int[][] regions = {{0, 0, 16, 16}, {16, 0, 16, 16}};
+    List<byte[]> results = readConcurrently(regions);
+    checkResults(regions, results);
+    assertEquals(reader.getReadCount(), 2);
+  }
+
+  @Test
+  public void testManyConcurrentReads() throws Exception {
+    String id = "test&pixelType=uint16&sizeX=64&sizeY=64.fake";
+    reference.setId(id);
+    reader.setId(id);
+    int[][] regions = new int[64][];
+    for (int i=0; i<regions.length; i++) {
+      int tile = i % 16;
+      regions[i] = new int[] {(tile % 4) * 16, (tile / 4) * 16, 16, 16};
+    }
+    List<byte[]> results = readConcurrently(regions);
+    checkResults(regions, results);
+    assertEquals(reader.getRequestCount(), regions.length);
+    assertTrue(reader.getReadCount() <= regions.length);
+  }
+
+  @Test
+  public void testCurrentSeriesDuringReads() throws Exception {
+    String id = "test&pixelType=uint16&sizeX=64&sizeY=64&series=2.fake";
+    reference.setId(id);
+    reader.setId(id);
+    reader.setSeries(0);
+    List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+    for (int i=0; i<64; i++) {
+      final int x = (i % 4) * 16;
+      final boolean current = i % 2 == 0;
+      futures.add(executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          if (current) return reader.openBytes(0, x, 0, 16, 16);
+          return reader.openBytes(1, 0, 0, null, x, 0, 16, 16);
+        }
+      }));
+    }
+    for (int i=0; i<futures.size(); i++) {
+      reference.setSeries(i % 2);
+      assertEquals(futures.get(i).get(),
+        reference.openBytes(0, (i % 4) * 16, 0, 16, 16));
+    }
+    assertEquals(reader.getSeries(), 0);
+    assertEquals(reader.getReader().getSeries(), 0);
+  }
+
+  @Test
+  public void testMetadataDuringReads() throws Exception {
+    String id = "test&pixelType=uint16&sizeX=64&sizeY=64&series=2.fake";
+    reference = new MixedSizeFakeReader();
+    reference.setId(id);
+    reader = new CoalescingReader(new MixedSizeFakeReader());
+    reader.setId(id);
+    reader.setSeries(0);
+    final byte[] plane = reference.openBytes(0);
+    List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+    for (int i=0; i<64; i++) {
+      final boolean current = i % 2 == 0;
+      futures.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          if (!current) {
+            reader.openBytes(1, 0, 0, null, 0, 0, 32, 32);
+            return true;
+          }
+          return reader.getSizeX() == 64 && reader.getSizeY() == 64 &&
+            Arrays.equals(reader.openBytes(0), plane);
+        }
+      }));
+    }
+    for (Future<Boolean> f : futures) {
+      assertTrue(f.get());
+    }
+  }
+
+}
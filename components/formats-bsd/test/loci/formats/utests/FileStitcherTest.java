@@ -264,4 +264,35 @@ public class FileStitcherTest {
     fs.close();
   }
 
+  @Test
+  public void testOpenFileLimit() throws IOException, FormatException {
+    FileStitcher fs = new FileStitcher();
+    fs.setMaxOpenFiles(2);
+    fs.setId("test_z<0-5>.fake");
+    assertEquals(fs.getImageCount(), 6);
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < fs.getImageCount(); i++) {
+        assertEquals(FakeReader.readSpecialPixels(fs.openBytes(i))[2], 0);
+        // first file plus at most two pooled files
+        assertTrue(fs.getUnderlyingReaders().length <= 3);
+      }
+    }
+    assertEquals(fs.getUsedFiles().length, 6);
+    fs.close();
+  }
+
+  @Test
+  public void testParallelUsedFiles() throws IOException, FormatException {
+    FileStitcher fs = new FileStitcher();
+    fs.setInitializationThreads(3);
+    fs.setId("test_t<0-9>.fake");
+    String[] used = fs.getUsedFiles();
+    assertEquals(used.length, 10);
+    for (int i = 0; i < used.length; i++) {
+      assertEquals(new Location(used[i]).getName(),
+        String.format("test_t%d.fake", i));
+    }
+    fs.close();
+  }
+
 }
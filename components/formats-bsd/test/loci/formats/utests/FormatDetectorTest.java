@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import loci.common.Location;
+import loci.formats.DetectedFile;
+import loci.formats.FormatDetector;
+import loci.formats.ImageReader;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link FormatDetector}.
+ */
+public class FormatDetectorTest {
+
+  @Test
+  public void testDetect() throws Exception {
+    File unknown = File.createTempFile("detector", ".unknown-suffix");
+    unknown.deleteOnExit();
+
+    List<String> paths = new ArrayList<String>();
+    for (int i=0; i<8; i++) {
+      paths.add("test" + i + ".fake");
+    }
+    paths.add(unknown.getAbsolutePath());
+
+    FormatDetector detector =
+      new FormatDetector(ImageReader.getDefaultReaderClasses(), 3);
+    List<DetectedFile> results = detector.detect(paths);
+    assertEquals(results.size(), paths.size());
+
+    for (int i=0; i<8; i++) {
+      DetectedFile f = results.get(i);
+      assertEquals(f.filename, paths.get(i));
+      assertEquals(f.reader, FakeReader.class);
+      assertTrue(Arrays.asList(f.usedFiles).contains(
+        new Location(paths.get(i)).getAbsolutePath()));
+    }
+    DetectedFile last = results.get(8);
+    assertNull(last.reader);
+    assertNull(last.usedFiles);
+    assertEquals(last.fileGroupOption, -1);
+
+    assertEquals(FormatDetector.getDatasets(results).size(), 8);
+  }
+
+  @Test
+  public void testNoGrouping() throws Exception {
+    FormatDetector detector =
+      new FormatDetector(ImageReader.getDefaultReaderClasses(), 2);
+    detector.setGroupFiles(false);
+    List<DetectedFile> results =
+      detector.detect(Arrays.asList("a.fake", "b.fake"));
+    for (DetectedFile f : results) {
+      assertEquals(f.reader, FakeReader.class);
+      assertNull(f.usedFiles);
+    }
+    assertTrue(FormatDetector.getDatasets(results).isEmpty());
+  }
+
+}
@@ -32,7 +32,13 @@
 
 package loci.formats.utests;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
+import loci.formats.UnknownFormatException;
 import loci.formats.in.MetadataOptions;
 import loci.formats.in.DynamicMetadataOptions;
 import loci.formats.in.MetadataLevel;
@@ -43,6 +49,7 @@ import org.testng.annotations.Test;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
 
 
 public class ImageReaderTest {
@@ -85,4 +92,85 @@ public class ImageReaderTest {
     reader.close();
   }
 
+  private static final byte[] TIFF_HEADER = {
+    'I', 'I', 42, 0, 8, 0, 0, 0, 0, 0, 0, 0, 0, 0
+  };
+
+  private static File createFile(File dir, String name, byte[] contents)
+    throws IOException
+  {
+    File f = new File(dir, name);
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(contents);
+    }
+    finally {
+      out.close();
+    }
+    f.deleteOnExit();
+    return f;
+  }
+
+  /** Finds the reader type by calling isThisType on each reader in turn. */
+  private static Class<?> findReaderSerially(String id) {
+    for (IFormatReader r : new ImageReader().getReaders()) {
+      if (r.isThisType(id, true)) return r.getClass();
+    }
+    return null;
+  }
+
+  private static Class<?> findReader(String id) throws Exception {
+    try {
+      return new ImageReader().getReader(id).getClass();
+    }
+    catch (UnknownFormatException e) {
+      return null;
+    }
+  }
+
+  @Test
+  public void testDetectionMatchesSerialChecks() throws Exception {
+    File dir = File.createTempFile("detection", "");
+    dir.delete();
+    dir.mkdir();
+    dir.deleteOnExit();
+    File[] files = {
+      createFile(dir, "test.fake", new byte[0]),
+      createFile(dir, "test.tif", TIFF_HEADER),
+      createFile(dir, "test.tif.gz", TIFF_HEADER),
+      createFile(dir, "tiff-header.dat", TIFF_HEADER),
+      createFile(dir, "test.txt", "1 2 3\n4 5 6\n".getBytes("UTF-8")),
+      createFile(dir, "noise.xyz", new byte[] {1, 2, 3, 4, 5, 6, 7, 8}),
+    };
+    for (File f : files) {
+      String id = f.getAbsolutePath();
+      Class<?> expected = findReaderSerially(id);
+      assertEquals(findReader(id), expected, id);
+      // the second lookup uses the remembered result
+      assertEquals(findReader(id), expected, id);
+    }
+    ImageReader.clearDetectionCache();
+  }
+
+  @Test
+  public void testDetectionCacheInvalidation() throws Exception {
+    File f = File.createTempFile("detection", ".unknown-suffix");
+    f.deleteOnExit();
+    String id = f.getAbsolutePath();
+    assertEquals(findReader(id), findReaderSerially(id));
+
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(TIFF_HEADER);
+    }
+    finally {
+      out.close();
+    }
+    f.setLastModified(f.lastModified() + 2000);
+    Class<?> tiff = findReaderSerially(id);
+    assertNotNull(tiff);
+    assertSame(findReader(id), tiff);
+    ImageReader.clearDetectionCache();
+  }
+
 }
@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import loci.formats.Memoizer;
+import loci.formats.tools.MemoPrewarmer;
+import loci.formats.tools.MemoPrewarmer.ReaderTiming;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MemoPrewarmerTest {
+
+  private static final String[] TEST_FILES = {
+    "a&sizeX=20&sizeY=20.fake",
+    "b&sizeX=30&sizeY=30.fake",
+  };
+
+  private File dataDir;
+  private File cacheDir;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    dataDir = Files.createTempDirectory("MemoPrewarmerTest.data").toFile();
+    cacheDir = Files.createTempDirectory("MemoPrewarmerTest.cache").toFile();
+    File subDir = new File(dataDir, "sub");
+    subDir.mkdir();
+    new File(dataDir, TEST_FILES[0]).createNewFile();
+    new File(subDir, TEST_FILES[1]).createNewFile();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    deleteOnExit(dataDir);
+    deleteOnExit(cacheDir);
+  }
+
+  private static void deleteOnExit(File file) {
+    file.deleteOnExit();
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteOnExit(child);
+      }
+    }
+  }
+
+  @Test
+  public void testPrewarm() throws Exception {
+    MemoPrewarmer prewarmer = new MemoPrewarmer(cacheDir);
+    prewarmer.setThreads(2);
+    Map<String, ReaderTiming> timings =
+      prewarmer.prewarm(dataDir.getAbsolutePath());
+    ReaderTiming fake = timings.get("FakeReader");
+    assertEquals(fake.getCreatedCount(), 2);
+    assertEquals(fake.getSkippedCount(), 0);
+    assertEquals(fake.getFailedCount(), 0);
+
+    Memoizer memoizer = new Memoizer(0, cacheDir);
+    String id = new File(dataDir, TEST_FILES[0]).getAbsolutePath();
+    assertTrue(memoizer.getMemoFile(id).exists());
+
+    timings = new MemoPrewarmer(cacheDir).prewarm(dataDir.getAbsolutePath());
+    fake = timings.get("FakeReader");
+    assertEquals(fake.getCreatedCount(), 0);
+    assertEquals(fake.getSkippedCount(), 2);
+  }
+
+  @Test
+  public void testMultiFileDataset() throws Exception {
+    File patternDir = new File(dataDir, "pattern");
+    patternDir.mkdir();
+    File[] planes = {
+      new File(patternDir, "z1.fake"), new File(patternDir, "z2.fake")
+    };
+    for (File plane : planes) {
+      plane.createNewFile();
+    }
+    File pattern = new File(patternDir, "stack.pattern");
+    Files.write(pattern.toPath(), "z<1-2>.fake".getBytes("UTF-8"));
+
+    MemoPrewarmer prewarmer = new MemoPrewarmer(cacheDir);
+    prewarmer.setThreads(4);
+    Map<String, ReaderTiming> timings =
+      prewarmer.prewarm(dataDir.getAbsolutePath());
+    assertEquals(timings.get("FilePatternReader").getCreatedCount(), 1);
+    assertEquals(timings.get("FakeReader").getCreatedCount(), 2);
+
+    // the companion files were not initialized on their own
+    Memoizer memoizer = new Memoizer(0, cacheDir);
+    assertTrue(memoizer.getMemoFile(pattern.getAbsolutePath()).exists());
+    for (File plane : planes) {
+      assertFalse(memoizer.getMemoFile(plane.getAbsolutePath()).exists());
+    }
+  }
+
+  @Test
+  public void testDatasetSpanningDirectories() throws Exception {
+    File patternDir = new File(dataDir, "pattern");
+    File planeDir = new File(dataDir, "planes");
+    patternDir.mkdir();
+    planeDir.mkdir();
+    File[] planes = {
+      new File(planeDir, "z1.fake"), new File(planeDir, "z2.fake")
+    };
+    for (File plane : planes) {
+      plane.createNewFile();
+    }
+    File pattern = new File(patternDir, "stack.pattern");
+    String planePattern = new File(planeDir, "z<1-2>.fake").getAbsolutePath();
+    Files.write(pattern.toPath(), planePattern.getBytes("UTF-8"));
+
+    MemoPrewarmer prewarmer = new MemoPrewarmer(cacheDir);
+    prewarmer.setThreads(4);
+    Map<String, ReaderTiming> timings =
+      prewarmer.prewarm(dataDir.getAbsolutePath());
+    assertEquals(timings.get("FilePatternReader").getCreatedCount(), 1);
+
+    Memoizer memoizer = new Memoizer(0, cacheDir);
+    assertTrue(memoizer.getMemoFile(pattern.getAbsolutePath()).exists());
+    for (File plane : planes) {
+      assertFalse(memoizer.getMemoFile(plane.getAbsolutePath()).exists());
+    }
+  }
+
+  @Test(expectedExceptions={IllegalArgumentException.class})
+  public void testInvalidThreads() {
+    new MemoPrewarmer(cacheDir).setThreads(0);
+  }
+
+}
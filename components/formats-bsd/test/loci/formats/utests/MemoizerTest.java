@@ -34,14 +34,21 @@ package loci.formats.utests;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.assertNull;
 
 import java.io.File;
+import java.lang.reflect.Proxy;
 import java.nio.file.Files;
 
 import loci.formats.Memoizer;
+import loci.formats.SegmentedMemoStore;
 import loci.formats.in.FakeReader;
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.meta.MetadataStore;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.tiff.IFDOffsetIndex;
 
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -160,6 +167,30 @@ public class MemoizerTest {
     recursiveDeleteOnExit(directory);
   }
 
+  @Test
+  public void testIFDIndexDirectory() throws Exception {
+    File directory = createTempDir();
+    IFDOffsetIndex.setDirectory(null);
+    try {
+      Memoizer memoizer = new Memoizer(0, directory);
+      memoizer.setId(id);
+      memoizer.close();
+      assertEquals(IFDOffsetIndex.getDirectory(), directory);
+
+      // an explicitly set directory is kept
+      File other = createTempDir();
+      IFDOffsetIndex.setDirectory(other);
+      memoizer.setId(id);
+      memoizer.close();
+      assertEquals(IFDOffsetIndex.getDirectory(), other);
+      recursiveDeleteOnExit(other);
+    }
+    finally {
+      IFDOffsetIndex.setDirectory(null);
+      recursiveDeleteOnExit(directory);
+    }
+  }
+
   @Test
   public void testConstructorTimeElapsedNull() throws Exception {
     Memoizer memoizer = new Memoizer(0, null);
@@ -250,4 +281,155 @@ public class MemoizerTest {
     checkMemo(memoizer, id);
   }
 
+  @Test
+  public void testSharedCache() throws Exception {
+    Memoizer.setSharedCacheSize(1024 * 1024);
+    try {
+      assertEquals(Memoizer.getSharedCacheSize(), 1024 * 1024);
+      Memoizer memoizer = new Memoizer(0);
+      checkMemo(memoizer, id);
+
+      // a second memoizer is served from the shared cache
+      Memoizer other = new Memoizer(0);
+      other.setId(id);
+      assertTrue(other.isLoadedFromMemo());
+      other.close();
+
+      // deleting the memo file invalidates the cached contents
+      assertTrue(memoizer.getMemoFile(id).delete());
+      Memoizer.clearSharedCache();
+      checkMemo(new Memoizer(0), id);
+    }
+    finally {
+      Memoizer.setSharedCacheSize(0);
+    }
+  }
+
+  @Test(expectedExceptions={IllegalArgumentException.class})
+  public void testSharedCacheInvalidSize() {
+    Memoizer.setSharedCacheSize(-1);
+  }
+
+  @Test
+  public void testAsyncSaving() throws Exception {
+    Memoizer memoizer = new Memoizer(0);
+    assertFalse(memoizer.isAsyncSaving());
+    memoizer.setAsyncSaving(true);
+    assertTrue(memoizer.isAsyncSaving());
+    memoizer.setId(id);
+    assertFalse(memoizer.isLoadedFromMemo());
+    assertTrue(memoizer.isSavedToMemo());
+    memoizer.close();
+
+    Memoizer.awaitPendingSaves();
+    File memoFile = memoizer.getMemoFile(id);
+    assertTrue(memoFile.exists());
+
+    memoizer.setId(id);
+    assertTrue(memoizer.isLoadedFromMemo());
+    assertFalse(memoizer.isSavedToMemo());
+    memoizer.close();
+  }
+
+  @Test
+  public void testMetadataStoreSection() throws Exception {
+    Memoizer memoizer = new Memoizer(0);
+    memoizer.setLazyMetadata(true);
+    memoizer.setId(id);
+    assertTrue(memoizer.isSavedToMemo());
+    MetadataRetrieve saved = (MetadataRetrieve) memoizer.getMetadataStore();
+    int imageCount = saved.getImageCount();
+    String sizeX = saved.getPixelsSizeX(0).toString();
+    memoizer.close();
+
+    memoizer.setId(id);
+    assertTrue(memoizer.isLoadedFromMemo());
+    MetadataStore store = memoizer.getMetadataStore();
+    assertTrue(store instanceof MetadataRetrieve);
+    assertTrue(Proxy.isProxyClass(store.getClass()));
+    MetadataRetrieve loaded = (MetadataRetrieve) store;
+    assertEquals(loaded.getImageCount(), imageCount);
+    assertEquals(loaded.getPixelsSizeX(0).toString(), sizeX);
+    memoizer.close();
+  }
+
+  @Test
+  public void testMetadataStoreLoadedEagerly() throws Exception {
+    Memoizer memoizer = new Memoizer(0);
+    assertFalse(memoizer.isLazyMetadata());
+    memoizer.setId(id);
+    assertTrue(memoizer.isSavedToMemo());
+    Class<?> storeClass = memoizer.getMetadataStore().getClass();
+    memoizer.close();
+
+    memoizer.setId(id);
+    assertTrue(memoizer.isLoadedFromMemo());
+    assertEquals(memoizer.getMetadataStore().getClass(), storeClass);
+    memoizer.close();
+  }
+
+  @Test
+  public void testSecondStoreOfSameClass() throws Exception {
+    File plateFile = new File(idDir, "plate&plates=1&plateRows=1.fake");
+    plateFile.createNewFile();
+    String plateId = plateFile.getAbsolutePath();
+
+    Memoizer memoizer = new Memoizer(reader, 0);
+    memoizer.setLazyMetadata(true);
+    memoizer.setId(plateId);
+    assertTrue(memoizer.isSavedToMemo());
+    memoizer.close();
+
+    memoizer.setId(plateId);
+    assertTrue(memoizer.isLoadedFromMemo());
+    MetadataStore store = memoizer.getMetadataStore();
+    OMEXMLMetadata second =
+      ((FakeReader) memoizer.getReader()).getOmeXmlMetadata();
+    assertNotSame(second, store);
+    assertFalse(Proxy.isProxyClass(second.getClass()));
+    assertEquals(second.getPlateCount(), 1);
+    assertEquals(((MetadataRetrieve) store).getPlateCount(), 1);
+    memoizer.close();
+  }
+
+  @Test
+  public void testExposedKryoIsNotShared() throws Exception {
+    Memoizer.KryoDeser deser = new Memoizer.KryoDeser();
+    Object kryo = deser.getKryo();
+    deser.close();
+    Memoizer.KryoDeser next = new Memoizer.KryoDeser();
+    assertNotSame(next.getKryo(), kryo);
+    next.close();
+  }
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void testRegisteredKryoIsNotShared() throws Exception {
+    Memoizer.KryoDeser deser = new Memoizer.KryoDeser();
+    Object kryo = deser.kryo;
+    deser.kryo.register(MemoizerTest.class);
+    deser.close();
+    Memoizer.KryoDeser next = new Memoizer.KryoDeser();
+    assertNotSame(next.kryo, kryo);
+    next.close();
+  }
+
+  @Test
+  public void testMemoStore() throws Exception {
+    File storeDir = createTempDir();
+    SegmentedMemoStore store = new SegmentedMemoStore(storeDir, 0);
+    try {
+      Memoizer memoizer = new Memoizer(0, storeDir);
+      memoizer.setMemoStore(store);
+      assertEquals(memoizer.getMemoStore(), store);
+      checkMemo(memoizer, id);
+      assertFalse(memoizer.getMemoFile(id).exists());
+      assertEquals(store.getCount(), 1);
+    }
+    finally {
+      store.close();
+      recursiveDeleteOnExit(storeDir);
+    }
+  }
+
 }
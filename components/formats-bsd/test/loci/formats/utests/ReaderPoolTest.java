@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import loci.common.services.ServiceFactory;
+import loci.formats.IFormatReader;
+import loci.formats.ReaderPool;
+import loci.formats.in.FakeReader;
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.meta.MetadataStore;
+import loci.formats.services.OMEXMLService;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ReaderPoolTest {
+
+  private static final String TEST_FILE =
+    "test&pixelType=uint16&sizeX=64&sizeY=48&sizeZ=3&sizeT=2&series=2.fake";
+
+  private File idDir;
+  private String id;
+  private FakeReader reference;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    idDir = Files.createTempDirectory(
+      ReaderPoolTest.class.getName() + ".").toFile();
+    File file = new File(idDir, TEST_FILE);
+    file.createNewFile();
+    id = file.getAbsolutePath();
+    reference = new FakeReader();
+    reference.setId(id);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reference.close();
+    new File(idDir, TEST_FILE).delete();
+    idDir.delete();
+  }
+
+  private ReaderPool createPool(int maxReaders) throws Exception {
+    FakeReader reader = new FakeReader();
+    reader.setId(id);
+    return new ReaderPool(reader, maxReaders);
+  }
+
+  private byte[] expected(int series, int no, int x, int y, int w, int h)
+    throws Exception
+  {
+    reference.setSeries(series);
+    return reference.openBytes(no, x, y, w, h);
+  }
+
+  @Test
+  public void testReadRegion() throws Exception {
+    ReaderPool pool = createPool(2);
+    try {
+      for (int s=0; s<2; s++) {
+        for (int no=0; no<6; no++) {
+          assertEquals(pool.readRegion(s, 0, no, 5, 7, 20, 10),
+            expected(s, no, 5, 7, 20, 10));
+        }
+      }
+      byte[] buf = new byte[2 * 8 * 8];
+      assertTrue(pool.readRegion(1, 0, 3, 0, 0, 8, 8, buf) == buf);
+      assertEquals(buf, expected(1, 3, 0, 0, 8, 8));
+    }
+    finally {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final ReaderPool pool = createPool(3);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+      for (int i=0; i<48; i++) {
+        final int series = i % 2;
+        final int no = (i / 2) % 6;
+        final int x = i % 16;
+        results.add(executor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws Exception {
+            return pool.readRegion(series, 0, no, x, 4, 32, 16);
+          }
+        }));
+      }
+      for (int i=0; i<results.size(); i++) {
+        assertEquals(results.get(i).get(),
+          expected(i % 2, (i / 2) % 6, i % 16, 4, 32, 16));
+      }
+      assertTrue(pool.getReaderCount() <= pool.getMaxReaders());
+    }
+    finally {
+      executor.shutdown();
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testCheckoutTimeout() throws Exception {
+    ReaderPool pool = createPool(2);
+    try {
+      IFormatReader a = pool.checkout();
+      IFormatReader b = pool.checkout(1, TimeUnit.SECONDS);
+      assertNotNull(b);
+      assertTrue(a != b);
+      assertEquals(pool.getReaderCount(), 2);
+      assertNull(pool.checkout(10, TimeUnit.MILLISECONDS));
+      pool.checkin(b);
+      IFormatReader c = pool.checkout(1, TimeUnit.SECONDS);
+      assertTrue(c == b);
+      pool.checkin(c);
+      pool.checkin(a);
+    }
+    finally {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testCopiedMetadata() throws Exception {
+    OMEXMLService service =
+      new ServiceFactory().getInstance(OMEXMLService.class);
+    FakeReader reader = new FakeReader();
+    reader.setMetadataStore(service.createOMEXMLMetadata());
+    reader.setId(id);
+    ReaderPool pool = new ReaderPool(reader, 2);
+    try {
+      IFormatReader a = pool.checkout();
+      IFormatReader b = pool.checkout();
+      assertTrue(a == reader);
+      assertTrue(b != reader);
+      MetadataStore store = b.getMetadataStore();
+      assertFalse(Proxy.isProxyClass(store.getClass()));
+      assertTrue(store != reader.getMetadataStore());
+      assertTrue(store instanceof MetadataRetrieve);
+      assertEquals(service.getOMEXML((MetadataRetrieve) store),
+        service.getOMEXML((MetadataRetrieve) reader.getMetadataStore()));
+      assertEquals(b.getGlobalMetadata(), reader.getGlobalMetadata());
+      pool.checkin(b);
+      pool.checkin(a);
+    }
+    finally {
+      pool.close();
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testClosed() throws Exception {
+    ReaderPool pool = createPool(2);
+    pool.close();
+    pool.readRegion(0, 0, 0, 0, 0, 8, 8);
+  }
+
+}
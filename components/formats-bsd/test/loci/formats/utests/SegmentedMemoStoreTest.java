@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import loci.formats.SegmentedMemoStore;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SegmentedMemoStoreTest {
+
+  private File directory;
+  private SegmentedMemoStore store;
+
+  private static byte[] memo(int length, int value) {
+    byte[] memo = new byte[length];
+    for (int i=0; i<length; i++) {
+      memo[i] = (byte) (value + i);
+    }
+    return memo;
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("SegmentedMemoStoreTest").toFile();
+    store = new SegmentedMemoStore(directory, 0);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    store.close();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testPutGet() throws Exception {
+    store.put("/a", memo(100, 1));
+    store.put("/b", memo(50, 2));
+    assertEquals(store.get("/a", 0), memo(100, 1));
+    assertEquals(store.get("/b", 0), memo(50, 2));
+    assertNull(store.get("/c", 0));
+    assertEquals(store.getCount(), 2);
+    assertEquals(store.getSize(), 150);
+
+    store.put("/a", memo(10, 3));
+    assertEquals(store.get("/a", 0), memo(10, 3));
+    assertEquals(store.getSize(), 60);
+  }
+
+  @Test
+  public void testNotBefore() throws Exception {
+    store.put("/a", memo(10, 1));
+    assertNull(store.get("/a", System.currentTimeMillis() + 1000));
+    assertEquals(store.get("/a", 0), memo(10, 1));
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    store.put("/a", memo(10, 1));
+    assertTrue(store.remove("/a"));
+    assertFalse(store.remove("/a"));
+    assertNull(store.get("/a", 0));
+    assertEquals(store.getSize(), 0);
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    store.put("/a", memo(10, 1));
+    store.put("/b", memo(20, 2));
+    store.remove("/b");
+    store.close();
+
+    store = new SegmentedMemoStore(directory, 0);
+    assertEquals(store.getCount(), 1);
+    assertEquals(store.get("/a", 0), memo(10, 1));
+    assertNull(store.get("/b", 0));
+  }
+
+  @Test
+  public void testRebuildIndex() throws Exception {
+    store.put("/a", memo(10, 1));
+    store.put("/b", memo(20, 2));
+    store.remove("/b");
+    store.put("/a", memo(30, 3));
+    store.close();
+    assertTrue(new File(directory, "index").delete());
+
+    store = new SegmentedMemoStore(directory, 0);
+    assertEquals(store.getCount(), 1);
+    assertEquals(store.getSize(), 30);
+    assertEquals(store.get("/a", 0), memo(30, 3));
+    assertNull(store.get("/b", 0));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    store.close();
+    store = new SegmentedMemoStore(directory, 250);
+    store.put("/a", memo(100, 1));
+    store.put("/b", memo(100, 2));
+    store.get("/a", 0);
+    store.put("/c", memo(100, 3));
+
+    // "/b" was the least recently used memo
+    assertEquals(store.getCount(), 2);
+    assertNull(store.get("/b", 0));
+    assertEquals(store.get("/a", 0), memo(100, 1));
+    assertEquals(store.get("/c", 0), memo(100, 3));
+    assertTrue(store.getSize() <= 250);
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    store.setSegmentSize(1000);
+    for (int i=0; i<20; i++) {
+      store.put("/" + i, memo(400, i));
+    }
+    int segments = store.getSegmentCount();
+    for (int i=0; i<18; i++) {
+      store.remove("/" + i);
+    }
+    store.compact();
+    assertTrue(store.getSegmentCount() < segments);
+    assertEquals(store.getCount(), 2);
+    assertEquals(store.get("/18", 0), memo(400, 18));
+    assertEquals(store.get("/19", 0), memo(400, 19));
+
+    store.close();
+    store = new SegmentedMemoStore(directory, 0);
+    assertEquals(store.get("/18", 0), memo(400, 18));
+    assertEquals(store.get("/19", 0), memo(400, 19));
+  }
+
+  @Test
+  public void testEvictionSurvivesRebuild() throws Exception {
+    store.close();
+    store = new SegmentedMemoStore(directory, 250);
+    store.put("/a", memo(100, 1));
+    store.put("/b", memo(100, 2));
+    store.put("/c", memo(100, 3));
+    store.close();
+    assertTrue(new File(directory, "index").delete());
+
+    store = new SegmentedMemoStore(directory, 0);
+    assertEquals(store.getCount(), 2);
+    assertNull(store.get("/a", 0));
+    assertEquals(store.get("/b", 0), memo(100, 2));
+    assertEquals(store.get("/c", 0), memo(100, 3));
+  }
+
+  @Test
+  public void testCompactionKeepsRemovals() throws Exception {
+    store.setSegmentSize(1000);
+    store.put("/keep", memo(400, 1));
+    store.put("/old", memo(200, 2));
+    // starts a second segment, which then holds the removal of "/old"
+    store.put("/x", memo(400, 3));
+    store.remove("/old");
+    store.remove("/x");
+    store.put("/y", memo(600, 4));
+    int segments = store.getSegmentCount();
+    store.compact();
+    assertTrue(store.getSegmentCount() < segments);
+    store.close();
+    assertTrue(new File(directory, "index").delete());
+
+    store = new SegmentedMemoStore(directory, 0);
+    assertEquals(store.getCount(), 2);
+    assertNull(store.get("/old", 0));
+    assertNull(store.get("/x", 0));
+    assertEquals(store.get("/keep", 0), memo(400, 1));
+    assertEquals(store.get("/y", 0), memo(600, 4));
+  }
+
+  @Test(expectedExceptions={IOException.class})
+  public void testLocked() throws Exception {
+    new SegmentedMemoStore(directory, 0);
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.utests;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import loci.formats.TileCacheReader;
+import loci.formats.cache.ICacheStore;
+import loci.formats.cache.MemoryCacheStore;
+import loci.formats.cache.OffHeapCacheStore;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TileCacheReaderTest {
+
+  private static final int TILE_SIZE = TiledFakeReader.TILE_SIZE;
+
+  private FakeReader reference;
+  private TileCacheReader reader;
+
+  @BeforeMethod
+  public void setUp() {
+    reference = new FakeReader();
+    reader = new TileCacheReader(new TiledFakeReader());
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reference.close();
+    reader.close();
+  }
+
+  @DataProvider(name = "files")
+  public Object[][] files() {
+    return new Object[][] {
+      {"test&pixelType=uint16&sizeX=70&sizeY=50&sizeZ=2&series=2.fake"},
+      {"test&sizeX=45&sizeY=37&sizeC=3&rgb=3&interleaved=true.fake"},
+      {"test&sizeX=45&sizeY=37&sizeC=3&rgb=3&interleaved=false.fake"}
+    };
+  }
+
+  private void checkRegions(long seed) throws Exception {
+    Random random = new Random(seed);
+    for (int s=0; s<reference.getSeriesCount(); s++) {
+      reference.setSeries(s);
+      reader.setSeries(s);
+      int sizeX = reference.getSizeX();
+      int sizeY = reference.getSizeY();
+      for (int no=0; no<reference.getImageCount(); no++) {
+        assertEquals(reader.openBytes(no), reference.openBytes(no));
+        for (int i=0; i<20; i++) {
+          int x = random.nextInt(sizeX);
+          int y = random.nextInt(sizeY);
+          int w = 1 + random.nextInt(sizeX - x);
+          int h = 1 + random.nextInt(sizeY - y);
+          assertEquals(reader.openBytes(no, x, y, w, h),
+            reference.openBytes(no, x, y, w, h));
+        }
+      }
+    }
+  }
+
+  @Test(dataProvider = "files")
+  public void testRegions(String id) throws Exception {
+    reference.setId(id);
+    reader.setId(id);
+    checkRegions(id.hashCode());
+    assertTrue(reader.getHitCount() > 0);
+  }
+
+  @Test(dataProvider = "files")
+  public void testOffHeapStore(String id) throws Exception {
+    OffHeapCacheStore store = new OffHeapCacheStore(1024 * 1024);
+    try {
+      reader.setCacheStore(store);
+      reference.setId(id);
+      reader.setId(id);
+      checkRegions(id.hashCode());
+    }
+    finally {
+      reader.close();
+      store.close();
+    }
+  }
+
+  @Test
+  public void testPanning() throws Exception {
+    String id = "test&sizeX=128&sizeY=128.fake";
+    reference.setId(id);
+    reader.setId(id);
+
+    // the first region reads 3x3 tiles, panning by 8 pixels adds a column
+    assertEquals(reader.openBytes(0, 8, 8, 40, 40),
+      reference.openBytes(0, 8, 8, 40, 40));
+    assertEquals(reader.getMissCount(), 9);
+    assertEquals(reader.openBytes(0, 16, 8, 40, 40),
+      reference.openBytes(0, 16, 8, 40, 40));
+    assertEquals(reader.getMissCount(), 12);
+    assertEquals(reader.getHitCount(), 6);
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    String id = "test&sizeX=128&sizeY=128.fake";
+    reference.setId(id);
+    reader.setCacheStore(new MemoryCacheStore(4 * TILE_SIZE * TILE_SIZE));
+    reader.setId(id);
+    assertEquals(reader.openBytes(0), reference.openBytes(0));
+    assertEquals(reader.getCacheStore().getObjectCount(), 4);
+    assertTrue(reader.getCacheStore().getSize() <= 4 * TILE_SIZE * TILE_SIZE);
+  }
+
+  @Test
+  public void testSharedStore() throws Exception {
+    ICacheStore store = reader.getCacheStore();
+    assertSame(store, TileCacheReader.getSharedCacheStore());
+    assertEquals(store.getCapacity(), MemoryCacheStore.SHARED_CAPACITY);
+
+    // same series, plane and tiles in two files that share the store
+    String first = "first&sizeX=32&sizeY=32.fake";
+    String second = "second&sizeX=32&sizeY=32&pixelType=uint16.fake";
+    TileCacheReader other = new TileCacheReader(new TiledFakeReader());
+    try {
+      assertSame(other.getCacheStore(), store);
+      reader.setId(first);
+      other.setId(second);
+      byte[] firstPlane = reader.openBytes(0);
+      byte[] secondPlane = other.openBytes(0);
+      reference.setId(second);
+      assertEquals(secondPlane, reference.openBytes(0));
+      assertFalse(Arrays.equals(firstPlane, secondPlane));
+      int count = store.getObjectCount();
+
+      // closing one reader keeps the tiles of the other
+      reader.close();
+      assertEquals(store.getObjectCount(), count - 4);
+      assertEquals(other.openBytes(0), secondPlane);
+      assertEquals(other.getMissCount(), 4);
+    }
+    finally {
+      other.close();
+    }
+  }
+
+}
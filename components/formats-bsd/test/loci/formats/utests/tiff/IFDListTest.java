@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatTools;
+import loci.formats.in.MinimalTiffReader;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.IFDOffsetIndex;
+import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TiffSaver;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for lazily parsed {@link IFDList}s.
+ */
+public class IFDListTest {
+
+  private static final int PLANES = 6;
+  private static final int WIDTH = 16;
+  private static final int HEIGHT = 8;
+
+  private File file;
+
+  @BeforeClass
+  public void setUp() throws Exception {
+    file = File.createTempFile("IFDListTest", ".tif");
+    TiffSaver saver = new TiffSaver(file.getAbsolutePath());
+    saver.writeHeader();
+    for (int i=0; i<PLANES; i++) {
+      IFD ifd = new IFD();
+      ifd.put(IFD.IMAGE_WIDTH, WIDTH);
+      ifd.put(IFD.IMAGE_LENGTH, HEIGHT);
+      saver.writeImage(getPlane(i), ifd, i, FormatTools.UINT8,
+        i == PLANES - 1);
+    }
+    saver.close();
+  }
+
+  @AfterClass
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testLazyList() throws Exception {
+    RandomAccessInputStream in =
+      new RandomAccessInputStream(file.getAbsolutePath());
+    try {
+      TiffParser parser = new TiffParser(in);
+      IFDList ifds = parser.getLazyIFDs();
+      assertTrue(ifds.isLazy());
+      assertEquals(PLANES, ifds.size());
+      assertTrue(Arrays.equals(parser.getIFDOffsets(), ifds.getOffsets()));
+      assertFalse(ifds.isParsed(3));
+      assertEquals(WIDTH, ifds.get(3).getImageWidth());
+      assertTrue(ifds.isParsed(3));
+      assertFalse(ifds.isParsed(4));
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testIterationParsesAll() throws Exception {
+    RandomAccessInputStream in =
+      new RandomAccessInputStream(file.getAbsolutePath());
+    try {
+      IFDList ifds = new TiffParser(in).getLazyIFDs();
+      assertTrue(ifds instanceof ArrayList);
+      int count = 0;
+      for (IFD ifd : ifds) {
+        assertEquals(WIDTH, ifd.getImageWidth());
+        count++;
+      }
+      assertEquals(PLANES, count);
+      assertFalse(ifds.isLazy());
+      assertTrue(ifds.isParsed(4));
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testUniformReader() throws Exception {
+    MinimalTiffReader reader = new MinimalTiffReader();
+    reader.setAssumeUniformIFDs(true);
+    reader.setId(file.getAbsolutePath());
+    try {
+      assertEquals(PLANES, reader.getImageCount());
+      assertTrue(reader.getIFDs().isLazy());
+      assertFalse(reader.getIFDs().isParsed(4));
+      assertTrue(Arrays.equals(getPlane(4), reader.openBytes(4)));
+      assertTrue(reader.getIFDs().isParsed(4));
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testUniformReaderIndex() throws Exception {
+    File directory = File.createTempFile("IFDListTest", ".dir");
+    directory.delete();
+    directory.mkdir();
+    IFDOffsetIndex.setDirectory(directory);
+    String id = file.getAbsolutePath();
+    MinimalTiffReader reader = new MinimalTiffReader();
+    reader.setAssumeUniformIFDs(true);
+    try {
+      reader.setId(id);
+      long[] offsets = reader.getIFDs().getOffsets();
+      reader.close();
+
+      // the offsets walked during the first initialization are indexed
+      IFDOffsetIndex index = IFDOffsetIndex.open(id);
+      assertTrue(Arrays.equals(offsets, index.getIFDOffsets()));
+
+      reader.setId(id);
+      assertEquals(PLANES, reader.getImageCount());
+      assertFalse(reader.getIFDs().isParsed(4));
+      assertTrue(Arrays.equals(getPlane(4), reader.openBytes(4)));
+    }
+    finally {
+      reader.close();
+      IFDOffsetIndex.setDirectory(null);
+      deleteAll(directory);
+    }
+  }
+
+  private static void deleteAll(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) deleteAll(child);
+    }
+    f.delete();
+  }
+
+  private byte[] getPlane(int no) {
+    byte[] plane = new byte[WIDTH * HEIGHT];
+    Arrays.fill(plane, (byte) (no + 1));
+    return plane;
+  }
+
+}
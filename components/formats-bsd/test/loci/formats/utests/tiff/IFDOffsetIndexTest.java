@@ -0,0 +1,296 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatTools;
+import loci.formats.in.MinimalTiffReader;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDOffsetIndex;
+import loci.formats.tiff.IFDType;
+import loci.formats.tiff.OnDemandLongArray;
+import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TiffSaver;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link IFDOffsetIndex}.
+ */
+public class IFDOffsetIndexTest {
+
+  private static final int PLANES = 4;
+  private static final int WIDTH = 16;
+  private static final int HEIGHT = 8;
+
+  private File file;
+  private File directory;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    file = File.createTempFile("IFDOffsetIndexTest", ".tif");
+    directory = File.createTempFile("IFDOffsetIndexTest", ".dir");
+    directory.delete();
+    directory.mkdir();
+
+    writeFile(false);
+    IFDOffsetIndex.setDirectory(directory);
+  }
+
+  private void writeFile(boolean bigTiff) throws Exception {
+    file.delete();
+    TiffSaver saver = new TiffSaver(file.getAbsolutePath());
+    saver.setBigTiff(bigTiff);
+    saver.writeHeader();
+    for (int i=0; i<PLANES; i++) {
+      IFD ifd = new IFD();
+      ifd.put(IFD.IMAGE_WIDTH, WIDTH);
+      ifd.put(IFD.IMAGE_LENGTH, HEIGHT);
+      ifd.put(IFD.ROWS_PER_STRIP, 2);
+      saver.writeImage(new byte[WIDTH * HEIGHT], ifd, i, FormatTools.UINT8,
+        i == PLANES - 1);
+    }
+    saver.close();
+  }
+
+  /**
+   * Writes a single 4x4 plane with one strip per row, whose strip byte
+   * counts are stored as SHORT values.
+   */
+  private void writeShortByteCounts() throws Exception {
+    ByteBuffer buf = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    buf.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+    int entries = 8;
+    int values = 8 + 2 + entries * 12 + 4;
+    int pixels = values + 4 * 4 + 4 * 2;
+    buf.putShort((short) entries);
+    putEntry(buf, IFD.IMAGE_WIDTH, IFDType.SHORT, 1, 4);
+    putEntry(buf, IFD.IMAGE_LENGTH, IFDType.SHORT, 1, 4);
+    putEntry(buf, IFD.BITS_PER_SAMPLE, IFDType.SHORT, 1, 8);
+    putEntry(buf, IFD.COMPRESSION, IFDType.SHORT, 1, 1);
+    putEntry(buf, IFD.PHOTOMETRIC_INTERPRETATION, IFDType.SHORT, 1, 1);
+    putEntry(buf, IFD.STRIP_OFFSETS, IFDType.LONG, 4, values);
+    putEntry(buf, IFD.ROWS_PER_STRIP, IFDType.SHORT, 1, 1);
+    putEntry(buf, IFD.STRIP_BYTE_COUNTS, IFDType.SHORT, 4, values + 16);
+    buf.putInt(0);
+    for (int i=0; i<4; i++) buf.putInt(pixels + 4 * i);
+    for (int i=0; i<4; i++) buf.putShort((short) 4);
+    buf.put(new byte[16]);
+
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(buf.array(), 0, buf.position());
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static void putEntry(ByteBuffer buf, int tag, IFDType type,
+    int count, int value)
+  {
+    buf.putShort((short) tag).putShort((short) type.getCode()).putInt(count);
+    if (type == IFDType.SHORT && count == 1) {
+      buf.putShort((short) value).putShort((short) 0);
+    }
+    else {
+      buf.putInt(value);
+    }
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    IFDOffsetIndex.setDirectory(directory);
+    IFDOffsetIndex.getIndexFile(file.getAbsolutePath()).delete();
+    IFDOffsetIndex.setDirectory(null);
+    file.delete();
+  }
+
+  @Test
+  public void testDisabled() {
+    IFDOffsetIndex.setDirectory(null);
+    assertNull(IFDOffsetIndex.open(file.getAbsolutePath()));
+  }
+
+  @Test
+  public void testReaderCreatesIndex() throws Exception {
+    long[] expected = getOffsets(null);
+    long[][] stripOffsets = getStripOffsets(null);
+
+    MinimalTiffReader reader = new MinimalTiffReader();
+    reader.setId(file.getAbsolutePath());
+    reader.close();
+    assertTrue(IFDOffsetIndex.getIndexFile(file.getAbsolutePath()).exists());
+
+    IFDOffsetIndex index = IFDOffsetIndex.open(file.getAbsolutePath());
+    assertNotNull(index);
+    assertTrue(Arrays.equals(expected, index.getIFDOffsets()));
+    assertTrue(Arrays.equals(expected, getOffsets(index)));
+    long[][] indexed = getStripOffsets(index);
+    for (int i=0; i<PLANES; i++) {
+      assertTrue(Arrays.equals(stripOffsets[i], indexed[i]));
+    }
+    assertFalse(index.isModified());
+  }
+
+  @Test
+  public void testIndexedValuesReadOnDemand() throws Exception {
+    assertTrue(getValue(null, IFD.STRIP_OFFSETS) instanceof long[]);
+
+    IFDOffsetIndex index = IFDOffsetIndex.open(file.getAbsolutePath());
+    getStripOffsets(index);
+    index.save();
+
+    // only the position of each array is indexed, not its values
+    index = IFDOffsetIndex.open(file.getAbsolutePath());
+    assertTrue(getValue(index, IFD.STRIP_OFFSETS) instanceof OnDemandLongArray);
+    assertFalse(index.isModified());
+  }
+
+  @Test
+  public void testStaleIndex() throws Exception {
+    IFDOffsetIndex index = IFDOffsetIndex.open(file.getAbsolutePath());
+    getOffsets(index);
+    assertTrue(index.isModified());
+    index.save();
+    assertNotNull(
+      IFDOffsetIndex.open(file.getAbsolutePath()).getIFDOffsets());
+
+    file.setLastModified(file.lastModified() - 10000);
+    assertNull(IFDOffsetIndex.open(file.getAbsolutePath()).getIFDOffsets());
+  }
+
+  @Test
+  public void testBigTiff() throws Exception {
+    writeFile(true);
+    long[][] stripOffsets = getStripOffsets(null);
+    assertTrue(getValue(null, IFD.STRIP_OFFSETS) instanceof OnDemandLongArray);
+
+    IFDOffsetIndex index = IFDOffsetIndex.open(file.getAbsolutePath());
+    getStripOffsets(index);
+    assertTrue(index.isModified());
+    index.save();
+
+    // indexed offsets are still read on demand from the file
+    index = IFDOffsetIndex.open(file.getAbsolutePath());
+    long[][] indexed = getStripOffsets(index);
+    for (int i=0; i<PLANES; i++) {
+      assertTrue(Arrays.equals(stripOffsets[i], indexed[i]));
+    }
+    assertTrue(getValue(index, IFD.STRIP_OFFSETS) instanceof OnDemandLongArray);
+    assertFalse(index.isModified());
+  }
+
+  @Test
+  public void testShortValues() throws Exception {
+    writeShortByteCounts();
+    Object parsed = getValue(null, IFD.STRIP_BYTE_COUNTS);
+    assertTrue(parsed instanceof int[]);
+
+    IFDOffsetIndex index = IFDOffsetIndex.open(file.getAbsolutePath());
+    getValue(index, IFD.STRIP_BYTE_COUNTS);
+    assertFalse(index.hasValues(8 + 2 + 8 * 12 + 4 + 16, 4));
+    assertTrue(index.hasValues(8 + 2 + 8 * 12 + 4, 4));
+
+    // SHORT values are not indexed, and keep their type
+    Object indexed = getValue(index, IFD.STRIP_BYTE_COUNTS);
+    assertTrue(indexed instanceof int[]);
+    assertTrue(Arrays.equals((int[]) parsed, (int[]) indexed));
+  }
+
+  private long[] getOffsets(IFDOffsetIndex index) throws Exception {
+    RandomAccessInputStream in =
+      new RandomAccessInputStream(file.getAbsolutePath());
+    try {
+      TiffParser parser = new TiffParser(in);
+      parser.setOffsetIndex(index);
+      return parser.getIFDOffsets();
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /** Gets the value of the given tag in the first IFD, as parsed. */
+  private Object getValue(IFDOffsetIndex index, int tag) throws Exception {
+    RandomAccessInputStream in =
+      new RandomAccessInputStream(file.getAbsolutePath());
+    try {
+      TiffParser parser = new TiffParser(in);
+      parser.setDoCaching(false);
+      parser.setOffsetIndex(index);
+      IFD ifd = parser.getIFD(parser.getIFDOffsets()[0]);
+      parser.fillInIFD(ifd);
+      return ifd.get(tag);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private long[][] getStripOffsets(IFDOffsetIndex index) throws Exception {
+    RandomAccessInputStream in =
+      new RandomAccessInputStream(file.getAbsolutePath());
+    try {
+      TiffParser parser = new TiffParser(in);
+      parser.setDoCaching(false);
+      parser.setOffsetIndex(index);
+      long[] offsets = parser.getIFDOffsets();
+      long[][] stripOffsets = new long[offsets.length][];
+      for (int i=0; i<offsets.length; i++) {
+        IFD ifd = parser.getIFD(offsets[i]);
+        parser.fillInIFD(ifd);
+        stripOffsets[i] = ifd.getStripOffsets();
+      }
+      return stripOffsets;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+}
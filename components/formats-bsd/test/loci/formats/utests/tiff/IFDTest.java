@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import loci.formats.tiff.IFD;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the IFD map implementation.
+ */
+public class IFDTest {
+
+  @Test
+  public void testPrimitiveValues() throws Exception {
+    IFD ifd = new IFD();
+    ifd.putIFDValue(IFD.LITTLE_ENDIAN, true);
+    ifd.putIFDValue(IFD.IMAGE_WIDTH, 512);
+    ifd.putIFDValue(IFD.IMAGE_LENGTH, 4096L);
+    ifd.putIFDValue(IFD.FILL_ORDER, (short) 1);
+
+    assertTrue(ifd.isLittleEndian());
+    assertEquals(Integer.valueOf(512), ifd.get(IFD.IMAGE_WIDTH));
+    assertEquals(Long.valueOf(4096), ifd.get(IFD.IMAGE_LENGTH));
+    assertEquals(Short.valueOf((short) 1), ifd.get(IFD.FILL_ORDER));
+    assertEquals(512, ifd.getIFDIntValue(IFD.IMAGE_WIDTH));
+    assertEquals(4096, ifd.getImageLength());
+    assertEquals(-1, ifd.getIFDIntValue(IFD.TILE_WIDTH));
+    assertNull(ifd.get("not a tag"));
+  }
+
+  @Test
+  public void testMapSemantics() {
+    IFD ifd = new IFD(0);
+    Map<Integer, Object> expected = new HashMap<Integer, Object>();
+    int[] tags = {IFD.SOFTWARE, IFD.IMAGE_WIDTH, IFD.BIG_TIFF, IFD.MAKE};
+    Object[] values = {"sw", 10, false, new long[] {1, 2}};
+    for (int i=0; i<tags.length; i++) {
+      assertNull(ifd.put(tags[i], values[i]));
+      expected.put(tags[i], values[i]);
+    }
+    assertEquals("sw", ifd.put(IFD.SOFTWARE, "other"));
+    expected.put(IFD.SOFTWARE, "other");
+
+    assertEquals(expected, ifd);
+    assertEquals(expected.hashCode(), ifd.hashCode());
+
+    // entries are iterated in ascending tag order
+    int previous = -1;
+    for (Integer tag : ifd.keySet()) {
+      assertTrue(tag > previous);
+      previous = tag;
+    }
+
+    assertEquals(10, ifd.remove(IFD.IMAGE_WIDTH));
+    assertFalse(ifd.containsKey(IFD.IMAGE_WIDTH));
+    Iterator<Integer> it = ifd.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next() == IFD.MAKE) it.remove();
+    }
+    assertEquals(2, ifd.size());
+
+    IFD copy = new IFD(ifd);
+    copy.put(IFD.MAKE, "maker");
+    assertFalse(ifd.containsKey(IFD.MAKE));
+    assertEquals(3, copy.size());
+
+    IFD clone = (IFD) copy.clone();
+    clone.putAll(ifd);
+    assertEquals(copy, clone);
+
+    ifd.clear();
+    assertTrue(ifd.isEmpty());
+  }
+
+  @Test
+  public void testValuesStoredByReference() throws Exception {
+    Map<Integer, Object> map = new IFD();
+    long[] counts = {1, 2, 3};
+    map.put(IFD.STRIP_BYTE_COUNTS, counts);
+    ((long[]) map.get(IFD.STRIP_BYTE_COUNTS))[0] = 5;
+    assertEquals(5, ((IFD) map).getIFDLongArray(IFD.STRIP_BYTE_COUNTS)[0]);
+
+    Map.Entry<Integer, Object> entry = map.entrySet().iterator().next();
+    assertEquals(counts, entry.setValue("replaced"));
+    assertEquals("replaced", map.get(IFD.STRIP_BYTE_COUNTS));
+    assertNull(map.remove(IFD.TILE_BYTE_COUNTS));
+    assertEquals("replaced", map.remove(IFD.STRIP_BYTE_COUNTS));
+    assertTrue(map.isEmpty());
+  }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import loci.common.services.ServiceFactory;
+import loci.formats.FormatException;
+import loci.formats.in.MinimalTiffReader;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.out.TiffWriter;
+import loci.formats.services.OMEXMLService;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffJournal;
+
+import ome.xml.model.enums.DimensionOrder;
+import ome.xml.model.enums.PixelType;
+import ome.xml.model.primitives.PositiveInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for resuming interrupted TIFF writing with {@link TiffJournal}.
+ */
+public class TiffJournalTest {
+
+  private static final int PLANES = 2;
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  private static final int TILE_SIZE = 16;
+  private static final int TILES_X = WIDTH / TILE_SIZE;
+  private static final int TILES = TILES_X * (HEIGHT / TILE_SIZE);
+
+  private File file;
+  private File journal;
+  private OMEXMLMetadata metadata;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    file = File.createTempFile("TiffJournalTest", ".tif");
+    file.delete();
+    journal = new File(TiffJournal.getJournalFile(file.getAbsolutePath()));
+
+    ServiceFactory sf = new ServiceFactory();
+    OMEXMLService service = sf.getInstance(OMEXMLService.class);
+    metadata = service.createOMEXMLMetadata();
+    metadata.setImageID("Image:0", 0);
+    metadata.setPixelsID("Pixels:0", 0);
+    metadata.setPixelsDimensionOrder(DimensionOrder.XYZCT, 0);
+    metadata.setPixelsSizeX(new PositiveInteger(WIDTH), 0);
+    metadata.setPixelsSizeY(new PositiveInteger(HEIGHT), 0);
+    metadata.setPixelsSizeZ(new PositiveInteger(PLANES), 0);
+    metadata.setPixelsSizeC(new PositiveInteger(1), 0);
+    metadata.setPixelsSizeT(new PositiveInteger(1), 0);
+    metadata.setPixelsType(PixelType.UINT8, 0);
+    metadata.setPixelsBinDataBigEndian(true, 0, 0);
+    metadata.setChannelID("Channel:0:0", 0, 0);
+    metadata.setChannelSamplesPerPixel(new PositiveInteger(1), 0, 0);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    file.delete();
+    journal.delete();
+  }
+
+  @Test
+  public void testResumeTiledPlane() throws Exception {
+    // write the first plane and part of the second, then stop
+    TiffWriter writer = createWriter(false);
+    writeTiles(writer, 0, 0, TILES);
+    writeTiles(writer, 1, 0, 5);
+    writer.close();
+    assertTrue(journal.exists());
+
+    // data written after the last checkpoint is discarded when resuming
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(raf.length());
+      raf.write(new byte[1000]);
+    }
+    finally {
+      raf.close();
+    }
+
+    writer = createWriter(true);
+    assertTrue(writer.isPlaneWritten(0));
+    assertFalse(writer.isPlaneWritten(1));
+    assertTrue(writer.isTileWritten(1, 0, TILE_SIZE));
+    assertFalse(writer.isTileWritten(1, TILE_SIZE, TILE_SIZE));
+    writeTiles(writer, 1, 5, TILES);
+    writer.close();
+    assertFalse(journal.exists());
+
+    assertPixels();
+  }
+
+  @Test
+  public void testResumeAbandonedWriter() throws Exception {
+    // stop writing without closing, so nothing is flushed by close()
+    TiffWriter abandoned = createWriter(false);
+    writeTiles(abandoned, 0, 0, TILES);
+    writeTiles(abandoned, 1, 0, 5);
+    assertTrue(journal.exists());
+
+    TiffWriter writer = createWriter(true);
+    assertTrue(writer.isPlaneWritten(0));
+    assertTrue(writer.isTileWritten(1, 0, TILE_SIZE));
+    assertFalse(writer.isTileWritten(1, TILE_SIZE, TILE_SIZE));
+    writeTiles(writer, 1, 5, TILES);
+    writer.close();
+    assertFalse(journal.exists());
+
+    assertPixels();
+  }
+
+  @Test
+  public void testResumeCompletePlanes() throws Exception {
+    TiffWriter writer = createWriter(false);
+    writeTiles(writer, 0, 0, TILES);
+    writer.close();
+
+    writer = createWriter(true);
+    assertTrue(writer.isPlaneWritten(0));
+    assertFalse(writer.isPlaneWritten(1));
+    assertFalse(writer.isTileWritten(1, 0, 0));
+    writeTiles(writer, 1, 0, TILES);
+    writer.close();
+    assertFalse(journal.exists());
+
+    assertPixels();
+  }
+
+  @Test
+  public void testCompleteFileHasNoJournal() throws Exception {
+    TiffWriter writer = createWriter(false);
+    writeTiles(writer, 0, 0, TILES);
+    writeTiles(writer, 1, 0, TILES);
+    writer.close();
+    assertFalse(journal.exists());
+
+    assertPixels();
+  }
+
+  @Test(expectedExceptions={FormatException.class})
+  public void testResumeWithoutJournal() throws Exception {
+    TiffWriter writer = createWriter(false);
+    writeTiles(writer, 0, 0, TILES);
+    writer.close();
+    journal.delete();
+
+    createWriter(true);
+  }
+
+  // -- Helper methods --
+
+  private TiffWriter createWriter(boolean resume) throws Exception {
+    TiffWriter writer = new TiffWriter();
+    writer.setMetadataRetrieve(metadata);
+    writer.setWriteSequentially(true);
+    writer.setTileSizeX(TILE_SIZE);
+    writer.setTileSizeY(TILE_SIZE);
+    writer.setCheckpointInterval(1);
+    writer.setResume(resume);
+    writer.setId(file.getAbsolutePath());
+    return writer;
+  }
+
+  /** Writes tiles [start, end) of the given plane, in row order. */
+  private void writeTiles(TiffWriter writer, int no, int start, int end)
+    throws Exception
+  {
+    // tiles of a plane share one IFD
+    IFD ifd = new IFD();
+    for (int tile=start; tile<end; tile++) {
+      int x = (tile % TILES_X) * TILE_SIZE;
+      int y = (tile / TILES_X) * TILE_SIZE;
+      writer.saveBytes(no, getTile(no, x, y), ifd, x, y, TILE_SIZE, TILE_SIZE);
+    }
+  }
+
+  private byte[] getTile(int no, int x, int y) {
+    byte[] tile = new byte[TILE_SIZE * TILE_SIZE];
+    for (int row=0; row<TILE_SIZE; row++) {
+      for (int col=0; col<TILE_SIZE; col++) {
+        tile[row * TILE_SIZE + col] = getPixel(no, x + col, y + row);
+      }
+    }
+    return tile;
+  }
+
+  private byte getPixel(int no, int x, int y) {
+    return (byte) (no * 97 + y * 7 + x);
+  }
+
+  private void assertPixels() throws Exception {
+    MinimalTiffReader reader = new MinimalTiffReader();
+    try {
+      reader.setId(file.getAbsolutePath());
+      assertEquals(PLANES, reader.getImageCount());
+      for (int no=0; no<PLANES; no++) {
+        byte[] plane = reader.openBytes(no);
+        assertNotNull(plane);
+        byte[] expected = new byte[WIDTH * HEIGHT];
+        for (int y=0; y<HEIGHT; y++) {
+          for (int x=0; x<WIDTH; x++) {
+            expected[y * WIDTH + x] = getPixel(no, x, y);
+          }
+        }
+        assertTrue("plane " + no, Arrays.equals(expected, plane));
+      }
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+}
@@ -40,6 +40,7 @@ import static org.testng.AssertJUnit.fail;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
 
 import loci.formats.FormatException;
 import loci.formats.tiff.IFD;
@@ -198,5 +199,19 @@ public class TiffParserTest {
     mock.close();
   }
 
+  @Test
+  public void testDeferredValuesMatchFillIn() throws IOException {
+    long offset = tiffParser.getFirstOffset();
+    IFD cached = tiffParser.getIFD(offset);
+    tiffParser.setDoCaching(false);
+    IFD filled = tiffParser.getIFD(offset);
+    tiffParser.fillInIFD(filled);
+    assertEquals(cached.keySet(), filled.keySet());
+    for (Integer tag : cached.keySet()) {
+      assertTrue(Arrays.deepEquals(
+        new Object[] {cached.get(tag)}, new Object[] {filled.get(tag)}));
+    }
+  }
+
   // TODO: Test wrong type exceptions
 }
@@ -0,0 +1,250 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2017 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.in.MinimalTiffReader;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffSaver;
+import loci.formats.tiff.TileCodec;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for reading and writing compressed tiles with {@link TileCodec}.
+ */
+public class TileCodecTest {
+
+  private static final int PLANES = 2;
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  private static final int TILE_SIZE = 32;
+
+  private File file;
+
+  @BeforeClass
+  public void setUp() throws Exception {
+    file = File.createTempFile("TileCodecTest", ".tif");
+    TiffSaver saver = new TiffSaver(file.getAbsolutePath());
+    saver.writeHeader();
+    for (int i=0; i<PLANES; i++) {
+      saver.writeImage(getPlane(i), newIFD(TiffCompression.LZW), i,
+        FormatTools.UINT8, i == PLANES - 1);
+    }
+    saver.close();
+  }
+
+  @AfterClass
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testGetTileCodec() throws Exception {
+    MinimalTiffReader reader = new MinimalTiffReader();
+    reader.setId(file.getAbsolutePath());
+    try {
+      TileCodec codec = reader.getTileCodec(0);
+      assertNotNull(codec);
+      assertEquals(TiffCompression.LZW, codec.getCompression());
+      assertTrue(codec.isTiled());
+      assertEquals(TILE_SIZE, codec.getTileWidth());
+      assertEquals(TILE_SIZE, codec.getTileLength());
+      assertEquals(1, codec.getSamplesPerPixel());
+      assertTrue(Arrays.equals(new int[] {8}, codec.getBitsPerSample()));
+      assertTrue(codec.isCompatible(reader.getTileCodec(1)));
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testIncompatibleCodec() throws Exception {
+    IFD lzw = newIFD(TiffCompression.LZW);
+    lzw.put(IFD.BITS_PER_SAMPLE, new int[] {8});
+    IFD uncompressed = newIFD(TiffCompression.UNCOMPRESSED);
+    uncompressed.put(IFD.BITS_PER_SAMPLE, new int[] {8});
+    IFD wide = newIFD(TiffCompression.LZW);
+    wide.put(IFD.BITS_PER_SAMPLE, new int[] {16});
+
+    TileCodec codec = TileCodec.fromIFD(lzw);
+    assertTrue(codec.isCompatible(TileCodec.fromIFD(lzw)));
+    assertFalse(codec.isCompatible(TileCodec.fromIFD(uncompressed)));
+    assertFalse(codec.isCompatible(TileCodec.fromIFD(wide)));
+    assertFalse(codec.isCompatible(null));
+  }
+
+  @Test
+  public void testCopyCompressedTiles() throws Exception {
+    File copy = File.createTempFile("TileCodecTest", ".tif");
+    MinimalTiffReader reader = new MinimalTiffReader();
+    MinimalTiffReader copyReader = new MinimalTiffReader();
+    try {
+      reader.setId(file.getAbsolutePath());
+      TileCodec codec = reader.getTileCodec(0);
+      int rows = (HEIGHT + TILE_SIZE - 1) / TILE_SIZE;
+      int cols = (WIDTH + TILE_SIZE - 1) / TILE_SIZE;
+
+      TiffSaver saver = new TiffSaver(copy.getAbsolutePath());
+      saver.writeHeader();
+      IFD ifd = newIFD(null);
+      for (int row=0; row<rows; row++) {
+        for (int col=0; col<cols; col++) {
+          byte[] tile = reader.openCompressedTile(0, row, col);
+          assertNotNull(tile);
+          saver.writeCompressedTile(tile, ifd, codec, 0, FormatTools.UINT8,
+            col * TILE_SIZE, row * TILE_SIZE, true);
+        }
+      }
+      saver.close();
+
+      copyReader.setId(copy.getAbsolutePath());
+      assertEquals(1, copyReader.getImageCount());
+      assertTrue(codec.isCompatible(copyReader.getTileCodec(0)));
+      assertTrue(Arrays.equals(getPlane(0), copyReader.openBytes(0)));
+      for (int row=0; row<rows; row++) {
+        for (int col=0; col<cols; col++) {
+          assertTrue(Arrays.equals(reader.openCompressedTile(0, row, col),
+            copyReader.openCompressedTile(0, row, col)));
+        }
+      }
+    }
+    finally {
+      reader.close();
+      copyReader.close();
+      copy.delete();
+    }
+  }
+
+  @Test
+  public void testCompressTiles() throws Exception {
+    File copy = File.createTempFile("TileCodecTest", ".tif");
+    MinimalTiffReader copyReader = new MinimalTiffReader();
+    try {
+      TiffSaver saver = new TiffSaver(copy.getAbsolutePath());
+      saver.writeHeader();
+      IFD ifd = newIFD(TiffCompression.LZW);
+      TileCodec codec = saver.getTileCodec(ifd, FormatTools.UINT8, 1);
+      byte[] plane = getPlane(1);
+      int rows = (HEIGHT + TILE_SIZE - 1) / TILE_SIZE;
+      int cols = (WIDTH + TILE_SIZE - 1) / TILE_SIZE;
+      for (int row=0; row<rows; row++) {
+        for (int col=0; col<cols; col++) {
+          int x = col * TILE_SIZE;
+          int y = row * TILE_SIZE;
+          int w = Math.min(TILE_SIZE, WIDTH - x);
+          int h = Math.min(TILE_SIZE, HEIGHT - y);
+          byte[] tile = new byte[w * h];
+          for (int r=0; r<h; r++) {
+            System.arraycopy(plane, (y + r) * WIDTH + x, tile, r * w, w);
+          }
+          saver.writeCompressedTile(saver.compressTile(tile, codec, w, h),
+            ifd, codec, 0, FormatTools.UINT8, x, y, true);
+        }
+      }
+      saver.close();
+
+      copyReader.setId(copy.getAbsolutePath());
+      assertTrue(codec.isCompatible(copyReader.getTileCodec(0)));
+      assertTrue(Arrays.equals(plane, copyReader.openBytes(0)));
+    }
+    finally {
+      copyReader.close();
+      copy.delete();
+    }
+  }
+
+  @Test(expectedExceptions={ FormatException.class })
+  public void testUnalignedTile() throws Exception {
+    File copy = File.createTempFile("TileCodecTest", ".tif");
+    MinimalTiffReader reader = new MinimalTiffReader();
+    try {
+      reader.setId(file.getAbsolutePath());
+      TiffSaver saver = new TiffSaver(copy.getAbsolutePath());
+      saver.writeHeader();
+      saver.writeCompressedTile(reader.openCompressedTile(0, 0, 0),
+        newIFD(null), reader.getTileCodec(0), 0, FormatTools.UINT8,
+        1, 0, true);
+    }
+    finally {
+      reader.close();
+      copy.delete();
+    }
+  }
+
+  @Test(expectedExceptions={ FormatException.class })
+  public void testInvalidTile() throws Exception {
+    MinimalTiffReader reader = new MinimalTiffReader();
+    try {
+      reader.setId(file.getAbsolutePath());
+      reader.openCompressedTile(0, HEIGHT / TILE_SIZE + 1, 0);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  private IFD newIFD(TiffCompression compression) {
+    IFD ifd = new IFD();
+    ifd.put(IFD.IMAGE_WIDTH, WIDTH);
+    ifd.put(IFD.IMAGE_LENGTH, HEIGHT);
+    ifd.put(IFD.TILE_WIDTH, TILE_SIZE);
+    ifd.put(IFD.TILE_LENGTH, TILE_SIZE);
+    if (compression != null) {
+      ifd.put(IFD.COMPRESSION, compression.getCode());
+    }
+    return ifd;
+  }
+
+  private byte[] getPlane(int no) {
+    byte[] plane = new byte[WIDTH * HEIGHT];
+    for (int i=0; i<plane.length; i++) {
+      plane[i] = (byte) ((i % WIDTH) + (i / WIDTH) * no);
+    }
+    return plane;
+  }
+
+}
@@ -243,6 +243,22 @@ public class SVSReader extends BaseTiffReader {
     return super.getOptimalTileHeight();
   }
 
+  // -- Internal MinimalTiffReader API methods --
+
+  /* @see loci.formats.in.MinimalTiffReader#getCompressedTileIFD(int) */
+  @Override
+  protected IFD getCompressedTileIFD(int no)
+    throws FormatException, IOException
+  {
+    IFD ifd =
+      core.size() == 1 ? ifds.get(no) : ifds.get(ifdmap[getCoreIndex()]);
+    int bits = ifd.getBitsPerSample()[0];
+    if (bits != FormatTools.getBytesPerPixel(getPixelType()) * 8) {
+      return null;
+    }
+    return ifd;
+  }
+
   // -- Internal BaseTiffReader API methods --
 
   /* @see loci.formats.BaseTiffReader#initStandardMetadata() */
@@ -0,0 +1,13 @@
+@echo off
+
+rem bfconvertbatch: a script for converting all datasets in a manifest
+rem                 or under one or more directories
+
+rem Required JARs: loci_tools.jar or bioformats_package.jar
+
+setlocal
+set BF_DIR=%~dp0
+if "%BF_DIR:~-1%" == "\" set BF_DIR=%BF_DIR:~0,-1%
+
+set BF_PROG=loci.formats.tools.BatchConverter
+call "%BF_DIR%\bf.bat" %*
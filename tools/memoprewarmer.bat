@@ -0,0 +1,13 @@
+@echo off
+
+rem memoprewarmer: a script for generating memo files for all datasets
+rem                under one or more directories
+
+rem Required JARs: loci_tools.jar or bioformats_package.jar
+
+setlocal
+set BF_DIR=%~dp0
+if "%BF_DIR:~-1%" == "\" set BF_DIR=%BF_DIR:~0,-1%
+
+set BF_PROG=loci.formats.tools.MemoPrewarmer
+call "%BF_DIR%\bf.bat" %*